@@ -1,50 +1,134 @@
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
-import com.google.gson.Gson;
+import skiresort.client.BatchingSender;
+import skiresort.client.FailureReporter;
+import skiresort.client.RetryPolicy;
+import skiresort.client.RetryingSender;
+import skiresort.common.LatencyRecorder;
+import skiresort.common.metrics.MetricsRegistry;
+import skiresort.common.LiftRide;
+import skiresort.common.LiftRideJsonCodec;
+import skiresort.common.Settings;
 
 public class HttpClientService {
-    private static final int MAX_RETRIES = 5;  // Maximum retry attempts
+    private static final int MAX_ATTEMPTS = 5;  // Maximum attempts per ride, the first one included
+    private static final long BASE_BACKOFF_MS = 50;  // First retry waits up to this long; doubles per retry
+    private static final long MAX_BACKOFF_MS = 2000;  // Longest wait between two attempts (unless Retry-After asks for more)
+    private static final double RETRY_BUDGET_RATIO = 0.2;  // Retries may add at most this share to the requests sent
+    private static final int RETRY_BUDGET_BURST = 100;  // Retries allowed before the budget has been earned
+    private static final int BREAKER_FAILURE_THRESHOLD = 50;  // Consecutive failures that open the server's circuit
+    private static final long BREAKER_OPEN_MS = 1000;  // How long an open circuit rejects requests before probing
+    private static final long FAILURE_REPORT_INTERVAL_MS = 5000;  // Failures are summarised at most this often
+    static final int BATCH_SIZE = 100;  // Rides per POST /skiers/bulk in batch mode, at most 1000
+    private static final long BATCH_LINGER_MS = 5;  // How long a ride waits for its batch to fill
+    private static final URI SERVER_URI = URI.create(Settings.string("server.url", "http://35.82.154.244:8080/Server_war/skiers"));
     private static final HttpClient client = HttpClient.newBuilder()
             .version(HttpClient.Version.HTTP_1_1)
             .followRedirects(HttpClient.Redirect.NORMAL)
             .build();
+    private static final FailureReporter failures = new FailureReporter(FAILURE_REPORT_INTERVAL_MS, System.out::println);
+    private static final RetryingSender sender = new RetryingSender(client, new RetryPolicy(MAX_ATTEMPTS, BASE_BACKOFF_MS,
+            MAX_BACKOFF_MS, RETRY_BUDGET_RATIO, RETRY_BUDGET_BURST, BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MS), failures);
+    private static final BatchingSender batcher = new BatchingSender(sender, URI.create(SERVER_URI + "/bulk"),
+            BATCH_SIZE, BATCH_LINGER_MS);
+    // Each sending thread encodes into its own buffer; sendRequest finishes with it before returning
+    private static final ThreadLocal<byte[]> bodyBuffer = ThreadLocal.withInitial(() -> new byte[LiftRideJsonCodec.MAX_ENCODED_LENGTH]);
 
-    public static void sendRequest(LiftRide ride, AtomicInteger successCount, AtomicInteger failCount, List<Long> latencies) {
-        int retries = 0;
-        long requestStartTime = System.currentTimeMillis();
+    public static void sendRequest(LiftRide ride, AtomicInteger successCount, AtomicInteger failCount, LatencyRecorder latencies) {
+        long requestStartTime = System.nanoTime();
 
-        // Build POST request
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("http://35.82.154.244:8080/Server_war/skiers"))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(new Gson().toJson(ride)))
-                .build();
+        byte[] body = bodyBuffer.get();
+        int bodyLength = LiftRideJsonCodec.encode(ride, body, 0);
 
-        while (retries < MAX_RETRIES) {
-            try {
-                // Send request and get response
-                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-                long requestEndTime = System.currentTimeMillis();
-                long latency = requestEndTime - requestStartTime;  // Calculate latency
-
-                if (response.statusCode() == 201) {
-                    successCount.incrementAndGet();
-                    latencies.add(latency);  // Add latency to the list
-                    return;  // Exit the method after success
-                } else {
-                    retries++;
-                    System.out.println("Request failed with status code: " + response.statusCode() + ", Retrying... (" + retries + ")");
-                }
-            } catch (Exception e) {
-                retries++;
-                System.out.println("Error sending request: " + e.getMessage() + ", Retrying... (" + retries + ")");
-            }
+        boolean sent;
+        try {
+            sent = sender.send(buildRequest(body, bodyLength));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sent = false;
+        }
+
+        if (sent) {
+            successCount.incrementAndGet();
+            latencies.recordNanos(System.nanoTime() - requestStartTime);
+        } else {
+            failCount.incrementAndGet();  // Out of attempts or retry budget, or rejected by the server
         }
+    }
+
+    /**
+     * Sends the ride with {@link HttpClient#sendAsync}, retrying the same way as
+     * {@link #sendRequest}, without blocking the calling thread.
+     *
+     * @param startNanos {@link System#nanoTime} the latency is measured from; in open-loop mode
+     *                   this is when the request was due, not when it was actually sent
+     * @return completes once the ride succeeded or failed for good; never exceptionally
+     */
+    public static CompletableFuture<Void> sendRequestAsync(LiftRide ride, long startNanos, AtomicInteger successCount,
+                                                           AtomicInteger failCount, LatencyRecorder latencies) {
+        // The body is read after this method returns, so it cannot share the thread's buffer
+        byte[] body = new byte[LiftRideJsonCodec.MAX_ENCODED_LENGTH];
+        int bodyLength = LiftRideJsonCodec.encode(ride, body, 0);
+        return sender.sendAsync(buildRequest(body, bodyLength)).thenAccept(sent -> {
+            if (sent) {
+                successCount.incrementAndGet();
+                latencies.recordNanos(System.nanoTime() - startNanos);
+            } else {
+                failCount.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Adds the ride to a batch for the bulk endpoint; the batch is sent once it holds
+     * {@code BATCH_SIZE} rides or {@code BATCH_LINGER_MS} after its first ride. The latency
+     * includes the time the ride waited for its batch.
+     *
+     * @return completes once the ride succeeded or failed for good; never exceptionally
+     */
+    public static CompletableFuture<Void> sendRequestBatched(LiftRide ride, long startNanos, AtomicInteger successCount,
+                                                             AtomicInteger failCount, LatencyRecorder latencies) {
+        return batcher.submit(ride).thenAccept(sent -> {
+            if (sent) {
+                successCount.incrementAndGet();
+                latencies.recordNanos(System.nanoTime() - startNanos);
+            } else {
+                failCount.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Sends the rides waiting for their batch to fill without waiting any longer.
+     */
+    public static void flushBatch() {
+        batcher.flush();
+    }
+
+    /**
+     * Adds the sender's attempt, retry and response status counts to {@code registry}.
+     */
+    public static void registerMetrics(MetricsRegistry registry) {
+        sender.registerMetrics(registry, "client");
+    }
+
+    /**
+     * Prints the failures not reported yet, and how many attempts and retries were made so far.
+     */
+    public static void reportFailures() {
+        failures.report();
+        System.out.println("Attempts since start: " + sender.getAttemptCount() + ", retries: " + sender.getRetryCount()
+                + ", circuit opened: " + sender.getCircuitOpenCount() + " times");
+    }
 
-        failCount.incrementAndGet();  // Increment failure count after retries exceed MAX_RETRIES
+    private static HttpRequest buildRequest(byte[] body, int bodyLength) {
+        return HttpRequest.newBuilder()
+                .uri(SERVER_URI)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body, 0, bodyLength))
+                .build();
     }
 }
@@ -1,30 +1,171 @@
+import org.HdrHistogram.Histogram;
+import skiresort.client.ConcurrencyLimit;
+import skiresort.client.LoadProfile;
+import skiresort.common.LatencyRecorder;
+import skiresort.common.LiftRide;
+import skiresort.common.Settings;
+import skiresort.common.metrics.MetricsHttpServer;
+import skiresort.common.metrics.MetricsRegistry;
+import skiresort.common.workload.LiftRideWorkload;
+
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Sends lift rides through the phases of a load profile in one or more execution modes and
+ * prints throughput and latency for every mode and phase, so they can be compared.
+ * <p>
+ * Usage: {@code SkierClient [--profile <file or phases>] [--workload <workload>] [--seed <n>]
+ * [mode...]}, where a mode is {@code platform}, {@code virtual}, {@code async}, {@code batch},
+ * {@code open-loop} or {@code all} (default {@code platform}) and the profile is described in
+ * {@link LoadProfile}. Without a profile, {@code TOTAL_REQUESTS} are sent in a single phase at
+ * the mode's default concurrency or rate. The workload is {@code uniform}, {@code skewed}
+ * (default) or {@code replay:<file>}, see {@link LiftRideWorkload}.
+ */
 public class SkierClient {
     private static final int TOTAL_REQUESTS = 200000;
-    private static final int NUM_THREADS = 256;  // Adjust number of threads
-    private static final int NUM_REQUESTS = TOTAL_REQUESTS / NUM_THREADS;  // Each thread sends more requests to reach 200,000
-    private static final AtomicInteger successCount = new AtomicInteger(0);
-    private static final AtomicInteger failCount = new AtomicInteger(0);
-    private static final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());  // Store latencies
+    private static final int NUM_THREADS = 256;  // Adjust number of threads (platform mode)
+    private static final int MAX_IN_FLIGHT = 256;  // Concurrent requests in virtual and async mode
+    private static final int TARGET_RATE = 2000;  // Requests started per second in open-loop mode
+    private static final int OPEN_LOOP_MAX_IN_FLIGHT = 4096;  // Guards sockets if the server stops answering
+    private static final int REPORT_INTERVAL_SECONDS = 10;  // Throughput and percentiles are printed this often during a run
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(10);  // Longer latencies are recorded as this
+    private static final int METRICS_PORT = Settings.integer("client.metrics.port", -1);  // Serves GET /metrics during the run when set, e.g. 9465
+
+    enum Mode {
+        /** One platform thread per unit of concurrency, each blocking in client.send. */
+        PLATFORM,
+        /** One virtual thread per request. */
+        VIRTUAL,
+        /** client.sendAsync from a single thread. */
+        ASYNC,
+        /**
+         * Like ASYNC, but rides are coalesced into POST /skiers/bulk batches of up to BATCH_SIZE;
+         * the concurrency counts batches in flight.
+         */
+        BATCH,
+        /**
+         * Requests start at a fixed rate whether or not earlier ones have answered, and latency is
+         * measured from when each was due, so a server stall shows up in every request it delayed.
+         * Phases given as a concurrency run at TARGET_RATE in this mode.
+         */
+        OPEN_LOOP
+    }
+
+    private record PhaseResult(Mode mode, LoadProfile.Phase phase, int success, int fail, long totalTimeMillis,
+                               Histogram latencies) {}
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        LoadProfile profile = null;
+        String workload = "skewed";
+        long seed = LiftRideGenerator.SEED;
+        List<Mode> modes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--profile") && i + 1 < args.length) {
+                profile = LoadProfile.fromArgument(args[++i]);
+            } else if (args[i].equals("--workload") && i + 1 < args.length) {
+                workload = args[++i];
+            } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equalsIgnoreCase("all")) {
+                modes.addAll(List.of(Mode.values()));
+            } else {
+                modes.add(Mode.valueOf(args[i].toUpperCase().replace('-', '_')));
+            }
+        }
+        if (modes.isEmpty()) {
+            modes.add(Mode.PLATFORM);
+        }
+        LiftRideGenerator.use(LiftRideWorkload.fromArgument(workload, seed));
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        HttpClientService.registerMetrics(metrics);
+        metrics.registerMBean("skiresort.client:type=Metrics");
+        MetricsHttpServer metricsServer = METRICS_PORT >= 0 ? MetricsHttpServer.start(metrics, METRICS_PORT) : null;
+
+        List<PhaseResult> results = new ArrayList<>();
+        for (Mode mode : modes) {
+            for (LoadProfile.Phase phase : (profile != null ? profile : defaultProfile(mode)).phases()) {
+                PhaseResult result = runPhase(mode, phase);
+                printResult(result);
+                results.add(result);
+            }
+        }
+        if (results.size() > 1) {
+            printComparison(results);
+        }
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+    }
+
+    private static LoadProfile defaultProfile(Mode mode) {
+        return switch (mode) {
+            case PLATFORM -> LoadProfile.single("run", TOTAL_REQUESTS, NUM_THREADS);
+            case VIRTUAL, ASYNC -> LoadProfile.single("run", TOTAL_REQUESTS, MAX_IN_FLIGHT);
+            case BATCH -> LoadProfile.single("run", TOTAL_REQUESTS, MAX_IN_FLIGHT / HttpClientService.BATCH_SIZE + 1);
+            case OPEN_LOOP -> LoadProfile.singleOpenLoop("run", TOTAL_REQUESTS, TARGET_RATE);
+        };
+    }
+
+    private static PhaseResult runPhase(Mode mode, LoadProfile.Phase phase) throws InterruptedException {
+        AtomicInteger successCount = new AtomicInteger(0);
+        AtomicInteger failCount = new AtomicInteger(0);
+        LatencyRecorder latencies = new LatencyRecorder(MAX_LATENCY_NANOS);
+        String label = mode + "/" + phase.name();
+        MetricsRegistry.global().register("client.request", latencies);
 
-    public static void main(String[] args) throws InterruptedException {
+        System.out.println("Running " + label + "...");
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> System.out.println(label + ": " + latencies.intervalSummary()),
+                REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
         // Record start time
         long startTime = System.currentTimeMillis();
 
+        if (phase.isOpenLoop() || mode == Mode.OPEN_LOOP) {
+            runOpenLoop(phase.isOpenLoop() ? phase.rate() : TARGET_RATE, phase.requests(), successCount, failCount, latencies);
+        } else {
+            switch (mode) {
+                case PLATFORM -> runPlatformThreads(phase, successCount, failCount, latencies);
+                case VIRTUAL -> runVirtualThreads(phase, successCount, failCount, latencies);
+                case ASYNC -> runAsync(phase, successCount, failCount, latencies);
+                case BATCH -> runBatched(phase, successCount, failCount, latencies);
+            }
+        }
+
+        // Record end time and calculate total duration
+        long totalTime = System.currentTimeMillis() - startTime;
+        reporter.shutdown();
+        reporter.awaitTermination(1, TimeUnit.MINUTES);
+        HttpClientService.reportFailures();
+        return new PhaseResult(mode, phase, successCount.get(), failCount.get(), totalTime, latencies.total());
+    }
+
+    private static void runPlatformThreads(LoadProfile.Phase phase, AtomicInteger successCount, AtomicInteger failCount,
+                                           LatencyRecorder latencies) throws InterruptedException {
         // Create a thread pool, using a fixed size to avoid excessive concurrency
-        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(phase.maxConcurrency());
+        ConcurrencyLimit limit = new ConcurrencyLimit(phase.startConcurrency());
+        // Threads take requests from one counter, so exactly phase.requests() are sent
+        AtomicInteger nextRequest = new AtomicInteger();
 
-        for (int i = 0; i < NUM_THREADS; i++) {
+        for (int i = 0; i < phase.maxConcurrency(); i++) {
             executor.submit(() -> {
                 try {
-                    for (int j = 0; j < NUM_REQUESTS; j++) {
+                    int request;
+                    while ((request = nextRequest.getAndIncrement()) < phase.requests()) {
+                        rampTo(limit, phase, request);
                         LiftRide ride = LiftRideGenerator.generateLiftRide();
-                        HttpClientService.sendRequest(ride, successCount, failCount, latencies);
+                        limit.acquire();
+                        try {
+                            HttpClientService.sendRequest(ride, successCount, failCount, latencies);
+                        } finally {
+                            limit.release();
+                        }
                     }
                 } catch (Exception e) {
                     System.out.println("Error in thread: " + e.getMessage());
@@ -32,6 +173,128 @@ public class SkierClient {
             });
         }
 
+        awaitTermination(executor);
+    }
+
+    private static void runVirtualThreads(LoadProfile.Phase phase, AtomicInteger successCount, AtomicInteger failCount,
+                                          LatencyRecorder latencies) throws InterruptedException {
+        ExecutorService executor = newVirtualThreadExecutor();
+        ConcurrencyLimit limit = new ConcurrencyLimit(phase.startConcurrency());
+
+        for (int i = 0; i < phase.requests(); i++) {
+            rampTo(limit, phase, i);
+            LiftRide ride = LiftRideGenerator.generateLiftRide();
+            limit.acquire();
+            executor.submit(() -> {
+                try {
+                    HttpClientService.sendRequest(ride, successCount, failCount, latencies);
+                } finally {
+                    limit.release();
+                }
+            });
+        }
+
+        awaitTermination(executor);
+    }
+
+    private static void runAsync(LoadProfile.Phase phase, AtomicInteger successCount, AtomicInteger failCount,
+                                 LatencyRecorder latencies) throws InterruptedException {
+        ConcurrencyLimit limit = new ConcurrencyLimit(phase.startConcurrency());
+        CountDownLatch done = new CountDownLatch(phase.requests());
+
+        for (int i = 0; i < phase.requests(); i++) {
+            rampTo(limit, phase, i);
+            LiftRide ride = LiftRideGenerator.generateLiftRide();
+            limit.acquire();
+            HttpClientService.sendRequestAsync(ride, System.nanoTime(), successCount, failCount, latencies)
+                    .whenComplete((ignored, error) -> {
+                        limit.release();
+                        done.countDown();
+                    });
+        }
+
+        done.await();
+    }
+
+    private static void runBatched(LoadProfile.Phase phase, AtomicInteger successCount, AtomicInteger failCount,
+                                   LatencyRecorder latencies) throws InterruptedException {
+        // Limits rides, so a concurrency of n keeps about n full batches in flight
+        ConcurrencyLimit limit = new ConcurrencyLimit(phase.startConcurrency() * HttpClientService.BATCH_SIZE);
+        CountDownLatch done = new CountDownLatch(phase.requests());
+
+        for (int i = 0; i < phase.requests(); i++) {
+            int target = phase.concurrencyAt(i) * HttpClientService.BATCH_SIZE;
+            if (target != limit.getLimit()) {
+                limit.setLimit(target);
+            }
+            LiftRide ride = LiftRideGenerator.generateLiftRide();
+            if (!limit.tryAcquire()) {
+                HttpClientService.flushBatch();  // Don't let a partial batch linger while we wait
+                limit.acquire();
+            }
+            HttpClientService.sendRequestBatched(ride, System.nanoTime(), successCount, failCount, latencies)
+                    .whenComplete((ignored, error) -> {
+                        limit.release();
+                        done.countDown();
+                    });
+        }
+
+        HttpClientService.flushBatch();
+        done.await();
+    }
+
+    private static void runOpenLoop(int rate, int requests, AtomicInteger successCount, AtomicInteger failCount,
+                                    LatencyRecorder latencies) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(OPEN_LOOP_MAX_IN_FLIGHT);
+        CountDownLatch done = new CountDownLatch(requests);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        int lateStarts = 0;
+
+        for (int i = 0; i < requests; i++) {
+            long intendedStart = start + i * intervalNanos;
+            long wait;
+            while ((wait = intendedStart - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            LiftRide ride = LiftRideGenerator.generateLiftRide();
+            // Waiting here does not hide the stall: the latency still counts from intendedStart
+            if (!inFlight.tryAcquire()) {
+                lateStarts++;
+                inFlight.acquire();
+            }
+            HttpClientService.sendRequestAsync(ride, intendedStart, successCount, failCount, latencies)
+                    .whenComplete((ignored, error) -> {
+                        inFlight.release();
+                        done.countDown();
+                    });
+        }
+
+        done.await();
+        if (lateStarts > 0) {
+            System.out.println("Requests started late because " + OPEN_LOOP_MAX_IN_FLIGHT + " were in flight: " + lateStarts);
+        }
+    }
+
+    // Moves a ramping phase's limit to where it should be once `started` requests have started
+    private static void rampTo(ConcurrencyLimit limit, LoadProfile.Phase phase, int started) {
+        int target = phase.concurrencyAt(started);
+        if (target != limit.getLimit()) {
+            limit.setLimit(target);
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor is Java 21; the module is built for 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need Java 21, using a cached thread pool instead.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) throws InterruptedException {
         // Shut down thread pool and wait for all tasks to complete
         executor.shutdown();
         boolean tasksCompleted = executor.awaitTermination(10, TimeUnit.MINUTES);
@@ -39,45 +302,69 @@ public class SkierClient {
         if (!tasksCompleted) {
             System.out.println("Timeout occurred before all tasks completed.");
         }
+    }
 
-        // Record end time and calculate total duration
-        long endTime = System.currentTimeMillis();
-        long totalTime = endTime - startTime;
+    private static void printResult(PhaseResult result) {
+        LoadProfile.Phase phase = result.phase();
 
         // Print statistics
-        System.out.println("Number of threads: " + NUM_THREADS);
-        System.out.println("Total requests: " + TOTAL_REQUESTS);
-        System.out.println("Successful requests: " + successCount.get());
-        System.out.println("Failed requests: " + failCount.get());
-        System.out.println("Total time (ms): " + totalTime);
-        System.out.println("Throughput (requests/sec): " + (TOTAL_REQUESTS / (totalTime / 1000.0)));
+        System.out.println("Mode: " + result.mode() + ", phase: " + phase.name());
+        if (phase.isOpenLoop() || result.mode() == Mode.OPEN_LOOP) {
+            System.out.println("Target rate (requests/sec): " + (phase.isOpenLoop() ? phase.rate() : TARGET_RATE));
+        } else {
+            String concurrency = phase.startConcurrency() == phase.endConcurrency()
+                    ? String.valueOf(phase.startConcurrency())
+                    : phase.startConcurrency() + " to " + phase.endConcurrency();
+            System.out.println(switch (result.mode()) {
+                case PLATFORM -> "Number of threads: ";
+                case BATCH -> "Max batches in flight (" + HttpClientService.BATCH_SIZE + " rides each): ";
+                default -> "Max requests in flight: ";
+            } + concurrency);
+        }
+        System.out.println("Total requests: " + (result.success() + result.fail()));
+        System.out.println("Successful requests: " + result.success());
+        System.out.println("Failed requests: " + result.fail());
+        System.out.println("Total time (ms): " + result.totalTimeMillis());
+        System.out.println("Throughput (requests/sec): " + throughput(result));
 
         // Calculate and display latency statistics
-        calculateLatencyStatistics();
+        calculateLatencyStatistics(result.latencies());
+        System.out.println();
     }
 
-    // Method to calculate and display latency statistics
-    private static void calculateLatencyStatistics() {
-        // Sort latencies to calculate percentiles and median
-        List<Long> sortedLatencies = latencies.stream().sorted().toList();
+    private static void printComparison(List<PhaseResult> results) {
+        System.out.printf("%-24s %10s %8s %12s %10s %8s %8s %8s %8s%n",
+                "mode/phase", "requests", "failed", "req/sec", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (PhaseResult result : results) {
+            Histogram latencies = result.latencies();
+            System.out.printf("%-24s %10d %8d %12.1f %10.2f %8.2f %8.2f %8.2f %8.2f%n",
+                    result.mode() + "/" + result.phase().name(),
+                    result.success() + result.fail(), result.fail(), throughput(result),
+                    LatencyRecorder.millis(latencies.getMean()),
+                    LatencyRecorder.millis(latencies.getValueAtPercentile(50)),
+                    LatencyRecorder.millis(latencies.getValueAtPercentile(99)),
+                    LatencyRecorder.millis(latencies.getValueAtPercentile(99.9)),
+                    LatencyRecorder.millis(latencies.getMaxValue()));
+        }
+    }
 
-        if (sortedLatencies.isEmpty()) {
+    private static double throughput(PhaseResult result) {
+        return (result.success() + result.fail()) / (result.totalTimeMillis() / 1000.0);
+    }
+
+    // Method to calculate and display latency statistics
+    private static void calculateLatencyStatistics(Histogram latencies) {
+        if (latencies.getTotalCount() == 0) {
             System.out.println("No latencies recorded. Please check your request flow.");
             return;
         }
 
-        long sum = sortedLatencies.stream().mapToLong(Long::longValue).sum();
-        double mean = sum / (double) sortedLatencies.size();
-        long median = sortedLatencies.get(sortedLatencies.size() / 2);
-        long p99 = sortedLatencies.get((int) (sortedLatencies.size() * 0.99));
-        long min = sortedLatencies.get(0);
-        long max = sortedLatencies.get(sortedLatencies.size() - 1);
-
         // Print statistics
-        System.out.println("Mean response time (ms): " + mean);
-        System.out.println("Median response time (ms): " + median);
-        System.out.println("99th percentile response time (ms): " + p99);
-        System.out.println("Min response time (ms): " + min);
-        System.out.println("Max response time (ms): " + max);
+        System.out.println("Mean response time (ms): " + LatencyRecorder.millis(latencies.getMean()));
+        System.out.println("Median response time (ms): " + LatencyRecorder.millis(latencies.getValueAtPercentile(50)));
+        System.out.println("99th percentile response time (ms): " + LatencyRecorder.millis(latencies.getValueAtPercentile(99)));
+        System.out.println("99.9th percentile response time (ms): " + LatencyRecorder.millis(latencies.getValueAtPercentile(99.9)));
+        System.out.println("Min response time (ms): " + LatencyRecorder.millis(latencies.getMinValue()));
+        System.out.println("Max response time (ms): " + LatencyRecorder.millis(latencies.getMaxValue()));
     }
 }
@@ -0,0 +1,172 @@
+package skiresort.client;
+
+import skiresort.common.LiftRide;
+import skiresort.common.LiftRideBatchReader;
+import skiresort.common.LiftRideJsonCodec;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces lift rides into NDJSON bodies for the server's bulk endpoint. A batch is sent once
+ * it holds {@code maxBatchSize} rides, or {@code lingerMillis} after its first ride arrived,
+ * whichever comes first, and is retried as a whole by the {@link RetryingSender}. Rides the
+ * server lists as rejected in its answer fail on their own; the rest of the batch succeeds.
+ */
+public class BatchingSender implements AutoCloseable {
+    private static final byte[] INDEX_KEY = "\"index\":".getBytes(StandardCharsets.US_ASCII);
+
+    private final RetryingSender sender;
+    private final URI bulkUri;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final ScheduledExecutorService lingerTimer;
+
+    // The batch being filled, guarded by this
+    private byte[] body;
+    private int length;
+    private List<CompletableFuture<Boolean>> pending;
+    private long batchNumber;
+
+    /**
+     * @param lingerMillis how long a ride may wait for the batch to fill; 0 sends only full
+     *                     batches and those passed to {@link #flush}
+     */
+    public BatchingSender(RetryingSender sender, URI bulkUri, int maxBatchSize, long lingerMillis) {
+        this.sender = sender;
+        this.bulkUri = bulkUri;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batch-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        startBatch();
+    }
+
+    /**
+     * Adds the ride to the current batch, sending the batch if that fills it.
+     *
+     * @return completes with true once the server has queued the ride, or with false if it
+     *         rejected the ride or the batch failed for good; never exceptionally
+     */
+    public CompletableFuture<Boolean> submit(LiftRide ride) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        Batch full = null;
+        synchronized (this) {
+            int needed = length + LiftRideJsonCodec.maxEncodedLength(ride) + 1;
+            if (needed > body.length) {
+                body = Arrays.copyOf(body, Math.max(needed, body.length * 2));
+            }
+            length = LiftRideJsonCodec.encode(ride, body, length);
+            body[length++] = '\n';
+            pending.add(result);
+            if (pending.size() >= maxBatchSize) {
+                full = takeBatch();
+            } else if (pending.size() == 1 && lingerMillis > 0) {
+                long batch = batchNumber;
+                lingerTimer.schedule(() -> flush(batch), lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the current batch now, however few rides it holds.
+     */
+    public void flush() {
+        Batch batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takeBatch();
+        }
+        send(batch);
+    }
+
+    @Override
+    public void close() {
+        flush();
+        lingerTimer.shutdown();
+    }
+
+    // Sends batch number `batch` if it is still being filled when its linger time is up
+    private void flush(long batch) {
+        Batch linger;
+        synchronized (this) {
+            if (batch != batchNumber || pending.isEmpty()) {
+                return;
+            }
+            linger = takeBatch();
+        }
+        send(linger);
+    }
+
+    // Caller holds the lock
+    private Batch takeBatch() {
+        Batch batch = new Batch(body, length, pending);
+        startBatch();
+        batchNumber++;
+        return batch;
+    }
+
+    private void startBatch() {
+        body = new byte[Math.min(maxBatchSize, 1024) * (LiftRideJsonCodec.MAX_ENCODED_LENGTH / 2)];
+        length = 0;
+        pending = new ArrayList<>(Math.min(maxBatchSize, 1024));
+    }
+
+    private void send(Batch batch) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(bulkUri)
+                .header("Content-Type", LiftRideBatchReader.NDJSON_CONTENT_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(batch.body(), 0, batch.length()))
+                .build();
+        sender.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenAccept(response -> {
+            // 201: all queued; 200: all but the rides listed under "errors"
+            BitSet rejected = response == null || response.statusCode() == 201 ? null : rejectedIndexes(response.body());
+            for (int i = 0; i < batch.rides().size(); i++) {
+                batch.rides().get(i).complete(response != null && (rejected == null || !rejected.get(i)));
+            }
+        });
+    }
+
+    /**
+     * Finds the {@code "index":} of every entry in a bulk answer's {@code errors}.
+     */
+    static BitSet rejectedIndexes(byte[] summary) {
+        BitSet rejected = new BitSet();
+        for (int pos = 0; pos <= summary.length - INDEX_KEY.length; pos++) {
+            if (!Arrays.equals(summary, pos, pos + INDEX_KEY.length, INDEX_KEY, 0, INDEX_KEY.length)) {
+                continue;
+            }
+            pos += INDEX_KEY.length;
+            while (pos < summary.length && summary[pos] == ' ') {
+                pos++;
+            }
+            int index = 0;
+            while (pos < summary.length && summary[pos] >= '0' && summary[pos] <= '9') {
+                index = index * 10 + (summary[pos++] - '0');
+            }
+            rejected.set(index);
+        }
+        return rejected;
+    }
+
+    private record Batch(byte[] body, int length, List<CompletableFuture<Boolean>> rides) {}
+}
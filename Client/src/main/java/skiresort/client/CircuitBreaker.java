@@ -0,0 +1,78 @@
+package skiresort.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops sending to a target that keeps failing. Closed, it lets every request through and
+ * counts consecutive failures; at {@code failureThreshold} it opens and rejects requests for
+ * {@code openMillis}. After that a single probe is let through: success closes the circuit,
+ * failure opens it again. Lock-free; a threshold of 0 never opens.
+ */
+class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile long openUntilNanos;  // 0 while closed
+    private final LongAdder opens = new LongAdder();
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    boolean allowRequest() {
+        long openUntil = openUntilNanos;
+        if (openUntil == 0) {
+            return true;
+        }
+        return System.nanoTime() - openUntil >= 0 && probing.compareAndSet(false, true);
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        openUntilNanos = 0;
+        probing.set(false);
+    }
+
+    void onFailure() {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        if (openUntilNanos != 0) {
+            // The probe failed; a late failure of a request sent while closed changes nothing
+            if (probing.get()) {
+                openUntilNanos = System.nanoTime() + openNanos;
+                probing.set(false);
+            }
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openUntilNanos = System.nanoTime() + openNanos;
+            opens.increment();
+        }
+    }
+
+    /**
+     * For a request let through that never got an answer, e.g. because the sending thread was
+     * interrupted: counts as neither success nor failure, but if it was the probe, the next
+     * request may probe instead.
+     */
+    void onAbandoned() {
+        if (openUntilNanos != 0) {
+            probing.set(false);
+        }
+    }
+
+    /**
+     * @return how long the circuit stays open, or 0 if closed or ready for a probe
+     */
+    long remainingOpenMillis() {
+        long openUntil = openUntilNanos;
+        return openUntil == 0 ? 0 : Math.max(0, TimeUnit.NANOSECONDS.toMillis(openUntil - System.nanoTime()));
+    }
+
+    long getOpenCount() { return opens.sum(); }
+}
@@ -0,0 +1,53 @@
+package skiresort.client;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the requests in flight at a limit that can be raised or lowered while requests are
+ * running, e.g. to ramp load up over a phase. Lowering it takes effect as running requests
+ * finish.
+ */
+public class ConcurrencyLimit {
+
+    private final ResizableSemaphore permits;
+    private volatile int limit;
+
+    public ConcurrencyLimit(int limit) {
+        this.permits = new ResizableSemaphore(limit);
+        this.limit = limit;
+    }
+
+    public void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    public boolean tryAcquire() {
+        return permits.tryAcquire();
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getLimit() { return limit; }
+
+    public synchronized void setLimit(int newLimit) {
+        if (newLimit > limit) {
+            permits.release(newLimit - limit);
+        } else if (newLimit < limit) {
+            permits.reducePermits(limit - newLimit);
+        }
+        limit = newLimit;
+    }
+
+    private static final class ResizableSemaphore extends Semaphore {
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package skiresort.client;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Counts failures by reason and reports them as one line at most every {@code intervalMillis},
+ * instead of one println per failure. Counting is a {@link LongAdder} increment; whichever
+ * thread records the first failure after the interval has passed writes the line.
+ */
+public class FailureReporter {
+
+    private final long intervalNanos;
+    private final Consumer<String> sink;
+    private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private final AtomicLong nextReportNanos;
+
+    /**
+     * @param sink receives the report lines, e.g. {@code System.out::println}
+     */
+    public FailureReporter(long intervalMillis, Consumer<String> sink) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.sink = sink;
+        this.nextReportNanos = new AtomicLong(System.nanoTime() + intervalNanos);
+    }
+
+    public void record(String reason) {
+        counts.computeIfAbsent(reason, key -> new LongAdder()).increment();
+        long next = nextReportNanos.get();
+        long now = System.nanoTime();
+        if (now - next >= 0 && nextReportNanos.compareAndSet(next, now + intervalNanos)) {
+            report();
+        }
+    }
+
+    /**
+     * Reports what was counted since the last report, if anything.
+     */
+    public void report() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counts.forEach((reason, count) -> {
+            long n = count.sumThenReset();
+            if (n > 0) {
+                snapshot.put(reason, n);
+            }
+        });
+        if (!snapshot.isEmpty()) {
+            sink.accept("Failures since last report: " + snapshot);
+        }
+    }
+}
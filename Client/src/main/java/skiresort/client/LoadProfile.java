@@ -0,0 +1,113 @@
+package skiresort.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Phases a load test runs through in order, each with its own number of requests and either a
+ * concurrency (closed loop) or a rate (open loop). Written one phase per line in a file, or
+ * separated by commas on the command line:
+ * <pre>
+ * # name   requests  load
+ * warmup   2000      8          8 requests in flight
+ * ramp     20000     8-256      from 8 to 256 in flight, growing evenly over the phase
+ * steady   160000    256
+ * spike    18000     @5000      5000 requests started per second, whatever is in flight
+ * </pre>
+ * Text after {@code #} is ignored.
+ */
+public record LoadProfile(List<Phase> phases) {
+
+    /**
+     * @param rate requests started per second, or 0 for a closed-loop phase
+     */
+    public record Phase(String name, int requests, int startConcurrency, int endConcurrency, int rate) {
+
+        public boolean isOpenLoop() { return rate > 0; }
+
+        public int maxConcurrency() { return Math.max(startConcurrency, endConcurrency); }
+
+        /**
+         * @param started requests of the phase started so far, 0 to {@code requests - 1}
+         * @return requests that may be in flight then: {@code startConcurrency} for the first
+         *         request of the phase, {@code endConcurrency} for the last
+         */
+        public int concurrencyAt(int started) {
+            if (requests <= 1) {
+                return startConcurrency;
+            }
+            return startConcurrency + (int) ((long) (endConcurrency - startConcurrency) * started / (requests - 1));
+        }
+    }
+
+    public static LoadProfile single(String name, int requests, int concurrency) {
+        return new LoadProfile(List.of(new Phase(name, requests, concurrency, concurrency, 0)));
+    }
+
+    public static LoadProfile singleOpenLoop(String name, int requests, int rate) {
+        return new LoadProfile(List.of(new Phase(name, requests, 0, 0, rate)));
+    }
+
+    /**
+     * Reads the profile from {@code argument} if it names a file, else parses the argument itself.
+     */
+    public static LoadProfile fromArgument(String argument) throws IOException {
+        Path path = Path.of(argument);
+        return Files.isRegularFile(path) ? parse(Files.readAllLines(path)) : parse(List.of(argument.split(",")));
+    }
+
+    /**
+     * @throws IllegalArgumentException naming the first phase that cannot be parsed
+     */
+    public static LoadProfile parse(List<String> lines) {
+        List<Phase> phases = new ArrayList<>();
+        for (String line : lines) {
+            int comment = line.indexOf('#');
+            String[] fields = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+            if (fields.length == 1 && fields[0].isEmpty()) {
+                continue;
+            }
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Expected \"name requests load\" but got \"" + line.trim() + "\"");
+            }
+            phases.add(parsePhase(fields[0], fields[1], fields[2], line.trim()));
+        }
+        if (phases.isEmpty()) {
+            throw new IllegalArgumentException("Load profile has no phases");
+        }
+        return new LoadProfile(List.copyOf(phases));
+    }
+
+    private static Phase parsePhase(String name, String requests, String load, String line) {
+        try {
+            int count = Integer.parseInt(requests);
+            if (count < 1) {
+                throw new IllegalArgumentException("Phase \"" + line + "\" needs at least one request");
+            }
+            if (load.startsWith("@")) {
+                return new Phase(name, count, 0, 0, positive(load.substring(1), line));
+            }
+            int dash = load.indexOf('-');
+            int start = positive(dash < 0 ? load : load.substring(0, dash), line);
+            int end = dash < 0 ? start : positive(load.substring(dash + 1), line);
+            return new Phase(name, count, start, end, 0);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Phase \"" + line + "\" has a malformed number: " + e.getMessage());
+        }
+    }
+
+    private static int positive(String value, String line) {
+        int n = Integer.parseInt(value);
+        if (n < 1) {
+            throw new IllegalArgumentException("Phase \"" + line + "\" needs a concurrency or rate of at least 1");
+        }
+        return n;
+    }
+
+    public int totalRequests() {
+        return phases.stream().mapToInt(Phase::requests).sum();
+    }
+}
@@ -0,0 +1,45 @@
+package skiresort.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that caps retries at a share of requests: every request deposits {@code ratio}
+ * of a token, every retry takes a whole one, and at most {@code burst} tokens are kept. The
+ * bucket starts full, so a few early failures can be retried before any deposits were made.
+ */
+class RetryBudget {
+
+    private static final long SCALE = 1000;  // Tokens are kept in thousandths
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    RetryBudget(double ratio, int burst) {
+        this.deposit = ratio == Double.POSITIVE_INFINITY ? Long.MAX_VALUE : (long) (ratio * SCALE);
+        this.capacity = burst == Integer.MAX_VALUE ? Long.MAX_VALUE : burst * SCALE;
+        this.balance = new AtomicLong(capacity);
+    }
+
+    void deposit() {
+        if (capacity == Long.MAX_VALUE) {
+            return;
+        }
+        balance.accumulateAndGet(deposit, (current, amount) -> Math.min(capacity, current + amount));
+    }
+
+    boolean tryWithdraw() {
+        if (capacity == Long.MAX_VALUE) {
+            return true;
+        }
+        while (true) {
+            long current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+}
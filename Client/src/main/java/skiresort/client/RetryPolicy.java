@@ -0,0 +1,43 @@
+package skiresort.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How {@link RetryingSender} retries a failed request.
+ * <p>
+ * The wait before retry {@code n} is drawn uniformly from zero to
+ * {@code min(maxDelayMillis, baseDelayMillis * 2^(n-1))} ("full jitter"), so clients that failed
+ * together do not come back together. A 503 or 429 with {@code Retry-After} waits at least that
+ * long. Retries are further limited to {@code retryBudgetRatio} of all requests (plus a burst
+ * of {@code retryBudgetBurst}), so when most requests fail the client does not multiply the
+ * load on an already overloaded server. After {@code breakerFailureThreshold} consecutive
+ * failures the target's circuit opens for {@code breakerOpenMillis}; then one probe decides
+ * whether it closes again. A threshold of 0 disables the breaker.
+ *
+ * @param maxAttempts attempts per request, the first one included
+ */
+public record RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, double retryBudgetRatio,
+                          int retryBudgetBurst, int breakerFailureThreshold, long breakerOpenMillis) {
+
+    /**
+     * Retries straight away, without budget or breaker, as the client used to.
+     */
+    public static RetryPolicy immediate(int maxAttempts) {
+        return new RetryPolicy(maxAttempts, 0, 0, Double.POSITIVE_INFINITY, Integer.MAX_VALUE, 0, 0);
+    }
+
+    /**
+     * @param attempt         the attempt that just failed, starting at 1
+     * @param retryAfterMillis what the server asked for, or 0
+     * @return milliseconds to wait before the next attempt
+     */
+    public long backoffMillis(int attempt, long retryAfterMillis) {
+        long jitter = 0;
+        if (maxDelayMillis > 0) {
+            long ceiling = baseDelayMillis << Math.min(attempt - 1, 30);
+            jitter = ThreadLocalRandom.current().nextLong(Math.min(maxDelayMillis, ceiling) + 1);
+        }
+        // Spread the clients a Retry-After sends back at the same moment
+        return retryAfterMillis > 0 ? retryAfterMillis + Math.min(jitter, baseDelayMillis) : jitter;
+    }
+}
@@ -0,0 +1,232 @@
+package skiresort.client;
+
+import skiresort.common.metrics.MetricsRegistry;
+import skiresort.common.metrics.StatusCounts;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends requests and retries them as a {@link RetryPolicy} says, with one circuit breaker per
+ * target (scheme, host and port) and one retry budget for all of them. A 2xx answer is a
+ * success; 5xx, 429 and I/O errors are retried; any other status is final. Failures are counted
+ * by a {@link FailureReporter} rather than printed one by one, and every answer by its status
+ * code.
+ */
+public class RetryingSender {
+
+    // What outcome() returns instead of a delay when there is no next attempt
+    private static final long SUCCEEDED = -1;
+    private static final long FAILED = -2;
+
+    private final HttpClient client;
+    private final RetryPolicy policy;
+    private final RetryBudget budget;
+    private final FailureReporter failures;
+    private final ConcurrentHashMap<URI, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final StatusCounts statuses = new StatusCounts();
+
+    public RetryingSender(HttpClient client, RetryPolicy policy, FailureReporter failures) {
+        this.client = client;
+        this.policy = policy;
+        this.budget = new RetryBudget(policy.retryBudgetRatio(), policy.retryBudgetBurst());
+        this.failures = failures;
+    }
+
+    /**
+     * Sends {@code request} until it succeeds, fails for good or runs out of attempts or budget.
+     *
+     * @return true if the server answered 2xx
+     */
+    public boolean send(HttpRequest request) throws InterruptedException {
+        CircuitBreaker breaker = breakerFor(request.uri());
+        budget.deposit();
+        for (int attempt = 1; ; attempt++) {
+            long delay;
+            if (!breaker.allowRequest()) {
+                delay = circuitOpen(attempt, breaker);
+            } else {
+                attempts.increment();
+                boolean answered = false;
+                try {
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    answered = true;
+                    delay = outcome(attempt, breaker, response, null);
+                } catch (IOException e) {
+                    answered = true;
+                    delay = outcome(attempt, breaker, null, e);
+                } finally {
+                    if (!answered) {
+                        breaker.onAbandoned();  // Interrupted or failed unexpectedly; must not hold the probe forever
+                    }
+                }
+            }
+            if (delay < 0) {
+                return delay == SUCCEEDED;
+            }
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #send} without blocking the calling thread; waits between attempts are
+     * scheduled on {@link CompletableFuture#delayedExecutor}.
+     *
+     * @return completes with true if the server answered 2xx; never exceptionally
+     */
+    public CompletableFuture<Boolean> sendAsync(HttpRequest request) {
+        return sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> response != null);
+    }
+
+    /**
+     * Same as {@link #sendAsync(HttpRequest)}, for callers that need the body of the answer.
+     *
+     * @return completes with the 2xx response, or with null if the request failed for good;
+     *         never exceptionally
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        CircuitBreaker breaker = breakerFor(request.uri());
+        budget.deposit();
+        CompletableFuture<HttpResponse<T>> done = new CompletableFuture<>();
+        attemptAsync(request, bodyHandler, 1, breaker, done);
+        return done;
+    }
+
+    private <T> void attemptAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, int attempt,
+                                  CircuitBreaker breaker, CompletableFuture<HttpResponse<T>> done) {
+        if (!breaker.allowRequest()) {
+            continueAsync(request, bodyHandler, attempt, breaker, done, null, circuitOpen(attempt, breaker));
+            return;
+        }
+        attempts.increment();
+        CompletableFuture<HttpResponse<T>> sent;
+        try {
+            sent = client.sendAsync(request, bodyHandler);
+        } catch (RuntimeException e) {
+            breaker.onAbandoned();
+            failures.record(e.getClass().getSimpleName());
+            done.complete(null);
+            return;
+        }
+        sent.whenComplete((response, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            continueAsync(request, bodyHandler, attempt, breaker, done, response, outcome(attempt, breaker, response, cause));
+        });
+    }
+
+    private <T> void continueAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, int attempt,
+                                   CircuitBreaker breaker, CompletableFuture<HttpResponse<T>> done,
+                                   HttpResponse<T> response, long delay) {
+        if (delay < 0) {
+            done.complete(delay == SUCCEEDED ? response : null);
+        } else {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                    .execute(() -> attemptAsync(request, bodyHandler, attempt + 1, breaker, done));
+        }
+    }
+
+    // Returns the wait before the next attempt, or SUCCEEDED or FAILED
+    private long outcome(int attempt, CircuitBreaker breaker, HttpResponse<?> response, Throwable error) {
+        long retryAfter = 0;
+        if (error != null) {
+            failures.record(error.getClass().getSimpleName());
+        } else {
+            int status = response.statusCode();
+            statuses.record(status);
+            if (status / 100 == 2) {
+                breaker.onSuccess();
+                return SUCCEEDED;
+            }
+            failures.record("HTTP " + status);
+            if (status < 500 && status != 429) {
+                breaker.onSuccess();  // The server is up; the request itself is wrong
+                return FAILED;
+            }
+            if (status == 503 || status == 429) {
+                retryAfter = retryAfterMillis(response);
+            }
+        }
+        breaker.onFailure();
+        return retryDelay(attempt, policy.backoffMillis(attempt, retryAfter));
+    }
+
+    private long circuitOpen(int attempt, CircuitBreaker breaker) {
+        failures.record("circuit open");
+        return retryDelay(attempt, Math.max(breaker.remainingOpenMillis(), policy.backoffMillis(attempt, 0)));
+    }
+
+    private long retryDelay(int attempt, long delay) {
+        if (attempt >= policy.maxAttempts()) {
+            failures.record("gave up");
+            return FAILED;
+        }
+        if (!budget.tryWithdraw()) {
+            failures.record("retry budget exhausted");
+            return FAILED;
+        }
+        retries.increment();
+        return delay;
+    }
+
+    private CircuitBreaker breakerFor(URI uri) {
+        URI target = URI.create(uri.getScheme() + "://" + uri.getRawAuthority());
+        return breakers.computeIfAbsent(target,
+                key -> new CircuitBreaker(policy.breakerFailureThreshold(), policy.breakerOpenMillis()));
+    }
+
+    // Retry-After is either delay-seconds or an HTTP date
+    static long retryAfterMillis(HttpResponse<?> response) {
+        Optional<String> header = response.headers().firstValue("Retry-After");
+        if (header.isEmpty()) {
+            return 0;
+        }
+        String value = header.get().trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(Instant.now(), date.toInstant()).toMillis());
+            } catch (DateTimeParseException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Adds attempts, retries, circuit openings and answers per status to {@code registry}.
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix) {
+        registry.gauge(prefix + ".attempts", attempts::sum);
+        registry.gauge(prefix + ".retries", retries::sum);
+        registry.gauge(prefix + ".circuit_opened", this::getCircuitOpenCount);
+        registry.register(prefix + ".response", statuses);
+    }
+
+    public long getAttemptCount() { return attempts.sum(); }
+
+    public long getRetryCount() { return retries.sum(); }
+
+    public long getCircuitOpenCount() {
+        return breakers.values().stream().mapToLong(CircuitBreaker::getOpenCount).sum();
+    }
+}
@@ -0,0 +1,56 @@
+package skiresort.client;
+
+import skiresort.common.LiftRide;
+import skiresort.common.workload.LiftRideWorkload;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the first rides of a workload as a CSV file that {@code replay:<file>} reads back, and
+ * prints how concentrated the rides are, so a workload's skew can be checked before a run.
+ * <p>
+ * Usage: {@code WorkloadExport <workload> <seed> <count> <file.csv>}
+ */
+public class WorkloadExport {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("Usage: WorkloadExport <uniform|skewed|replay:<file>> <seed> <count> <file.csv>");
+            System.exit(2);
+        }
+        LiftRideWorkload workload = LiftRideWorkload.fromArgument(args[0], Long.parseLong(args[1]));
+        long count = Long.parseLong(args[2]);
+
+        Map<Integer, Long> ridesBySkier = new TreeMap<>();
+        long[] ridesByResort = new long[11];
+        try (PrintWriter csv = new PrintWriter(new BufferedWriter(new FileWriter(args[3]), 64 * 1024))) {
+            csv.println("skierID,resortID,liftID,seasonID,dayID,time");
+            for (long i = 0; i < count; i++) {
+                LiftRide ride = workload.ride(i);
+                csv.println(ride.getSkierID() + "," + ride.getResortID() + "," + ride.getLiftID() + ","
+                        + ride.getSeasonID() + "," + ride.getDayID() + "," + ride.getTime());
+                ridesBySkier.merge(ride.getSkierID(), 1L, Long::sum);
+                ridesByResort[Math.min(ride.getResortID(), 10)]++;
+            }
+        }
+
+        long[] perSkier = ridesBySkier.values().stream().mapToLong(Long::longValue).sorted().toArray();
+        long top = 0;
+        for (int i = perSkier.length - 1; i >= Math.max(0, perSkier.length - 100); i--) {
+            top += perSkier[i];
+        }
+        System.out.println("Rides written: " + count + " to " + args[3]);
+        System.out.println("Distinct skiers: " + perSkier.length);
+        System.out.printf("Share of the 100 busiest skiers: %.1f%%%n", 100.0 * top / Math.max(1, count));
+        StringBuilder resorts = new StringBuilder("Rides by resort:");
+        for (int r = 1; r <= 10; r++) {
+            resorts.append(' ').append(ridesByResort[r]);
+        }
+        System.out.println(resorts);
+    }
+}
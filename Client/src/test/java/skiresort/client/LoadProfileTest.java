@@ -0,0 +1,111 @@
+package skiresort.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoadProfileTest {
+
+    @Test
+    void parsesEachKindOfPhase() {
+        LoadProfile profile = LoadProfile.parse(List.of(
+                "# name   requests  load",
+                "warmup   2000      8",
+                "",
+                "ramp     20000     8-256   # growing",
+                "spike    18000     @5000"));
+
+        assertEquals(List.of(
+                new LoadProfile.Phase("warmup", 2000, 8, 8, 0),
+                new LoadProfile.Phase("ramp", 20000, 8, 256, 0),
+                new LoadProfile.Phase("spike", 18000, 0, 0, 5000)), profile.phases());
+        assertEquals(40000, profile.totalRequests());
+        assertFalse(profile.phases().get(1).isOpenLoop());
+        assertTrue(profile.phases().get(2).isOpenLoop());
+        assertEquals(256, profile.phases().get(1).maxConcurrency());
+    }
+
+    @Test
+    void argumentIsReadAsAFileOrAsCommaSeparatedPhases(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("profile.txt");
+        Files.write(file, List.of("warmup 100 4", "steady 1000 32"));
+        LoadProfile fromFile = LoadProfile.fromArgument(file.toString());
+        LoadProfile fromLine = LoadProfile.fromArgument("warmup 100 4, steady 1000 32");
+
+        assertEquals(fromFile, fromLine);
+        assertEquals(2, fromLine.phases().size());
+        assertEquals(32, fromLine.phases().get(1).startConcurrency());
+    }
+
+    @Test
+    void malformedPhasesAreRefused() {
+        assertRefused("has a malformed number", "warmup many 8");
+        assertRefused("has a malformed number", "ramp 100 8-x");
+        assertRefused("has a malformed number", "ramp 100 -8");
+        assertRefused("has a malformed number", "ramp 100 8-");
+        assertRefused("has a malformed number", "spike 100 @");
+        assertRefused("needs at least one request", "warmup 0 8");
+        assertRefused("needs a concurrency or rate of at least 1", "warmup 100 0");
+        assertRefused("needs a concurrency or rate of at least 1", "ramp 100 8-0");
+        assertRefused("needs a concurrency or rate of at least 1", "spike 100 @0");
+        assertRefused("Expected \"name requests load\" but got \"warmup 100\"", "warmup 100");
+        assertRefused("Expected \"name requests load\" but got \"warmup 100 8 9\"", "warmup 100 8 9");
+    }
+
+    @Test
+    void profileWithoutPhasesIsRefused() {
+        assertRefused("Load profile has no phases", "# only a comment", "   ");
+        assertThrows(IllegalArgumentException.class, () -> LoadProfile.fromArgument(" , "));
+    }
+
+    @Test
+    void rampRunsFromItsStartToItsEndConcurrency() {
+        LoadProfile.Phase ramp = new LoadProfile.Phase("ramp", 20000, 8, 256, 0);
+        assertEquals(8, ramp.concurrencyAt(0));
+        assertEquals(131, ramp.concurrencyAt(9999));
+        assertEquals(256, ramp.concurrencyAt(ramp.requests() - 1));
+
+        int last = ramp.concurrencyAt(0);
+        for (int started = 1; started < ramp.requests(); started++) {
+            int next = ramp.concurrencyAt(started);
+            assertTrue(next >= last && next <= 256, "at " + started);
+            last = next;
+        }
+    }
+
+    @Test
+    void rampDownAndShortPhasesReachTheirEnds() {
+        LoadProfile.Phase down = new LoadProfile.Phase("down", 10, 64, 4, 0);
+        assertEquals(64, down.concurrencyAt(0));
+        assertEquals(4, down.concurrencyAt(9));
+
+        LoadProfile.Phase two = new LoadProfile.Phase("two", 2, 1, 100, 0);
+        assertEquals(1, two.concurrencyAt(0));
+        assertEquals(100, two.concurrencyAt(1));
+
+        LoadProfile.Phase one = new LoadProfile.Phase("one", 1, 5, 50, 0);
+        assertEquals(5, one.concurrencyAt(0));
+    }
+
+    @Test
+    void steadyPhaseKeepsItsConcurrency() {
+        LoadProfile.Phase steady = LoadProfile.single("steady", 1000, 32).phases().get(0);
+        assertEquals(32, steady.concurrencyAt(0));
+        assertEquals(32, steady.concurrencyAt(500));
+        assertEquals(32, steady.concurrencyAt(999));
+    }
+
+    private static void assertRefused(String message, String... lines) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> LoadProfile.parse(List.of(lines)));
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+}
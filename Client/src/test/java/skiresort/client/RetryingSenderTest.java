@@ -0,0 +1,162 @@
+package skiresort.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link RetryingSender} against a stub server that answers each request path as the test
+ * says, counting the attempts it receives.
+ */
+class RetryingSenderTest {
+
+    private static final int REQUESTS = 100;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final ConcurrentHashMap<String, AtomicInteger> attemptsByPath = new ConcurrentHashMap<>();
+    private final AtomicInteger received = new AtomicInteger();
+    private volatile Answer answer = (exchange, attempt) -> reply(exchange, 201, null);
+
+    private interface Answer {
+        void reply(HttpExchange exchange, int attempt) throws IOException;
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        serverThreads = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 256);
+        server.setExecutor(serverThreads);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            received.incrementAndGet();
+            int attempt = attemptsByPath.computeIfAbsent(exchange.getRequestURI().getPath(), path -> new AtomicInteger())
+                    .incrementAndGet();
+            answer.reply(exchange, attempt);
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    void retryAfterIsWaitedAndEveryRequestGetsThrough() {
+        // The first attempt at every request is turned away, half with 503 and half with 429
+        answer = (exchange, attempt) -> reply(exchange, attempt > 1 ? 201 : received.get() % 2 == 0 ? 503 : 429, "1");
+        RetryingSender sender = sender(new RetryPolicy(3, 10, 100, 1.0, REQUESTS, 0, 0));
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Boolean>> sent = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            sent.add(sender.sendAsync(request("/" + i)));
+        }
+        long delivered = sent.stream().filter(CompletableFuture::join).count();
+
+        assertEquals(REQUESTS, delivered);
+        assertEquals(2 * REQUESTS, sender.getAttemptCount());
+        assertEquals(REQUESTS, sender.getRetryCount());
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1), "Retried before Retry-After");
+    }
+
+    @Test
+    void retryBudgetCapsAmplificationAgainstAServerThatKeepsRefusing() throws InterruptedException {
+        answer = (exchange, attempt) -> reply(exchange, 503, "0");
+        RetryingSender immediate = sender(RetryPolicy.immediate(5));
+        RetryingSender budgeted = sender(new RetryPolicy(5, 1, 2, 0.1, 5, 0, 0));
+
+        int delivered = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            delivered += immediate.send(request("/immediate/" + i)) ? 1 : 0;
+            delivered += budgeted.send(request("/budgeted/" + i)) ? 1 : 0;
+        }
+
+        assertEquals(0, delivered);
+        // Every request is sent 5 times without a budget, but only retried for a tenth of them (and the burst) with one
+        assertEquals(5.0, (double) immediate.getAttemptCount() / REQUESTS);
+        assertTrue(budgeted.getRetryCount() <= REQUESTS / 10 + 5, "retries: " + budgeted.getRetryCount());
+        assertTrue((double) budgeted.getAttemptCount() / REQUESTS <= 1.15, "attempts: " + budgeted.getAttemptCount());
+    }
+
+    @Test
+    void interruptedProbeDoesNotHoldTheCircuitOpen() throws Exception {
+        CountDownLatch probeArrived = new CountDownLatch(1);
+        CountDownLatch releaseProbe = new CountDownLatch(1);
+        answer = (exchange, attempt) -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/probe")) {
+                probeArrived.countDown();
+                try {
+                    releaseProbe.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            reply(exchange, path.equals("/fail") ? 503 : 201, null);
+        };
+        RetryingSender sender = sender(new RetryPolicy(1, 0, 0, 1.0, 10, 1, 50));
+
+        assertFalse(sender.send(request("/fail")));
+        assertEquals(1, sender.getCircuitOpenCount());
+        Thread.sleep(100);
+
+        // The first request after the open period is the probe; its thread is interrupted while it waits
+        Thread probe = new Thread(() -> {
+            try {
+                sender.send(request("/probe"));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        probe.start();
+        assertTrue(probeArrived.await(5, TimeUnit.SECONDS));
+        probe.interrupt();
+        probe.join(5000);
+        releaseProbe.countDown();
+
+        assertTrue(sender.send(request("/next")), "The abandoned probe kept the circuit open");
+    }
+
+    private RetryingSender sender(RetryPolicy policy) {
+        return new RetryingSender(client, policy, new FailureReporter(60_000, line -> {}));
+    }
+
+    private HttpRequest request(String path) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + server.getAddress().getPort() + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{}"))
+                .build();
+    }
+
+    private static void reply(HttpExchange exchange, int status, String retryAfter) throws IOException {
+        if (retryAfter != null) {
+            exchange.getResponseHeaders().set("Retry-After", retryAfter);
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+}
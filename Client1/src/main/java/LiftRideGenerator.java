@@ -1,15 +1,26 @@
-import java.util.concurrent.ThreadLocalRandom;
+import skiresort.common.LiftRide;
+import skiresort.common.workload.LiftRideWorkload;
+import skiresort.common.workload.SkewedWorkload;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the rides of one workload in order, across all sending threads. Which thread sends
+ * which ride depends on scheduling, but the set of rides a run sends depends only on the
+ * workload and its seed.
+ */
 public class LiftRideGenerator {
+    static final long SEED = 42;  // Same seed, same rides
+
+    private static volatile LiftRideWorkload workload = new SkewedWorkload(SEED);
+    private static final AtomicLong nextIndex = new AtomicLong();
+
+    public static void use(LiftRideWorkload newWorkload) {
+        workload = newWorkload;
+        nextIndex.set(0);
+    }
+
     public static LiftRide generateLiftRide() {
-        int skierID = ThreadLocalRandom.current().nextInt(1, 100001);
-        int resortID = ThreadLocalRandom.current().nextInt(1, 11);
-        int liftID = ThreadLocalRandom.current().nextInt(1, 41);
-        String seasonID = "2024";
-        String dayID = "1";
-        int time = ThreadLocalRandom.current().nextInt(1, 361);
-
-        return new LiftRide(skierID, resortID, liftID, seasonID, dayID, time);
+        return workload.ride(nextIndex.getAndIncrement());
     }
 }
-
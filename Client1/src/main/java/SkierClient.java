@@ -6,13 +6,15 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import com.google.gson.Gson;
+import skiresort.common.LiftRide;
+import skiresort.common.LiftRideJsonCodec;
+import skiresort.common.Settings;
 
 public class SkierClient {
     private static final int TOTAL_REQUESTS = 200000;
     private static final int NUM_THREADS = 32;  // Adjust number of threads
     private static final int NUM_REQUESTS = TOTAL_REQUESTS/NUM_THREADS;  // Each thread sends more requests to reach 200,000 requests
-    private static final String SERVER_URL = "http://35.82.154.244:8080/SkiServlets-1.0-SNAPSHOT/skiers";
+    private static final String SERVER_URL = Settings.string("server.url", "http://35.82.154.244:8080/SkiServlets-1.0-SNAPSHOT/skiers");
     private static final AtomicInteger successCount = new AtomicInteger(0);
     private static final AtomicInteger failCount = new AtomicInteger(0);
     private static final int MAX_RETRIES = 5;  // Maximum retry attempts
@@ -33,8 +35,10 @@ public class SkierClient {
         for (int i = 0; i < NUM_THREADS; i++) {
             executor.submit(() -> {
                 try {
+                    byte[] body = new byte[LiftRideJsonCodec.MAX_ENCODED_LENGTH];  // Reused for every request of this thread
                     for (int j = 0; j < NUM_REQUESTS; j++) {
                         LiftRide ride = LiftRideGenerator.generateLiftRide();
+                        int bodyLength = LiftRideJsonCodec.encode(ride, body, 0);
                         boolean requestSent = false;
                         int retries = 0;
 
@@ -42,7 +46,7 @@ public class SkierClient {
                         HttpRequest request = HttpRequest.newBuilder()
                                 .uri(URI.create(SERVER_URL))
                                 .header("Content-Type", "application/json")
-                                .POST(HttpRequest.BodyPublishers.ofString(new Gson().toJson(ride)))
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(body, 0, bodyLength))
                                 .build();
 
                         // Retry mechanism
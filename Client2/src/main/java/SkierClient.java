@@ -2,28 +2,32 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import com.google.gson.Gson;
-import java.io.FileWriter;
+import org.HdrHistogram.Histogram;
+import skiresort.client.RequestLog;
+import skiresort.common.LatencyRecorder;
+import skiresort.common.LiftRide;
+import skiresort.common.LiftRideJsonCodec;
+import skiresort.common.Settings;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 public class SkierClient {
     private static final int TOTAL_REQUESTS = 200000;
     private static final int NUM_THREADS = 32;  // Adjust number of threads
     private static final int NUM_REQUESTS = TOTAL_REQUESTS/NUM_THREADS;  // Each thread sends more requests to reach 200,000
-    private static final String SERVER_URL = "http://35.82.154.244:8080/SkiServlets-1.0-SNAPSHOT/skiers";
+    private static final String SERVER_URL = Settings.string("server.url", "http://35.82.154.244:8080/SkiServlets-1.0-SNAPSHOT/skiers");
     private static final AtomicInteger successCount = new AtomicInteger(0);
     private static final AtomicInteger failCount = new AtomicInteger(0);
     private static final int MAX_RETRIES = 5;  // Maximum retry attempts
-    private static final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());  // Store latencies
-    private static final List<String> requestLogs = Collections.synchronizedList(new ArrayList<>());  // Store request logs
+    private static final int REPORT_INTERVAL_SECONDS = 10;  // Throughput and percentiles are printed this often during the run
+    private static final LatencyRecorder latencies = new LatencyRecorder(TimeUnit.MINUTES.toNanos(10));  // Latencies up to 10 minutes
+    private static final RequestLog.Format LOG_FORMAT = RequestLog.Format.CSV;  // BINARY is smaller; convert with RequestLogConverter
+    private static final int LOG_BUFFER_ENTRIES = 65536;  // Requests buffered between the sending threads and the log writer
+    private static final long LOG_FLUSH_INTERVAL_MS = 1000;  // The log file is flushed this often
 
     public static void main(String[] args) throws InterruptedException, IOException {
         // Create a global HttpClient instance to reuse connections
@@ -32,26 +36,37 @@ public class SkierClient {
                 .followRedirects(HttpClient.Redirect.NORMAL)
                 .build();
 
+        // Requests are written to the log as they finish, so the log survives a cut-short run
+        String logFile = LOG_FORMAT == RequestLog.Format.CSV ? "request_log.csv" : "request_log.bin";
+        RequestLog requestLog = new RequestLog(logFile, LOG_FORMAT, LOG_BUFFER_ENTRIES, LOG_FLUSH_INTERVAL_MS);
+
         // Create a thread pool, using a fixed size to avoid excessive concurrency
         ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
 
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> System.out.println(latencies.intervalSummary()),
+                REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
         // Record start time
         long startTime = System.currentTimeMillis();
 
         for (int i = 0; i < NUM_THREADS; i++) {
             executor.submit(() -> {
                 try {
+                    byte[] body = new byte[LiftRideJsonCodec.MAX_ENCODED_LENGTH];  // Reused for every request of this thread
                     for (int j = 0; j < NUM_REQUESTS; j++) {
                         LiftRide ride = LiftRideGenerator.generateLiftRide();
+                        int bodyLength = LiftRideJsonCodec.encode(ride, body, 0);
                         boolean requestSent = false;
                         int retries = 0;
-                        long requestStartTime = System.currentTimeMillis();
+                        long requestStartTime = System.currentTimeMillis();  // Wall clock, for the request log
+                        long requestStartNanos = System.nanoTime();
 
                         // Build POST request
                         HttpRequest request = HttpRequest.newBuilder()
                                 .uri(URI.create(SERVER_URL))
                                 .header("Content-Type", "application/json")
-                                .POST(HttpRequest.BodyPublishers.ofString(new Gson().toJson(ride)))
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(body, 0, bodyLength))
                                 .build();
 
                         // Retry mechanism
@@ -59,14 +74,13 @@ public class SkierClient {
                             try {
                                 // Send request and get response
                                 HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-                                long requestEndTime = System.currentTimeMillis();
-                                long latency = requestEndTime - requestStartTime;  // Calculate latency
+                                long latencyNanos = System.nanoTime() - requestStartNanos;  // Calculate latency
 
                                 if (response.statusCode() == 201) {
                                     successCount.incrementAndGet();
                                     requestSent = true;  // Request successful, exit loop
-                                    latencies.add(latency);  // Add latency to the list
-                                    requestLogs.add(requestStartTime + ",POST," + latency + "," + response.statusCode());  // Log request
+                                    latencies.recordNanos(latencyNanos);
+                                    requestLog.log(requestStartTime, latencyNanos, response.statusCode());  // Log request
                                 } else {
                                     retries++;
                                     System.out.println("Request failed with status code: " + response.statusCode() + ", Retrying... (" + retries + ")");
@@ -94,6 +108,7 @@ public class SkierClient {
         // Record end time and calculate total duration
         long endTime = System.currentTimeMillis();
         long totalTime = endTime - startTime;
+        reporter.shutdown();
 
         // Print statistics
         System.out.println("Number of threads: " + NUM_THREADS);
@@ -104,13 +119,10 @@ public class SkierClient {
         System.out.println("Throughput (requests/sec): " + (TOTAL_REQUESTS / (totalTime / 1000.0)));
         System.out.println("      ");
 
-        // Save request log to a CSV file
-        try (PrintWriter writer = new PrintWriter(new FileWriter("request_log.csv"))) {
-            writer.println("start_time,request_type,latency,response_code");
-            for (String log : requestLogs) {
-                writer.println(log);
-            }
-        }
+        // Write the rest of the request log
+        requestLog.close();
+        System.out.println("Request log entries written to " + logFile + ": " + requestLog.getWrittenCount()
+                + " (senders waited for the writer " + requestLog.getFullWaitCount() + " times)");
 
         // Calculate and display latency statistics
         calculateLatencyStatistics();
@@ -118,21 +130,14 @@ public class SkierClient {
 
     // Method to calculate and display latency statistics
     private static void calculateLatencyStatistics() {
-        // Sort latencies to calculate percentiles and median
-        List<Long> sortedLatencies = latencies.stream().sorted().toList();
-
-        long sum = sortedLatencies.stream().mapToLong(Long::longValue).sum();
-        double mean = sum / (double) sortedLatencies.size();
-        long median = sortedLatencies.get(sortedLatencies.size() / 2);
-        long p99 = sortedLatencies.get((int) (sortedLatencies.size() * 0.99));
-        long min = sortedLatencies.get(0);
-        long max = sortedLatencies.get(sortedLatencies.size() - 1);
+        Histogram histogram = latencies.total();
 
         // Print statistics
-        System.out.println("Mean response time (ms): " + mean);
-        System.out.println("Median response time (ms): " + median);
-        System.out.println("99th percentile response time (ms): " + p99);
-        System.out.println("Min response time (ms): " + min);
-        System.out.println("Max response time (ms): " + max);
+        System.out.println("Mean response time (ms): " + LatencyRecorder.millis(histogram.getMean()));
+        System.out.println("Median response time (ms): " + LatencyRecorder.millis(histogram.getValueAtPercentile(50)));
+        System.out.println("99th percentile response time (ms): " + LatencyRecorder.millis(histogram.getValueAtPercentile(99)));
+        System.out.println("99.9th percentile response time (ms): " + LatencyRecorder.millis(histogram.getValueAtPercentile(99.9)));
+        System.out.println("Min response time (ms): " + LatencyRecorder.millis(histogram.getMinValue()));
+        System.out.println("Max response time (ms): " + LatencyRecorder.millis(histogram.getMaxValue()));
     }
 }
@@ -0,0 +1,215 @@
+package skiresort.client;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes one line per request to a file while the run is going, instead of keeping every line
+ * in memory until the end. Sending threads claim a slot in a fixed ring buffer with one atomic
+ * increment and publish it with an ordered write; a single writer thread drains the slots in
+ * order into a buffered file and flushes it every {@code flushIntervalMillis}, so memory is
+ * bounded by the ring and a run that is cut short still leaves its log behind. When the
+ * writer falls a whole ring behind, senders wait for it rather than drop entries.
+ * <p>
+ * Every request the client sends is a POST, so only start time, latency and status are kept.
+ * {@link Format#CSV} writes {@code start_time,request_type,latency,response_code} with latency
+ * in milliseconds. {@link Format#BINARY} writes {@link #MAGIC} and {@link #VERSION}, then
+ * {@link #BINARY_RECORD_LENGTH}-byte big-endian records: start time in epoch milliseconds (8),
+ * latency in nanoseconds (8) and status code (2); {@link RequestLogConverter} turns it into CSV
+ * and a percentile report.
+ */
+public class RequestLog implements AutoCloseable {
+
+    public enum Format { CSV, BINARY }
+
+    public static final int MAGIC = 0x534B524C;  // "SKRL"
+    public static final int VERSION = 1;
+    public static final int BINARY_RECORD_LENGTH = 18;
+    public static final String CSV_HEADER = "start_time,request_type,latency,response_code";
+
+    private static final byte[] POST_FIELD = ",POST,".getBytes(StandardCharsets.US_ASCII);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int FLUSH_CHECK_MASK = 1023;  // Under constant load the flush deadline is checked every 1024 records
+
+    private final Format format;
+    private final int mask;
+    private final long[] startMillis;
+    private final long[] latencyNanos;
+    private final int[] statusCodes;
+    // Slot i holds sequence s once published[i] == s + 1
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+
+    private final DataOutputStream out;
+    private final long flushIntervalNanos;
+    private final Thread writer;
+    private volatile boolean closed;
+    private IOException writeError;
+    private final LongAdder fullWaits = new LongAdder();
+
+    /**
+     * @param capacity ring buffer slots, rounded up to a power of two
+     */
+    public RequestLog(String path, Format format, int capacity, long flushIntervalMillis) throws IOException {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.format = format;
+        this.mask = size - 1;
+        this.startMillis = new long[size];
+        this.latencyNanos = new long[size];
+        this.statusCodes = new int[size];
+        this.published = new AtomicLongArray(size);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 64 * 1024));
+        if (format == Format.BINARY) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        } else {
+            out.write((CSV_HEADER + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        this.writer = new Thread(this::drain, "request-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Appends one request. Entries logged after {@link #close()} are dropped.
+     */
+    public void log(long startMillis, long latencyNanos, int statusCode) {
+        if (closed) {
+            return;
+        }
+        long seq = claimed.getAndIncrement();
+        if (seq - consumed > mask) {
+            fullWaits.increment();
+            while (seq - consumed > mask) {
+                if (!writer.isAlive()) {
+                    return;  // Claimed after close() and the writer is gone
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        int slot = (int) seq & mask;
+        this.startMillis[slot] = startMillis;
+        this.latencyNanos[slot] = latencyNanos;
+        this.statusCodes[slot] = statusCode;
+        published.lazySet(slot, seq + 1);
+    }
+
+    private void drain() {
+        byte[] line = new byte[64];
+        long lastFlush = System.nanoTime();
+        while (true) {
+            long seq = consumed;
+            int slot = (int) seq & mask;
+            if (published.get(slot) == seq + 1) {
+                write(slot, line);
+                consumed = seq + 1;
+                if ((seq & FLUSH_CHECK_MASK) == 0 && System.nanoTime() - lastFlush >= flushIntervalNanos) {
+                    flush();
+                    lastFlush = System.nanoTime();
+                }
+                continue;
+            }
+            // Nothing published yet; stop once closed and every claimed slot has been written
+            if (closed && seq >= claimed.get()) {
+                break;
+            }
+            if (System.nanoTime() - lastFlush >= flushIntervalNanos) {
+                flush();
+                lastFlush = System.nanoTime();
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        flush();
+    }
+
+    private void write(int slot, byte[] line) {
+        if (writeError != null) {
+            return;  // Keep draining so that senders are not blocked by a broken file
+        }
+        try {
+            if (format == Format.BINARY) {
+                out.writeLong(startMillis[slot]);
+                out.writeLong(latencyNanos[slot]);
+                out.writeShort(statusCodes[slot]);
+            } else {
+                int length = putDecimal(startMillis[slot], line, 0);
+                System.arraycopy(POST_FIELD, 0, line, length, POST_FIELD.length);
+                length = putDecimal(TimeUnit.NANOSECONDS.toMillis(latencyNanos[slot]), line, length + POST_FIELD.length);
+                line[length++] = ',';
+                length = putDecimal(statusCodes[slot], line, length);
+                line[length++] = '\n';
+                out.write(line, 0, length);
+            }
+        } catch (IOException e) {
+            writeError = e;
+        }
+    }
+
+    // Writes a non-negative value as ASCII digits; returns the offset just past them
+    private static int putDecimal(long value, byte[] dest, int offset) {
+        int digits = 1;
+        for (long rest = value; rest >= 10; rest /= 10) {
+            digits++;
+        }
+        int end = offset + digits;
+        int i = end;
+        do {
+            dest[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return end;
+    }
+
+    private void flush() {
+        if (writeError != null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            writeError = e;
+        }
+    }
+
+    /**
+     * @return how often a sender found the ring full and had to wait for the writer
+     */
+    public long getFullWaitCount() { return fullWaits.sum(); }
+
+    public long getWrittenCount() { return consumed; }
+
+    /**
+     * Writes what has been logged so far and closes the file.
+     *
+     * @throws IOException the first error writing the file, if any
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (writeError == null) {
+                writeError = e;
+            }
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package skiresort.client;
+
+import org.HdrHistogram.Histogram;
+import skiresort.common.LatencyRecorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a binary {@link RequestLog}, optionally writes it out as the CSV the client would
+ * have written, and prints a latency percentile report and the count of each status code.
+ * <p>
+ * Usage: {@code RequestLogConverter <request_log.bin> [<request_log.csv>]}
+ */
+public class RequestLogConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: RequestLogConverter <request_log.bin> [<request_log.csv>]");
+            System.exit(2);
+        }
+
+        Histogram latencies = new Histogram(TimeUnit.MINUTES.toNanos(10), 3);
+        Map<Integer, Long> statusCounts = new TreeMap<>();
+        long firstStart = Long.MAX_VALUE;
+        long lastStart = Long.MIN_VALUE;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0]), 64 * 1024));
+             PrintWriter csv = args.length == 2 ? new PrintWriter(new BufferedWriter(new FileWriter(args[1]), 64 * 1024)) : null) {
+            if (in.readInt() != RequestLog.MAGIC) {
+                throw new IOException(args[0] + " is not a binary request log");
+            }
+            int version = in.readInt();
+            if (version != RequestLog.VERSION) {
+                throw new IOException("Unsupported request log version " + version);
+            }
+            if (csv != null) {
+                csv.println(RequestLog.CSV_HEADER);
+            }
+
+            while (true) {
+                long startMillis;
+                try {
+                    startMillis = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long latencyNanos;
+                int statusCode;
+                try {
+                    latencyNanos = in.readLong();
+                    statusCode = in.readUnsignedShort();
+                } catch (EOFException e) {
+                    // The client was killed in the middle of a flush
+                    System.out.println("Skipped a truncated last record.");
+                    break;
+                }
+
+                latencies.recordValue(Math.min(latencyNanos, latencies.getHighestTrackableValue()));
+                statusCounts.merge(statusCode, 1L, Long::sum);
+                firstStart = Math.min(firstStart, startMillis);
+                lastStart = Math.max(lastStart, startMillis);
+                if (csv != null) {
+                    csv.println(startMillis + ",POST," + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "," + statusCode);
+                }
+            }
+        }
+
+        long count = latencies.getTotalCount();
+        System.out.println("Requests: " + count);
+        if (count == 0) {
+            return;
+        }
+        double seconds = Math.max(1, lastStart - firstStart) / 1000.0;
+        System.out.println("Throughput over the logged period (requests/sec): " + count / seconds);
+        for (double percentile : new double[] {50, 90, 99, 99.9, 99.99}) {
+            System.out.println(percentile + "th percentile response time (ms): "
+                    + LatencyRecorder.millis(latencies.getValueAtPercentile(percentile)));
+        }
+        System.out.println("Max response time (ms): " + LatencyRecorder.millis(latencies.getMaxValue()));
+        statusCounts.forEach((status, n) -> System.out.println("Status " + status + ": " + n));
+    }
+}
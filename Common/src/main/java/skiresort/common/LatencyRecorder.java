@@ -0,0 +1,111 @@
+package skiresort.common;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histogram that any number of threads record into without locking, in constant memory
+ * however many values are recorded. Backed by an HdrHistogram {@link Recorder}: recording is a
+ * wait-free increment of one bucket, and a reader swaps the active histogram out to take
+ * interval snapshots without stopping writers. Values are kept to three significant digits.
+ * <p>
+ * {@link #intervalSummary()}, {@link #total()} and {@link #recentWindow()} each see every value
+ * whichever of them is called, so a client's progress report and a metrics scrape can read the
+ * same recorder. They are synchronized, which only readers contend on.
+ */
+public class LatencyRecorder {
+
+    // Length of the windows recentWindow() reports on
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final long highestTrackableNanos;
+    private final Recorder recorder;
+    private final Histogram total;
+    private final Histogram sinceSummary;
+    private final Histogram window;
+    private Histogram lastWindow;
+    private Histogram interval;  // Recycled by every snapshot
+    private long intervalStartNanos = System.nanoTime();
+    private long windowStartNanos = intervalStartNanos;
+
+    /**
+     * @param highestTrackableNanos larger latencies are recorded as this value
+     */
+    public LatencyRecorder(long highestTrackableNanos) {
+        this.highestTrackableNanos = highestTrackableNanos;
+        this.recorder = new Recorder(highestTrackableNanos, 3);
+        this.total = new Histogram(highestTrackableNanos, 3);
+        this.sinceSummary = new Histogram(highestTrackableNanos, 3);
+        this.window = new Histogram(highestTrackableNanos, 3);
+        this.lastWindow = new Histogram(highestTrackableNanos, 3);
+    }
+
+    public void recordNanos(long latencyNanos) {
+        recorder.recordValue(Math.max(0, Math.min(latencyNanos, highestTrackableNanos)));
+    }
+
+    /**
+     * Takes the values recorded since the previous snapshot, adds them to the total and
+     * describes them: count per second and p50/p99/p99.9 in milliseconds.
+     */
+    public synchronized String intervalSummary() {
+        long now = System.nanoTime();
+        double seconds = (now - intervalStartNanos) / 1e9;
+        intervalStartNanos = now;
+        snapshot();
+        String summary = String.format("%.0f/sec, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms",
+                sinceSummary.getTotalCount() / seconds, millis(sinceSummary.getValueAtPercentile(50)),
+                millis(sinceSummary.getValueAtPercentile(99)), millis(sinceSummary.getValueAtPercentile(99.9)));
+        sinceSummary.reset();
+        return summary;
+    }
+
+    /**
+     * @return a copy of everything recorded so far
+     */
+    public synchronized Histogram total() {
+        snapshot();
+        return total.copy();
+    }
+
+    /**
+     * @return the values of the last complete 10-second window, so that readers polling within
+     *         the same window all see the same percentiles, or those so far if the first window
+     *         is not over yet; do not modify
+     */
+    public synchronized Histogram recentWindow() {
+        snapshot();
+        long now = System.nanoTime();
+        if (now - windowStartNanos >= WINDOW_NANOS) {
+            windowStartNanos = now;
+            Histogram completed = window.copy();
+            window.reset();
+            lastWindow = completed;
+        }
+        return lastWindow.getTotalCount() == 0 ? window.copy() : lastWindow;
+    }
+
+    /**
+     * @return number of values recorded so far
+     */
+    public synchronized long count() {
+        snapshot();
+        return total.getTotalCount();
+    }
+
+    private void snapshot() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        sinceSummary.add(interval);
+        window.add(interval);
+    }
+
+    /**
+     * Converts a recorded value to fractional milliseconds for printing.
+     */
+    public static double millis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -1,3 +1,5 @@
+package skiresort.common;
+
 public class LiftRide {
     private final int skierID;
     private final int resortID;
@@ -15,7 +17,6 @@ public class LiftRide {
         this.time = time;
     }
 
-
     public int getSkierID() { return skierID; }
     public int getResortID() { return resortID; }
     public int getLiftID() { return liftID; }
@@ -0,0 +1,186 @@
+package skiresort.common;
+
+/**
+ * Walks the lift rides of a bulk body one at a time, without decoding the whole body first.
+ * The body is either a JSON array of ride objects or NDJSON, one ride object per line; a body
+ * whose first non-whitespace byte is {@code [} is an array. {@link #next} only finds where the
+ * next item starts and ends, and {@link #ride} decodes it with {@link LiftRideJsonCodec}, so a
+ * malformed item fails on its own while the items around it are still read.
+ * <pre>
+ * LiftRideBatchReader reader = new LiftRideBatchReader(body, 0, length);
+ * while (reader.next()) {
+ *     try {
+ *         LiftRide ride = reader.ride();
+ *     } catch (IllegalArgumentException e) {
+ *         // item reader.index() is malformed
+ *     }
+ * }
+ * </pre>
+ */
+public final class LiftRideBatchReader {
+
+    /** Content type of a body with one JSON ride per line. */
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    private final byte[] buf;
+    private final int end;
+    private final boolean array;
+    private int pos;
+    private int index = -1;
+    private int itemStart;
+    private int itemEnd;
+    private boolean closed;
+
+    public LiftRideBatchReader(byte[] src, int offset, int length) {
+        this.buf = src;
+        this.end = offset + length;
+        this.pos = offset;
+        skipWhitespace();
+        this.array = pos < end && buf[pos] == '[';
+        if (array) {
+            pos++;
+        }
+    }
+
+    /**
+     * Moves to the next item.
+     *
+     * @return false once there are no more items
+     * @throws IllegalArgumentException if a JSON array is not closed, or has something other than
+     *                                  a comma between two items; items after that cannot be found
+     */
+    public boolean next() {
+        return array ? nextArrayItem() : nextLine();
+    }
+
+    /**
+     * @return position of the current item in the body, counting from 0
+     */
+    public int index() { return index; }
+
+    /**
+     * Decodes the current item.
+     *
+     * @throws IllegalArgumentException if the item is not a JSON object
+     */
+    public LiftRide ride() {
+        return LiftRideJsonCodec.decode(buf, itemStart, itemEnd - itemStart);
+    }
+
+    private boolean nextLine() {
+        while (pos < end) {
+            int lineStart = pos;
+            while (pos < end && buf[pos] != '\n') {
+                pos++;
+            }
+            int lineEnd = pos;
+            if (pos < end) {
+                pos++;
+            }
+            if (!isBlank(lineStart, lineEnd)) {
+                itemStart = lineStart;
+                itemEnd = lineEnd;
+                index++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean nextArrayItem() {
+        if (closed) {
+            return false;
+        }
+        skipWhitespace();
+        if (pos >= end) {
+            throw error("Unterminated array");
+        }
+        if (index >= 0) {
+            if (buf[pos] == ']') {
+                return close();
+            }
+            if (buf[pos] != ',') {
+                throw error("Expected ',' or ']'");
+            }
+            pos++;
+            skipWhitespace();
+        } else if (buf[pos] == ']') {
+            return close();
+        }
+
+        // The item runs to the next ',' or ']' outside any string, object or array
+        itemStart = pos;
+        int depth = 0;
+        while (pos < end) {
+            byte c = buf[pos];
+            if (c == '"') {
+                skipString();
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    break;
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                break;
+            }
+            pos++;
+        }
+        if (pos >= end) {
+            throw error("Unterminated array");
+        }
+        itemEnd = pos;
+        index++;
+        return true;
+    }
+
+    private boolean close() {
+        pos++;
+        skipWhitespace();
+        if (pos < end) {
+            throw error("Unexpected data after the array");
+        }
+        closed = true;
+        return false;
+    }
+
+    // Skips the string starting at pos, past its closing quote or to the end of the body
+    private void skipString() {
+        pos++;
+        while (pos < end) {
+            byte c = buf[pos++];
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                pos++;
+            }
+        }
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isWhitespace(buf[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(buf[pos])) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Malformed lift ride batch: " + message + " at offset " + pos);
+    }
+}
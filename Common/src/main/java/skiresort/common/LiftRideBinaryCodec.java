@@ -0,0 +1,163 @@
+package skiresort.common;
+
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of a {@link LiftRide} for {@code lift_ride_queue}.
+ * <p>
+ * Layout (version 1): one version byte followed by six unsigned LEB128 varints, in order
+ * skierID, resortID, liftID, seasonID, dayID, time. seasonID and dayID travel as numbers, so
+ * they must be canonical non-negative decimal strings. A typical ride is about 12 bytes,
+ * against roughly 85 for the JSON form. The version byte can never be the first byte of a
+ * JSON document, which is how {@link WireFormat} tells the two apart without a content type.
+ */
+public final class LiftRideBinaryCodec {
+
+    public static final byte VERSION_1 = 1;
+
+    /** Version byte plus six varints of at most 5 bytes. */
+    public static final int MAX_ENCODED_LENGTH = 1 + 6 * 5;
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[MAX_ENCODED_LENGTH]);
+
+    private LiftRideBinaryCodec() {}
+
+    /**
+     * @return true if every field of {@code ride} can be represented in the binary format
+     */
+    public static boolean canEncode(LiftRide ride) {
+        return ride.getSkierID() >= 0 && ride.getResortID() >= 0 && ride.getLiftID() >= 0 && ride.getTime() >= 0
+                && parseCanonical(ride.getSeasonID()) >= 0 && parseCanonical(ride.getDayID()) >= 0;
+    }
+
+    /**
+     * Writes {@code ride} into {@code dest} starting at {@code offset}.
+     *
+     * @return offset just past the encoded bytes
+     * @throws IllegalArgumentException if {@link #canEncode} is false for {@code ride}
+     */
+    public static int encode(LiftRide ride, byte[] dest, int offset) {
+        int seasonID = parseCanonical(ride.getSeasonID());
+        int dayID = parseCanonical(ride.getDayID());
+        if (seasonID < 0 || dayID < 0 || ride.getSkierID() < 0 || ride.getResortID() < 0
+                || ride.getLiftID() < 0 || ride.getTime() < 0) {
+            throw new IllegalArgumentException("Lift ride has fields the binary format cannot represent");
+        }
+        return encode(ride.getSkierID(), ride.getResortID(), ride.getLiftID(), seasonID, dayID, ride.getTime(), dest, offset);
+    }
+
+    /**
+     * Writes a ride given as primitives, all of which must be non-negative.
+     *
+     * @return offset just past the encoded bytes
+     */
+    public static int encode(int skierID, int resortID, int liftID, int seasonID, int dayID, int time,
+                             byte[] dest, int offset) {
+        int pos = offset;
+        dest[pos++] = VERSION_1;
+        pos = putVarint(dest, pos, skierID);
+        pos = putVarint(dest, pos, resortID);
+        pos = putVarint(dest, pos, liftID);
+        pos = putVarint(dest, pos, seasonID);
+        pos = putVarint(dest, pos, dayID);
+        return putVarint(dest, pos, time);
+    }
+
+    /**
+     * Encodes {@code ride} into a new array of exactly the encoded size.
+     */
+    public static byte[] encode(LiftRide ride) {
+        byte[] scratch = SCRATCH.get();
+        return Arrays.copyOf(scratch, encode(ride, scratch, 0));
+    }
+
+    public static LiftRide decode(byte[] src) {
+        return decode(src, 0, src.length);
+    }
+
+    /**
+     * Decodes one ride from {@code src[offset, offset + length)}.
+     *
+     * @throws IllegalArgumentException if the bytes are truncated, of an unknown version or hold
+     *                                  a value that does not fit a non-negative int
+     */
+    public static LiftRide decode(byte[] src, int offset, int length) {
+        int end = offset + length;
+        if (length < 1 || src[offset] != VERSION_1) {
+            throw new IllegalArgumentException("Unknown lift ride binary version");
+        }
+        Reader reader = new Reader(src, offset + 1, end);
+        int skierID = reader.readVarint();
+        int resortID = reader.readVarint();
+        int liftID = reader.readVarint();
+        int seasonID = reader.readVarint();
+        int dayID = reader.readVarint();
+        int time = reader.readVarint();
+        return new LiftRide(skierID, resortID, liftID,
+                LiftRideJsonCodec.numberString(seasonID), LiftRideJsonCodec.numberString(dayID), time);
+    }
+
+    private static int putVarint(byte[] dest, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            dest[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dest[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * @return the value of a canonical non-negative decimal string, or -1 if it is not one
+     */
+    private static int parseCanonical(String s) {
+        if (s == null || s.isEmpty() || s.length() > 9 || (s.length() > 1 && s.charAt(0) == '0')) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Cursor over the encoded bytes.
+     */
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int start, int end) {
+            this.buf = buf;
+            this.pos = start;
+            this.end = end;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (pos >= end) {
+                    throw new IllegalArgumentException("Truncated lift ride");
+                }
+                byte b = buf[pos++];
+                if (shift == 28 && (b & 0xF0) != 0) {
+                    // The 5th byte only has room for the top 4 bits of an int
+                    throw new IllegalArgumentException("Varint overflows an int in lift ride");
+                }
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    if (value < 0) {
+                        throw new IllegalArgumentException("Negative value in lift ride");
+                    }
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in lift ride");
+        }
+    }
+}
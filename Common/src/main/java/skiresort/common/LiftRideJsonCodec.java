@@ -0,0 +1,471 @@
+package skiresort.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Hand-written JSON codec for {@link LiftRide}, wire compatible with what Gson produces:
+ * <pre>{"skierID":1,"resortID":2,"liftID":3,"seasonID":"2024","dayID":"1","time":4}</pre>
+ * Encoding writes UTF-8 straight into a caller supplied (reusable) byte array, and decoding
+ * reads straight from the message bytes, so neither side builds an intermediate String or
+ * touches reflection. Like Gson, decoding ignores unknown fields, leaves missing fields at
+ * 0/null and accepts numbers for the String fields.
+ */
+public final class LiftRideJsonCodec {
+
+    /** Enough for any ride whose seasonID and dayID add up to at most 20 characters. */
+    public static final int MAX_ENCODED_LENGTH = 256;
+
+    private static final byte[] SKIER_ID = "{\"skierID\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESORT_ID = ",\"resortID\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LIFT_ID = ",\"liftID\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEASON_ID = ",\"seasonID\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DAY_ID = ",\"dayID\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIME = ",\"time\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // Field names and punctuation, plus four ints of at most 11 bytes ("-2147483648")
+    private static final int FIXED_LENGTH = SKIER_ID.length + RESORT_ID.length + LIFT_ID.length + SEASON_ID.length
+            + DAY_ID.length + TIME.length + 1 + 4 * 11;
+
+    private static final byte[] KEY_SKIER_ID = "skierID".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_RESORT_ID = "resortID".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_LIFT_ID = "liftID".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_SEASON_ID = "seasonID".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_DAY_ID = "dayID".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_TIME = "time".getBytes(StandardCharsets.US_ASCII);
+
+    // seasonID and dayID are almost always short numbers, decode those without allocating
+    private static final int CACHED_NUMBERS = 10000;
+    private static final String[] NUMBER_STRINGS = new String[CACHED_NUMBERS];
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[MAX_ENCODED_LENGTH]);
+
+    private LiftRideJsonCodec() {}
+
+    /**
+     * Upper bound on the encoded size of {@code ride}, for sizing the destination array.
+     */
+    public static int maxEncodedLength(LiftRide ride) {
+        return FIXED_LENGTH + maxEncodedLength(ride.getSeasonID()) + maxEncodedLength(ride.getDayID());
+    }
+
+    /**
+     * Writes {@code ride} into {@code dest} starting at {@code offset}.
+     *
+     * @return offset just past the encoded bytes
+     * @throws ArrayIndexOutOfBoundsException if {@code dest} has less than {@link #maxEncodedLength} bytes left
+     */
+    public static int encode(LiftRide ride, byte[] dest, int offset) {
+        int pos = put(dest, offset, SKIER_ID);
+        pos = putInt(dest, pos, ride.getSkierID());
+        pos = put(dest, pos, RESORT_ID);
+        pos = putInt(dest, pos, ride.getResortID());
+        pos = put(dest, pos, LIFT_ID);
+        pos = putInt(dest, pos, ride.getLiftID());
+        pos = put(dest, pos, SEASON_ID);
+        pos = putString(dest, pos, ride.getSeasonID());
+        pos = put(dest, pos, DAY_ID);
+        pos = putString(dest, pos, ride.getDayID());
+        pos = put(dest, pos, TIME);
+        pos = putInt(dest, pos, ride.getTime());
+        dest[pos++] = '}';
+        return pos;
+    }
+
+    /**
+     * Encodes {@code ride} into a new array of exactly the encoded size.
+     */
+    public static byte[] encode(LiftRide ride) {
+        int bound = maxEncodedLength(ride);
+        byte[] scratch = bound <= MAX_ENCODED_LENGTH ? SCRATCH.get() : new byte[bound];
+        return Arrays.copyOf(scratch, encode(ride, scratch, 0));
+    }
+
+    public static LiftRide decode(byte[] src) {
+        return decode(src, 0, src.length);
+    }
+
+    /**
+     * Decodes one lift ride object from {@code src[offset, offset + length)}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a JSON object, or anything but
+     *                                  whitespace follows it
+     */
+    public static LiftRide decode(byte[] src, int offset, int length) {
+        return new Reader(src, offset, offset + length).readLiftRide();
+    }
+
+    private static int maxEncodedLength(String s) {
+        // Worst case every char becomes a 6 byte unicode escape
+        return s == null ? NULL.length : 2 + 6 * s.length();
+    }
+
+    private static int put(byte[] dest, int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, dest, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static int putInt(byte[] dest, int pos, int value) {
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                return put(dest, pos, Integer.toString(value).getBytes(StandardCharsets.US_ASCII));
+            }
+            dest[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            dest[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int putString(byte[] dest, int pos, String s) {
+        if (s == null) {
+            return put(dest, pos, NULL);
+        }
+        dest[pos++] = '"';
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                dest[pos++] = '\\';
+                dest[pos++] = (byte) c;
+            } else if (c < 0x20) {
+                dest[pos++] = '\\';
+                dest[pos++] = 'u';
+                dest[pos++] = '0';
+                dest[pos++] = '0';
+                dest[pos++] = HEX[c >> 4];
+                dest[pos++] = HEX[c & 0xF];
+            } else if (c < 0x80) {
+                dest[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                dest[pos++] = (byte) (0xC0 | (c >> 6));
+                dest[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                dest[pos++] = (byte) (0xF0 | (cp >> 18));
+                dest[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                dest[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                dest[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                dest[pos++] = (byte) (0xE0 | (c >> 12));
+                dest[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dest[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        dest[pos++] = '"';
+        return pos;
+    }
+
+    /**
+     * Returns a String for {@code value}, shared between calls if it is small and non-negative.
+     */
+    static String numberString(int value) {
+        if (value < 0 || value >= CACHED_NUMBERS) {
+            return Integer.toString(value);
+        }
+        String s = NUMBER_STRINGS[value];
+        if (s == null) {
+            // Racy but benign, at worst two threads build the same string
+            s = Integer.toString(value);
+            NUMBER_STRINGS[value] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Cursor over the encoded bytes.
+     */
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int start, int end) {
+            this.buf = buf;
+            this.pos = start;
+            this.end = end;
+        }
+
+        LiftRide readLiftRide() {
+            LiftRide ride = readObject();
+            skipWhitespace();
+            if (pos < end) {
+                throw error("Unexpected data after the object");
+            }
+            return ride;
+        }
+
+        private LiftRide readObject() {
+            int skierID = 0, resortID = 0, liftID = 0, time = 0;
+            String seasonID = null, dayID = null;
+
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return new LiftRide(skierID, resortID, liftID, seasonID, dayID, time);
+            }
+
+            while (true) {
+                skipWhitespace();
+                expect('"');
+                int keyStart = pos;
+                int keyEnd = skipString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+
+                if (keyEquals(keyStart, keyEnd, KEY_SKIER_ID)) {
+                    skierID = readInt();
+                } else if (keyEquals(keyStart, keyEnd, KEY_RESORT_ID)) {
+                    resortID = readInt();
+                } else if (keyEquals(keyStart, keyEnd, KEY_LIFT_ID)) {
+                    liftID = readInt();
+                } else if (keyEquals(keyStart, keyEnd, KEY_SEASON_ID)) {
+                    seasonID = readStringValue();
+                } else if (keyEquals(keyStart, keyEnd, KEY_DAY_ID)) {
+                    dayID = readStringValue();
+                } else if (keyEquals(keyStart, keyEnd, KEY_TIME)) {
+                    time = readInt();
+                } else {
+                    skipValue();
+                }
+
+                skipWhitespace();
+                byte b = next();
+                if (b == '}') {
+                    return new LiftRide(skierID, resortID, liftID, seasonID, dayID, time);
+                }
+                if (b != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private boolean keyEquals(int start, int keyEnd, byte[] key) {
+            return Arrays.equals(buf, start, keyEnd, key, 0, key.length);
+        }
+
+        private int readInt() {
+            boolean negative = false;
+            if (peek() == '-') {
+                negative = true;
+                pos++;
+            }
+            int start = pos;
+            long value = 0;
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                value = value * 10 + (buf[pos++] - '0');
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    throw error("Number too large");
+                }
+            }
+            if (pos == start) {
+                throw error("Expected a number");
+            }
+            if (pos < end && (buf[pos] == '.' || buf[pos] == 'e' || buf[pos] == 'E')) {
+                throw error("Expected an int");
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw error("Number too large");
+            }
+            return (int) value;
+        }
+
+        /**
+         * Reads a string, a bare number or null as a String.
+         */
+        private String readStringValue() {
+            byte b = peek();
+            if (b == 'n') {
+                expectLiteral(NULL);
+                return null;
+            }
+            if (b != '"') {
+                int start = pos;
+                skipValue();
+                return new String(buf, start, pos - start, StandardCharsets.US_ASCII);
+            }
+
+            pos++;
+            int start = pos;
+            int value = 0;
+            boolean plain = true;
+            while (true) {
+                if (pos >= end) {
+                    throw error("Unterminated string");
+                }
+                byte c = buf[pos];
+                if (c == '"') {
+                    break;
+                }
+                if (c == '\\' || c < 0) {
+                    // Escapes or non-ASCII, let the slow path deal with it
+                    pos = start - 1;
+                    return readEscapedString();
+                }
+                if (c >= '0' && c <= '9' && pos - start < 4) {
+                    value = value * 10 + (c - '0');
+                } else {
+                    plain = false;
+                }
+                pos++;
+            }
+            int length = pos - start;
+            pos++;
+            boolean canonical = length == 1 || buf[start] != '0';
+            if (plain && length > 0 && canonical) {
+                return numberString(value);
+            }
+            return new String(buf, start, length, StandardCharsets.US_ASCII);
+        }
+
+        private String readEscapedString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            int runStart = pos;
+            while (true) {
+                if (pos >= end) {
+                    throw error("Unterminated string");
+                }
+                byte c = buf[pos];
+                if (c == '"') {
+                    sb.append(new String(buf, runStart, pos - runStart, StandardCharsets.UTF_8));
+                    pos++;
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    pos++;
+                    continue;
+                }
+                sb.append(new String(buf, runStart, pos - runStart, StandardCharsets.UTF_8));
+                pos++;
+                byte escaped = next();
+                switch (escaped) {
+                    case '"': sb.append('"'); break;
+                    case '\\': sb.append('\\'); break;
+                    case '/': sb.append('/'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > end) {
+                            throw error("Bad unicode escape");
+                        }
+                        int cp = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(buf[pos++], 16);
+                            if (digit < 0) {
+                                throw error("Bad unicode escape");
+                            }
+                            cp = (cp << 4) | digit;
+                        }
+                        sb.append((char) cp);
+                        break;
+                    default:
+                        throw error("Bad escape");
+                }
+                runStart = pos;
+            }
+        }
+
+        /**
+         * Skips a string whose opening quote was already consumed.
+         *
+         * @return index of the closing quote
+         */
+        private int skipString() {
+            while (pos < end) {
+                byte c = buf[pos++];
+                if (c == '"') {
+                    return pos - 1;
+                }
+                if (c == '\\') {
+                    pos++;
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private void skipValue() {
+            byte b = peek();
+            if (b == '"') {
+                pos++;
+                skipString();
+            } else if (b == '{' || b == '[') {
+                int depth = 0;
+                do {
+                    byte c = next();
+                    if (c == '"') {
+                        skipString();
+                    } else if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    }
+                } while (depth > 0);
+            } else {
+                int start = pos;
+                while (pos < end && buf[pos] != ',' && buf[pos] != '}' && buf[pos] != ']' && !isWhitespace(buf[pos])) {
+                    pos++;
+                }
+                if (pos == start) {
+                    throw error("Expected a value");
+                }
+            }
+        }
+
+        private void expectLiteral(byte[] literal) {
+            if (end - pos < literal.length || !Arrays.equals(buf, pos, pos + literal.length, literal, 0, literal.length)) {
+                throw error("Unexpected value");
+            }
+            pos += literal.length;
+        }
+
+        private void skipWhitespace() {
+            while (pos < end && isWhitespace(buf[pos])) {
+                pos++;
+            }
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private byte peek() {
+            if (pos >= end) {
+                throw error("Unexpected end of input");
+            }
+            return buf[pos];
+        }
+
+        private byte next() {
+            byte b = peek();
+            pos++;
+            return b;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Malformed lift ride JSON: " + message + " at offset " + pos);
+        }
+    }
+}
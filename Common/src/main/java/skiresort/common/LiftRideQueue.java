@@ -0,0 +1,66 @@
+package skiresort.common;
+
+import java.util.Map;
+
+/**
+ * Names and arguments of {@code lift_ride_queue} and its dead-letter queue, declared the same
+ * way by the server and the consumer. Rides the consumer rejects without requeueing (ones it
+ * cannot decode, or that failed again after a redelivery) are routed through
+ * {@link #DEAD_LETTER_EXCHANGE} to {@link #DEAD_LETTER_QUEUE} instead of being dropped.
+ * <p>
+ * RabbitMQ refuses to redeclare a queue with different arguments, so a
+ * {@code lift_ride_queue} created before the dead-letter arguments were added has to be
+ * deleted (or given the same settings through a policy) before upgrading.
+ * <p>
+ * In the partitioned mode ({@code rabbitmq.partitions} above 0) rides go instead through the
+ * direct exchange {@link #PARTITION_EXCHANGE} to one of {@link #partitionQueue} 0 to n - 1,
+ * picked by {@link #partitionOf} from the skierID, so all rides of a skier land in one queue.
+ * The partition queues dead-letter the same way. Every publisher and consumer must use the
+ * same partition count; changing it moves skiers between queues, so drain them first.
+ */
+public final class LiftRideQueue {
+
+    public static final String NAME = "lift_ride_queue";
+    public static final String DEAD_LETTER_EXCHANGE = "lift_ride_dlx";
+    public static final String DEAD_LETTER_QUEUE = "lift_ride_queue.dead";
+    public static final String PARTITION_EXCHANGE = "lift_ride_partitions";
+
+    private LiftRideQueue() {}
+
+    /**
+     * @return arguments to declare {@link #NAME} with
+     */
+    public static Map<String, Object> arguments() {
+        return Map.of(
+                "x-dead-letter-exchange", DEAD_LETTER_EXCHANGE,
+                "x-dead-letter-routing-key", DEAD_LETTER_QUEUE);
+    }
+
+    /**
+     * @return name of the queue for {@code partition}, bound to {@link #PARTITION_EXCHANGE}
+     *         with {@link #partitionKey}
+     */
+    public static String partitionQueue(int partition) {
+        return NAME + ".p" + partition;
+    }
+
+    public static String partitionKey(int partition) {
+        return Integer.toString(partition);
+    }
+
+    /**
+     * Spreads skiers evenly over the partitions whatever their IDs have in common, by mixing
+     * the bits of the skierID (the MurmurHash3 finalizer) before taking the remainder.
+     *
+     * @return the partition, 0 to {@code partitions} - 1, that the skier's rides go to
+     */
+    public static int partitionOf(int skierID, int partitions) {
+        int hash = skierID;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, partitions);
+    }
+}
@@ -0,0 +1,101 @@
+package skiresort.common;
+
+/**
+ * Redis keys written by the consumer and read by the server. Every aggregate a GET needs has a
+ * key of its own, maintained incrementally as rides are written:
+ * <pre>
+ * vertical:{resortID}:{seasonID}:{dayID}   hash   skierID -> vertical that day        HINCRBY / HGET
+ * skier:{skierID}:seasons                  hash   {resortID}:{seasonID} -> vertical   HINCRBY / HGET, HGETALL
+ * skiers:{resortID}:{seasonID}:{dayID}     HLL    skierIDs with a ride that day       PFADD / PFCOUNT
+ * rides:{skierID}                          string ride records, appended             APPEND / GETRANGE
+ * seen:{bucket}                            set    ride IDs already applied            SADD (consumer only)
+ * consumers                                zset   consumer -> membership expiry ms   ZADD (consumer only)
+ * partition:{partition}                    string consumer holding the lease           SET NX PX (consumer only)
+ * ride-id-node:{node}                      string server holding the ride ID node      SET NX PX (server only)
+ * </pre>
+ * A ride record is {@link #RIDE_RECORD_LENGTH} big-endian bytes: resortID (1), liftID (1),
+ * seasonID (2), dayID (2), time (2). The unique skier count is a HyperLogLog, so it is an
+ * estimate with about 0.81% standard error in 12 KB per resort and day. The {@code seen} sets
+ * hold the IDs of recently applied rides, bucketed by publish time so whole buckets expire.
+ * In the partitioned mode, consumers keep themselves in {@code consumers} and lease each
+ * partition queue they read through its {@code partition} key. Servers not given a ride ID
+ * node lease one through its {@code ride-id-node} key.
+ */
+public final class RedisLayout {
+
+    public static final int RIDE_RECORD_LENGTH = 8;
+    public static final String CONSUMERS_KEY = "consumers";
+
+    private RedisLayout() {}
+
+    public static String dayVerticalKey(int resortID, int seasonID, int dayID) {
+        return "vertical:" + resortID + ":" + seasonID + ":" + dayID;
+    }
+
+    public static String seasonVerticalKey(int skierID) {
+        return "skier:" + skierID + ":seasons";
+    }
+
+    public static String seasonVerticalField(int resortID, int seasonID) {
+        return resortID + ":" + seasonID;
+    }
+
+    public static String uniqueSkiersKey(int resortID, int seasonID, int dayID) {
+        return "skiers:" + resortID + ":" + seasonID + ":" + dayID;
+    }
+
+    public static String ridesKey(int skierID) {
+        return "rides:" + skierID;
+    }
+
+    public static String rideSeenKey(long bucket) {
+        return "seen:" + bucket;
+    }
+
+    public static String partitionLeaseKey(int partition) {
+        return "partition:" + partition;
+    }
+
+    public static String rideIdNodeKey(int node) {
+        return "ride-id-node:" + node;
+    }
+
+    /**
+     * @return true if the ride fits the fixed-width ride record
+     */
+    public static boolean canRecord(int resortID, int liftID, int seasonID, int dayID, int time) {
+        return (resortID & ~0xFF) == 0 && (liftID & ~0xFF) == 0 && (seasonID & ~0xFFFF) == 0
+                && (dayID & ~0xFFFF) == 0 && (time & ~0xFFFF) == 0;
+    }
+
+    /**
+     * Writes one ride record into {@code dest} starting at {@code offset}.
+     *
+     * @return offset just past the record
+     * @throws IllegalArgumentException if {@link #canRecord} is false for the ride
+     */
+    public static int putRideRecord(int resortID, int liftID, int seasonID, int dayID, int time, byte[] dest, int offset) {
+        if (!canRecord(resortID, liftID, seasonID, dayID, time)) {
+            throw new IllegalArgumentException("Lift ride has fields the ride record cannot represent");
+        }
+        dest[offset] = (byte) resortID;
+        dest[offset + 1] = (byte) liftID;
+        dest[offset + 2] = (byte) (seasonID >>> 8);
+        dest[offset + 3] = (byte) seasonID;
+        dest[offset + 4] = (byte) (dayID >>> 8);
+        dest[offset + 5] = (byte) dayID;
+        dest[offset + 6] = (byte) (time >>> 8);
+        dest[offset + 7] = (byte) time;
+        return offset + RIDE_RECORD_LENGTH;
+    }
+
+    public static int recordResortID(byte[] records, int offset) { return records[offset] & 0xFF; }
+    public static int recordLiftID(byte[] records, int offset) { return records[offset + 1] & 0xFF; }
+    public static int recordSeasonID(byte[] records, int offset) { return readShort(records, offset + 2); }
+    public static int recordDayID(byte[] records, int offset) { return readShort(records, offset + 4); }
+    public static int recordTime(byte[] records, int offset) { return readShort(records, offset + 6); }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,67 @@
+package skiresort.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assigns every lift ride a 63-bit ID when it is published, so consumers can recognise a
+ * redelivered ride. An ID is 41 bits of milliseconds since {@link #EPOCH_MILLIS}, 10 bits of
+ * node (one per publishing process) and a 12-bit sequence within the millisecond: unique as
+ * long as no two running publishers share a node, and roughly ordered by publish time, which
+ * lets a consumer bucket its dedupe window by {@link #timestampMillis(long)}. Publishers
+ * sharing a node produce the same IDs and consumers then drop real rides as duplicates, so a
+ * node is configured or leased per publisher, never guessed.
+ * <p>
+ * Lock-free; when more than 4096 IDs are asked for in one millisecond the caller spins into
+ * the next one.
+ */
+public final class RideIdGenerator {
+
+    /** 2024-01-01T00:00:00Z; 41 bits of milliseconds from here last about 69 years. */
+    public static final long EPOCH_MILLIS = 1_704_067_200_000L;
+
+    public static final int NODE_BITS = 10;
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long node;
+    // Last ID handed out, minus the node bits
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * @param node 0 to {@link #MAX_NODE}; publishers running at the same time need distinct nodes
+     */
+    public RideIdGenerator(int node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("node must be between 0 and " + MAX_NODE);
+        }
+        this.node = (long) node << SEQUENCE_BITS;
+    }
+
+    public long nextId() {
+        while (true) {
+            long previous = last.get();
+            long now = (System.currentTimeMillis() - EPOCH_MILLIS) << (NODE_BITS + SEQUENCE_BITS);
+            long next;
+            if (now > previous) {
+                next = now;
+            } else if ((previous & SEQUENCE_MASK) != SEQUENCE_MASK) {
+                // Same millisecond, or the clock went back: keep counting from the last ID
+                next = previous + 1;
+            } else {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (last.compareAndSet(previous, next)) {
+                return next | node;
+            }
+        }
+    }
+
+    /**
+     * @return publish time encoded in {@code id}, in epoch milliseconds
+     */
+    public static long timestampMillis(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+}
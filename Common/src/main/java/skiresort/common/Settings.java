@@ -0,0 +1,73 @@
+package skiresort.common;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Deployment settings (hosts, ports, credentials, URLs) read at startup instead of edited into
+ * the source. A setting such as {@code rabbitmq.host} comes from the system property
+ * {@code skiresort.rabbitmq.host}, else from the environment variable
+ * {@code SKIRESORT_RABBITMQ_HOST}, else from the default the caller passes. Properties are
+ * read when the class using them initializes, so set them before that (e.g. {@code -D} on the
+ * command line, or {@code CATALINA_OPTS} for the server).
+ */
+public final class Settings {
+
+    private static final String PROPERTY_PREFIX = "skiresort.";
+
+    private Settings() {}
+
+    public static String string(String name, String defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + name);
+        if (value == null) {
+            value = System.getenv(environmentName(name));
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int integer(String name, int defaultValue) {
+        String value = string(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting " + name + " must be a whole number, not \"" + value + "\"", e);
+        }
+    }
+
+    public static boolean flag(String name, boolean defaultValue) {
+        String value = string(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+            return Boolean.parseBoolean(value);
+        }
+        throw new IllegalArgumentException("Setting " + name + " must be true or false, not \"" + value + "\"");
+    }
+
+    /**
+     * Creates the class named by the setting, through its no-argument constructor, or returns
+     * {@code defaultValue} if the setting is not given. Lets a harness swap an implementation
+     * (e.g. an in-memory RabbitMQ connection factory) into code it cannot construct itself.
+     */
+    public static <T> T instance(String name, Class<T> type, Supplier<T> defaultValue) {
+        String className = string(name, null);
+        if (className == null) {
+            return defaultValue.get();
+        }
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Setting " + name + " must name a " + type.getName()
+                    + " with a public no-argument constructor, not " + className, e);
+        }
+    }
+
+    // rabbitmq.connection-factory -> SKIRESORT_RABBITMQ_CONNECTION_FACTORY
+    static String environmentName(String name) {
+        return (PROPERTY_PREFIX + name).toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+}
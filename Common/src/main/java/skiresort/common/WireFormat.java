@@ -0,0 +1,65 @@
+package skiresort.common;
+
+/**
+ * Encodings a lift ride can have on {@code lift_ride_queue}, identified by the AMQP
+ * {@code content_type} property. Consumers accept both so publishers can be switched from
+ * JSON to binary one at a time.
+ */
+public enum WireFormat {
+    JSON("application/json") {
+        @Override
+        public byte[] encode(LiftRide ride) {
+            return LiftRideJsonCodec.encode(ride);
+        }
+
+        @Override
+        public LiftRide decode(byte[] body, int offset, int length) {
+            return LiftRideJsonCodec.decode(body, offset, length);
+        }
+    },
+    BINARY("application/vnd.skiresort.liftride.v1") {
+        @Override
+        public byte[] encode(LiftRide ride) {
+            return LiftRideBinaryCodec.encode(ride);
+        }
+
+        @Override
+        public LiftRide decode(byte[] body, int offset, int length) {
+            return LiftRideBinaryCodec.decode(body, offset, length);
+        }
+    };
+
+    private final String contentType;
+
+    WireFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public abstract byte[] encode(LiftRide ride);
+
+    public abstract LiftRide decode(byte[] body, int offset, int length);
+
+    public LiftRide decode(byte[] body) {
+        return decode(body, 0, body.length);
+    }
+
+    /**
+     * Picks the format of a message from its content type, falling back to looking at the first
+     * byte for messages published without one (or by an older publisher).
+     */
+    public static WireFormat of(String contentType, byte[] body) {
+        if (contentType != null) {
+            if (contentType.equals(BINARY.contentType)) {
+                return BINARY;
+            }
+            if (contentType.equals(JSON.contentType)) {
+                return JSON;
+            }
+        }
+        return body.length > 0 && body[0] == LiftRideBinaryCodec.VERSION_1 ? BINARY : JSON;
+    }
+}
@@ -0,0 +1,90 @@
+package skiresort.common.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Serves a {@link MetricsRegistry} as plain text on {@code GET /metrics}, one line per
+ * metric, with the JDK's built-in HTTP server on a single daemon thread. For processes that
+ * are not already running in a servlet container. Health checks added with {@link #addCheck}
+ * answer on paths of their own, for probes such as liveness and readiness.
+ */
+public final class MetricsHttpServer implements AutoCloseable {
+
+    public static final String PATH = "/metrics";
+
+    private final HttpServer server;
+
+    private MetricsHttpServer(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * @param port 0 picks a free one, see {@link #getPort()}
+     * @throws IOException if the port cannot be bound
+     */
+    public static MetricsHttpServer start(MetricsRegistry registry, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, exchange -> respond(exchange, registry));
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return new MetricsHttpServer(server);
+    }
+
+    /**
+     * Answers {@code GET path} with 200 while {@code healthy} returns true and 503 otherwise.
+     */
+    public void addCheck(String path, BooleanSupplier healthy) {
+        server.createContext(path, exchange -> respond(exchange, healthy));
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            send(exchange, 200, registry.render());
+        }
+    }
+
+    private static void respond(HttpExchange exchange, BooleanSupplier healthy) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            boolean up = healthy.getAsBoolean();
+            send(exchange, up ? 200 : 503, up ? "UP\n" : "DOWN\n");
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package skiresort.common.metrics;
+
+import org.HdrHistogram.Histogram;
+import skiresort.common.LatencyRecorder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Named metrics of one process, read by {@link MetricsHttpServer} and, as attributes of one
+ * MBean, over JMX. The registry only holds references: components keep recording into their
+ * own {@link LatencyRecorder}s, {@link StatusCounts} and counters, all of them lock-free, and
+ * nothing is computed until someone reads.
+ * <p>
+ * A latency named {@code x} is read as {@code x.count} since start and {@code x.p50_ms},
+ * {@code x.p99_ms}, {@code x.p999_ms} and {@code x.max_ms} over the last 10-second window;
+ * status counts named {@code x} as {@code x.<status>}. Registering a name again replaces it.
+ */
+public class MetricsRegistry implements DynamicMBean {
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+    private final Logger logger = Logger.getLogger(MetricsRegistry.class.getName());
+
+    /**
+     * @return the registry the process's endpoint and MBean serve
+     */
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    public void register(String name, LatencyRecorder latency) {
+        metrics.put(name, latency);
+    }
+
+    public void register(String name, StatusCounts statuses) {
+        metrics.put(name, statuses);
+    }
+
+    /**
+     * @return the latency registered as {@code name}, or null if there is none
+     */
+    public LatencyRecorder latency(String name) {
+        return metrics.get(name) instanceof LatencyRecorder latency ? latency : null;
+    }
+
+    /**
+     * @param value read whenever the metrics are, e.g. {@code counter::sum} or a queue's size
+     */
+    public void gauge(String name, DoubleSupplier value) {
+        metrics.put(name, value);
+    }
+
+    /**
+     * @return the current value of every metric, by name in order
+     */
+    public Map<String, Double> values() {
+        Map<String, Double> values = new TreeMap<>();
+        metrics.forEach((name, metric) -> {
+            if (metric instanceof LatencyRecorder latency) {
+                Histogram window = latency.recentWindow();
+                values.put(name + ".count", (double) latency.count());
+                values.put(name + ".p50_ms", LatencyRecorder.millis(window.getValueAtPercentile(50)));
+                values.put(name + ".p99_ms", LatencyRecorder.millis(window.getValueAtPercentile(99)));
+                values.put(name + ".p999_ms", LatencyRecorder.millis(window.getValueAtPercentile(99.9)));
+                values.put(name + ".max_ms", LatencyRecorder.millis(window.getMaxValue()));
+            } else if (metric instanceof StatusCounts statuses) {
+                statuses.forEach((status, count) -> values.put(name + "." + status, (double) count));
+            } else {
+                values.put(name, ((DoubleSupplier) metric).getAsDouble());
+            }
+        });
+        return values;
+    }
+
+    /**
+     * @return one {@code name value} line per metric, for the HTTP endpoint
+     */
+    public String render() {
+        StringBuilder text = new StringBuilder();
+        values().forEach((name, value) -> {
+            text.append(name).append(' ');
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                text.append(value.longValue());
+            } else {
+                text.append(String.format("%.3f", value));
+            }
+            text.append('\n');
+        });
+        return text.toString();
+    }
+
+    /**
+     * Registers this registry with the platform MBean server under {@code name}, one attribute
+     * per metric.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            logger.warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Double value = values().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Double> values = values();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Double value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Double> values = values();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, Double.class.getName(), name, true, false, false);
+        }
+        return new MBeanInfo(MetricsRegistry.class.getName(), "Process metrics", attributes, null, null, null);
+    }
+}
@@ -0,0 +1,43 @@
+package skiresort.common.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs a recurring event at most once every {@code intervalMillis}, with how many times it
+ * happened since the last line, instead of once per occurrence. Occurrences in between cost a
+ * {@link LongAdder} increment and a clock read; the message is only built for the line that is
+ * written, by whichever thread first finds the interval over.
+ */
+public class SampledLogger {
+
+    private final Logger logger;
+    private final Level level;
+    private final long intervalNanos;
+    private final AtomicLong nextLogNanos;
+    private final LongAdder occurrences = new LongAdder();
+
+    public SampledLogger(Logger logger, Level level, long intervalMillis) {
+        this.logger = logger;
+        this.level = level;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.nextLogNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @param message describes this occurrence; only called if it is the one logged
+     */
+    public void log(Supplier<String> message) {
+        occurrences.increment();
+        long next = nextLogNanos.get();
+        long now = System.nanoTime();
+        if (now - next >= 0 && nextLogNanos.compareAndSet(next, now + intervalNanos) && logger.isLoggable(level)) {
+            long count = occurrences.sumThenReset();
+            logger.log(level, count > 1 ? message.get() + " (" + count + " times since last logged)" : message.get());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package skiresort.common.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Count of HTTP responses per status code. Each code gets a {@link LongAdder} the first time
+ * it is seen, so recording is a lookup in a fixed array and a striped increment.
+ */
+public class StatusCounts {
+
+    private static final int MAX_STATUS = 599;
+
+    private final AtomicReferenceArray<LongAdder> counts = new AtomicReferenceArray<>(MAX_STATUS + 1);
+    private final LongAdder other = new LongAdder();
+
+    /**
+     * @param status HTTP status code; anything outside 0-599 is counted together
+     */
+    public void record(int status) {
+        if (status < 0 || status > MAX_STATUS) {
+            other.increment();
+            return;
+        }
+        LongAdder count = counts.get(status);
+        if (count == null) {
+            counts.compareAndSet(status, null, new LongAdder());
+            count = counts.get(status);
+        }
+        count.increment();
+    }
+
+    public long get(int status) {
+        LongAdder count = status < 0 || status > MAX_STATUS ? other : counts.get(status);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * Passes every code seen so far, in order, with its count; codes out of range as "other".
+     */
+    public void forEach(BiConsumer<String, Long> action) {
+        for (int status = 0; status <= MAX_STATUS; status++) {
+            LongAdder count = counts.get(status);
+            if (count != null) {
+                action.accept(Integer.toString(status), count.sum());
+            }
+        }
+        if (other.sum() > 0) {
+            action.accept("other", other.sum());
+        }
+    }
+}
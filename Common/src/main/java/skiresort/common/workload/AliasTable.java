@@ -0,0 +1,70 @@
+package skiresort.common.workload;
+
+/**
+ * Samples from a fixed discrete distribution in constant time (Vose's alias method): one
+ * uniform value picks a column, a second decides between the column and its alias.
+ */
+final class AliasTable {
+
+    private final double[] probability;
+    private final int[] alias;
+
+    AliasTable(double[] weights) {
+        int n = weights.length;
+        probability = new double[n];
+        alias = new int[n];
+
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // Whatever is left is 1 up to rounding
+        while (largeCount > 0) {
+            probability[large[--largeCount]] = 1;
+        }
+        while (smallCount > 0) {
+            probability[small[--smallCount]] = 1;
+        }
+    }
+
+    /**
+     * @param column uniform in [0, 1), picks the column
+     * @param coin   uniform in [0, 1), picks the column or its alias
+     * @return an index from 0 to {@code weights.length - 1}
+     */
+    int sample(double column, double coin) {
+        int i = (int) (column * probability.length);
+        return coin < probability[i] ? i : alias[i];
+    }
+
+    int size() { return probability.length; }
+
+    double probability(int column) { return probability[column]; }
+
+    int alias(int column) { return alias[column]; }
+}
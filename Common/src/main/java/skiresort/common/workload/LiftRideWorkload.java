@@ -0,0 +1,58 @@
+package skiresort.common.workload;
+
+import skiresort.common.LiftRide;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The lift rides a load generator sends. Ride {@code index} depends only on the workload and the
+ * index, so a run with the same seed sends the same rides however its threads interleave;
+ * implementations are thread-safe and do no per-ride work beyond building the ride.
+ */
+public interface LiftRideWorkload {
+
+    LiftRide ride(long index);
+
+    /**
+     * Creates a workload from its command line form: {@code uniform}, {@code skewed} or
+     * {@code replay:<file>}.
+     *
+     * @throws IllegalArgumentException for any other form
+     */
+    static LiftRideWorkload fromArgument(String argument, long seed) throws IOException {
+        if (argument.equals("uniform")) {
+            return new UniformWorkload(seed);
+        }
+        if (argument.equals("skewed")) {
+            return new SkewedWorkload(seed);
+        }
+        if (argument.startsWith("replay:")) {
+            return ReplayWorkload.load(Path.of(argument.substring("replay:".length())));
+        }
+        throw new IllegalArgumentException("Unknown workload \"" + argument + "\"; expected uniform, skewed or replay:<file>");
+    }
+
+    /**
+     * SplitMix64 finaliser: turns consecutive inputs into independent-looking 64-bit values.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return the {@code n}th random value of ride {@code index}
+     */
+    static long random(long seed, long index, int n) {
+        return mix(seed + index * 0x9E3779B97F4A7C15L + n * 0xD1B54A32D192ED03L);
+    }
+
+    /**
+     * @return a uniform value in [0, 1) from the top 53 bits of {@code random}
+     */
+    static double unit(long random) {
+        return (random >>> 11) * 0x1.0p-53;
+    }
+}
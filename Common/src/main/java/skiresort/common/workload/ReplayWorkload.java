@@ -0,0 +1,79 @@
+package skiresort.common.workload;
+
+import skiresort.common.LiftRide;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replays lift rides from a CSV file of {@code skierID,resortID,liftID,seasonID,dayID,time}
+ * lines, for example one written by {@code WorkloadExport} or taken from production. The header
+ * line is optional. Ride {@code index} is line {@code index} modulo the number of rides, so a
+ * run longer than the file starts over from the top.
+ */
+public class ReplayWorkload implements LiftRideWorkload {
+
+    private final LiftRide[] rides;
+
+    private ReplayWorkload(LiftRide[] rides) {
+        this.rides = rides;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a line is malformed or the file has no rides
+     */
+    public static ReplayWorkload load(Path file) throws IOException {
+        LiftRide[] rides = new LiftRide[1024];
+        int count = 0;
+        // Season and day IDs repeat on nearly every line, so keep one String of each
+        Map<String, String> ids = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || (lineNumber == 1 && line.startsWith("skierID"))) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 6) {
+                    throw new IllegalArgumentException(file + ":" + lineNumber + ": expected 6 fields, got " + fields.length);
+                }
+                try {
+                    if (count == rides.length) {
+                        rides = Arrays.copyOf(rides, count * 2);
+                    }
+                    rides[count++] = new LiftRide(
+                            Integer.parseInt(fields[0].trim()),
+                            Integer.parseInt(fields[1].trim()),
+                            Integer.parseInt(fields[2].trim()),
+                            ids.computeIfAbsent(fields[3].trim(), id -> id),
+                            ids.computeIfAbsent(fields[4].trim(), id -> id),
+                            Integer.parseInt(fields[5].trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(file + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException(file + " has no rides");
+        }
+        return new ReplayWorkload(Arrays.copyOf(rides, count));
+    }
+
+    public int size() { return rides.length; }
+
+    /**
+     * Returns the stored ride itself; LiftRide is immutable, so replay allocates nothing.
+     */
+    @Override
+    public LiftRide ride(long index) {
+        return rides[(int) Math.floorMod(index, (long) rides.length)];
+    }
+}
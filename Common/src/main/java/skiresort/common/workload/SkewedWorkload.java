@@ -0,0 +1,155 @@
+package skiresort.common.workload;
+
+import skiresort.common.LiftRide;
+
+import java.util.SplittableRandom;
+
+/**
+ * Lift rides shaped like a real ski season rather than uniform noise:
+ * <ul>
+ * <li>Skier popularity follows a Zipf distribution, so a few skiers ride far more often than
+ *     the rest and their keys are hot. Ranks are shuffled over the skier IDs.</li>
+ * <li>Every skier has a home resort, where {@code HOME_RESORT_SHARE} of their rides happen; the
+ *     resorts differ in size. The home resort is a hash of the skier ID and the seed.</li>
+ * <li>Every resort has its own number of lifts, 10 to 40, and the low-numbered base lifts run
+ *     more often than the ones higher up.</li>
+ * <li>Rides follow a time-of-day curve with a morning peak, a lunch dip and an afternoon
+ *     peak.</li>
+ * <li>Rides are spread over {@code seasons} seasons of {@code daysPerSeason} days, with twice
+ *     as many on weekends.</li>
+ * </ul>
+ * All tables are built from the seed up front, so a ride costs a few hashes and table lookups
+ * and nothing but the ride itself is allocated.
+ */
+public class SkewedWorkload implements LiftRideWorkload {
+
+    public static final int SKIERS = 100000;
+    public static final int RESORTS = 10;
+    public static final int FIRST_SEASON = 2022;
+    private static final int MIN_LIFTS = 10;
+    private static final int MAX_LIFTS = 40;
+    private static final int MINUTES = 360;
+    private static final double HOME_RESORT_SHARE = 0.9;
+    private static final int HOME_RESORT_STREAM = 6;
+    private static final long COIN_MASK = (1L << 30) - 1;
+    private static final long ID_MASK = (1L << 17) - 1;
+    // Relative rides per half hour from opening: ramp-up, morning peak, lunch dip, afternoon, last runs
+    private static final double[] HALF_HOUR_WEIGHTS = {4, 8, 10, 9, 7, 5, 4, 6, 7, 6, 4, 2};
+
+    private final long seed;
+    private final long[] skiers;         // Alias table columns, see packSkiers
+    private final AliasTable resorts;
+    private final AliasTable[] lifts;    // By resort ID - 1
+    private final AliasTable minutes;
+    private final AliasTable days;
+    private final String[] seasonIDs;
+    private final String[] dayIDs;
+
+    public SkewedWorkload(long seed) {
+        this(seed, 0.99, 3, 120);
+    }
+
+    /**
+     * @param skierExponent Zipf exponent of skier popularity; 0 is uniform, around 1 is typical
+     */
+    public SkewedWorkload(long seed, double skierExponent, int seasons, int daysPerSeason) {
+        this.seed = seed;
+        SplittableRandom random = new SplittableRandom(seed);
+
+        int[] skierIDs = new int[SKIERS];
+        for (int i = 0; i < SKIERS; i++) {
+            skierIDs[i] = i + 1;
+        }
+        for (int i = SKIERS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = skierIDs[i];
+            skierIDs[i] = skierIDs[j];
+            skierIDs[j] = swap;
+        }
+        double[] skierWeights = new double[SKIERS];
+        for (int rank = 0; rank < SKIERS; rank++) {
+            skierWeights[rank] = 1 / Math.pow(rank + 1, skierExponent);
+        }
+        skiers = packSkiers(new AliasTable(skierWeights), skierIDs);
+
+        // Resort 1 is the biggest, resort 10 about a third of its size
+        double[] resortWeights = new double[RESORTS];
+        for (int r = 0; r < RESORTS; r++) {
+            resortWeights[r] = 1 / Math.pow(r + 1, 0.5);
+        }
+        resorts = new AliasTable(resortWeights);
+
+        lifts = new AliasTable[RESORTS];
+        for (int r = 0; r < RESORTS; r++) {
+            double[] liftWeights = new double[MIN_LIFTS + random.nextInt(MAX_LIFTS - MIN_LIFTS + 1)];
+            for (int l = 0; l < liftWeights.length; l++) {
+                liftWeights[l] = 1 / Math.pow(l + 1, 0.8);
+            }
+            lifts[r] = new AliasTable(liftWeights);
+        }
+
+        double[] minuteWeights = new double[MINUTES];
+        for (int m = 0; m < MINUTES; m++) {
+            minuteWeights[m] = HALF_HOUR_WEIGHTS[m / 30];
+        }
+        minutes = new AliasTable(minuteWeights);
+
+        double[] dayWeights = new double[seasons * daysPerSeason];
+        for (int d = 0; d < dayWeights.length; d++) {
+            int dayOfWeek = d % daysPerSeason % 7;
+            dayWeights[d] = dayOfWeek >= 5 ? 2 : 1;
+        }
+        days = new AliasTable(dayWeights);
+        seasonIDs = new String[seasons];
+        for (int s = 0; s < seasons; s++) {
+            seasonIDs[s] = String.valueOf(FIRST_SEASON + s);
+        }
+        dayIDs = new String[daysPerSeason];
+        for (int d = 0; d < daysPerSeason; d++) {
+            dayIDs[d] = String.valueOf(d + 1);
+        }
+    }
+
+    @Override
+    public LiftRide ride(long index) {
+        // Each table takes two 32-bit uniforms from one random value; that is all the precision a
+        // table of a few hundred thousand entries needs
+        long skier = LiftRideWorkload.random(seed, index, 0);
+        long resort = LiftRideWorkload.random(seed, index, 1);
+        long lift = LiftRideWorkload.random(seed, index, 2);
+        long minute = LiftRideWorkload.random(seed, index, 3);
+        long day = LiftRideWorkload.random(seed, index, 4);
+        long column = skiers[(int) (high(skier) * skiers.length)];
+        int skierID = 1 + (int) ((skier & COIN_MASK) < column >>> 34 ? column >>> 17 & ID_MASK : column & ID_MASK);
+        long home = LiftRideWorkload.random(seed, skierID, HOME_RESORT_STREAM);  // Same for every ride of the skier
+        int resortID = LiftRideWorkload.unit(LiftRideWorkload.random(seed, index, 5)) < HOME_RESORT_SHARE
+                ? 1 + resorts.sample(high(home), low(home)) : 1 + resorts.sample(high(resort), low(resort));
+        int liftID = 1 + lifts[resortID - 1].sample(high(lift), low(lift));
+        int time = 1 + minutes.sample(high(minute), low(minute));
+        int seasonDay = days.sample(high(day), low(day));
+        return new LiftRide(skierID, resortID, liftID, seasonIDs[seasonDay / dayIDs.length], dayIDs[seasonDay % dayIDs.length], time);
+    }
+
+    /**
+     * Packs each column of the skier alias table into one long, so a skier costs one random
+     * read of the 800 KB table instead of three (probability, alias and rank-to-ID permutation):
+     * a 30-bit threshold, then the skier ID (minus one) of the column and of its alias.
+     */
+    private static long[] packSkiers(AliasTable ranks, int[] skierIDs) {
+        long[] packed = new long[ranks.size()];
+        for (int i = 0; i < packed.length; i++) {
+            long threshold = Math.min((long) (ranks.probability(i) * (COIN_MASK + 1)), COIN_MASK);
+            long columnID = skierIDs[i] - 1;
+            // A column that is never aliased must win even at the top coin value
+            long aliasID = threshold == COIN_MASK ? columnID : skierIDs[ranks.alias(i)] - 1;
+            packed[i] = threshold << 34 | columnID << 17 | aliasID;
+        }
+        return packed;
+    }
+
+    private static double high(long random) { return unit32(random >>> 32); }
+
+    private static double low(long random) { return unit32(random & 0xFFFF_FFFFL); }
+
+    private static double unit32(long bits) { return bits * 0x1.0p-32; }
+}
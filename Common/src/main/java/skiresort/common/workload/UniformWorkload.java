@@ -0,0 +1,27 @@
+package skiresort.common.workload;
+
+import skiresort.common.LiftRide;
+
+/**
+ * The clients' original workload: every skier, resort, lift and time equally likely, season
+ * 2024, day 1.
+ */
+public class UniformWorkload implements LiftRideWorkload {
+
+    private final long seed;
+
+    public UniformWorkload(long seed) {
+        this.seed = seed;
+    }
+
+    @Override
+    public LiftRide ride(long index) {
+        long random = LiftRideWorkload.random(seed, index, 0);
+        // Resort, lift and time come from disjoint 16-bit slices of one value; % skews them by under 1%
+        int skierID = 1 + (int) ((LiftRideWorkload.random(seed, index, 1) >>> 1) % 100000);
+        int resortID = 1 + (int) ((random & 0xFFFF) % 10);
+        int liftID = 1 + (int) (((random >>> 16) & 0xFFFF) % 40);
+        int time = 1 + (int) (((random >>> 32) & 0xFFFF) % 360);
+        return new LiftRide(skierID, resortID, liftID, "2024", "1", time);
+    }
+}
@@ -0,0 +1,122 @@
+package skiresort.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LiftRideBinaryCodecTest {
+
+    @Test
+    void ridesRoundTrip() {
+        for (LiftRide ride : new LiftRide[]{
+                new LiftRide(0, 0, 0, "0", "0", 0),
+                new LiftRide(12345, 7, 40, "2024", "1", 360),
+                new LiftRide(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, "999999999", "123456789",
+                        Integer.MAX_VALUE)}) {
+            byte[] encoded = LiftRideBinaryCodec.encode(ride);
+            assertTrue(encoded.length <= LiftRideBinaryCodec.MAX_ENCODED_LENGTH);
+            assertSame(ride, LiftRideBinaryCodec.decode(encoded));
+        }
+    }
+
+    @Test
+    void decodesFromAnOffset() {
+        byte[] dest = new byte[3 + LiftRideBinaryCodec.MAX_ENCODED_LENGTH];
+        int end = LiftRideBinaryCodec.encode(new LiftRide(1, 2, 3, "2024", "4", 5), dest, 3);
+        assertSame(new LiftRide(1, 2, 3, "2024", "4", 5), LiftRideBinaryCodec.decode(dest, 3, end - 3));
+    }
+
+    @Test
+    void ridesTheFormatCannotHoldAreRefused() {
+        for (LiftRide ride : new LiftRide[]{
+                new LiftRide(-1, 1, 1, "2024", "1", 1),
+                new LiftRide(1, 1, 1, "2024", "1", Integer.MIN_VALUE),
+                new LiftRide(1, 1, 1, "-1", "1", 1),
+                new LiftRide(1, 1, 1, "02024", "1", 1),
+                new LiftRide(1, 1, 1, "2024", null, 1),
+                new LiftRide(1, 1, 1, "1234567890", "1", 1)}) {
+            assertFalse(LiftRideBinaryCodec.canEncode(ride));
+            assertThrows(IllegalArgumentException.class, () -> LiftRideBinaryCodec.encode(ride));
+        }
+    }
+
+    @Test
+    void truncatedRidesAreRejected() {
+        byte[] encoded = LiftRideBinaryCodec.encode(new LiftRide(300, 2, 3, "2024", "4", 500));
+        for (int length = 0; length < encoded.length; length++) {
+            byte[] truncated = Arrays.copyOf(encoded, length);
+            assertThrows(IllegalArgumentException.class, () -> LiftRideBinaryCodec.decode(truncated));
+        }
+    }
+
+    @Test
+    void unknownVersionIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> LiftRideBinaryCodec.decode(bytes(2, 1, 1, 1, 1, 1, 1)));
+    }
+
+    @Test
+    void varintsOverflowingAnIntAreRejected() {
+        // seasonID with a 5th byte above 0x0F
+        assertThrows(IllegalArgumentException.class,
+                () -> LiftRideBinaryCodec.decode(bytes(1, 5, 1, 1, 0xFF, 0xFF, 0xFF, 0xFF, 0x1F, 1, 1)));
+        // seasonID of six bytes
+        assertThrows(IllegalArgumentException.class,
+                () -> LiftRideBinaryCodec.decode(bytes(1, 5, 1, 1, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01, 1, 1)));
+    }
+
+    @Test
+    void negativeValuesAreRejected() {
+        // -1 as seasonID, then as each of the int fields
+        assertThrows(IllegalArgumentException.class,
+                () -> LiftRideBinaryCodec.decode(bytes(1, 5, 1, 1, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F, 1, 1)));
+        for (int field = 0; field < 6; field++) {
+            byte[] body = new byte[1 + 5 + 5];
+            body[0] = LiftRideBinaryCodec.VERSION_1;
+            int pos = 1;
+            for (int i = 0; i < 6; i++) {
+                if (i == field) {
+                    System.arraycopy(bytes(0x80, 0x80, 0x80, 0x80, 0x08), 0, body, pos, 5);
+                    pos += 5;
+                } else {
+                    body[pos++] = 1;
+                }
+            }
+            assertThrows(IllegalArgumentException.class, () -> LiftRideBinaryCodec.decode(body));
+        }
+    }
+
+    @Test
+    void numberStringsOutsideTheCacheAreBuilt() {
+        assertEquals("-1", LiftRideJsonCodec.numberString(-1));
+        assertEquals("2024", LiftRideJsonCodec.numberString(2024));
+        assertEquals("123456", LiftRideJsonCodec.numberString(123456));
+    }
+
+    @Test
+    void largestIntStillDecodes() {
+        LiftRide ride = LiftRideBinaryCodec.decode(bytes(1, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 1, 1, 1, 1, 1));
+        assertEquals(Integer.MAX_VALUE, ride.getSkierID());
+    }
+
+    static void assertSame(LiftRide expected, LiftRide actual) {
+        assertEquals(expected.getSkierID(), actual.getSkierID());
+        assertEquals(expected.getResortID(), actual.getResortID());
+        assertEquals(expected.getLiftID(), actual.getLiftID());
+        assertEquals(expected.getSeasonID(), actual.getSeasonID());
+        assertEquals(expected.getDayID(), actual.getDayID());
+        assertEquals(expected.getTime(), actual.getTime());
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,109 @@
+package skiresort.common;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static skiresort.common.LiftRideBinaryCodecTest.assertSame;
+
+/**
+ * Checks {@link LiftRideJsonCodec} against Gson, which it replaced on every hop.
+ */
+class LiftRideJsonCodecTest {
+
+    private static final Gson GSON = new Gson();
+
+    private static final List<LiftRide> RIDES = List.of(
+            new LiftRide(12345, 7, 40, "2024", "1", 360),
+            new LiftRide(0, 0, 0, "0", "0", 0),
+            new LiftRide(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, "999999999", "0001", Integer.MAX_VALUE),
+            new LiftRide(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, null, null, Integer.MIN_VALUE),
+            new LiftRide(-1, -22, -333, "", "-5", -4444),
+            new LiftRide(1, 2, 3, "quote \" backslash \\ slash /", "tab\tnew\nline\u0001\u001f", 4),
+            new LiftRide(1, 2, 3, "<html> & 'x'=y", "caf\u00e9 \u20ac \ud83c\udfbf", 4),
+            new LiftRide(1, 2, 3, "\u07ff\u0800\uffff", "\ud83c\udfbf\ud83c\udfbf\ud83c\udfbf", 4));
+
+    @Test
+    void gsonReadsWhatTheCodecWrites() {
+        for (LiftRide ride : RIDES) {
+            byte[] encoded = LiftRideJsonCodec.encode(ride);
+            assertTrue(encoded.length <= LiftRideJsonCodec.maxEncodedLength(ride));
+            LiftRide read = GSON.fromJson(new String(encoded, StandardCharsets.UTF_8), LiftRide.class);
+            assertSame(ride, read);
+        }
+    }
+
+    @Test
+    void codecReadsWhatGsonWrites() {
+        for (LiftRide ride : RIDES) {
+            byte[] json = GSON.toJson(ride).getBytes(StandardCharsets.UTF_8);
+            LiftRide read = LiftRideJsonCodec.decode(json);
+            assertSame(ride, read);
+        }
+    }
+
+    @Test
+    void plainRidesEncodeToGsonsBytes() {
+        LiftRide ride = RIDES.get(0);
+        assertArrayEquals(GSON.toJson(ride).getBytes(StandardCharsets.UTF_8), LiftRideJsonCodec.encode(ride));
+    }
+
+    @Test
+    void boundHoldsForTheLongestFixedFields() {
+        LiftRide ride = new LiftRide(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, null, null, Integer.MIN_VALUE);
+        byte[] dest = new byte[LiftRideJsonCodec.maxEncodedLength(ride)];
+        assertEquals(dest.length, LiftRideJsonCodec.encode(ride, dest, 0));
+
+        String twenty = "\u0001".repeat(20);
+        LiftRide escaped = new LiftRide(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, twenty, "", Integer.MIN_VALUE);
+        assertTrue(LiftRideJsonCodec.maxEncodedLength(escaped) <= LiftRideJsonCodec.MAX_ENCODED_LENGTH);
+        assertEquals(LiftRideJsonCodec.maxEncodedLength(escaped),
+                LiftRideJsonCodec.encode(escaped, new byte[LiftRideJsonCodec.maxEncodedLength(escaped)], 0));
+    }
+
+    @Test
+    void decodesLikeGsonForLooseInput() {
+        for (String json : List.of(
+                " { \"time\" : 9 , \"skierID\":1 }\n",
+                "{}",
+                "{\"seasonID\":2024,\"dayID\":null,\"extra\":{\"a\":[1,\"]\"]},\"liftID\":3}",
+                "{\"dayID\":\"\\u0041\\n\"}")) {
+            assertSame(GSON.fromJson(json, LiftRide.class), LiftRideJsonCodec.decode(json.getBytes(StandardCharsets.UTF_8)));
+        }
+        assertNull(LiftRideJsonCodec.decode("{\"skierID\":1}".getBytes(StandardCharsets.UTF_8)).getSeasonID());
+    }
+
+    @Test
+    void malformedInputIsRejected() {
+        for (String json : List.of(
+                "",
+                "[]",
+                "{\"skierID\":1}xyz",
+                "{\"skierID\":1}{}",
+                "{\"skierID\":1",
+                "{\"skierID\":1.5}",
+                "{\"skierID\":2147483648}",
+                "{\"skierID\":-2147483649}",
+                "{\"skierID\":}",
+                "{\"skierID\" 1}",
+                "{\"dayID\":\"unterminated}",
+                "{\"dayID\":\"\\x\"}",
+                "{\"dayID\":\"\\u12\"}")) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> LiftRideJsonCodec.decode(json.getBytes(StandardCharsets.UTF_8)), json);
+        }
+    }
+
+    @Test
+    void decodesFromAnOffsetWithoutReadingPastTheEnd() {
+        byte[] body = "xx{\"skierID\":5} trailing".getBytes(StandardCharsets.UTF_8);
+        assertEquals(5, LiftRideJsonCodec.decode(body, 2, 13).getSkierID());
+    }
+}
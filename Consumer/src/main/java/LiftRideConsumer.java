@@ -1,49 +1,135 @@
-import com.google.gson.Gson;
 import com.rabbitmq.client.*;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
-import redis.clients.jedis.Pipeline;
+import skiresort.common.LiftRideQueue;
+import skiresort.common.Settings;
+import skiresort.common.metrics.MetricsHttpServer;
+import skiresort.common.metrics.MetricsRegistry;
+import skiresort.common.metrics.SampledLogger;
+import skiresort.consumer.AdaptiveConsumers;
+import skiresort.consumer.AggregateWriter;
+import skiresort.consumer.BatchMetrics;
+import skiresort.consumer.ConsumerLifecycle;
+import skiresort.consumer.ConsumerPipeline;
+import skiresort.consumer.CreditLimit;
+import skiresort.consumer.IdempotentRedisWriter;
+import skiresort.consumer.PartitionedConsumer;
+import skiresort.consumer.RedisAggregateWriter;
+import skiresort.consumer.RideAggregator;
+import skiresort.consumer.WriteBehindWriter;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.UUID;
 import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class LiftRideConsumer {
-    private static final String QUEUE_NAME = "lift_ride_queue";
-    private static final String RABBITMQ_HOST = "54.202.193.198";
-    private static final String RABBITMQ_USERNAME = "ratu";
-    private static final String RABBITMQ_PASSWORD = "548919";
-    private static final int RABBITMQ_PORT = 5672;
-
-    private static final int NUM_CONSUMER_THREADS = 128; // Adjust thread count based on hardware configuration
-    private static final int PREFETCH_COUNT = 50; // Max number of messages pulled by each consumer at once
+    private static final String RABBITMQ_HOST = Settings.string("rabbitmq.host", "54.202.193.198");
+    private static final String RABBITMQ_USERNAME = Settings.string("rabbitmq.username", "ratu");
+    private static final String RABBITMQ_PASSWORD = Settings.string("rabbitmq.password", "548919");
+    private static final int RABBITMQ_PORT = Settings.integer("rabbitmq.port", 5672);
+    private static final String REDIS_HOST = Settings.string("redis.host", "44.227.111.231");
+    private static final int REDIS_PORT = Settings.integer("redis.port", 6379);
+    private static final int PARTITIONS = Settings.integer("rabbitmq.partitions", 0); // Queues rides are spread over by skierID; 0 to consume lift_ride_queue
+
+    private static final int NUM_CHANNELS = 128; // Channels available for consumers; their callbacks only enqueue
+    private static final int INITIAL_CREDIT = 1024; // Unacked messages across all consumers at start; adapted from then on
+    private static final int MIN_CREDIT = 64; // Lowest the adaptive limit goes
+    private static final int MAX_CREDIT = 16384; // Highest the adaptive limit goes; keep within the stage queues
+    private static final int MIN_PREFETCH = 10; // Consumers are cancelled rather than given a smaller prefetch count
+    private static final int MAX_PREFETCH = 500; // Max number of messages pulled by each consumer at once
+    private static final long CONTROL_INTERVAL_MS = 1000; // How often the credit limit is updated
     private static final int BATCH_SIZE = 50; // Redis Pipeline batch size
+    private static final long MAX_LINGER_MS = 200; // Flush a partial batch once its first message is this old
+    private static final int DECODE_WORKERS = 2; // Threads decoding messages
+    private static final int AGGREGATION_WORKERS = 4; // Threads aggregating rides, sharded by skierID
+    private static final int REDIS_WRITERS = 4; // Threads writing to Redis, one connection each
+    private static final int STAGE_QUEUE_CAPACITY = 8192; // Deliveries each stage queue holds
+    private static final long SHUTDOWN_TIMEOUT_MS = 10_000; // How long shutdown waits for received rides to be written and acked
+    private static final boolean IDEMPOTENT_WRITES = true; // Skip rides already written, so redeliveries never double-count
+    private static final long DEDUPE_WINDOW_MS = 5 * 60 * 1000; // How long a written ride ID is remembered
+    private static final boolean WRITE_BEHIND = false; // Ack rides once logged locally and write them to Redis in periodic flushes
+    private static final long WRITE_BEHIND_FLUSH_MS = 1000; // How often write-behind tables are flushed to Redis
+    private static final int WRITE_BEHIND_MAX_RIDES = 100_000; // Flush a writer's table early once it holds this many rides
+    private static final long WRITE_BEHIND_MAX_UNFLUSHED = 2_000_000; // Writers wait, and stop acking, once this many rides are not in Redis
+    private static final String WRITE_BEHIND_LOG_DIR = "write-behind-log"; // Local logs of rides acked but not yet flushed
+    private static final int METRICS_PORT = Settings.integer("consumer.metrics.port", 9464); // Serves GET /metrics; -1 to turn the endpoint off
+    private static final long BATCH_LOG_INTERVAL_MS = 10_000; // Written batches are logged at most this often
+    private static final int PARTITION_PREFETCH = 500; // Max number of messages pulled for each partition held
+    private static final long PARTITION_LEASE_MS = 10_000; // A partition, and membership, not renewed for this long is free for others
+    private static final long REBALANCE_INTERVAL_MS = 1000; // How often leases are renewed and partitions rebalanced
 
-    private final Gson gson = new Gson();
     private final Logger logger = Logger.getLogger(LiftRideConsumer.class.getName());
-    private static JedisPool jedisPool;
+    private final SampledLogger batchLog = new SampledLogger(logger, Level.INFO, BATCH_LOG_INTERVAL_MS);
+    private final BatchMetrics batchMetrics = new BatchMetrics();
+    private final MetricsRegistry metrics = MetricsRegistry.global();
+    private AggregateWriter redisWriter;
+    private WriteBehindWriter writeBehind;
+    private ConsumerPipeline pipeline;
+    private PartitionedConsumer partitioned;
+    private AdaptiveConsumers consumers;
+    private ConsumerLifecycle lifecycle;
+    private JedisPool jedisPool;
+    // Unique to each start, so instances in one JVM or a restart on the same host are told apart
+    private final String memberId = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
 
     public static void main(String[] args) throws IOException, TimeoutException {
-        // Initialize Redis connection pool
-        JedisPoolConfig poolConfig = new JedisPoolConfig();
-        poolConfig.setMaxTotal(256);  // Max number of Redis connections
-        poolConfig.setMaxIdle(128);  // Max idle connections
-        poolConfig.setMinIdle(16);   // Min idle connections
-        jedisPool = new JedisPool(poolConfig, "44.227.111.231", 6379);
-
         LiftRideConsumer consumer = new LiftRideConsumer();
+        // On SIGTERM, e.g. a redeploy, write and ack what was received and hand the rest back to the broker
+        Runtime.getRuntime().addShutdownHook(new Thread(consumer::drain, "consumer-shutdown"));
         consumer.start();
     }
 
     public void start() throws IOException, TimeoutException {
+        // Initialize Redis connection pool; each writer thread, or partition held, holds one connection
+        int writers = PARTITIONS > 0 ? PARTITIONS + 1 : REDIS_WRITERS;  // Every partition, and the rebalancer
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(writers * 2);  // Max number of Redis connections, with room to replace broken ones
+        poolConfig.setMaxIdle(writers);  // Max idle connections
+        poolConfig.setMinIdle(REDIS_WRITERS);   // Min idle connections
+        jedisPool = new JedisPool(poolConfig, REDIS_HOST, REDIS_PORT);
+
+        batchMetrics.registerMBean("skiresort.consumer:type=BatchMetrics");
+        if (IDEMPOTENT_WRITES) {
+            IdempotentRedisWriter idempotentWriter = new IdempotentRedisWriter(DEDUPE_WINDOW_MS);
+            idempotentWriter.registerMBean("skiresort.consumer:type=IdempotentRedisWriter");
+            redisWriter = idempotentWriter;
+        } else {
+            RedisAggregateWriter aggregateWriter = new RedisAggregateWriter();
+            aggregateWriter.registerMBean("skiresort.consumer:type=RedisAggregateWriter");
+            redisWriter = aggregateWriter;
+        }
+        if (WRITE_BEHIND) {
+            // Replays what a crash left in the logs before consuming anything new
+            writeBehind = new WriteBehindWriter(Path.of(WRITE_BEHIND_LOG_DIR), redisWriter, jedisPool,
+                    WRITE_BEHIND_FLUSH_MS, WRITE_BEHIND_MAX_RIDES, WRITE_BEHIND_MAX_UNFLUSHED);
+            writeBehind.registerMBean("skiresort.consumer:type=WriteBehindWriter");
+            writeBehind.start();
+            redisWriter = writeBehind;
+        }
+        if (PARTITIONS > 0) {
+            partitioned = new PartitionedConsumer(PARTITIONS, memberId, PARTITION_LEASE_MS, REBALANCE_INTERVAL_MS,
+                    PARTITION_PREFETCH, BATCH_SIZE, MAX_LINGER_MS, jedisPool, this::writeAggregate, batchMetrics);
+            partitioned.registerMBean("skiresort.consumer:type=PartitionedConsumer");
+            lifecycle = new ConsumerLifecycle(jedisPool, partitioned, writeBehind);
+        } else {
+            pipeline = new ConsumerPipeline(DECODE_WORKERS, AGGREGATION_WORKERS, REDIS_WRITERS, STAGE_QUEUE_CAPACITY,
+                    BATCH_SIZE, MAX_LINGER_MS, jedisPool, this::writeAggregate, batchMetrics);
+            pipeline.registerMBean("skiresort.consumer:type=ConsumerPipeline");
+            pipeline.start();
+            lifecycle = new ConsumerLifecycle(jedisPool, pipeline, writeBehind);
+        }
+        lifecycle.registerMBean("skiresort.consumer:type=ConsumerLifecycle");
+        startMetrics();
+
         // Setup RabbitMQ connection
-        ConnectionFactory factory = new ConnectionFactory();
+        ConnectionFactory factory = Settings.instance("rabbitmq.connection-factory", ConnectionFactory.class, ConnectionFactory::new);
         factory.setHost(RABBITMQ_HOST);
         factory.setPort(RABBITMQ_PORT);
         factory.setUsername(RABBITMQ_USERNAME);
@@ -51,86 +137,89 @@ public class LiftRideConsumer {
 
         // Establish a connection to RabbitMQ
         Connection connection = factory.newConnection();
-        ExecutorService executorService = Executors.newFixedThreadPool(NUM_CONSUMER_THREADS);
+        try (Channel channel = connection.createChannel()) {
+            channel.exchangeDeclare(LiftRideQueue.DEAD_LETTER_EXCHANGE, BuiltinExchangeType.DIRECT, true);
+            channel.queueDeclare(LiftRideQueue.DEAD_LETTER_QUEUE, true, false, false, null);
+            channel.queueBind(LiftRideQueue.DEAD_LETTER_QUEUE, LiftRideQueue.DEAD_LETTER_EXCHANGE, LiftRideQueue.DEAD_LETTER_QUEUE);
+            if (PARTITIONS > 0) {
+                channel.exchangeDeclare(LiftRideQueue.PARTITION_EXCHANGE, BuiltinExchangeType.DIRECT, true);
+                for (int partition = 0; partition < PARTITIONS; partition++) {
+                    String queue = LiftRideQueue.partitionQueue(partition);
+                    channel.queueDeclare(queue, true, false, false, LiftRideQueue.arguments());
+                    channel.queueBind(queue, LiftRideQueue.PARTITION_EXCHANGE, LiftRideQueue.partitionKey(partition));
+                }
+            }
+        }
 
-        // Create and start multiple consumer threads
-        for (int i = 0; i < NUM_CONSUMER_THREADS; i++) {
-            Channel channel = connection.createChannel();
-            channel.queueDeclare(QUEUE_NAME, true, false, false, null);
-            channel.basicQos(PREFETCH_COUNT); // Set maximum number of messages per consumer
+        if (PARTITIONS > 0) {
+            // Each partition held gets a channel and a thread of its own; partitions move as consumers come and go
+            lifecycle.running(connection, List.of(), null);
+            partitioned.start(connection);
+            return;
+        }
 
-            // Submit the consumer task to executor service
-            executorService.submit(() -> consumeMessages(channel));
+        // Consumers and their prefetch counts follow the credit limit, which tracks what Redis keeps up with;
+        // the pipeline decodes, writes and acks on its own threads
+        consumers = new AdaptiveConsumers(LiftRideQueue.NAME, pipeline, batchMetrics,
+                new CreditLimit(INITIAL_CREDIT, MIN_CREDIT, MAX_CREDIT), MIN_PREFETCH, MAX_PREFETCH);
+        List<Channel> channels = new ArrayList<>();
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+            Channel channel = connection.createChannel();
+            channel.queueDeclare(LiftRideQueue.NAME, true, false, false, LiftRideQueue.arguments());
+            consumers.add(channel);
+            channels.add(channel);
         }
+        consumers.registerMBean("skiresort.consumer:type=AdaptiveConsumers");
+        lifecycle.running(connection, channels, consumers);
+        consumers.start(CONTROL_INTERVAL_MS);
     }
 
     /**
-     * Method for consuming messages from RabbitMQ.
-     * It processes messages in batches and writes to Redis.
+     * Publishes pipeline and batch metrics over JMX and, unless METRICS_PORT is -1, HTTP, along
+     * with the liveness and readiness checks.
      */
-    private void consumeMessages(Channel channel) {
-        List<DeliveryMessage> batchMessages = new ArrayList<>(); // Store batch messages
-
-        try {
-            // Consume messages from the queue
-            channel.basicConsume(QUEUE_NAME, false, (consumerTag, message) -> {
-                String msg = new String(message.getBody(), StandardCharsets.UTF_8);
-                LiftRide liftRide = gson.fromJson(msg, LiftRide.class);
-
-                // Collect messages for batch processing
-                batchMessages.add(new DeliveryMessage(message, liftRide));
-
-                // If batch size is reached, process and acknowledge
-                if (batchMessages.size() >= BATCH_SIZE) {
-                    processBatch(batchMessages, channel);
-                    batchMessages.clear(); // Clear batch messages
-                }
-
-            }, consumerTag -> {});
-        } catch (IOException e) {
-            logger.severe("Error consuming messages: " + e.getMessage());
+    private void startMetrics() {
+        if (partitioned != null) {
+            partitioned.registerMetrics(metrics, "consumer");
+        } else {
+            pipeline.registerMetrics(metrics, "consumer");
+        }
+        batchMetrics.registerMetrics(metrics, "consumer.batch");
+        lifecycle.registerMetrics(metrics, "consumer");
+        metrics.registerMBean("skiresort.consumer:type=Metrics");
+        if (METRICS_PORT >= 0) {
+            try {
+                lifecycle.addChecks(MetricsHttpServer.start(metrics, METRICS_PORT));
+            } catch (IOException e) {
+                logger.warning("Unable to serve metrics on port " + METRICS_PORT + ": " + e.getMessage());
+            }
         }
     }
 
     /**
-     * Processes the batch of messages by updating Redis in a batch operation.
-     * It also acknowledges the messages in RabbitMQ after processing.
-     *
-     * @param batchMessages List of messages to be processed.
-     * @param channel The RabbitMQ channel used to acknowledge messages.
+     * Stops taking deliveries, writes and acks every ride already received, requeues the rest
+     * and closes the channels, the connection and the Redis pool; see {@link ConsumerLifecycle}.
      */
-    private void processBatch(List<DeliveryMessage> batchMessages, Channel channel) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            Pipeline pipeline = jedis.pipelined(); // Enable Redis Pipeline batch operations
-
-            // Process each message in the batch
-            for (DeliveryMessage deliveryMessage : batchMessages) {
-                LiftRide liftRide = deliveryMessage.liftRide;
-                String key = "skier:" + liftRide.getSkierID() + ":day:" + liftRide.getDayID();
-
-                // Update Redis hash with lift ride information
-                pipeline.hset(key, "resortID", String.valueOf(liftRide.getResortID()));
-                pipeline.hset(key, "liftID", String.valueOf(liftRide.getLiftID()));
-                pipeline.hincrBy(key, "verticalHeight", liftRide.getLiftID() * 10L); // Increment verticalHeight
-            }
-
-            pipeline.sync(); // Execute batch operations
-
-            // Acknowledge the messages in RabbitMQ after processing
-            for (DeliveryMessage deliveryMessage : batchMessages) {
-                channel.basicAck(deliveryMessage.message.getEnvelope().getDeliveryTag(), false);
-            }
-
-            // Log the batch processing
-            logger.info("Processed batch of " + batchMessages.size() + " messages.");
-        } catch (Exception e) {
-            logger.severe("Error processing batch: " + e.getMessage());
+    public void drain() {
+        if (lifecycle != null) {
+            lifecycle.shutdown(SHUTDOWN_TIMEOUT_MS);
         }
     }
 
     /**
-         * Helper class to store RabbitMQ message and corresponding LiftRide object.
-         */
-        private record DeliveryMessage(Delivery message, LiftRide liftRide) {
+     * Writes aggregated lift rides to Redis, through the idempotent Lua script or a plain
+     * pipeline depending on IDEMPOTENT_WRITES. The pipeline acknowledges the messages in
+     * RabbitMQ once this returns.
+     *
+     * @param jedis     The calling writer thread's connection.
+     * @param aggregate Lift rides folded per skier, resort, season and day.
+     */
+    private void writeAggregate(Jedis jedis, RideAggregator aggregate) throws Exception {
+        redisWriter.write(jedis, aggregate);
+
+        // Logging every batch costs too much at full rate, so only now and then
+        int rides = aggregate.rideCount();
+        int keys = aggregate.size();
+        batchLog.log(() -> "Processed batch of " + rides + " messages as " + keys + " keys.");
     }
 }
@@ -0,0 +1,193 @@
+package skiresort.consumer;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Consumes the queue on a set of channels feeding one {@link ConsumerPipeline}, and every
+ * control interval spreads the {@link CreditLimit} over them: as few consumers as hold the
+ * limit at {@code minPrefetch} each, up to all channels, and the limit divided among those as
+ * their prefetch count. Channels past that have their consumer cancelled.
+ * <p>
+ * A consumer's prefetch count is fixed when it subscribes, so a new count re-subscribes the
+ * channel's consumer; the deliveries it holds stay unacked on the channel and are settled as
+ * usual. Counts within {@code RESUBSCRIBE_THRESHOLD} of the current one are left alone.
+ */
+public class AdaptiveConsumers implements AdaptiveConsumersMBean {
+    private static final double RESUBSCRIBE_THRESHOLD = 0.1; // Relative prefetch change worth a re-subscribe
+
+    private final String queue;
+    private final ConsumerPipeline pipeline;
+    private final BatchMetrics metrics;
+    private final CreditLimit creditLimit;
+    private final int minPrefetch;
+    private final int maxPrefetch;
+    private final List<Consumer> consumers = new ArrayList<>();
+    private final Logger logger = Logger.getLogger(AdaptiveConsumers.class.getName());
+    private ScheduledExecutorService controlThread;
+
+    // Pipeline counters at the last update, to take the interval's share of them
+    private long lastWriteNanos;
+    private long lastWriteCount;
+    private long lastMessageCount;
+    private long lastBatchCount;
+    private volatile int activeConsumers;
+    private volatile int prefetch;
+
+    /**
+     * @param minPrefetch prefetch count below which consumers are cancelled instead
+     * @param maxPrefetch prefetch count no consumer exceeds, so a limit above
+     *                    {@code maxPrefetch} times the channels is never reached
+     */
+    public AdaptiveConsumers(String queue, ConsumerPipeline pipeline, BatchMetrics metrics, CreditLimit creditLimit,
+                             int minPrefetch, int maxPrefetch) {
+        this.queue = queue;
+        this.pipeline = pipeline;
+        this.metrics = metrics;
+        this.creditLimit = creditLimit;
+        this.minPrefetch = minPrefetch;
+        this.maxPrefetch = Math.min(maxPrefetch, ChannelAcks.WINDOW);
+    }
+
+    /**
+     * Adds a channel to consume on; it gets a consumer at the next update that needs one.
+     */
+    public synchronized void add(Channel channel) {
+        consumers.add(new Consumer(channel, pipeline.deliverCallback(channel)));
+    }
+
+    /**
+     * Subscribes consumers for the initial limit, then updates it every {@code intervalMillis}.
+     */
+    public synchronized void start(long intervalMillis) {
+        apply(creditLimit.getLimit());
+        controlThread = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "credit-control");
+            thread.setDaemon(true);
+            return thread;
+        });
+        controlThread.scheduleWithFixedDelay(this::update, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels every consumer, so the broker stops delivering; what was delivered stays with the
+     * pipeline to be written and acked.
+     */
+    public synchronized void stop() {
+        if (controlThread != null) {
+            controlThread.shutdownNow();
+        }
+        for (Consumer consumer : consumers) {
+            consumer.cancel();
+        }
+        activeConsumers = 0;
+    }
+
+    /**
+     * Feeds the last interval to the credit limit and spreads the new limit over the channels.
+     */
+    synchronized void update() {
+        long writeNanos = pipeline.totalWriteNanos();
+        long writeCount = pipeline.writeCount();
+        long messageCount = metrics.getMessageCount();
+        long batchCount = metrics.getBatchCount();
+        long writes = writeCount - lastWriteCount;
+        long batches = batchCount - lastBatchCount;
+        double averageWriteNanos = writes == 0 ? 0 : (writeNanos - lastWriteNanos) / (double) writes;
+        double batchFill = batches == 0 ? 1 : (messageCount - lastMessageCount) / (double) batches / pipeline.batchSize();
+        lastWriteNanos = writeNanos;
+        lastWriteCount = writeCount;
+        lastMessageCount = messageCount;
+        lastBatchCount = batchCount;
+
+        apply(creditLimit.update(averageWriteNanos, batchFill, pipeline.writeBacklog(), pipeline.redisWriters(),
+                pipeline.getUnackedCount()));
+    }
+
+    private void apply(int limit) {
+        int active = Math.max(1, Math.min(consumers.size(), (limit + minPrefetch - 1) / minPrefetch));
+        int perConsumer = Math.max(minPrefetch, Math.min(maxPrefetch, (limit + active - 1) / active));
+        for (int i = 0; i < consumers.size(); i++) {
+            Consumer consumer = consumers.get(i);
+            if (i >= active) {
+                consumer.cancel();
+            } else if (consumer.consumerTag == null
+                    || Math.abs(perConsumer - consumer.prefetch) > RESUBSCRIBE_THRESHOLD * consumer.prefetch) {
+                consumer.subscribe(perConsumer);
+            }
+        }
+        activeConsumers = Math.min(active, consumers.size());
+        prefetch = perConsumer;
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@code name}.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            logger.warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getCreditLimit() { return creditLimit.getLimit(); }
+
+    @Override
+    public double getBaselineWriteMillis() { return creditLimit.getBaselineMillis(); }
+
+    @Override
+    public int getActiveConsumers() { return activeConsumers; }
+
+    @Override
+    public int getPrefetchCount() { return prefetch; }
+
+    private final class Consumer {
+        final Channel channel;
+        final DeliverCallback callback;
+        String consumerTag;
+        int prefetch;
+
+        Consumer(Channel channel, DeliverCallback callback) {
+            this.channel = channel;
+            this.callback = callback;
+        }
+
+        void subscribe(int newPrefetch) {
+            cancel();
+            try {
+                channel.basicQos(newPrefetch);
+                consumerTag = channel.basicConsume(queue, false, callback, tag -> {});
+                prefetch = newPrefetch;
+            } catch (IOException | ShutdownSignalException e) {
+                logger.severe("Error subscribing consumer: " + e.getMessage());
+            }
+        }
+
+        void cancel() {
+            if (consumerTag == null) {
+                return;
+            }
+            try {
+                channel.basicCancel(consumerTag);
+            } catch (IOException | ShutdownSignalException e) {
+                // A closed channel has no consumer left to cancel
+                logger.severe("Error cancelling consumer: " + e.getMessage());
+            }
+            consumerTag = null;
+        }
+    }
+}
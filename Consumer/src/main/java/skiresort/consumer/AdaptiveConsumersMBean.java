@@ -0,0 +1,14 @@
+package skiresort.consumer;
+
+/**
+ * JMX view of {@link AdaptiveConsumers}.
+ */
+public interface AdaptiveConsumersMBean {
+    /** Deliveries the consumers may hold unacked across all channels. */
+    int getCreditLimit();
+    /** Lowest recent Redis write latency the limit is measured against. */
+    double getBaselineWriteMillis();
+    int getActiveConsumers();
+    /** Prefetch count of each active consumer. */
+    int getPrefetchCount();
+}
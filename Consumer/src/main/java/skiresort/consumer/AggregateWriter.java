@@ -0,0 +1,12 @@
+package skiresort.consumer;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Writes an aggregate to Redis over a connection the caller owns, so each writer thread of the
+ * {@link ConsumerPipeline} keeps one connection instead of borrowing from a pool per batch.
+ */
+@FunctionalInterface
+public interface AggregateWriter {
+    void write(Jedis jedis, RideAggregator aggregate) throws Exception;
+}
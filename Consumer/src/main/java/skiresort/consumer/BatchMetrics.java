@@ -0,0 +1,153 @@
+package skiresort.consumer;
+
+import skiresort.common.metrics.MetricsRegistry;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Batch size distribution, flush reasons, linger time and failures of the batches the
+ * {@link ConsumerPipeline} aggregates, recorded with striped counters so the workers never
+ * contend on them.
+ */
+public class BatchMetrics implements BatchMetricsMBean {
+
+    public enum FlushReason { SIZE, LINGER, SHUTDOWN }
+
+    private static final int[] SIZE_BUCKET_BOUNDS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024, Integer.MAX_VALUE};
+
+    private final LongAdder[] sizeBuckets = new LongAdder[SIZE_BUCKET_BOUNDS.length];
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder messageCount = new LongAdder();
+    private final LongAdder failedBatchCount = new LongAdder();
+    private final LongAdder nackedMessageCount = new LongAdder();
+    private final LongAdder undecodableMessageCount = new LongAdder();
+    private final LongAdder[] flushReasons = new LongAdder[FlushReason.values().length];
+    private final LongAdder lingerNanosTotal = new LongAdder();
+    private final LongAccumulator lingerNanosMax = new LongAccumulator(Long::max, 0);
+
+    public BatchMetrics() {
+        for (int i = 0; i < sizeBuckets.length; i++) {
+            sizeBuckets[i] = new LongAdder();
+        }
+        for (int i = 0; i < flushReasons.length; i++) {
+            flushReasons[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param size         number of messages in the flushed batch
+     * @param lingerNanos  time between the first message of the batch arriving and the flush
+     */
+    public void recordFlush(int size, long lingerNanos, FlushReason reason) {
+        int bucket = 0;
+        while (size > SIZE_BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        sizeBuckets[bucket].increment();
+        batchCount.increment();
+        messageCount.add(size);
+        flushReasons[reason.ordinal()].increment();
+        lingerNanosTotal.add(lingerNanos);
+        lingerNanosMax.accumulate(lingerNanos);
+    }
+
+    /**
+     * @param size number of messages in a batch that failed to write and was nacked
+     */
+    public void recordFailure(int size) {
+        failedBatchCount.increment();
+        nackedMessageCount.add(size);
+    }
+
+    /**
+     * Counts a message that could not be decoded and went straight to the dead-letter queue.
+     */
+    public void recordUndecodable() {
+        undecodableMessageCount.increment();
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@code name}.
+     */
+    public void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            Logger.getLogger(BatchMetrics.class.getName()).warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the batch counts, size distribution and linger time to {@code registry}: the size
+     * buckets as {@code prefix.size.le_<bound>}, the last one as {@code le_max}.
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix) {
+        registry.gauge(prefix + ".count", batchCount::sum);
+        registry.gauge(prefix + ".failed", failedBatchCount::sum);
+        registry.gauge(prefix + ".undecodable", undecodableMessageCount::sum);
+        registry.gauge(prefix + ".size.average", this::getAverageBatchSize);
+        for (int i = 0; i < sizeBuckets.length; i++) {
+            int bound = SIZE_BUCKET_BOUNDS[i];
+            registry.gauge(prefix + ".size.le_" + (bound == Integer.MAX_VALUE ? "max" : bound), sizeBuckets[i]::sum);
+        }
+        registry.gauge(prefix + ".linger.average_ms", this::getAverageLingerMillis);
+    }
+
+    @Override
+    public long getBatchCount() { return batchCount.sum(); }
+
+    @Override
+    public long getMessageCount() { return messageCount.sum(); }
+
+    @Override
+    public long getFailedBatchCount() { return failedBatchCount.sum(); }
+
+    @Override
+    public long getNackedMessageCount() { return nackedMessageCount.sum(); }
+
+    @Override
+    public long getUndecodableMessageCount() { return undecodableMessageCount.sum(); }
+
+    @Override
+    public double getAverageBatchSize() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0 : messageCount.sum() / (double) batches;
+    }
+
+    @Override
+    public long[] getBatchSizeHistogram() {
+        long[] counts = new long[sizeBuckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = sizeBuckets[i].sum();
+        }
+        return counts;
+    }
+
+    @Override
+    public int[] getBatchSizeBucketBounds() { return SIZE_BUCKET_BOUNDS.clone(); }
+
+    @Override
+    public long getSizeFlushCount() { return flushReasons[FlushReason.SIZE.ordinal()].sum(); }
+
+    @Override
+    public long getLingerFlushCount() { return flushReasons[FlushReason.LINGER.ordinal()].sum(); }
+
+    @Override
+    public long getShutdownFlushCount() { return flushReasons[FlushReason.SHUTDOWN.ordinal()].sum(); }
+
+    @Override
+    public double getAverageLingerMillis() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0 : lingerNanosTotal.sum() / (double) batches / 1_000_000.0;
+    }
+
+    @Override
+    public double getMaxLingerMillis() { return lingerNanosMax.get() / 1_000_000.0; }
+}
@@ -0,0 +1,24 @@
+package skiresort.consumer;
+
+/**
+ * JMX view of {@link BatchMetrics}.
+ */
+public interface BatchMetricsMBean {
+    long getBatchCount();
+    long getMessageCount();
+    /** Batches the writer failed on, whose messages were all nacked. */
+    long getFailedBatchCount();
+    long getNackedMessageCount();
+    /** Messages dead-lettered on arrival because they could not be decoded. */
+    long getUndecodableMessageCount();
+    double getAverageBatchSize();
+    /** Batch counts per size bucket, see {@link #getBatchSizeBucketBounds()}. */
+    long[] getBatchSizeHistogram();
+    /** Inclusive upper bound of each size bucket. */
+    int[] getBatchSizeBucketBounds();
+    long getSizeFlushCount();
+    long getLingerFlushCount();
+    long getShutdownFlushCount();
+    double getAverageLingerMillis();
+    double getMaxLingerMillis();
+}
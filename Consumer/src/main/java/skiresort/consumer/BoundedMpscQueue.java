@@ -0,0 +1,121 @@
+package skiresort.consumer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue for any number of producers and one consumer thread, without locks: a
+ * producer claims a slot with a CAS on the tail and then publishes the element into it, and
+ * the consumer takes slots in order, treating an empty slot as not yet published.
+ * <p>
+ * A consumer with nothing to do parks in {@link #poll(long)}, and the producer that finds it
+ * parked wakes it, so an idle stage costs no CPU. Producers that find the queue full park for
+ * {@code FULL_PARK_NANOS} at a time in {@link #put}; stages are sized so that this only
+ * happens when the stage after them has stalled.
+ */
+public final class BoundedMpscQueue<E> {
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private volatile Thread parkedConsumer;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public BoundedMpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    public boolean offer(E element) {
+        while (true) {
+            long claim = tail.get();
+            if (claim - head > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(claim, claim + 1)) {
+                // A full fence, so the parkedConsumer read below cannot move ahead of it
+                slots.set((int) claim & mask, element);
+                Thread consumer = parkedConsumer;
+                if (consumer != null) {
+                    LockSupport.unpark(consumer);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds the element, waiting while the queue is full.
+     *
+     * @return true if the queue was full at first
+     */
+    public boolean put(E element) {
+        if (offer(element)) {
+            return false;
+        }
+        while (!offer(element)) {
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Consumer thread only.
+     *
+     * @return the oldest element, or null if there is none
+     */
+    public E poll() {
+        long next = head;
+        int slot = (int) next & mask;
+        E element = slots.get(slot);
+        if (element == null) {
+            return null;  // Empty, or the producer has claimed the slot but not filled it yet
+        }
+        slots.lazySet(slot, null);
+        head = next + 1;
+        return element;
+    }
+
+    /**
+     * Consumer thread only: waits up to {@code timeoutNanos} for an element.
+     *
+     * @return the oldest element, or null if none arrived in time or the thread was interrupted
+     */
+    public E poll(long timeoutNanos) {
+        E element = poll();
+        if (element != null || timeoutNanos <= 0) {
+            return element;
+        }
+        parkedConsumer = Thread.currentThread();
+        try {
+            // Check again after announcing the park, or an offer in between would go unnoticed
+            element = poll();
+            if (element == null) {
+                LockSupport.parkNanos(this, timeoutNanos);
+                element = poll();
+            }
+        } finally {
+            parkedConsumer = null;
+        }
+        return element;
+    }
+
+    /**
+     * @return elements claimed but not yet taken; a snapshot that may be stale at once
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int capacity() { return mask + 1; }
+}
@@ -0,0 +1,128 @@
+package skiresort.consumer;
+
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+
+/**
+ * Settles the deliveries of one channel, which finish out of order because their rides take
+ * different shards. Nacks go out one by one as they come in; acks wait until every earlier
+ * delivery of the channel is settled and then go out as one {@code basicAck(multiple=true)}
+ * for everything up to that watermark.
+ * <p>
+ * Only the {@link ConsumerPipeline}'s ack thread, or the thread of a
+ * {@link PartitionedConsumer} partition, calls {@link #settle}, {@link #nack} and
+ * {@link #flush}, and only the thread that closed them, once that thread has exited, calls
+ * {@link #requeueUnsettled}.
+ */
+final class ChannelAcks {
+    // Deliveries a channel may have unacked at once; far above any sensible prefetch count
+    static final int WINDOW = 1 << 16;
+
+    final Channel channel;
+    final int index;
+
+    // Bit per delivery tag modulo WINDOW: settled at all, and settled by an ack
+    private final long[] settled = new long[WINDOW / 64];
+    private final long[] ackable = new long[WINDOW / 64];
+    // Every tag up to here has been acked or nacked
+    private long watermark;
+    private boolean dirty;
+    // Set on the channel's dispatch thread, read for the unacked count
+    private volatile long lastDeliveryTag;
+
+    ChannelAcks(Channel channel, int index) {
+        this.channel = channel;
+        this.index = index;
+    }
+
+    void delivered(long deliveryTag) {
+        lastDeliveryTag = deliveryTag;
+    }
+
+    /**
+     * Records how a delivery ended. A failed delivery must then be passed to {@link #nack}.
+     *
+     * @return true if the channel was clean before, so the caller knows to {@link #flush} it
+     */
+    boolean settle(Delivery delivery) {
+        long tag = delivery.deliveryTag;
+        if (tag - watermark >= WINDOW) {
+            throw new IllegalStateException("More than " + WINDOW + " unacked deliveries on one channel; lower the prefetch count");
+        }
+        settled[word(tag)] |= bit(tag);
+        if (delivery.outcome == Delivery.Outcome.ACK) {
+            ackable[word(tag)] |= bit(tag);
+        }
+        boolean wasClean = !dirty;
+        dirty = true;
+        return wasClean;
+    }
+
+    void nack(Delivery delivery) throws IOException {
+        channel.basicNack(delivery.deliveryTag, false, delivery.outcome == Delivery.Outcome.REQUEUE);
+    }
+
+    /**
+     * Moves the watermark over every settled delivery and acks the acked ones among them.
+     *
+     * @return number of basicAck calls made, 0 or 1
+     */
+    int flush() throws IOException {
+        dirty = false;
+        long lastAck = 0;
+        long tag = watermark + 1;
+        while ((settled[word(tag)] & bit(tag)) != 0) {
+            if ((ackable[word(tag)] & bit(tag)) != 0) {
+                lastAck = tag;
+            }
+            settled[word(tag)] &= ~bit(tag);
+            ackable[word(tag)] &= ~bit(tag);
+            watermark = tag++;
+        }
+        // The last tag in the range may be a nacked one, which the broker no longer knows about
+        if (lastAck != 0) {
+            channel.basicAck(lastAck, true);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Acks the acked deliveries past the watermark and requeues the ones never settled, one by
+     * one, so the broker gets back everything the channel still holds before it closes.
+     *
+     * @return number of deliveries requeued
+     */
+    int requeueUnsettled() throws IOException {
+        int requeued = 0;
+        long last = lastDeliveryTag;
+        for (long tag = watermark + 1; tag <= last; tag++) {
+            if ((ackable[word(tag)] & bit(tag)) != 0) {
+                channel.basicAck(tag, false);
+            } else if ((settled[word(tag)] & bit(tag)) == 0) {
+                channel.basicNack(tag, false, true);
+                requeued++;
+            }
+            settled[word(tag)] &= ~bit(tag);
+            ackable[word(tag)] &= ~bit(tag);
+            watermark = tag;
+        }
+        return requeued;
+    }
+
+    /**
+     * @return deliveries received but not yet settled
+     */
+    long unacked() {
+        return Math.max(0, lastDeliveryTag - watermark);
+    }
+
+    private static int word(long tag) {
+        return (int) (tag & (WINDOW - 1)) >>> 6;
+    }
+
+    private static long bit(long tag) {
+        return 1L << tag;
+    }
+}
@@ -0,0 +1,181 @@
+package skiresort.consumer;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+import redis.clients.jedis.JedisPool;
+import skiresort.common.metrics.MetricsHttpServer;
+import skiresort.common.metrics.MetricsRegistry;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Tracks a consumer from start to stop, answers whether it is live and ready, and shuts it
+ * down in an order that loses no ride and writes none twice:
+ * <ol>
+ *   <li>Cancel every consumer with {@code basicCancel}, so the broker stops delivering.</li>
+ *   <li>Close the {@link ConsumerPipeline} within the deadline: partial batches are written
+ *       and every delivery written is acked; deliveries that arrived after the cancel are
+ *       nacked back to the queue. A {@link PartitionedConsumer} does the same for each of its
+ *       partitions, cancelling their consumers first, and then releases the partitions.</li>
+ *   <li>Close the {@link WriteBehindWriter}, if any, which flushes its tables to Redis.</li>
+ *   <li>Close the channels, then the connection; the broker requeues whatever a pipeline
+ *       stage still busy at the deadline held.</li>
+ *   <li>Close the Redis pool.</li>
+ * </ol>
+ * A ride requeued after it reached Redis, because its ack was lost with an abandoned stage,
+ * is skipped on redelivery by {@link IdempotentRedisWriter}.
+ * <p>
+ * Live means the process can still do its work: not stopped, and no pipeline or partition
+ * thread died. Ready means it is doing it: consuming on an open connection, with the last
+ * Redis write successful. Both are exposed over JMX, as metrics and, see {@link #addChecks}, over HTTP.
+ */
+public class ConsumerLifecycle implements ConsumerLifecycleMBean {
+
+    public static final String LIVENESS_PATH = "/health/live";
+    public static final String READINESS_PATH = "/health/ready";
+
+    private enum State { STARTING, RUNNING, DRAINING, STOPPED }
+
+    private final JedisPool jedisPool;
+    private final Drainable pipeline;
+    private final WriteBehindWriter writeBehind;
+    private final Logger logger = Logger.getLogger(ConsumerLifecycle.class.getName());
+
+    private volatile Connection connection;
+    private final List<Channel> channels = new ArrayList<>();
+    private AdaptiveConsumers consumers;
+    private volatile State state = State.STARTING;
+    private volatile long shutdownMillis;
+
+    /**
+     * @param pipeline    the {@link ConsumerPipeline}, or the {@link PartitionedConsumer}
+     * @param writeBehind null unless rides are written behind
+     */
+    public ConsumerLifecycle(JedisPool jedisPool, Drainable pipeline, WriteBehindWriter writeBehind) {
+        this.jedisPool = jedisPool;
+        this.pipeline = pipeline;
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * Hands over the broker side once it is set up, and marks the consumer ready to consume.
+     * Call before {@link AdaptiveConsumers#start}.
+     *
+     * @param channels  the consumers' channels; none for a {@link PartitionedConsumer}, which
+     *                  closes its own
+     * @param consumers null for a {@link PartitionedConsumer}
+     *
+     * @throws IllegalStateException if shutdown began during the start; the connection is
+     *                               closed then
+     */
+    public synchronized void running(Connection connection, List<Channel> channels, AdaptiveConsumers consumers) {
+        if (state != State.STARTING) {
+            closeConnection(connection);
+            throw new IllegalStateException("Consumer was shut down while starting");
+        }
+        this.connection = connection;
+        this.channels.addAll(channels);
+        this.consumers = consumers;
+        state = State.RUNNING;
+    }
+
+    /**
+     * Runs the shutdown steps above, once; later calls return at once.
+     *
+     * @param timeoutMillis how long the pipeline gets to write and ack what it holds
+     */
+    public synchronized void shutdown(long timeoutMillis) {
+        if (state == State.DRAINING || state == State.STOPPED) {
+            return;
+        }
+        state = State.DRAINING;
+        long started = System.nanoTime();
+        if (consumers != null) {
+            consumers.stop();
+        }
+        boolean drained = pipeline.close(timeoutMillis);
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        for (Channel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException | TimeoutException | ShutdownSignalException e) {
+                // Already closed with its connection, or by the broker
+            }
+        }
+        if (connection != null) {
+            closeConnection(connection);
+        }
+        jedisPool.close();
+        shutdownMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        state = State.STOPPED;
+        logger.info((drained ? "Drained" : "Stopped at the deadline") + " in " + shutdownMillis + " ms: "
+                + pipeline.getAckCount() + " acks sent, " + pipeline.getShutdownRequeueCount()
+                + " deliveries requeued on shutdown.");
+    }
+
+    private void closeConnection(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException | ShutdownSignalException e) {
+            logger.warning("Error closing RabbitMQ connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@code name}.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            logger.warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds {@code prefix.live} and {@code prefix.ready} to {@code registry}, 1 when true and 0
+     * when false.
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix) {
+        registry.gauge(prefix + ".live", () -> isLive() ? 1 : 0);
+        registry.gauge(prefix + ".ready", () -> isReady() ? 1 : 0);
+    }
+
+    /**
+     * Answers {@link #LIVENESS_PATH} and {@link #READINESS_PATH} on {@code server}.
+     */
+    public void addChecks(MetricsHttpServer server) {
+        server.addCheck(LIVENESS_PATH, this::isLive);
+        server.addCheck(READINESS_PATH, this::isReady);
+    }
+
+    @Override
+    public String getState() { return state.name(); }
+
+    @Override
+    public boolean isLive() {
+        State current = state;
+        return current == State.DRAINING || current != State.STOPPED && pipeline.isRunning();
+    }
+
+    @Override
+    public boolean isReady() {
+        Connection current = connection;
+        return state == State.RUNNING && current != null && current.isOpen() && pipeline.isRunning()
+                && !pipeline.isWriteFailing();
+    }
+
+    @Override
+    public long getShutdownMillis() { return shutdownMillis; }
+}
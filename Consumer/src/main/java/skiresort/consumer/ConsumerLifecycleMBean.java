@@ -0,0 +1,15 @@
+package skiresort.consumer;
+
+/**
+ * JMX view of {@link ConsumerLifecycle}.
+ */
+public interface ConsumerLifecycleMBean {
+    /** STARTING, RUNNING, DRAINING or STOPPED. */
+    String getState();
+    /** False once the consumer has stopped or a pipeline thread died; restart it then. */
+    boolean isLive();
+    /** True while consuming on an open connection with Redis writes succeeding. */
+    boolean isReady();
+    /** How long the last shutdown took, from cancelling the consumers to closing the pool. */
+    long getShutdownMillis();
+}
@@ -0,0 +1,539 @@
+package skiresort.consumer;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DeliverCallback;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import skiresort.common.LatencyRecorder;
+import skiresort.common.RideIdGenerator;
+import skiresort.common.WireFormat;
+import skiresort.common.metrics.MetricsRegistry;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Staged consumer: the AMQP delivery callbacks only enqueue, and every later step runs on
+ * threads of its own, connected by {@link BoundedMpscQueue}s, so a slow Redis round trip
+ * holds up its own writer and nothing else.
+ * <ol>
+ *   <li>Decode workers, one per group of channels, decode the message and its ride ID.
+ *       Rides that can never be stored are dead-lettered from here.</li>
+ *   <li>Aggregation workers, sharded by skierID, fold rides into a {@link RideAggregator}
+ *       and hand it on after {@code batchSize} rides or {@code maxLingerMillis} after the
+ *       first, whichever comes first. Since all rides of a skier meet in one shard, the
+ *       batch combines deliveries of all channels.</li>
+ *   <li>Redis writers each hold one connection and write whole aggregates with the
+ *       {@link AggregateWriter}; shards map onto writers, so a skier's batches stay in order.</li>
+ *   <li>One ack thread settles every delivery on its own channel through {@link ChannelAcks}:
+ *       failures are nacked one by one, and the rest acked with a single
+ *       {@code basicAck(multiple=true)} per channel and sweep.</li>
+ * </ol>
+ * A stage whose next queue is full waits, which in the end leaves the deliveries unacked and
+ * lets the prefetch count stop the broker. Queues are sized so that this only happens when
+ * Redis falls behind.
+ */
+public class ConsumerPipeline implements ConsumerPipelineMBean, Drainable {
+
+    // How long an idle worker parks before it checks for shutdown
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Settled deliveries the ack thread takes in before it sends the acks
+    private static final int MAX_ACK_SWEEP = 4096;
+    // Longer write, pool wait and lag times are recorded as this
+    private static final long MAX_RECORDED_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    // Stages in shutdown order
+    private static final int DECODE = 0;
+    private static final int AGGREGATE = 1;
+    private static final int WRITE = 2;
+    private static final int ACK = 3;
+
+    private final JedisPool jedisPool;
+    private final AggregateWriter writer;
+    private final BatchMetrics metrics;
+    private final int batchSize;
+    private final long maxLingerNanos;
+    private final Logger logger = Logger.getLogger(ConsumerPipeline.class.getName());
+
+    private final List<BoundedMpscQueue<Delivery>> decodeQueues = new ArrayList<>();
+    private final List<BoundedMpscQueue<Delivery>> aggregationQueues = new ArrayList<>();
+    private final List<BoundedMpscQueue<WriteBatch>> writeQueues = new ArrayList<>();
+    private final BoundedMpscQueue<Delivery> ackQueue;
+    // Written batches on their way back to their aggregation worker for reuse
+    private final List<BoundedMpscQueue<WriteBatch>> spareBatches = new ArrayList<>();
+
+    private final List<List<Thread>> stages = new ArrayList<>();
+    private final List<ChannelAcks> channels = new CopyOnWriteArrayList<>();
+    private volatile boolean accepting = true;
+    // Stages below this have been told to finish what is queued and exit
+    private volatile int stoppedStages;
+    private volatile boolean writeFailing;
+
+    private final LongAdder rideCount = new LongAdder();
+    private final LongAdder keyCount = new LongAdder();
+    private final LongAdder ackCount = new LongAdder();
+    private final LongAdder backpressureWaits = new LongAdder();
+    private final LongAdder shutdownRequeues = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder writeCount = new LongAdder();
+    private final LatencyRecorder writeLatency = new LatencyRecorder(MAX_RECORDED_NANOS);
+    private final LatencyRecorder poolWait = new LatencyRecorder(MAX_RECORDED_NANOS);
+    private final LatencyRecorder rideLag = new LatencyRecorder(MAX_RECORDED_NANOS);
+
+    /**
+     * @param decodeWorkers      threads decoding messages; channels are spread over them
+     * @param aggregationWorkers threads aggregating rides, each owning the skiers with
+     *                           {@code skierID % aggregationWorkers} equal to its index
+     * @param redisWriters       threads writing to Redis, each holding one pool connection
+     * @param queueCapacity      deliveries each decode and aggregation queue holds; the write
+     *                           queues hold as many rides in whole batches
+     * @param batchSize          rides per aggregate handed to a writer
+     * @param maxLingerMillis    how long a ride may wait for its aggregate to fill
+     * @param writer             writes an aggregate over a writer thread's connection
+     */
+    public ConsumerPipeline(int decodeWorkers, int aggregationWorkers, int redisWriters, int queueCapacity,
+                            int batchSize, long maxLingerMillis, JedisPool jedisPool, AggregateWriter writer,
+                            BatchMetrics metrics) {
+        this.jedisPool = jedisPool;
+        this.writer = writer;
+        this.metrics = metrics;
+        this.batchSize = batchSize;
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+        int batchesPerQueue = Math.max(2, queueCapacity / batchSize);
+        this.ackQueue = new BoundedMpscQueue<>(queueCapacity);
+
+        for (int i = 0; i < 4; i++) {
+            stages.add(new ArrayList<>());
+        }
+        for (int i = 0; i < decodeWorkers; i++) {
+            decodeQueues.add(new BoundedMpscQueue<>(queueCapacity));
+            int worker = i;
+            stages.get(DECODE).add(newThread("decode-" + i, () -> decode(worker)));
+        }
+        for (int i = 0; i < aggregationWorkers; i++) {
+            aggregationQueues.add(new BoundedMpscQueue<>(queueCapacity));
+            spareBatches.add(new BoundedMpscQueue<>(batchesPerQueue));
+            int shard = i;
+            stages.get(AGGREGATE).add(newThread("aggregate-" + i, () -> aggregate(shard)));
+        }
+        for (int i = 0; i < redisWriters; i++) {
+            writeQueues.add(new BoundedMpscQueue<>(batchesPerQueue));
+            int worker = i;
+            stages.get(WRITE).add(newThread("redis-writer-" + i, () -> write(worker)));
+        }
+        stages.get(ACK).add(newThread("ack", this::acknowledge));
+    }
+
+    public void start() {
+        for (List<Thread> stage : stages) {
+            stage.forEach(Thread::start);
+        }
+    }
+
+    /**
+     * @return the callback to consume {@code channel} with; it enqueues every delivery for
+     *         decoding and leaves acking it to the pipeline
+     */
+    public synchronized DeliverCallback deliverCallback(Channel channel) {
+        ChannelAcks acks = new ChannelAcks(channel, channels.size());
+        channels.add(acks);
+        BoundedMpscQueue<Delivery> queue = decodeQueues.get(acks.index % decodeQueues.size());
+        return (consumerTag, message) -> {
+            long deliveryTag = message.getEnvelope().getDeliveryTag();
+            acks.delivered(deliveryTag);
+            if (!accepting) {
+                return;  // Left unsettled; close requeues it
+            }
+            Delivery delivery = new Delivery(acks, deliveryTag, message.getEnvelope().isRedeliver(), message.getBody(),
+                    message.getProperties().getContentType(), message.getProperties().getMessageId());
+            enqueue(queue, delivery);
+        };
+    }
+
+    /**
+     * Stops taking deliveries, then lets each stage in turn finish what is queued for it, so
+     * every ride received is written and settled before the channels close. Once the ack
+     * thread is done, deliveries that arrived after the stop are nacked back to the queue, so
+     * the channels hold nothing unsettled.
+     *
+     * @param timeoutMillis for the whole drain; stages still busy then are abandoned, and the
+     *                      broker redelivers whatever they had not acked when the channels close
+     * @return true if every stage finished and nothing was left unsettled
+     */
+    @Override
+    public boolean close(long timeoutMillis) {
+        accepting = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            for (int stage = 0; stage < stages.size(); stage++) {
+                stoppedStages = stage + 1;
+                for (Thread thread : stages.get(stage)) {
+                    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    thread.join(Math.max(1, remainingMillis));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (List<Thread> stage : stages) {
+            for (Thread thread : stage) {
+                if (thread.isAlive()) {
+                    logger.warning("Pipeline still busy in " + thread.getName() + " at the shutdown deadline; "
+                            + getUnackedCount() + " deliveries are left for the broker to redeliver.");
+                    return false;
+                }
+            }
+        }
+
+        boolean settled = true;
+        for (ChannelAcks channel : channels) {
+            try {
+                shutdownRequeues.add(channel.requeueUnsettled());
+            } catch (IOException | RuntimeException e) {
+                // A closed channel's unacked deliveries are requeued by the broker anyway
+                logger.severe("Error requeueing deliveries: " + e.getMessage());
+                settled = false;
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * @return true while every stage's threads are running; a stage thread only exits on
+     *         {@link #close} or an error nothing caught
+     */
+    @Override
+    public boolean isRunning() {
+        if (!accepting) {
+            return false;
+        }
+        for (List<Thread> stage : stages) {
+            for (Thread thread : stage) {
+                if (!thread.isAlive()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the last aggregate written, by any writer, failed
+     */
+    @Override
+    public boolean isWriteFailing() {
+        return writeFailing;
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@code name}.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            logger.warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the pipeline's metrics to {@code registry}, named from {@code prefix}: write time
+     * (the Redis pipeline sync), pool wait for a writer's connection, and lag from a ride's
+     * publish to its write, taken from the timestamp in its ride ID. Rides from publishers
+     * that set no ride ID are left out of the lag.
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix) {
+        registry.register(prefix + ".redis.write", writeLatency);
+        registry.register(prefix + ".redis.pool_wait", poolWait);
+        registry.register(prefix + ".lag", rideLag);
+        registry.gauge(prefix + ".rides", rideCount::sum);
+        registry.gauge(prefix + ".acks", ackCount::sum);
+        registry.gauge(prefix + ".unacked", this::getUnackedCount);
+        registry.gauge(prefix + ".backpressure_waits", backpressureWaits::sum);
+        registry.gauge(prefix + ".write_backlog", this::writeBacklog);
+    }
+
+    private void decode(int worker) {
+        BoundedMpscQueue<Delivery> queue = decodeQueues.get(worker);
+        while (true) {
+            // Read before polling, so nothing queued before the stop is missed
+            boolean stopping = stoppedStages > DECODE;
+            Delivery delivery = queue.poll(stopping ? 0 : IDLE_PARK_NANOS);
+            if (delivery == null) {
+                if (stopping) {
+                    return;
+                }
+                continue;
+            }
+
+            // Accepts both JSON and binary messages while publishers migrate
+            try {
+                delivery.ride = WireFormat.of(delivery.contentType, delivery.body).decode(delivery.body);
+                delivery.rideID = parseRideID(delivery.messageId);
+            } catch (RuntimeException e) {
+                // Whatever a malformed body throws, it must not take the worker thread down
+                delivery.ride = null;
+            }
+            if (delivery.ride == null || !RideAggregator.canAggregate(delivery.ride)) {
+                // Would fail every time, so dead-letter it rather than requeue
+                delivery.outcome = Delivery.Outcome.DEAD_LETTER;
+                metrics.recordUndecodable();
+                enqueue(ackQueue, delivery);
+                continue;
+            }
+            enqueue(aggregationQueues.get(delivery.ride.getSkierID() % aggregationQueues.size()), delivery);
+        }
+    }
+
+    // Ride ID the server put in message_id; messages from older publishers have none
+    private static long parseRideID(String messageId) {
+        return messageId == null ? 0 : Long.parseLong(messageId);
+    }
+
+    private void aggregate(int shard) {
+        BoundedMpscQueue<Delivery> queue = aggregationQueues.get(shard);
+        BoundedMpscQueue<WriteBatch> writeQueue = writeQueues.get(shard % writeQueues.size());
+        WriteBatch batch = null;
+        while (true) {
+            boolean stopping = stoppedStages > AGGREGATE;
+            long wait = stopping ? 0
+                    : batch == null ? IDLE_PARK_NANOS
+                    : batch.firstArrivalNanos + maxLingerNanos - System.nanoTime();
+            Delivery delivery = queue.poll(wait);
+            if (delivery != null) {
+                if (batch == null) {
+                    batch = spareBatches.get(shard).poll();
+                    if (batch == null) {
+                        batch = new WriteBatch(shard, batchSize);
+                    }
+                    batch.firstArrivalNanos = System.nanoTime();
+                }
+                batch.aggregate.add(delivery.ride, delivery.rideID);
+                batch.deliveries[batch.size++] = delivery;
+            } else if (stopping) {
+                if (batch != null) {
+                    hand(writeQueue, batch, BatchMetrics.FlushReason.SHUTDOWN);
+                }
+                return;
+            }
+
+            if (batch != null && batch.size >= batchSize) {
+                hand(writeQueue, batch, BatchMetrics.FlushReason.SIZE);
+                batch = null;
+            } else if (batch != null && System.nanoTime() - batch.firstArrivalNanos >= maxLingerNanos) {
+                hand(writeQueue, batch, BatchMetrics.FlushReason.LINGER);
+                batch = null;
+            }
+        }
+    }
+
+    private void hand(BoundedMpscQueue<WriteBatch> writeQueue, WriteBatch batch, BatchMetrics.FlushReason reason) {
+        metrics.recordFlush(batch.size, System.nanoTime() - batch.firstArrivalNanos, reason);
+        enqueue(writeQueue, batch);
+    }
+
+    private void write(int worker) {
+        BoundedMpscQueue<WriteBatch> queue = writeQueues.get(worker);
+        Jedis jedis = null;
+        try {
+            while (true) {
+                boolean stopping = stoppedStages > WRITE;
+                WriteBatch batch = queue.poll(stopping ? 0 : IDLE_PARK_NANOS);
+                if (batch == null) {
+                    if (stopping) {
+                        return;
+                    }
+                    continue;
+                }
+
+                boolean written = false;
+                try {
+                    if (jedis == null) {
+                        long borrowed = System.nanoTime();
+                        jedis = jedisPool.getResource();
+                        poolWait.recordNanos(System.nanoTime() - borrowed);
+                    }
+                    long started = System.nanoTime();
+                    writer.write(jedis, batch.aggregate);
+                    long took = System.nanoTime() - started;
+                    writeNanos.add(took);
+                    writeLatency.recordNanos(took);
+                    writeCount.increment();
+                    written = true;
+                    writeFailing = false;
+                    rideCount.add(batch.aggregate.rideCount());
+                    keyCount.add(batch.aggregate.size());
+                } catch (Exception e) {
+                    logger.severe("Error processing batch: " + e.getMessage());
+                    writeFailing = true;
+                    metrics.recordFailure(batch.size);
+                    if (jedis != null && jedis.getClient().isBroken()) {
+                        jedis.close();  // The pool discards a broken connection; the next batch takes a new one
+                        jedis = null;
+                    }
+                }
+
+                long writtenMillis = written ? System.currentTimeMillis() : 0;
+                for (int i = 0; i < batch.size; i++) {
+                    Delivery delivery = batch.deliveries[i];
+                    if (written && delivery.rideID != 0) {
+                        rideLag.recordNanos(TimeUnit.MILLISECONDS.toNanos(
+                                writtenMillis - RideIdGenerator.timestampMillis(delivery.rideID)));
+                    }
+                    delivery.outcome = written ? Delivery.Outcome.ACK : delivery.failedOutcome();
+                    enqueue(ackQueue, delivery);
+                    batch.deliveries[i] = null;
+                }
+                batch.size = 0;
+                batch.aggregate.clear();
+                spareBatches.get(batch.shard).offer(batch);
+            }
+        } finally {
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+    }
+
+    private void acknowledge() {
+        List<ChannelAcks> dirty = new ArrayList<>();
+        while (true) {
+            boolean stopping = stoppedStages > ACK;
+            Delivery delivery = ackQueue.poll(stopping ? 0 : IDLE_PARK_NANOS);
+            if (delivery == null) {
+                if (stopping) {
+                    return;
+                }
+                continue;
+            }
+
+            int swept = 0;
+            do {
+                ChannelAcks channel = delivery.channel;
+                try {
+                    if (channel.settle(delivery)) {
+                        dirty.add(channel);
+                    }
+                    if (delivery.outcome != Delivery.Outcome.ACK) {
+                        channel.nack(delivery);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // A closed channel's unacked deliveries are requeued by the broker anyway
+                    logger.severe("Error rejecting delivery: " + e.getMessage());
+                }
+            } while (++swept < MAX_ACK_SWEEP && (delivery = ackQueue.poll()) != null);
+
+            for (ChannelAcks channel : dirty) {
+                try {
+                    ackCount.add(channel.flush());
+                } catch (IOException | RuntimeException e) {
+                    logger.severe("Error acknowledging deliveries: " + e.getMessage());
+                }
+            }
+            dirty.clear();
+        }
+    }
+
+    private <E> void enqueue(BoundedMpscQueue<E> queue, E element) {
+        if (queue.put(element)) {
+            backpressureWaits.increment();
+        }
+    }
+
+    private static Thread newThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static int[] depths(List<? extends BoundedMpscQueue<?>> queues) {
+        int[] depths = new int[queues.size()];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = queues.get(i).size();
+        }
+        return depths;
+    }
+
+    int batchSize() { return batchSize; }
+
+    long totalWriteNanos() { return writeNanos.sum(); }
+
+    long writeCount() { return writeCount.sum(); }
+
+    int writeBacklog() {
+        int backlog = 0;
+        for (BoundedMpscQueue<WriteBatch> queue : writeQueues) {
+            backlog += queue.size();
+        }
+        return backlog;
+    }
+
+    int redisWriters() { return writeQueues.size(); }
+
+    @Override
+    public int[] getDecodeQueueDepths() { return depths(decodeQueues); }
+
+    @Override
+    public int[] getAggregationQueueDepths() { return depths(aggregationQueues); }
+
+    @Override
+    public int[] getWriteQueueDepths() { return depths(writeQueues); }
+
+    @Override
+    public int getAckQueueDepth() { return ackQueue.size(); }
+
+    @Override
+    public long getUnackedCount() {
+        long unacked = 0;
+        for (ChannelAcks channel : channels) {
+            unacked += channel.unacked();
+        }
+        return unacked;
+    }
+
+    @Override
+    public long getShutdownRequeueCount() { return shutdownRequeues.sum(); }
+
+    @Override
+    public long getBackpressureWaitCount() { return backpressureWaits.sum(); }
+
+    @Override
+    public long getRideCount() { return rideCount.sum(); }
+
+    @Override
+    public long getKeyCount() { return keyCount.sum(); }
+
+    @Override
+    public long getAckCount() { return ackCount.sum(); }
+
+    @Override
+    public double getAverageWriteMillis() {
+        long writes = writeCount.sum();
+        return writes == 0 ? 0 : writeNanos.sum() / (double) writes / 1_000_000.0;
+    }
+
+    /**
+     * An aggregate and the deliveries folded into it, passed from an aggregation worker to a
+     * writer and back again for reuse.
+     */
+    private static final class WriteBatch {
+        final int shard;
+        final RideAggregator aggregate = new RideAggregator();
+        final Delivery[] deliveries;
+        int size;
+        long firstArrivalNanos;
+
+        WriteBatch(int shard, int batchSize) {
+            this.shard = shard;
+            this.deliveries = new Delivery[batchSize];
+        }
+    }
+}
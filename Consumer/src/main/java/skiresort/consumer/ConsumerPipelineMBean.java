@@ -0,0 +1,27 @@
+package skiresort.consumer;
+
+/**
+ * JMX view of {@link ConsumerPipeline}.
+ */
+public interface ConsumerPipelineMBean {
+    /** Deliveries waiting for each decode worker. */
+    int[] getDecodeQueueDepths();
+    /** Decoded rides waiting for each aggregation worker. */
+    int[] getAggregationQueueDepths();
+    /** Aggregated batches waiting for each Redis writer. */
+    int[] getWriteQueueDepths();
+    /** Settled deliveries waiting for the ack thread. */
+    int getAckQueueDepth();
+    /** Deliveries received on all channels and not yet acked or nacked. */
+    long getUnackedCount();
+    /** Deliveries nacked back to the queue on shutdown because they arrived after the stop. */
+    long getShutdownRequeueCount();
+    /** Times a stage found the next stage's queue full and had to wait. */
+    long getBackpressureWaitCount();
+    long getRideCount();
+    long getKeyCount();
+    /** basicAck calls, each covering every acked delivery up to its channel's watermark. */
+    long getAckCount();
+    /** Time an aggregate takes to write, averaged over every successful write. */
+    double getAverageWriteMillis();
+}
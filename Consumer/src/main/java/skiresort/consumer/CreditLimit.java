@@ -0,0 +1,69 @@
+package skiresort.consumer;
+
+/**
+ * Gradient-style limit on the deliveries the consumer holds unacked across all its channels,
+ * updated once per control interval from what the {@link ConsumerPipeline} saw in it:
+ * <ul>
+ *   <li>Redis write latency against a baseline, the lowest recent latency. Latency above
+ *       {@code TOLERANCE} times the baseline means Redis is queueing the writes, and the limit
+ *       shrinks by the ratio.</li>
+ *   <li>Batches waiting for a Redis writer. More than one per writer means Redis is not
+ *       keeping up whatever the latency says, and the limit is cut by {@code BACKLOG_CUT}.</li>
+ *   <li>Batch fill. While the consumer uses its credit and latency holds, the limit grows by
+ *       its square root, or doubles while batches leave half-empty, since then the credit is
+ *       too small to fill them at all.</li>
+ * </ul>
+ * Not thread-safe; {@link AdaptiveConsumers} updates it from its one control thread.
+ */
+public final class CreditLimit {
+    private static final double TOLERANCE = 1.5; // Write latency may rise this far over the baseline before the limit shrinks
+    private static final double MIN_GRADIENT = 0.5; // Largest cut in one update
+    private static final double BACKLOG_CUT = 0.9; // Cut while Redis writers have batches queued
+    private static final double SMOOTHING = 0.5; // Share of a cut applied in one update, so one slow interval is not a collapse
+    private static final double BASELINE_DRIFT = 1.02; // The baseline forgets 2% per update, so it follows a Redis that got slower for good
+    private static final double UTILIZATION = 0.8; // Share of the limit in use above which the credit counts as the bottleneck
+    private static final double LOW_FILL = 0.5; // Batch fill below which growth doubles the limit
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private double baselineNanos = Double.NaN;
+
+    public CreditLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * @param writeNanos   average time of the interval's Redis writes, or 0 if there were none
+     * @param batchFill    average rides per batch over the batch size, 0 to 1
+     * @param writeBacklog batches waiting for a Redis writer
+     * @param writers      Redis writer threads
+     * @param inFlight     deliveries held unacked
+     * @return the new limit
+     */
+    public int update(double writeNanos, double batchFill, int writeBacklog, int writers, long inFlight) {
+        double gradient = 1;
+        if (writeNanos > 0) {
+            baselineNanos = Double.isNaN(baselineNanos) ? writeNanos : Math.min(baselineNanos * BASELINE_DRIFT, writeNanos);
+            gradient = Math.max(MIN_GRADIENT, Math.min(1, TOLERANCE * baselineNanos / writeNanos));
+        }
+        if (writeBacklog > writers) {
+            gradient = Math.min(gradient, BACKLOG_CUT);
+        }
+
+        if (gradient < 1) {
+            limit -= SMOOTHING * (1 - gradient) * limit;
+        } else if (inFlight >= UTILIZATION * limit) {
+            limit += batchFill < LOW_FILL ? limit : Math.sqrt(limit);
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+        return getLimit();
+    }
+
+    public int getLimit() { return (int) Math.ceil(limit); }
+
+    /** Lowest recent write latency, or NaN before the first write. */
+    public double getBaselineMillis() { return baselineNanos / 1_000_000.0; }
+}
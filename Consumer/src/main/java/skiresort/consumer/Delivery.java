@@ -0,0 +1,40 @@
+package skiresort.consumer;
+
+import skiresort.common.LiftRide;
+
+/**
+ * One message on its way through the {@link ConsumerPipeline}: the raw delivery from the AMQP
+ * callback, the ride once decoded, and in the end how it is to be settled on its channel.
+ */
+final class Delivery {
+
+    enum Outcome { ACK, REQUEUE, DEAD_LETTER }
+
+    final ChannelAcks channel;
+    final long deliveryTag;
+    final boolean redelivered;
+    final byte[] body;
+    final String contentType;
+    final String messageId;
+
+    LiftRide ride;
+    long rideID;
+    Outcome outcome;
+
+    Delivery(ChannelAcks channel, long deliveryTag, boolean redelivered, byte[] body, String contentType, String messageId) {
+        this.channel = channel;
+        this.deliveryTag = deliveryTag;
+        this.redelivered = redelivered;
+        this.body = body;
+        this.contentType = contentType;
+        this.messageId = messageId;
+    }
+
+    /**
+     * First deliveries are requeued once; a ride that fails again goes to the dead-letter queue
+     * rather than loop.
+     */
+    Outcome failedOutcome() {
+        return redelivered ? Outcome.DEAD_LETTER : Outcome.REQUEUE;
+    }
+}
@@ -0,0 +1,32 @@
+package skiresort.consumer;
+
+/**
+ * What {@link ConsumerLifecycle} drains on shutdown and watches for the health checks: the
+ * {@link ConsumerPipeline} behind {@code lift_ride_queue}, or the {@link PartitionedConsumer}
+ * reading partition queues.
+ */
+public interface Drainable {
+
+    /**
+     * Writes and acks every ride received, requeues the deliveries left, and stops.
+     *
+     * @param timeoutMillis for the whole drain; work still under way then is abandoned to the
+     *                      broker, which redelivers it when the channels close
+     * @return true if nothing was left unsettled
+     */
+    boolean close(long timeoutMillis);
+
+    /**
+     * @return true until closed, as long as every thread doing the work is alive
+     */
+    boolean isRunning();
+
+    /**
+     * @return true if the last aggregate written failed
+     */
+    boolean isWriteFailing();
+
+    long getAckCount();
+
+    long getShutdownRequeueCount();
+}
@@ -0,0 +1,176 @@
+package skiresort.consumer;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+import skiresort.common.RedisLayout;
+import skiresort.common.RideIdGenerator;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Writes aggregated lift rides to Redis so that a redelivered ride has no effect. One Lua
+ * script per aggregate adds every ride ID to the {@code seen} set of its publish-time bucket
+ * and increments the same keys as {@link RedisAggregateWriter}, counting only the rides
+ * whose ID was new. Redis runs the script without interleaving other commands, so
+ * the dedupe check and the increments cannot be separated by a crash, and the whole
+ * aggregate still costs one round trip.
+ * <p>
+ * A ride is recognised as a duplicate for {@code dedupeWindowMillis} after its bucket was last
+ * written; rides without an ID (ID 0) are always applied.
+ */
+public class IdempotentRedisWriter implements AggregateWriter, IdempotentRedisWriterMBean {
+
+    // KEYS per aggregate entry: dayVerticalKey, seasonVerticalKey, uniqueSkiersKey, ridesKey,
+    // followed by the seenKey of each of its rides that has an ID. ARGV[1] is the seen-set TTL in
+    // seconds, then per entry: skierID, seasonVerticalField, rideCount, followed per ride by:
+    // rideID ('' for no ID), vertical, ride record.
+    private static final String SCRIPT = """
+            local ttl = ARGV[1]
+            local expiring = {}
+            local applied, duplicates = 0, 0
+            local k, a = 1, 2
+            while a <= #ARGV do
+              local skier, field = ARGV[a], ARGV[a + 1]
+              local rides = tonumber(ARGV[a + 2])
+              local entry = k
+              k, a = k + 4, a + 3
+              local vertical, records = 0, {}
+              for _ = 1, rides do
+                local new = true
+                if ARGV[a] ~= '' then
+                  local seen = KEYS[k]
+                  k = k + 1
+                  new = redis.call('SADD', seen, ARGV[a]) == 1
+                  if new and not expiring[seen] then
+                    redis.call('EXPIRE', seen, ttl)
+                    expiring[seen] = true
+                  end
+                end
+                if new then
+                  vertical = vertical + tonumber(ARGV[a + 1])
+                  records[#records + 1] = ARGV[a + 2]
+                  applied = applied + 1
+                else
+                  duplicates = duplicates + 1
+                end
+                a = a + 3
+              end
+              if #records > 0 then
+                redis.call('HINCRBY', KEYS[entry], skier, vertical)
+                redis.call('HINCRBY', KEYS[entry + 1], field, vertical)
+                redis.call('PFADD', KEYS[entry + 2], skier)
+                redis.call('APPEND', KEYS[entry + 3], table.concat(records))
+              end
+            end
+            return {applied, duplicates}
+            """;
+
+    private static final byte[] NO_ID = new byte[0];
+
+    private final long bucketMillis;
+    private final byte[] ttlSeconds;
+    private volatile byte[] scriptSha;
+
+    private final LongAdder appliedRides = new LongAdder();
+    private final LongAdder duplicateRides = new LongAdder();
+    private final LongAdder scriptCalls = new LongAdder();
+    private final LongAdder commandCount = new LongAdder();
+
+    /**
+     * @param dedupeWindowMillis how long a ride ID is remembered; redeliveries happen within
+     *                           seconds, so a few minutes is plenty
+     */
+    public IdempotentRedisWriter(long dedupeWindowMillis) {
+        // Ten buckets per window, so at most a tenth of the window is kept longer than needed
+        this.bucketMillis = Math.max(1, dedupeWindowMillis / 10);
+        this.ttlSeconds = SafeEncoder.encode(String.valueOf(
+                Math.max(1, TimeUnit.MILLISECONDS.toSeconds(dedupeWindowMillis + bucketMillis))));
+    }
+
+    @Override
+    public void write(Jedis jedis, RideAggregator aggregate) {
+        List<byte[]> keys = new ArrayList<>(aggregate.size() * 4 + aggregate.rideCount());
+        List<byte[]> args = new ArrayList<>(1 + aggregate.size() * 3 + aggregate.rideCount() * 3);
+        args.add(ttlSeconds);
+        for (int i = 0; i < aggregate.size(); i++) {
+            int skierID = aggregate.skierID(i);
+            int resortID = aggregate.resortID(i);
+            int seasonID = aggregate.seasonID(i);
+            int dayID = aggregate.dayID(i);
+
+            keys.add(SafeEncoder.encode(RedisLayout.dayVerticalKey(resortID, seasonID, dayID)));
+            keys.add(SafeEncoder.encode(RedisLayout.seasonVerticalKey(skierID)));
+            keys.add(SafeEncoder.encode(RedisLayout.uniqueSkiersKey(resortID, seasonID, dayID)));
+            keys.add(SafeEncoder.encode(RedisLayout.ridesKey(skierID)));
+            args.add(SafeEncoder.encode(String.valueOf(skierID)));
+            args.add(SafeEncoder.encode(RedisLayout.seasonVerticalField(resortID, seasonID)));
+            args.add(SafeEncoder.encode(String.valueOf(aggregate.rideCount(i))));
+            for (int ride = aggregate.firstRide(i); ride >= 0; ride = aggregate.nextRide(ride)) {
+                long rideID = aggregate.rideID(ride);
+                if (rideID == 0) {
+                    args.add(NO_ID);
+                } else {
+                    long bucket = RideIdGenerator.timestampMillis(rideID) / bucketMillis;
+                    keys.add(SafeEncoder.encode(RedisLayout.rideSeenKey(bucket)));
+                    args.add(SafeEncoder.encode(Long.toString(rideID)));
+                }
+                args.add(SafeEncoder.encode(String.valueOf(aggregate.rideVertical(ride))));
+                args.add(aggregate.rideRecord(ride));
+            }
+        }
+
+        List<?> result = (List<?>) evalScript(jedis, keys, args);
+        scriptCalls.increment();
+        appliedRides.add((Long) result.get(0));
+        duplicateRides.add((Long) result.get(1));
+    }
+
+    private Object evalScript(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+        byte[] sha = scriptSha;
+        if (sha != null) {
+            try {
+                commandCount.increment();
+                return jedis.evalsha(sha, keys, args);
+            } catch (JedisDataException e) {
+                // The script cache is empty after a Redis restart or SCRIPT FLUSH
+                if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                    throw e;
+                }
+            }
+        }
+        commandCount.add(2);
+        scriptSha = jedis.scriptLoad(SafeEncoder.encode(SCRIPT));
+        return jedis.evalsha(scriptSha, keys, args);
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@code name}.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            Logger.getLogger(IdempotentRedisWriter.class.getName()).warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public long getAppliedRideCount() { return appliedRides.sum(); }
+
+    @Override
+    public long getDuplicateRideCount() { return duplicateRides.sum(); }
+
+    @Override
+    public long getScriptCallCount() { return scriptCalls.sum(); }
+
+    @Override
+    public long getCommandCount() { return commandCount.sum(); }
+}
@@ -0,0 +1,14 @@
+package skiresort.consumer;
+
+/**
+ * JMX view of {@link IdempotentRedisWriter}.
+ */
+public interface IdempotentRedisWriterMBean {
+    /** Rides whose ID was new and that were counted. */
+    long getAppliedRideCount();
+    /** Redelivered rides that were recognised and skipped. */
+    long getDuplicateRideCount();
+    long getScriptCallCount();
+    /** Commands sent: an EVALSHA per aggregate, plus a SCRIPT LOAD and a retry whenever Redis lacked the script. */
+    long getCommandCount();
+}
@@ -0,0 +1,99 @@
+package skiresort.consumer;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import skiresort.common.RedisLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Moves the data of the old consumer layout, one hash {@code skier:{skierID}:day:{dayID}} with
+ * {@code verticalHeight} and the latest {@code resortID}, into the keys of {@link RedisLayout}.
+ * <p>
+ * The old hashes recorded neither the season nor every resort of a day, so each day's
+ * vertical is credited to the season given on the command line and to the resort of its latest
+ * ride, and no ride records can be rebuilt. Every SCAN page is written together with the DEL
+ * of its old hashes in one MULTI/EXEC, so an interrupted run can simply be started again.
+ * <p>
+ * Usage: {@code LegacyLayoutMigrator <redisHost> <redisPort> <seasonID> [--dry-run]}
+ */
+public class LegacyLayoutMigrator {
+
+    private static final String LEGACY_PATTERN = "skier:*:day:*";
+    private static final int SCAN_COUNT = 1000;
+
+    private static final Logger logger = Logger.getLogger(LegacyLayoutMigrator.class.getName());
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: LegacyLayoutMigrator <redisHost> <redisPort> <seasonID> [--dry-run]");
+            System.exit(2);
+        }
+        int seasonID = Integer.parseInt(args[2]);
+        boolean dryRun = args.length > 3 && args[3].equals("--dry-run");
+
+        try (Jedis jedis = new Jedis(args[0], Integer.parseInt(args[1]))) {
+            long migrated = migrate(jedis, seasonID, dryRun);
+            logger.info((dryRun ? "Would migrate " : "Migrated ") + migrated + " skier days.");
+        }
+    }
+
+    /**
+     * @return number of legacy hashes migrated (or found, in a dry run)
+     */
+    public static long migrate(Jedis jedis, int seasonID, boolean dryRun) {
+        long migrated = 0;
+        ScanParams params = new ScanParams().match(LEGACY_PATTERN).count(SCAN_COUNT);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> page = jedis.scan(cursor, params);
+            cursor = page.getStringCursor();
+            List<String> keys = page.getResult();
+            if (keys.isEmpty()) {
+                continue;
+            }
+
+            Pipeline reads = jedis.pipelined();
+            List<Response<List<String>>> days = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                days.add(reads.hmget(key, "resortID", "verticalHeight"));
+            }
+            reads.sync();
+
+            Pipeline writes = jedis.pipelined();
+            writes.multi();
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                List<String> fields = days.get(i).get();
+                // skier:{skierID}:day:{dayID}
+                String[] parts = key.split(":");
+                if (parts.length != 4 || fields.get(0) == null || fields.get(1) == null) {
+                    logger.warning("Skipping malformed legacy key " + key);
+                    continue;
+                }
+                int skierID = Integer.parseInt(parts[1]);
+                int dayID = Integer.parseInt(parts[3]);
+                int resortID = Integer.parseInt(fields.get(0));
+                long vertical = Long.parseLong(fields.get(1));
+
+                writes.hincrBy(RedisLayout.dayVerticalKey(resortID, seasonID, dayID), parts[1], vertical);
+                writes.hincrBy(RedisLayout.seasonVerticalKey(skierID), RedisLayout.seasonVerticalField(resortID, seasonID), vertical);
+                writes.pfadd(RedisLayout.uniqueSkiersKey(resortID, seasonID, dayID), parts[1]);
+                writes.del(key);
+                migrated++;
+            }
+            if (dryRun) {
+                writes.discard();
+            } else {
+                writes.exec();
+            }
+            writes.sync();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+        return migrated;
+    }
+}
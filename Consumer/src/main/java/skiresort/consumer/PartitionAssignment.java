@@ -0,0 +1,63 @@
+package skiresort.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which consumer reads which partition by rendezvous (highest random weight) hashing:
+ * every consumer scores each partition with a hash of the pair, and the highest score wins.
+ * Each consumer works this out alone from the member list, with no coordinator, and all of
+ * them agree as long as they see the same members. When a consumer joins it takes about
+ * 1/n of the partitions from the others, and when one leaves only its own partitions move;
+ * the rest stay where they are, with their state.
+ */
+final class PartitionAssignment {
+
+    private PartitionAssignment() {}
+
+    /**
+     * @param members every live consumer, {@code member} among them
+     * @return the partitions, in order, that {@code member} should read
+     */
+    static List<Integer> partitionsOf(String member, List<String> members, int partitions) {
+        List<Integer> assigned = new ArrayList<>();
+        long[] hashes = new long[members.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hash(members.get(i));
+        }
+        long own = hash(member);
+        for (int partition = 0; partition < partitions; partition++) {
+            long best = score(own, partition);
+            boolean wins = true;
+            for (int i = 0; i < hashes.length && wins; i++) {
+                long score = score(hashes[i], partition);
+                // Equal scores go to the smaller name, so everyone breaks the tie the same way
+                wins = score < best || score == best && member.compareTo(members.get(i)) <= 0;
+            }
+            if (wins) {
+                assigned.add(partition);
+            }
+        }
+        return assigned;
+    }
+
+    // FNV-1a over the name; String.hashCode has too few bits to tell many members apart
+    private static long hash(String member) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < member.length(); i++) {
+            hash = (hash ^ member.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // MurmurHash3's 64-bit finalizer over member and partition, compared unsigned
+    private static long score(long memberHash, int partition) {
+        long hash = memberHash ^ (partition + 1) * 0x9e3779b97f4a7c15L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash ^ Long.MIN_VALUE;
+    }
+}
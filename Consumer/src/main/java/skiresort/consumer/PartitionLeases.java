@@ -0,0 +1,83 @@
+package skiresort.consumer;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import skiresort.common.RedisLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One consumer's view of the partitioned consumers, kept in Redis: who is a member, and which
+ * partition each one holds.
+ * <ul>
+ *   <li>Members stay in the {@code consumers} sorted set, scored with the time their
+ *       membership runs out, by heartbeating more often than {@code memberTtlMillis}; a
+ *       consumer that stops heartbeating drops out of everyone's list once that time passes.</li>
+ *   <li>A partition belongs to whoever holds its {@code partition} key, taken with
+ *       {@code SET NX PX} and renewed before {@code leaseMillis} runs out. Renewing and
+ *       releasing check the holder in a Lua script, so a consumer that lost its lease cannot
+ *       extend or delete its successor's.</li>
+ * </ul>
+ * Membership expiry compares the clocks of the consumer hosts, so {@code memberTtlMillis} has to
+ * be well above the skew between them. Lease expiry is Redis's own.
+ */
+final class PartitionLeases {
+
+    private static final String RENEW_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end return 0";
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0";
+
+    private final String member;
+    private final long memberTtlMillis;
+    private final long leaseMillis;
+
+    PartitionLeases(String member, long memberTtlMillis, long leaseMillis) {
+        this.member = member;
+        this.memberTtlMillis = memberTtlMillis;
+        this.leaseMillis = leaseMillis;
+    }
+
+    String member() { return member; }
+
+    /**
+     * Extends this consumer's membership and drops members whose membership ran out.
+     *
+     * @return the members, this one included
+     */
+    List<String> heartbeat(Jedis jedis) {
+        long now = System.currentTimeMillis();
+        Pipeline pipeline = jedis.pipelined();
+        pipeline.zadd(RedisLayout.CONSUMERS_KEY, now + memberTtlMillis, member);
+        pipeline.zremrangeByScore(RedisLayout.CONSUMERS_KEY, Double.NEGATIVE_INFINITY, now);
+        Response<Set<String>> members = pipeline.zrange(RedisLayout.CONSUMERS_KEY, 0, -1);
+        pipeline.sync();
+        return new ArrayList<>(members.get());
+    }
+
+    void leave(Jedis jedis) {
+        jedis.zrem(RedisLayout.CONSUMERS_KEY, member);
+    }
+
+    /**
+     * @return true if the partition was free and is now this consumer's
+     */
+    boolean acquire(Jedis jedis, int partition) {
+        return "OK".equals(jedis.set(RedisLayout.partitionLeaseKey(partition), member, "NX", "PX", leaseMillis));
+    }
+
+    /**
+     * @return false if this consumer no longer holds the partition, because its lease ran out
+     */
+    boolean renew(Jedis jedis, int partition) {
+        return Long.valueOf(1).equals(jedis.eval(RENEW_SCRIPT, List.of(RedisLayout.partitionLeaseKey(partition)),
+                List.of(member, Long.toString(leaseMillis))));
+    }
+
+    void release(Jedis jedis, int partition) {
+        jedis.eval(RELEASE_SCRIPT, List.of(RedisLayout.partitionLeaseKey(partition)), List.of(member));
+    }
+}
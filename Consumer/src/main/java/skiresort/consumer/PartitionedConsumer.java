@@ -0,0 +1,544 @@
+package skiresort.consumer;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisException;
+import skiresort.common.LatencyRecorder;
+import skiresort.common.LiftRideQueue;
+import skiresort.common.RideIdGenerator;
+import skiresort.common.WireFormat;
+import skiresort.common.metrics.MetricsRegistry;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Partitioned mode of the consumer: the server spreads rides over the partition queues by
+ * skierID (see {@link LiftRideQueue#partitionOf}), each consumer instance reads a share of the
+ * partitions, and every partition it holds is decoded, aggregated, written and acked on one
+ * thread of its own, with one channel. All rides of a skier thus meet one thread in one
+ * process: the partition's {@link RideAggregator} needs no locking, and writes to a skier's
+ * keys never race each other across threads or nodes.
+ * <p>
+ * Every {@code rebalanceIntervalMillis} the consumer heartbeats its membership, renews the
+ * leases on its partitions (see {@link PartitionLeases}) and works out from the members which
+ * partitions it should hold ({@link PartitionAssignment}), so partitions move as consumers join
+ * and leave:
+ * <ul>
+ *   <li>A partition it should no longer hold is handed off: its consumer is cancelled, its
+ *       thread writes and acks what it received, deliveries that arrived after the cancel are
+ *       nacked back to the queue, and the channel is closed before the lease is released.</li>
+ *   <li>A partition it should hold is claimed once its lease is free, that is once the previous
+ *       holder finished its hand-off, or its lease ran out because it died; the broker
+ *       requeued a dead holder's unacked deliveries with its connection.</li>
+ * </ul>
+ * A holder that fails to renew a lease in time, e.g. after a long pause, stops reading that
+ * partition at its next rebalance; until then its successor may read the queue too, and
+ * {@link IdempotentRedisWriter} keeps a ride both of them wrote from counting twice.
+ */
+public class PartitionedConsumer implements PartitionedConsumerMBean, Drainable {
+
+    // How long an idle partition thread parks before it checks for shutdown
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Longer write, pool wait and lag times are recorded as this
+    private static final long MAX_RECORDED_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final int partitions;
+    private final PartitionLeases leases;
+    private final long rebalanceIntervalMillis;
+    private final long handoffTimeoutMillis;
+    private final int prefetch;
+    private final int batchSize;
+    private final long maxLingerNanos;
+    private final JedisPool jedisPool;
+    private final AggregateWriter writer;
+    private final BatchMetrics metrics;
+    private final Logger logger = Logger.getLogger(PartitionedConsumer.class.getName());
+
+    private final ScheduledExecutorService rebalancer;
+    // Partitions held; changed only under this object's lock, read from anywhere
+    private final Map<Integer, PartitionWorker> workers = new ConcurrentSkipListMap<>();
+    private Connection connection;
+    private volatile boolean closed;
+    private volatile boolean writeFailing;
+    private volatile int memberCount;
+
+    private final LongAdder rideCount = new LongAdder();
+    private final LongAdder keyCount = new LongAdder();
+    private final LongAdder ackCount = new LongAdder();
+    private final LongAdder shutdownRequeues = new LongAdder();
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder handoffs = new LongAdder();
+    private final LongAdder lostLeases = new LongAdder();
+    private final LatencyRecorder writeLatency = new LatencyRecorder(MAX_RECORDED_NANOS);
+    private final LatencyRecorder poolWait = new LatencyRecorder(MAX_RECORDED_NANOS);
+    private final LatencyRecorder rideLag = new LatencyRecorder(MAX_RECORDED_NANOS);
+
+    /**
+     * @param partitions              partition queues the server spreads rides over
+     * @param member                  name of this consumer among the others, unique to each start
+     * @param leaseMillis             how long a partition stays this consumer's without renewal,
+     *                                and its membership without a heartbeat
+     * @param rebalanceIntervalMillis how often membership and leases are renewed and the
+     *                                partitions rebalanced; well below {@code leaseMillis}
+     * @param prefetch                unacked deliveries each partition's channel may hold
+     * @param batchSize               rides per aggregate written
+     * @param maxLingerMillis         how long a ride may wait for its aggregate to fill
+     * @param writer                  writes an aggregate over a partition thread's connection
+     */
+    public PartitionedConsumer(int partitions, String member, long leaseMillis, long rebalanceIntervalMillis,
+                               int prefetch, int batchSize, long maxLingerMillis, JedisPool jedisPool,
+                               AggregateWriter writer, BatchMetrics metrics) {
+        this.partitions = partitions;
+        this.leases = new PartitionLeases(member, leaseMillis, leaseMillis);
+        this.rebalanceIntervalMillis = rebalanceIntervalMillis;
+        // Leaves time to renew the other leases after a hand-off
+        this.handoffTimeoutMillis = leaseMillis / 2;
+        this.prefetch = prefetch;
+        this.batchSize = batchSize;
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+        this.jedisPool = jedisPool;
+        this.writer = writer;
+        this.metrics = metrics;
+        this.rebalancer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "partition-rebalance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Joins the consumers and claims partitions at once, then rebalances every
+     * {@code rebalanceIntervalMillis}. The partition queues must have been declared.
+     *
+     * @param connection where each claimed partition opens its channel
+     */
+    public synchronized void start(Connection connection) {
+        this.connection = connection;
+        rebalancer.scheduleWithFixedDelay(this::rebalance, 0, rebalanceIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void rebalance() {
+        if (closed) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<String> members = leases.heartbeat(jedis);
+            memberCount = members.size();
+            for (PartitionWorker worker : workers.values()) {
+                if (!leases.renew(jedis, worker.partition)) {
+                    logger.warning("Lease on partition " + worker.partition + " ran out before it was renewed; stopping it.");
+                    lostLeases.increment();
+                    stop(List.of(worker), handoffTimeoutMillis);
+                }
+            }
+
+            List<Integer> assigned = PartitionAssignment.partitionsOf(leases.member(), members, partitions);
+            List<PartitionWorker> leaving = new ArrayList<>();
+            for (PartitionWorker worker : workers.values()) {
+                if (!assigned.contains(worker.partition)) {
+                    leaving.add(worker);
+                }
+            }
+            if (!leaving.isEmpty()) {
+                stop(leaving, handoffTimeoutMillis);
+                for (PartitionWorker worker : leaving) {
+                    leases.release(jedis, worker.partition);
+                }
+                handoffs.add(leaving.size());
+            }
+
+            boolean claimed = false;
+            for (int partition : assigned) {
+                if (!workers.containsKey(partition) && leases.acquire(jedis, partition)) {
+                    claimed |= claim(jedis, partition);
+                }
+            }
+            if (claimed || !leaving.isEmpty()) {
+                logger.info(leases.member() + " reads partitions " + workers.keySet() + " of " + partitions
+                        + ", among " + members.size() + " consumers.");
+            }
+        } catch (JedisException e) {
+            logger.warning("Unable to rebalance partitions: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Thrown out of here, it would end the rebalancing for good
+            logger.severe("Error rebalancing partitions: " + e);
+        }
+    }
+
+    private boolean claim(Jedis jedis, int partition) {
+        PartitionWorker worker;
+        try {
+            worker = new PartitionWorker(partition);
+        } catch (IOException | ShutdownSignalException e) {
+            logger.severe("Unable to open a channel for partition " + partition + ": " + e.getMessage());
+            leases.release(jedis, partition);
+            return false;
+        }
+        workers.put(partition, worker);
+        try {
+            worker.start();
+        } catch (IOException | ShutdownSignalException e) {
+            logger.severe("Unable to consume partition " + partition + ": " + e.getMessage());
+            stop(List.of(worker), handoffTimeoutMillis);
+            leases.release(jedis, partition);
+            return false;
+        }
+        claims.increment();
+        return true;
+    }
+
+    /**
+     * Cancels the consumers of {@code stopping} together, then waits for each thread to write
+     * and ack what it has, requeues the rest and closes the channel.
+     *
+     * @return true if every one finished before the deadline with nothing left unsettled
+     */
+    private boolean stop(List<PartitionWorker> stopping, long timeoutMillis) {
+        for (PartitionWorker worker : stopping) {
+            worker.cancel();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean drained = true;
+        for (PartitionWorker worker : stopping) {
+            drained &= worker.finish(deadline);
+            workers.remove(worker.partition);
+        }
+        return drained;
+    }
+
+    /**
+     * Stops rebalancing, hands off every partition as a rebalance would, and leaves the
+     * consumers, so the others claim the partitions at their next rebalance rather than once
+     * the leases run out.
+     */
+    @Override
+    public boolean close(long timeoutMillis) {
+        closed = true;
+        rebalancer.shutdown();
+        synchronized (this) {
+            List<PartitionWorker> held = new ArrayList<>(workers.values());
+            boolean drained = stop(held, timeoutMillis);
+            try (Jedis jedis = jedisPool.getResource()) {
+                for (PartitionWorker worker : held) {
+                    leases.release(jedis, worker.partition);
+                }
+                leases.leave(jedis);
+            } catch (JedisException e) {
+                logger.warning("Unable to release partitions, others take them once the leases run out: " + e.getMessage());
+            }
+            return drained;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        if (closed || rebalancer.isShutdown()) {
+            return false;
+        }
+        for (PartitionWorker worker : workers.values()) {
+            if (!worker.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isWriteFailing() {
+        return writeFailing;
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@code name}.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            logger.warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the same write, pool wait, lag and count metrics as
+     * {@link ConsumerPipeline#registerMetrics} to {@code registry}, named from {@code prefix},
+     * and the partitions held, members seen and hand-offs under {@code prefix.partitions}.
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix) {
+        registry.register(prefix + ".redis.write", writeLatency);
+        registry.register(prefix + ".redis.pool_wait", poolWait);
+        registry.register(prefix + ".lag", rideLag);
+        registry.gauge(prefix + ".rides", rideCount::sum);
+        registry.gauge(prefix + ".acks", ackCount::sum);
+        registry.gauge(prefix + ".unacked", this::getUnackedCount);
+        registry.gauge(prefix + ".partitions.owned", workers::size);
+        registry.gauge(prefix + ".partitions.members", () -> memberCount);
+        registry.gauge(prefix + ".partitions.handoffs", handoffs::sum);
+    }
+
+    @Override
+    public String getMemberId() { return leases.member(); }
+
+    @Override
+    public int getPartitionCount() { return partitions; }
+
+    @Override
+    public int[] getOwnedPartitions() {
+        return workers.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    public int getMemberCount() { return memberCount; }
+
+    @Override
+    public long getUnackedCount() {
+        long unacked = 0;
+        for (PartitionWorker worker : workers.values()) {
+            unacked += worker.acks.unacked();
+        }
+        return unacked;
+    }
+
+    @Override
+    public long getShutdownRequeueCount() { return shutdownRequeues.sum(); }
+
+    @Override
+    public long getRideCount() { return rideCount.sum(); }
+
+    @Override
+    public long getKeyCount() { return keyCount.sum(); }
+
+    @Override
+    public long getAckCount() { return ackCount.sum(); }
+
+    @Override
+    public long getClaimCount() { return claims.sum(); }
+
+    @Override
+    public long getHandoffCount() { return handoffs.sum(); }
+
+    @Override
+    public long getLostLeaseCount() { return lostLeases.sum(); }
+
+    /**
+     * One partition held: its channel, whose callback only enqueues, and the thread that does
+     * everything else, in delivery order.
+     */
+    private final class PartitionWorker {
+        final int partition;
+        final Channel channel;
+        final ChannelAcks acks;
+        final Thread thread;
+        private final BoundedMpscQueue<Delivery> deliveries;
+        private String consumerTag;
+        private volatile boolean accepting = true;
+        private volatile boolean stopping;
+
+        // Touched by the partition's thread only
+        private final RideAggregator aggregate = new RideAggregator();
+        private final Delivery[] batch = new Delivery[batchSize];
+        private int size;
+        private long firstArrivalNanos;
+        private Jedis jedis;
+
+        PartitionWorker(int partition) throws IOException {
+            this.partition = partition;
+            this.channel = connection.createChannel();
+            this.acks = new ChannelAcks(channel, partition);
+            this.deliveries = new BoundedMpscQueue<>(prefetch);
+            this.thread = new Thread(this::run, "partition-" + partition);
+            thread.setDaemon(true);
+        }
+
+        void start() throws IOException {
+            thread.start();
+            channel.basicQos(prefetch);
+            consumerTag = channel.basicConsume(LiftRideQueue.partitionQueue(partition), false, (tag, message) -> {
+                long deliveryTag = message.getEnvelope().getDeliveryTag();
+                acks.delivered(deliveryTag);
+                if (!accepting) {
+                    return;  // Left unsettled; finish requeues it
+                }
+                deliveries.put(new Delivery(acks, deliveryTag, message.getEnvelope().isRedeliver(), message.getBody(),
+                        message.getProperties().getContentType(), message.getProperties().getMessageId()));
+            }, tag -> {});
+        }
+
+        /**
+         * Stops the broker delivering, and tells the thread to finish what it has and exit.
+         */
+        void cancel() {
+            if (consumerTag != null) {
+                try {
+                    channel.basicCancel(consumerTag);
+                } catch (IOException | ShutdownSignalException e) {
+                    // A closed channel has no consumer left to cancel
+                    logger.severe("Error cancelling consumer of partition " + partition + ": " + e.getMessage());
+                }
+            }
+            accepting = false;
+            stopping = true;
+        }
+
+        /**
+         * Waits for the thread until {@code deadline}, requeues what it left unsettled and
+         * closes the channel; a thread still busy then is abandoned, and the broker redelivers
+         * what it held when the channel closes.
+         */
+        boolean finish(long deadline) {
+            boolean settled = true;
+            try {
+                thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                logger.warning("Partition " + partition + " still busy at the deadline; " + acks.unacked()
+                        + " deliveries are left for the broker to redeliver.");
+                settled = false;
+            } else {
+                try {
+                    shutdownRequeues.add(acks.requeueUnsettled());
+                } catch (IOException | RuntimeException e) {
+                    logger.severe("Error requeueing deliveries of partition " + partition + ": " + e.getMessage());
+                    settled = false;
+                }
+            }
+            try {
+                channel.close();
+            } catch (IOException | TimeoutException | ShutdownSignalException e) {
+                // Already closed with its connection, or by the broker
+            }
+            return settled;
+        }
+
+        private void run() {
+            try {
+                while (true) {
+                    // Read before polling, so nothing queued before the stop is missed
+                    boolean stopping = this.stopping;
+                    long wait = stopping ? 0
+                            : size == 0 ? IDLE_PARK_NANOS
+                            : firstArrivalNanos + maxLingerNanos - System.nanoTime();
+                    Delivery delivery = deliveries.poll(wait);
+                    if (delivery != null) {
+                        add(delivery);
+                    } else if (stopping) {
+                        if (size > 0) {
+                            flush(BatchMetrics.FlushReason.SHUTDOWN);
+                        }
+                        return;
+                    }
+
+                    if (size >= batchSize) {
+                        flush(BatchMetrics.FlushReason.SIZE);
+                    } else if (size > 0 && System.nanoTime() - firstArrivalNanos >= maxLingerNanos) {
+                        flush(BatchMetrics.FlushReason.LINGER);
+                    }
+                }
+            } finally {
+                if (jedis != null) {
+                    jedis.close();
+                }
+            }
+        }
+
+        private void add(Delivery delivery) {
+            // Accepts both JSON and binary messages while publishers migrate
+            try {
+                delivery.ride = WireFormat.of(delivery.contentType, delivery.body).decode(delivery.body);
+                delivery.rideID = delivery.messageId == null ? 0 : Long.parseLong(delivery.messageId);
+            } catch (RuntimeException e) {
+                // Whatever a malformed body throws, it must not take the worker thread down
+                delivery.ride = null;
+            }
+            if (delivery.ride == null || !RideAggregator.canAggregate(delivery.ride)) {
+                // Would fail every time, so dead-letter it rather than requeue
+                delivery.outcome = Delivery.Outcome.DEAD_LETTER;
+                metrics.recordUndecodable();
+                settle(delivery);
+                return;
+            }
+            if (size == 0) {
+                firstArrivalNanos = System.nanoTime();
+            }
+            aggregate.add(delivery.ride, delivery.rideID);
+            batch[size++] = delivery;
+        }
+
+        // Writes the aggregate, then acks its deliveries with one basicAck or nacks them one by one
+        private void flush(BatchMetrics.FlushReason reason) {
+            metrics.recordFlush(size, System.nanoTime() - firstArrivalNanos, reason);
+            boolean written = false;
+            try {
+                if (jedis == null) {
+                    long borrowed = System.nanoTime();
+                    jedis = jedisPool.getResource();
+                    poolWait.recordNanos(System.nanoTime() - borrowed);
+                }
+                long started = System.nanoTime();
+                writer.write(jedis, aggregate);
+                writeLatency.recordNanos(System.nanoTime() - started);
+                written = true;
+                writeFailing = false;
+                rideCount.add(aggregate.rideCount());
+                keyCount.add(aggregate.size());
+            } catch (Exception e) {
+                logger.severe("Error processing batch of partition " + partition + ": " + e.getMessage());
+                writeFailing = true;
+                metrics.recordFailure(size);
+                if (jedis != null && jedis.getClient().isBroken()) {
+                    jedis.close();  // The pool discards a broken connection; the next batch takes a new one
+                    jedis = null;
+                }
+            }
+
+            long writtenMillis = written ? System.currentTimeMillis() : 0;
+            for (int i = 0; i < size; i++) {
+                Delivery delivery = batch[i];
+                if (written && delivery.rideID != 0) {
+                    rideLag.recordNanos(TimeUnit.MILLISECONDS.toNanos(
+                            writtenMillis - RideIdGenerator.timestampMillis(delivery.rideID)));
+                }
+                delivery.outcome = written ? Delivery.Outcome.ACK : delivery.failedOutcome();
+                settle(delivery);
+                batch[i] = null;
+            }
+            size = 0;
+            aggregate.clear();
+            try {
+                ackCount.add(acks.flush());
+            } catch (IOException | RuntimeException e) {
+                logger.severe("Error acknowledging deliveries of partition " + partition + ": " + e.getMessage());
+            }
+        }
+
+        private void settle(Delivery delivery) {
+            try {
+                acks.settle(delivery);
+                if (delivery.outcome != Delivery.Outcome.ACK) {
+                    acks.nack(delivery);
+                }
+            } catch (IOException | RuntimeException e) {
+                // A closed channel's unacked deliveries are requeued by the broker anyway
+                logger.severe("Error rejecting delivery: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package skiresort.consumer;
+
+/**
+ * JMX view of {@link PartitionedConsumer}.
+ */
+public interface PartitionedConsumerMBean {
+    /** Name this consumer goes by among the others and on its leases. */
+    String getMemberId();
+    /** Partitions rides are spread over, across all consumers. */
+    int getPartitionCount();
+    /** Partitions this consumer reads now, in order. */
+    int[] getOwnedPartitions();
+    /** Consumers seen at the last rebalance, this one included. */
+    int getMemberCount();
+    /** Deliveries received on all partitions held and not yet acked or nacked. */
+    long getUnackedCount();
+    /** Deliveries nacked back to their queue on a hand-off or shutdown because they arrived after the cancel. */
+    long getShutdownRequeueCount();
+    long getRideCount();
+    long getKeyCount();
+    /** basicAck calls, each covering every acked delivery of a partition up to its watermark. */
+    long getAckCount();
+    /** Partitions taken on since the start. */
+    long getClaimCount();
+    /** Partitions handed off to other consumers as they joined. */
+    long getHandoffCount();
+    /** Partitions dropped because their lease ran out before it was renewed. */
+    long getLostLeaseCount();
+}
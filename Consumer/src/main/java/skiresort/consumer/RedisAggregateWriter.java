@@ -0,0 +1,88 @@
+package skiresort.consumer;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.util.SafeEncoder;
+import skiresort.common.RedisLayout;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Writes aggregated lift rides to Redis in one pipeline, one command per Redis key however
+ * many rides it had (see {@link RedisLayout}): a day vertical increment per skier, resort,
+ * season and day, a season vertical increment per skier, resort and season, one ride record
+ * append per skier and one unique skier HyperLogLog add per resort, season and day. A 50-ride
+ * batch comes close to four commands per entry; a write-behind flush of a whole interval,
+ * where hot skiers have many days, saves far more.
+ * <p>
+ * Not idempotent: a batch that is written but redelivered before its ack is counted twice.
+ * {@link IdempotentRedisWriter} closes that gap.
+ */
+public class RedisAggregateWriter implements AggregateWriter, RedisAggregateWriterMBean {
+
+    private final LongAdder commandCount = new LongAdder();
+
+    @Override
+    public void write(Jedis jedis, RideAggregator aggregate) {
+        aggregate.sortByKey();
+        Pipeline pipeline = jedis.pipelined();
+        Map<String, List<String>> skiersByDay = new HashMap<>();
+        int commands = 0;
+
+        for (int first = 0; first < aggregate.size(); ) {
+            int skierID = aggregate.skierID(first);
+            String skier = String.valueOf(skierID);
+            int end = first;
+            while (end < aggregate.size() && aggregate.skierID(end) == skierID) {
+                int resortID = aggregate.resortID(end);
+                int seasonID = aggregate.seasonID(end);
+                long seasonVertical = 0;
+                do {
+                    int dayID = aggregate.dayID(end);
+                    pipeline.hincrBy(RedisLayout.dayVerticalKey(resortID, seasonID, dayID), skier, aggregate.vertical(end));
+                    skiersByDay.computeIfAbsent(RedisLayout.uniqueSkiersKey(resortID, seasonID, dayID), key -> new ArrayList<>())
+                            .add(skier);
+                    seasonVertical += aggregate.vertical(end);
+                    commands++;
+                    end++;
+                } while (end < aggregate.size() && aggregate.skierID(end) == skierID
+                        && aggregate.resortID(end) == resortID && aggregate.seasonID(end) == seasonID);
+                pipeline.hincrBy(RedisLayout.seasonVerticalKey(skierID), RedisLayout.seasonVerticalField(resortID, seasonID),
+                        seasonVertical);
+                commands++;
+            }
+            pipeline.append(SafeEncoder.encode(RedisLayout.ridesKey(skierID)), aggregate.rideRecords(first, end));
+            commands++;
+            first = end;
+        }
+        for (Map.Entry<String, List<String>> day : skiersByDay.entrySet()) {
+            pipeline.pfadd(day.getKey(), day.getValue().toArray(new String[0]));
+            commands++;
+        }
+
+        pipeline.sync();
+        commandCount.add(commands);
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@code name}.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            Logger.getLogger(RedisAggregateWriter.class.getName()).warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public long getCommandCount() { return commandCount.sum(); }
+}
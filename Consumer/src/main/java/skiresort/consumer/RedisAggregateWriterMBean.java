@@ -0,0 +1,9 @@
+package skiresort.consumer;
+
+/**
+ * JMX view of {@link RedisAggregateWriter}.
+ */
+public interface RedisAggregateWriterMBean {
+    /** Commands sent by every write so far: one per Redis key written, PFADDs batched per day. */
+    long getCommandCount();
+}
@@ -0,0 +1,268 @@
+package skiresort.consumer;
+
+import skiresort.common.LiftRide;
+import skiresort.common.RedisLayout;
+
+import java.util.Arrays;
+
+/**
+ * Folds lift rides into one entry per (skierID, resortID, seasonID, dayID): the summed
+ * vertical, the ride count and the {@link RedisLayout} ride records of the entry's rides. The
+ * rides of an entry stay individually addressable, with their ride IDs, for writers that have
+ * to drop rides they already stored.
+ * <p>
+ * Backed by an open-addressing table of primitive arrays, so adding a ride boxes nothing, and
+ * {@link #clear()} only touches the slots that were used.
+ * <p>
+ * Not thread-safe. Entries are read by index, {@code 0 <= i < size()}, in insertion order
+ * unless {@link #sortByKey()} reordered them.
+ */
+public final class RideAggregator {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // Key bit widths; skierID takes the remaining 31 bits
+    private static final int DAY_BITS = 9;
+    private static final int SEASON_BITS = 14;
+    private static final int RESORT_BITS = 8;
+
+    private long[] keys;
+    private boolean[] used;
+    private long[] vertical;
+    private int[] rideCount;
+    // Rides of each slot as a chain through nextRide, in arrival order
+    private int[] firstRide;
+    private int[] lastRide;
+    // Slot of each entry, in insertion order
+    private int[] entries;
+    private int size;
+    private int mask;
+
+    private byte[] records = new byte[DEFAULT_CAPACITY * RedisLayout.RIDE_RECORD_LENGTH];
+    private int[] nextRide = new int[DEFAULT_CAPACITY];
+    private long[] rideIDs = new long[DEFAULT_CAPACITY];
+    private int rides;
+
+    public RideAggregator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedKeys number of distinct keys to size the table for
+     */
+    public RideAggregator(int expectedKeys) {
+        int capacity = 16;
+        while (capacity < expectedKeys * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the ride has an ID the key or ride record cannot hold
+     */
+    public void add(LiftRide ride) {
+        add(ride, 0);
+    }
+
+    /**
+     * @param rideID ID assigned at publish time, or 0 if the ride has none
+     * @throws IllegalArgumentException if the ride has an ID the key or ride record cannot hold
+     */
+    public void add(LiftRide ride, long rideID) {
+        add(ride.getSkierID(), ride.getResortID(), Integer.parseInt(ride.getSeasonID()), Integer.parseInt(ride.getDayID()),
+                ride.getLiftID(), ride.getTime(), rideID);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the ride has an ID the key or ride record cannot hold
+     */
+    public void add(int skierID, int resortID, int seasonID, int dayID, int liftID, int time, long rideID) {
+        if (!canAggregate(skierID, resortID, seasonID, dayID, liftID, time)) {
+            throw new IllegalArgumentException("Lift ride out of range for aggregation");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        long key = ((long) skierID << (RESORT_BITS + SEASON_BITS + DAY_BITS))
+                | ((long) resortID << (SEASON_BITS + DAY_BITS))
+                | ((long) seasonID << DAY_BITS)
+                | dayID;
+        int slot = slotFor(key);
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = key;
+            vertical[slot] = 0;
+            rideCount[slot] = 0;
+            firstRide[slot] = rides;
+            entries[size++] = slot;
+        } else {
+            nextRide[lastRide[slot]] = rides;
+        }
+        vertical[slot] += liftID * 10L;
+        rideCount[slot]++;
+        lastRide[slot] = rides;
+
+        if (rides == nextRide.length) {
+            nextRide = Arrays.copyOf(nextRide, rides * 2);
+            rideIDs = Arrays.copyOf(rideIDs, rides * 2);
+            records = Arrays.copyOf(records, rides * 2 * RedisLayout.RIDE_RECORD_LENGTH);
+        }
+        RedisLayout.putRideRecord(resortID, liftID, seasonID, dayID, time, records, rides * RedisLayout.RIDE_RECORD_LENGTH);
+        nextRide[rides] = -1;
+        rideIDs[rides] = rideID;
+        rides++;
+    }
+
+    /**
+     * Adds every ride of {@code other}, with its ride ID.
+     */
+    public void addAll(RideAggregator other) {
+        for (int i = 0; i < other.size(); i++) {
+            for (int ride = other.firstRide(i); ride >= 0; ride = other.nextRide(ride)) {
+                add(other.skierID(i), other.resortID(i), other.seasonID(i), other.dayID(i),
+                        other.rideLiftID(ride), other.rideTime(ride), other.rideID(ride));
+            }
+        }
+    }
+
+    /**
+     * @return false if {@link #add} would reject the ride, including when its season or day is not a number
+     */
+    public static boolean canAggregate(LiftRide ride) {
+        try {
+            return canAggregate(ride.getSkierID(), ride.getResortID(), Integer.parseInt(ride.getSeasonID()),
+                    Integer.parseInt(ride.getDayID()), ride.getLiftID(), ride.getTime());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean canAggregate(int skierID, int resortID, int seasonID, int dayID, int liftID, int time) {
+        return skierID >= 0 && (seasonID >>> SEASON_BITS) == 0 && (dayID >>> DAY_BITS) == 0
+                && RedisLayout.canRecord(resortID, liftID, seasonID, dayID, time);
+    }
+
+    /** Number of distinct (skierID, resortID, seasonID, dayID) keys. */
+    public int size() { return size; }
+
+    /** Number of rides folded in since the last clear. */
+    public int rideCount() { return rides; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public int skierID(int entry) { return (int) (keys[entries[entry]] >>> (RESORT_BITS + SEASON_BITS + DAY_BITS)); }
+    public int resortID(int entry) { return (int) (keys[entries[entry]] >>> (SEASON_BITS + DAY_BITS)) & ((1 << RESORT_BITS) - 1); }
+    public int seasonID(int entry) { return (int) (keys[entries[entry]] >>> DAY_BITS) & ((1 << SEASON_BITS) - 1); }
+    public int dayID(int entry) { return (int) keys[entries[entry]] & ((1 << DAY_BITS) - 1); }
+    public long vertical(int entry) { return vertical[entries[entry]]; }
+    public int rideCount(int entry) { return rideCount[entries[entry]]; }
+
+    /** First ride of the entry, for walking its rides with {@link #nextRide(int)}. */
+    public int firstRide(int entry) { return firstRide[entries[entry]]; }
+    /** Next ride of the same entry, or -1 after its last ride. */
+    public int nextRide(int ride) { return nextRide[ride]; }
+    public long rideID(int ride) { return rideIDs[ride]; }
+    public int rideVertical(int ride) { return RedisLayout.recordLiftID(records, ride * RedisLayout.RIDE_RECORD_LENGTH) * 10; }
+    public int rideLiftID(int ride) { return RedisLayout.recordLiftID(records, ride * RedisLayout.RIDE_RECORD_LENGTH); }
+    public int rideTime(int ride) { return RedisLayout.recordTime(records, ride * RedisLayout.RIDE_RECORD_LENGTH); }
+
+    /**
+     * @return the ride's record, as appended to {@link RedisLayout#ridesKey}
+     */
+    public byte[] rideRecord(int ride) {
+        int offset = ride * RedisLayout.RIDE_RECORD_LENGTH;
+        return Arrays.copyOfRange(records, offset, offset + RedisLayout.RIDE_RECORD_LENGTH);
+    }
+
+    /**
+     * @return the entry's ride records, concatenated in arrival order
+     */
+    public byte[] rideRecords(int entry) {
+        return rideRecords(entry, entry + 1);
+    }
+
+    /**
+     * @return the ride records of entries {@code fromEntry} to {@code toEntry} (exclusive),
+     *         concatenated entry by entry, each in arrival order
+     */
+    public byte[] rideRecords(int fromEntry, int toEntry) {
+        int count = 0;
+        for (int entry = fromEntry; entry < toEntry; entry++) {
+            count += rideCount[entries[entry]];
+        }
+        byte[] out = new byte[count * RedisLayout.RIDE_RECORD_LENGTH];
+        int offset = 0;
+        for (int entry = fromEntry; entry < toEntry; entry++) {
+            for (int ride = firstRide[entries[entry]]; ride >= 0; ride = nextRide[ride]) {
+                System.arraycopy(records, ride * RedisLayout.RIDE_RECORD_LENGTH, out, offset, RedisLayout.RIDE_RECORD_LENGTH);
+                offset += RedisLayout.RIDE_RECORD_LENGTH;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Reorders the entries by skierID, then resortID, seasonID and dayID, so a writer can
+     * combine the entries of one skier. Rides keep their order within an entry.
+     */
+    public void sortByKey() {
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = keys[entries[i]];
+        }
+        Arrays.sort(sorted);
+        for (int i = 0; i < size; i++) {
+            entries[i] = slotFor(sorted[i]);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            used[entries[i]] = false;
+        }
+        size = 0;
+        rides = 0;
+    }
+
+    private int slotFor(long key) {
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        vertical = new long[capacity];
+        rideCount = new int[capacity];
+        firstRide = new int[capacity];
+        lastRide = new int[capacity];
+        entries = new int[capacity / 2];
+        mask = capacity - 1;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldVertical = vertical;
+        int[] oldCount = rideCount;
+        int[] oldFirst = firstRide;
+        int[] oldLast = lastRide;
+        int[] oldEntries = Arrays.copyOf(entries, size);
+
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldEntries.length; i++) {
+            int from = oldEntries[i];
+            int to = slotFor(oldKeys[from]);
+            used[to] = true;
+            keys[to] = oldKeys[from];
+            vertical[to] = oldVertical[from];
+            rideCount[to] = oldCount[from];
+            firstRide[to] = oldFirst[from];
+            lastRide[to] = oldLast[from];
+            entries[i] = to;
+        }
+    }
+}
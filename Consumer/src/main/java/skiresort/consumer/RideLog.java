@@ -0,0 +1,122 @@
+package skiresort.consumer;
+
+import skiresort.common.RedisLayout;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of rides a {@link WriteBehindWriter} has taken on but not yet flushed to
+ * Redis. Every {@link #append} is one frame, forced to disk before it returns: the ride count,
+ * a CRC32 of the rest, and per ride its skierID, ride ID and {@link RedisLayout} ride record.
+ * <p>
+ * A crash can leave the last frame torn; its rides were never acked. A frame that is cut short,
+ * has an impossible ride count or fails its checksum is skipped by {@link #replay}, which then
+ * looks for the next intact frame byte by byte, so one bad frame does not lose the acked rides
+ * logged after it. A random header passes the checksum with odds of one in 2^32.
+ */
+final class RideLog implements AutoCloseable {
+    static final String SUFFIX = ".log";
+
+    /**
+     * What {@link #replay} got out of a log.
+     *
+     * @param skippedBytes bytes of frames that were torn or corrupt
+     */
+    record Replayed(int rides, int skippedBytes) {}
+
+    private static final int HEADER_LENGTH = 8;
+    private static final int RIDE_LENGTH = 4 + 8 + RedisLayout.RIDE_RECORD_LENGTH;
+
+    final Path path;
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private byte[] frame = new byte[HEADER_LENGTH + 64 * RIDE_LENGTH];
+
+    private RideLog(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    static RideLog create(Path path) throws IOException {
+        return new RideLog(path, FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Writes every ride of the aggregate as one frame and forces it to disk.
+     */
+    void append(RideAggregator aggregate) throws IOException {
+        int length = HEADER_LENGTH + aggregate.rideCount() * RIDE_LENGTH;
+        if (frame.length < length) {
+            frame = new byte[Math.max(length, frame.length * 2)];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+        buffer.putInt(aggregate.rideCount()).putInt(0);
+        for (int i = 0; i < aggregate.size(); i++) {
+            for (int ride = aggregate.firstRide(i); ride >= 0; ride = aggregate.nextRide(ride)) {
+                buffer.putInt(aggregate.skierID(i)).putLong(aggregate.rideID(ride));
+                RedisLayout.putRideRecord(aggregate.resortID(i), aggregate.rideLiftID(ride), aggregate.seasonID(i),
+                        aggregate.dayID(i), aggregate.rideTime(ride), frame, buffer.position());
+                buffer.position(buffer.position() + RedisLayout.RIDE_RECORD_LENGTH);
+            }
+        }
+        crc.reset();
+        crc.update(frame, HEADER_LENGTH, length - HEADER_LENGTH);
+        buffer.putInt(4, (int) crc.getValue());
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Adds every intact frame's rides to {@code into}, skipping torn and corrupt ones.
+     */
+    static Replayed replay(Path path, RideAggregator into) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 crc = new CRC32();
+        int replayed = 0;
+        int skipped = 0;
+        while (buffer.remaining() >= HEADER_LENGTH) {
+            int start = buffer.position();
+            int rides = buffer.getInt();
+            int checksum = buffer.getInt();
+            boolean intact = rides >= 0 && rides <= buffer.remaining() / RIDE_LENGTH;
+            if (intact) {
+                crc.reset();
+                crc.update(buffer.array(), start + HEADER_LENGTH, rides * RIDE_LENGTH);
+                intact = (int) crc.getValue() == checksum;
+            }
+            if (!intact) {
+                // Where the next frame starts is unknown once a header is bad, so try every offset
+                buffer.position(start + 1);
+                skipped++;
+                continue;
+            }
+            byte[] records = buffer.array();
+            for (int i = 0; i < rides; i++) {
+                int skierID = buffer.getInt();
+                long rideID = buffer.getLong();
+                int offset = buffer.position();
+                into.add(skierID, RedisLayout.recordResortID(records, offset), RedisLayout.recordSeasonID(records, offset),
+                        RedisLayout.recordDayID(records, offset), RedisLayout.recordLiftID(records, offset),
+                        RedisLayout.recordTime(records, offset), rideID);
+                buffer.position(offset + RedisLayout.RIDE_RECORD_LENGTH);
+            }
+            replayed += rides;
+        }
+        return new Replayed(replayed, skipped + buffer.remaining());
+    }
+}
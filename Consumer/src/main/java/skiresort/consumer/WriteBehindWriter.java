@@ -0,0 +1,368 @@
+package skiresort.consumer;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind {@link AggregateWriter}: an aggregate is appended to a local {@link RideLog}
+ * and folded into an in-memory table, and the pipeline acks it as soon as the log is on disk.
+ * A flush thread writes the tables to Redis with the wrapped writer every
+ * {@code flushIntervalMillis}, or early once a table holds {@code maxPendingRides}, so a hot
+ * skier's entries are written once per flush instead of once per batch.
+ * <p>
+ * Each pipeline writer thread has a stripe of its own, a {@link RideAggregator} and the log
+ * segment holding the same rides, so writing takes no lock. The flush thread swaps a fresh
+ * segment in and waits for a write still on the old one to finish, telling by the stripe's
+ * write sequence, which is odd while a write is under way. A flushed segment's log is
+ * deleted; one that fails is kept and retried first at the next flush.
+ * <p>
+ * Rides taken on but not yet in Redis are capped at {@code maxUnflushedRides}. At the cap,
+ * {@link #write} waits for a flush before it logs anything, so while Redis is down the
+ * pipeline stops acking, its queues fill and the prefetch count and credit limit leave the
+ * rest with the broker, instead of the tables and logs growing without bound.
+ * <p>
+ * Logs left by a crash are replayed to Redis by {@link #start} before anything new is
+ * written. A replay can repeat rides that reached Redis just before the crash, so use it with
+ * {@link IdempotentRedisWriter}, which skips them.
+ */
+public class WriteBehindWriter implements AggregateWriter, WriteBehindWriterMBean {
+
+    // How often a write held at the cap checks whether a flush made room
+    private static final long CAPACITY_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Path logDirectory;
+    private final AggregateWriter redisWriter;
+    private final JedisPool jedisPool;
+    private final long flushIntervalNanos;
+    private final int maxPendingRides;
+    private final long maxUnflushedRides;
+    private final Logger logger = Logger.getLogger(WriteBehindWriter.class.getName());
+
+    private final List<Stripe> stripes = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Stripe> ownStripe = ThreadLocal.withInitial(this::newStripe);
+    private final String runPrefix = Long.toString(System.currentTimeMillis());
+    private final AtomicLong segmentSequence = new AtomicLong();
+    private Thread flushThread;
+    private volatile boolean closed;
+
+    private final LongAdder pendingRides = new LongAdder();
+    private final LongAdder writtenKeys = new LongAdder();
+    private final LongAdder flushedRides = new LongAdder();
+    private final LongAdder flushedKeys = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+    private final LongAdder failedFlushCount = new LongAdder();
+    private final LongAdder replayedRides = new LongAdder();
+    private final LongAdder skippedLogBytes = new LongAdder();
+    private final LongAdder capacityWaits = new LongAdder();
+    private final LongAdder lagNanosTotal = new LongAdder();
+    private final LongAccumulator lagNanosMax = new LongAccumulator(Long::max, 0);
+
+    /**
+     * @param redisWriter         writes the flushed tables, e.g. an {@link IdempotentRedisWriter}
+     * @param flushIntervalMillis longest a ride stays local before the flush that writes it starts
+     * @param maxPendingRides     rides a stripe holds before it asks for an early flush
+     * @param maxUnflushedRides   rides across all stripes not yet in Redis before writes wait
+     */
+    public WriteBehindWriter(Path logDirectory, AggregateWriter redisWriter, JedisPool jedisPool,
+                             long flushIntervalMillis, int maxPendingRides, long maxUnflushedRides) {
+        this.logDirectory = logDirectory;
+        this.redisWriter = redisWriter;
+        this.jedisPool = jedisPool;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxPendingRides = maxPendingRides;
+        this.maxUnflushedRides = maxUnflushedRides;
+    }
+
+    /**
+     * Replays the logs a previous run left, then starts the flush thread.
+     *
+     * @throws IOException if the log directory cannot be read, or a log cannot be replayed to
+     *                     Redis; rides would be lost if the consumer went on
+     */
+    public void start() throws IOException {
+        Files.createDirectories(logDirectory);
+        recover();
+        flushThread = new Thread(this::flushLoop, "write-behind-flush");
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    /**
+     * Logs and folds in the aggregate; {@code jedis} is not used, the flush thread has its own.
+     * Waits first while {@code maxUnflushedRides} are not yet in Redis.
+     *
+     * @throws IOException if closed while waiting; the aggregate was not logged, so it must
+     *                     not be acked
+     */
+    @Override
+    public void write(Jedis jedis, RideAggregator aggregate) throws IOException {
+        awaitCapacity();
+        Stripe stripe = ownStripe.get();
+        int pending;
+        stripe.sequence.incrementAndGet();
+        try {
+            Segment segment = stripe.current;
+            segment.log.append(aggregate);
+            long now = System.nanoTime();
+            if (segment.rides.isEmpty()) {
+                segment.firstAppendNanos = now;
+            }
+            segment.appendNanosTotal += now * aggregate.rideCount();
+            segment.rides.addAll(aggregate);
+            pending = segment.rides.rideCount();
+        } finally {
+            stripe.sequence.incrementAndGet();
+        }
+        pendingRides.add(aggregate.rideCount());
+        writtenKeys.add(aggregate.size());
+        if (pending >= maxPendingRides && flushThread != null) {
+            LockSupport.unpark(flushThread);
+        }
+    }
+
+    // Flushes only free capacity when Redis takes them, so poll rather than wait to be told
+    private void awaitCapacity() throws IOException {
+        if (pendingRides.sum() < maxUnflushedRides) {
+            return;
+        }
+        capacityWaits.increment();
+        while (pendingRides.sum() >= maxUnflushedRides) {
+            if (closed) {
+                throw new IOException("Write-behind closed with " + pendingRides.sum() + " rides unflushed");
+            }
+            if (flushThread != null) {
+                LockSupport.unpark(flushThread);
+            }
+            LockSupport.parkNanos(this, CAPACITY_POLL_NANOS);
+        }
+    }
+
+    /**
+     * Stops the flush thread and flushes every stripe; call once the pipeline's writers are done.
+     */
+    public void close() {
+        closed = true;
+        if (flushThread != null) {
+            LockSupport.unpark(flushThread);
+            try {
+                flushThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@code name}.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            logger.warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(logDirectory, "*" + RideLog.SUFFIX);
+             Jedis jedis = jedisPool.getResource()) {
+            for (Path log : logs) {
+                RideAggregator rides = new RideAggregator();
+                RideLog.Replayed replayed = RideLog.replay(log, rides);
+                if (!rides.isEmpty()) {
+                    redisWriter.write(jedis, rides);
+                }
+                Files.delete(log);
+                replayedRides.add(replayed.rides());
+                skippedLogBytes.add(replayed.skippedBytes());
+                if (replayed.skippedBytes() > 0) {
+                    logger.warning("Skipped " + replayed.skippedBytes() + " torn or corrupt bytes in " + log);
+                }
+                logger.info("Replayed " + replayed.rides() + " rides from " + log);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to replay write-behind logs: " + e.getMessage(), e);
+        }
+    }
+
+    private void flushLoop() {
+        Jedis jedis = null;
+        try {
+            while (true) {
+                boolean last = closed;
+                for (Stripe stripe : stripes) {
+                    jedis = flush(stripe, jedis, last);
+                }
+                if (last) {
+                    return;
+                }
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        } finally {
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+    }
+
+    // Swaps the stripe's segment out and writes it, together with earlier ones that failed
+    private Jedis flush(Stripe stripe, Jedis jedis, boolean last) {
+        if (last) {
+            stripe.unflushed.add(stripe.current);  // The writers are done, so nothing takes its place
+        } else if (!stripe.current.rides.isEmpty()) {
+            Segment full = stripe.current;
+            Segment fresh = newSegment();
+            if (fresh == null) {
+                return jedis;  // Keep writing to the full one; logged by newSegment
+            }
+            stripe.current = fresh;
+            long sequence = stripe.sequence.get();
+            // A write that read the full segment may still be under way; later ones use the fresh one
+            while ((sequence & 1) != 0 && stripe.sequence.get() == sequence) {
+                Thread.onSpinWait();
+            }
+            stripe.unflushed.add(full);
+        }
+
+        while (!stripe.unflushed.isEmpty()) {
+            Segment segment = stripe.unflushed.peek();
+            try {
+                segment.log.close();
+                if (!segment.rides.isEmpty()) {
+                    if (jedis == null) {
+                        jedis = jedisPool.getResource();
+                    }
+                    redisWriter.write(jedis, segment.rides);
+                    recordFlush(segment);
+                }
+                Files.delete(segment.log.path);
+            } catch (Exception e) {
+                failedFlushCount.increment();
+                logger.severe("Error flushing write-behind table: " + e.getMessage());
+                if (jedis != null && jedis.getClient().isBroken()) {
+                    jedis.close();
+                    jedis = null;
+                }
+                return jedis;  // Its log stays on disk; retried at the next flush
+            }
+            stripe.unflushed.poll();
+        }
+        return jedis;
+    }
+
+    private void recordFlush(Segment segment) {
+        long now = System.nanoTime();
+        int rides = segment.rides.rideCount();
+        pendingRides.add(-rides);
+        flushedRides.add(rides);
+        flushedKeys.add(segment.rides.size());
+        flushCount.increment();
+        lagNanosTotal.add(now * rides - segment.appendNanosTotal);
+        lagNanosMax.accumulate(now - segment.firstAppendNanos);
+    }
+
+    private Stripe newStripe() {
+        Segment segment = newSegment();
+        if (segment == null) {
+            throw new IllegalStateException("Unable to create a write-behind log in " + logDirectory);
+        }
+        Stripe stripe = new Stripe(segment);
+        stripes.add(stripe);
+        return stripe;
+    }
+
+    private Segment newSegment() {
+        Path path = logDirectory.resolve(runPrefix + "-" + segmentSequence.incrementAndGet() + RideLog.SUFFIX);
+        try {
+            return new Segment(RideLog.create(path));
+        } catch (IOException e) {
+            logger.severe("Unable to create " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public long getPendingRideCount() { return pendingRides.sum(); }
+
+    @Override
+    public long getFlushedRideCount() { return flushedRides.sum(); }
+
+    @Override
+    public long getFlushCount() { return flushCount.sum(); }
+
+    @Override
+    public long getFailedFlushCount() { return failedFlushCount.sum(); }
+
+    @Override
+    public long getReplayedRideCount() { return replayedRides.sum(); }
+
+    @Override
+    public long getSkippedLogBytes() { return skippedLogBytes.sum(); }
+
+    @Override
+    public long getCapacityWaitCount() { return capacityWaits.sum(); }
+
+    @Override
+    public long getFlushedKeyCount() { return flushedKeys.sum(); }
+
+    @Override
+    public long getBatchKeyCount() { return writtenKeys.sum(); }
+
+    @Override
+    public double getAverageLagMillis() {
+        long rides = flushedRides.sum();
+        return rides == 0 ? 0 : lagNanosTotal.sum() / (double) rides / 1_000_000.0;
+    }
+
+    @Override
+    public double getMaxLagMillis() { return lagNanosMax.get() / 1_000_000.0; }
+
+    /**
+     * One writer thread's segments: the one it writes to, and those swapped out but not yet in
+     * Redis, which only the flush thread touches.
+     */
+    private static final class Stripe {
+        volatile Segment current;
+        final AtomicLong sequence = new AtomicLong();
+        final Queue<Segment> unflushed = new ArrayDeque<>();
+
+        Stripe(Segment current) {
+            this.current = current;
+        }
+    }
+
+    /**
+     * A log segment and the table of the same rides. Written by the stripe's owner until it is
+     * swapped out, then read by the flush thread.
+     */
+    private static final class Segment {
+        final RideLog log;
+        final RideAggregator rides = new RideAggregator(4096);
+        long firstAppendNanos;
+        long appendNanosTotal;
+
+        Segment(RideLog log) {
+            this.log = log;
+        }
+    }
+}
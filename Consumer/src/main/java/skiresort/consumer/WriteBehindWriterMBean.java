@@ -0,0 +1,25 @@
+package skiresort.consumer;
+
+/**
+ * JMX view of {@link WriteBehindWriter}.
+ */
+public interface WriteBehindWriterMBean {
+    /** Rides acked and logged locally but not yet in Redis. */
+    long getPendingRideCount();
+    long getFlushedRideCount();
+    long getFlushCount();
+    long getFailedFlushCount();
+    /** Rides replayed from logs a previous run left behind. */
+    long getReplayedRideCount();
+    /** Bytes of those logs skipped as torn or corrupt frames. */
+    long getSkippedLogBytes();
+    /** Writes that had to wait for a flush because the unflushed rides were at the cap. */
+    long getCapacityWaitCount();
+    /** Distinct (skier, resort, season, day) entries the flushes wrote. */
+    long getFlushedKeyCount();
+    /** Entries of the batches taken in, as many as writing every batch straight through would write. */
+    long getBatchKeyCount();
+    /** Time from a ride being logged to the end of the flush that wrote it, averaged over flushed rides. */
+    double getAverageLagMillis();
+    double getMaxLagMillis();
+}
@@ -0,0 +1,162 @@
+package skiresort.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Envelope;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.JedisPool;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Spreads the credit limit over channels that record their prefetch and consumer. The pipeline
+ * is never started, so what the channels deliver stays unacked and the test decides when the
+ * controller updates.
+ */
+class AdaptiveConsumersTest {
+
+    private static final int CHANNELS = 4;
+    private static final int MIN_PREFETCH = 10;
+    private static final int MAX_PREFETCH = 100;
+
+    private final ConsumerPipeline pipeline = new ConsumerPipeline(1, 1, 1, 1024, 16, 20, new JedisPool(),
+            (jedis, aggregate) -> {}, new BatchMetrics());
+    private final List<RecordingChannel> channels = new ArrayList<>();
+    private AdaptiveConsumers consumers;
+
+    @AfterEach
+    void tearDown() {
+        consumers.stop();
+    }
+
+    @Test
+    void limitIsSpreadOverAsFewConsumersAsHoldIt() {
+        start(20);
+
+        assertEquals(2, consumers.getActiveConsumers());
+        assertEquals(10, consumers.getPrefetchCount());
+        assertEquals(10, channels.get(0).prefetch);
+        assertEquals(10, channels.get(1).prefetch);
+        assertEquals(null, channels.get(2).consumerTag);
+        assertEquals(null, channels.get(3).consumerTag);
+    }
+
+    @Test
+    void growingLimitResubscribesWithALargerPrefetch() throws IOException {
+        start(40);
+        assertEquals(CHANNELS, consumers.getActiveConsumers());
+        assertEquals(10, consumers.getPrefetchCount());
+
+        // Every channel holds its full prefetch, and no write has been slow
+        for (RecordingChannel channel : channels) {
+            channel.deliver(10);
+        }
+        consumers.update();
+
+        // 40 + sqrt(40), spread over four consumers
+        assertEquals(47, consumers.getCreditLimit());
+        assertEquals(12, consumers.getPrefetchCount());
+        for (RecordingChannel channel : channels) {
+            assertEquals(12, channel.prefetch);
+            assertEquals(2, channel.subscribes);
+        }
+    }
+
+    @Test
+    void unusedCreditDoesNotGrowOrResubscribe() throws IOException {
+        start(40);
+        channels.get(0).deliver(10);
+        consumers.update();
+
+        assertEquals(40, consumers.getCreditLimit());
+        for (RecordingChannel channel : channels) {
+            assertEquals(1, channel.subscribes);
+        }
+    }
+
+    @Test
+    void prefetchStaysWithinItsBounds() {
+        start(1000);
+        assertEquals(CHANNELS, consumers.getActiveConsumers());
+        assertEquals(MAX_PREFETCH, consumers.getPrefetchCount());
+        consumers.stop();
+
+        channels.clear();
+        start(1);
+        assertEquals(1, consumers.getActiveConsumers());
+        assertEquals(MIN_PREFETCH, consumers.getPrefetchCount());
+    }
+
+    @Test
+    void stopCancelsEveryConsumer() {
+        start(40);
+        consumers.stop();
+
+        assertEquals(0, consumers.getActiveConsumers());
+        for (RecordingChannel channel : channels) {
+            assertEquals(null, channel.consumerTag);
+        }
+    }
+
+    private void start(int initialLimit) {
+        consumers = new AdaptiveConsumers("queue", pipeline, new BatchMetrics(),
+                new CreditLimit(initialLimit, MIN_PREFETCH, 1000), MIN_PREFETCH, MAX_PREFETCH);
+        for (int i = 0; i < CHANNELS; i++) {
+            RecordingChannel channel = new RecordingChannel();
+            channels.add(channel);
+            consumers.add(channel.proxy);
+        }
+        // Updates only when the test calls update()
+        consumers.start(TimeUnit.HOURS.toMillis(1));
+    }
+
+    /**
+     * Keeps the prefetch and consumer tag it was last given, and hands deliveries to the
+     * consumer's callback.
+     */
+    private static final class RecordingChannel {
+        final Channel proxy;
+        int prefetch;
+        String consumerTag;
+        int subscribes;
+        DeliverCallback callback;
+        long lastTag;
+
+        RecordingChannel() {
+            proxy = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Channel.class},
+                    (self, method, args) -> switch (method.getName()) {
+                        case "basicQos" -> {
+                            prefetch = (int) args[0];
+                            yield null;
+                        }
+                        case "basicConsume" -> {
+                            callback = (DeliverCallback) args[2];
+                            consumerTag = "consumer-" + ++subscribes;
+                            yield consumerTag;
+                        }
+                        case "basicCancel" -> {
+                            consumerTag = null;
+                            yield null;
+                        }
+                        case "hashCode" -> System.identityHashCode(self);
+                        case "equals" -> self == args[0];
+                        default -> null;
+                    });
+        }
+
+        void deliver(int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                callback.handle(consumerTag, new com.rabbitmq.client.Delivery(
+                        new Envelope(++lastTag, false, "", "queue"), new AMQP.BasicProperties(), new byte[0]));
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package skiresort.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedMpscQueueTest {
+
+    private static final long WAIT_MS = 5000;
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(4, new BoundedMpscQueue<>(1).capacity());
+        assertEquals(4, new BoundedMpscQueue<>(4).capacity());
+        assertEquals(8, new BoundedMpscQueue<>(5).capacity());
+        assertEquals(1024, new BoundedMpscQueue<>(1024).capacity());
+    }
+
+    @Test
+    void elementsComeOutInOrderAcrossManyWrapArounds() {
+        BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<>(4);
+        int next = 0;
+        for (int taken = 0; taken < 10_000; taken++) {
+            while (queue.offer(next)) {
+                next++;
+            }
+            assertEquals(4, queue.size());
+            assertEquals(taken, queue.poll());
+        }
+        for (int taken = 10_000; taken < next; taken++) {
+            assertEquals(taken, queue.poll());
+        }
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void concurrentProducersLoseAndDuplicateNothing() throws Exception {
+        int producers = 4;
+        int perProducer = 200_000;
+        // Small, so producers keep finding it full and park
+        BoundedMpscQueue<Long> queue = new BoundedMpscQueue<>(64);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    queue.put(producer << 32 | i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        // Each producer's elements arrive in the order it put them, so the next one expected is enough
+        int[] expected = new int[producers];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        for (long taken = 0; taken < (long) producers * perProducer; ) {
+            Long element = queue.poll(TimeUnit.MILLISECONDS.toNanos(10));
+            if (element == null) {
+                assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+                continue;
+            }
+            int producer = (int) (element >>> 32);
+            assertEquals(expected[producer]++, (int) (long) element, "Element of producer " + producer);
+            taken++;
+        }
+        for (Thread thread : threads) {
+            thread.join(WAIT_MS);
+        }
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void fullQueueRefusesOffersAndParksPutsUntilAnElementIsTaken() throws Exception {
+        BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+
+        CompletableFuture<Boolean> put = CompletableFuture.supplyAsync(() -> queue.put(4));
+        assertThrows(TimeoutException.class, () -> put.get(200, TimeUnit.MILLISECONDS));
+        assertEquals(4, queue.size());
+
+        assertEquals(0, queue.poll());
+        assertTrue(put.get(WAIT_MS, TimeUnit.MILLISECONDS), "put reports that it found the queue full");
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertFalse(queue.put(5));
+    }
+
+    @Test
+    void parkedConsumerIsWokenByAnOffer() throws Exception {
+        BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<>(4);
+        Thread consumer = Thread.currentThread();
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            // Offers once the consumer is parked in poll
+            while (consumer.getState() != Thread.State.TIMED_WAITING) {
+                Thread.onSpinWait();
+            }
+            queue.offer(7);
+        });
+
+        long started = System.nanoTime();
+        assertEquals(7, queue.poll(TimeUnit.MINUTES.toNanos(1)));
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(WAIT_MS), "Consumer was not woken");
+        producer.get(WAIT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void pollTimesOutOnAnEmptyQueue() {
+        assertNull(new BoundedMpscQueue<Integer>(4).poll(TimeUnit.MILLISECONDS.toNanos(50)));
+    }
+}
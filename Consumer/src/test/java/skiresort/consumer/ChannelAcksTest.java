@@ -0,0 +1,153 @@
+package skiresort.consumer;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the multiple-ack watermark of {@link ChannelAcks} against a channel that records what
+ * it is asked to ack and nack.
+ */
+class ChannelAcksTest {
+
+    // basicAck and basicNack calls, as "ack 3 multiple", "nack 5 requeue" and so on
+    private final List<String> calls = new ArrayList<>();
+    private final Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{Channel.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "basicAck" -> calls.add("ack " + args[0] + ((boolean) args[1] ? " multiple" : ""));
+                    case "basicNack" -> calls.add("nack " + args[0] + ((boolean) args[2] ? " requeue" : ""));
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+                return null;
+            });
+    private final ChannelAcks acks = new ChannelAcks(channel, 0);
+
+    @Test
+    void flushAcksOnlyTheContiguousSettledPrefix() throws IOException {
+        deliver(5);
+        settle(2, Delivery.Outcome.ACK);
+        settle(3, Delivery.Outcome.ACK);
+        assertEquals(0, acks.flush());
+        assertEquals(List.of(), calls);
+        assertEquals(5, acks.unacked());
+
+        settle(1, Delivery.Outcome.ACK);
+        assertEquals(1, acks.flush());
+        settle(5, Delivery.Outcome.ACK);
+        assertEquals(0, acks.flush());
+        settle(4, Delivery.Outcome.ACK);
+        assertEquals(1, acks.flush());
+
+        assertEquals(List.of("ack 3 multiple", "ack 5 multiple"), calls);
+        assertEquals(0, acks.unacked());
+    }
+
+    @Test
+    void nackedDeliveriesAreNackedAloneAndLeftOutOfTheAck() throws IOException {
+        deliver(4);
+        settle(1, Delivery.Outcome.ACK);
+        settle(2, Delivery.Outcome.ACK);
+        settle(3, Delivery.Outcome.REQUEUE);
+        settle(4, Delivery.Outcome.DEAD_LETTER);
+        acks.flush();
+
+        // The multiple ack stops at 2, so it cannot cover 3 and 4 that the broker no longer holds
+        assertEquals(List.of("nack 3 requeue", "nack 4", "ack 2 multiple"), calls);
+        assertEquals(0, acks.unacked());
+    }
+
+    @Test
+    void settleReportsWhetherTheChannelNeedsAFlush() throws IOException {
+        deliver(3);
+        assertTrue(settle(1, Delivery.Outcome.ACK));
+        assertFalse(settle(2, Delivery.Outcome.ACK));
+        acks.flush();
+        assertTrue(settle(3, Delivery.Outcome.ACK));
+    }
+
+    @Test
+    void watermarkWrapsAroundTheWindow() throws IOException {
+        Random random = new Random(42);
+        List<Long> batch = new ArrayList<>();
+        long last = 0;
+        long lastAcked = 0;
+        // Three times round the window, settling batches in random order
+        while (last < 3L * ChannelAcks.WINDOW) {
+            int size = 1 + random.nextInt(500);
+            batch.clear();
+            for (int i = 0; i < size; i++) {
+                batch.add(++last);
+            }
+            acks.delivered(last);
+            Collections.shuffle(batch, random);
+            for (long tag : batch) {
+                settle(tag, tag % 7 == 0 ? Delivery.Outcome.REQUEUE : Delivery.Outcome.ACK);
+            }
+            calls.clear();
+            acks.flush();
+
+            long expectedAck = last % 7 == 0 ? last - 1 : last;
+            if (expectedAck > lastAcked) {
+                assertEquals("ack " + expectedAck + " multiple", calls.get(calls.size() - 1));
+                lastAcked = expectedAck;
+            }
+            assertEquals(0, acks.unacked());
+        }
+    }
+
+    @Test
+    void settlingAWholeWindowAheadIsRefused() throws IOException {
+        deliver(ChannelAcks.WINDOW);
+        assertThrows(IllegalStateException.class, () -> settle(ChannelAcks.WINDOW, Delivery.Outcome.ACK));
+
+        // Once 1 is acked, the same tag is within the window
+        settle(1, Delivery.Outcome.ACK);
+        acks.flush();
+        settle(ChannelAcks.WINDOW, Delivery.Outcome.ACK);
+        assertEquals(0, acks.flush());
+    }
+
+    @Test
+    void requeueUnsettledHandsBackWhatTheChannelStillHolds() throws IOException {
+        deliver(7);
+        settle(1, Delivery.Outcome.ACK);
+        acks.flush();
+        settle(3, Delivery.Outcome.ACK);
+        settle(4, Delivery.Outcome.DEAD_LETTER);
+        settle(6, Delivery.Outcome.ACK);
+        calls.clear();
+
+        assertEquals(3, acks.requeueUnsettled());
+
+        // 4 was nacked when it was settled; 2, 5 and 7 were never settled
+        assertEquals(List.of("nack 2 requeue", "ack 3", "nack 5 requeue", "ack 6", "nack 7 requeue"), calls);
+        assertEquals(0, acks.unacked());
+    }
+
+    private void deliver(long lastTag) {
+        acks.delivered(lastTag);
+    }
+
+    // As the ack thread does: records the outcome, and nacks a failed delivery straight away
+    private boolean settle(long tag, Delivery.Outcome outcome) throws IOException {
+        Delivery delivery = new Delivery(acks, tag, false, null, null, null);
+        delivery.outcome = outcome;
+        boolean wasClean = acks.settle(delivery);
+        if (outcome != Delivery.Outcome.ACK) {
+            acks.nack(delivery);
+        }
+        return wasClean;
+    }
+}
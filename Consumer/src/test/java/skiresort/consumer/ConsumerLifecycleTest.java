@@ -0,0 +1,271 @@
+package skiresort.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import skiresort.common.LiftRide;
+import skiresort.common.WireFormat;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Shuts {@link ConsumerLifecycle} down while deliveries keep arriving, on channels that settle
+ * deliveries as a broker does, and checks that every ride ends up acked exactly once, after it
+ * was written, or back with the broker: nacked with requeue, or still unacked when its channel
+ * closed.
+ */
+class ConsumerLifecycleTest {
+
+    private static final int CHANNELS = 4;
+    private static final long WAIT_MS = 5000;
+
+    private final List<BrokerChannel> channels = new ArrayList<>();
+    private final List<Thread> deliverers = new ArrayList<>();
+    private final AtomicBoolean delivering = new AtomicBoolean(true);
+    private final AtomicLong rideIds = new AtomicLong();
+    // Ride ID -> times written
+    private final Map<Long, Integer> written = new ConcurrentHashMap<>();
+    private final CountDownLatch writesReleased = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        delivering.set(false);
+        writesReleased.countDown();
+        for (Thread deliverer : deliverers) {
+            deliverer.join(WAIT_MS);
+        }
+    }
+
+    @Test
+    void drainAcksEveryRideWrittenAndHandsTheRestBack() throws Exception {
+        ConsumerLifecycle lifecycle = start((jedis, aggregate) -> {
+            Thread.sleep(2);
+            record(aggregate);
+        });
+        awaitWrites(200);
+
+        lifecycle.shutdown(WAIT_MS);
+
+        assertEquals("STOPPED", lifecycle.getState());
+        long acked = checkSettlements();
+        assertTrue(acked >= 200, "acked " + acked);
+        // Drained in time, so nothing written was handed back to be written again
+        assertEquals(acked, written.size());
+    }
+
+    @Test
+    void deadlineLeavesUnwrittenRidesToTheBroker() throws Exception {
+        ConsumerLifecycle lifecycle = start((jedis, aggregate) -> {
+            if (written.size() >= 100) {
+                writesReleased.await();  // Redis hangs: the writers are still busy at the deadline
+            }
+            record(aggregate);
+        });
+        awaitWrites(100);
+
+        lifecycle.shutdown(200);
+        writesReleased.countDown();
+        Thread.sleep(200);  // Lets the abandoned writers finish against channels already closed
+
+        assertEquals("STOPPED", lifecycle.getState());
+        checkSettlements();
+    }
+
+    private ConsumerLifecycle start(AggregateWriter writer) {
+        JedisPool jedisPool = new JedisPool() {
+            @Override
+            public Jedis getResource() {
+                return new Jedis("localhost", 1);  // Never connected; the test writers do not use it
+            }
+        };
+        ConsumerPipeline pipeline = new ConsumerPipeline(2, 2, 2, 1024, 20, 20, jedisPool, writer, new BatchMetrics());
+        pipeline.start();
+        ConsumerLifecycle lifecycle = new ConsumerLifecycle(jedisPool, pipeline, null);
+
+        List<Channel> consumerChannels = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            BrokerChannel channel = new BrokerChannel();
+            channels.add(channel);
+            consumerChannels.add(channel.proxy);
+            DeliverCallback callback = pipeline.deliverCallback(channel.proxy);
+            Thread deliverer = new Thread(() -> deliver(channel, callback), "deliverer-" + i);
+            deliverers.add(deliverer);
+        }
+        lifecycle.running(connection(), consumerChannels, null);
+        deliverers.forEach(Thread::start);
+        return lifecycle;
+    }
+
+    // As the broker would, until the channel closes: deliveries keep coming after the consumer stops taking them
+    private void deliver(BrokerChannel channel, DeliverCallback callback) {
+        while (delivering.get()) {
+            long rideId = rideIds.incrementAndGet();
+            LiftRide ride = new LiftRide(1 + (int) (rideId % 1000), 1 + (int) (rideId % 10), 1 + (int) (rideId % 40),
+                    "2024", "1", 1 + (int) (rideId % 360));
+            AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                    .contentType(WireFormat.BINARY.getContentType())
+                    .messageId(Long.toString(rideId))
+                    .build();
+            Long tag = channel.deliver(rideId);
+            if (tag == null) {
+                return;
+            }
+            try {
+                callback.handle("consumer", new com.rabbitmq.client.Delivery(
+                        new Envelope(tag, false, "", "lift_ride_queue"), properties, WireFormat.BINARY.encode(ride)));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            if (rideId % 16 == 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private void record(RideAggregator aggregate) {
+        for (int entry = 0; entry < aggregate.size(); entry++) {
+            for (int ride = aggregate.firstRide(entry); ride >= 0; ride = aggregate.nextRide(ride)) {
+                written.merge(aggregate.rideID(ride), 1, Integer::sum);
+            }
+        }
+    }
+
+    private void awaitWrites(int rides) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MS);
+        while (written.size() < rides) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Checks that each channel is closed, saw no delivery settled twice or dead-lettered, and
+     * acked only rides that had been written.
+     *
+     * @return deliveries acked across all channels
+     */
+    private long checkSettlements() {
+        long acked = 0;
+        for (BrokerChannel channel : channels) {
+            synchronized (channel) {
+                assertTrue(!channel.open, "Channel left open");
+                assertEquals(List.of(), channel.errors);
+                assertEquals(channel.delivered, channel.acked.size() + channel.requeued + channel.returnedOnClose);
+                for (long rideId : channel.acked) {
+                    assertEquals(1, written.getOrDefault(rideId, 0), "Ride " + rideId + " acked without being written exactly once");
+                }
+                acked += channel.acked.size();
+            }
+        }
+        return acked;
+    }
+
+    private static Connection connection() {
+        AtomicBoolean open = new AtomicBoolean(true);
+        return (Connection) Proxy.newProxyInstance(ConsumerLifecycleTest.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "close", "abort" -> {
+                        open.set(false);
+                        yield null;
+                    }
+                    case "isOpen" -> open.get();
+                    default -> null;
+                });
+    }
+
+    /**
+     * A channel settling deliveries as a broker does: acks and nacks must name deliveries it
+     * still holds, {@code multiple} covers every one up to the tag, and what it holds when
+     * closed goes back to the queue.
+     */
+    private static final class BrokerChannel {
+        final Channel proxy;
+        // Delivery tag -> ride ID, while unsettled
+        final NavigableMap<Long, Long> unsettled = new TreeMap<>();
+        final List<Long> acked = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        long delivered;
+        long requeued;
+        long returnedOnClose;
+        boolean open = true;
+
+        BrokerChannel() {
+            proxy = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Channel.class},
+                    (self, method, args) -> switch (method.getName()) {
+                        case "basicAck" -> settle((long) args[0], (boolean) args[1], true, false);
+                        case "basicNack" -> settle((long) args[0], (boolean) args[1], false, (boolean) args[2]);
+                        case "close", "abort" -> close();
+                        case "isOpen" -> isOpen();
+                        case "hashCode" -> System.identityHashCode(self);
+                        case "equals" -> self == args[0];
+                        default -> null;
+                    });
+        }
+
+        synchronized Long deliver(long rideId) {
+            if (!open) {
+                return null;
+            }
+            long tag = ++delivered;
+            unsettled.put(tag, rideId);
+            return tag;
+        }
+
+        synchronized Object settle(long tag, boolean multiple, boolean ack, boolean requeue) {
+            if (!open) {
+                throw new AlreadyClosedException(new ShutdownSignalException(false, false, null, proxy));
+            }
+            if (!unsettled.containsKey(tag)) {
+                // A real broker closes the channel with PRECONDITION_FAILED
+                errors.add("unknown delivery tag " + tag);
+                return null;
+            }
+            Map<Long, Long> settled = multiple ? unsettled.headMap(tag, true) : unsettled.subMap(tag, true, tag, true);
+            for (long rideId : settled.values()) {
+                if (ack) {
+                    acked.add(rideId);
+                } else if (requeue) {
+                    requeued++;
+                } else {
+                    errors.add("ride " + rideId + " dead-lettered");
+                }
+            }
+            settled.clear();
+            return null;
+        }
+
+        synchronized Object close() {
+            if (open) {
+                open = false;
+                returnedOnClose = unsettled.size();
+                unsettled.clear();
+            }
+            return null;
+        }
+
+        synchronized boolean isOpen() {
+            return open;
+        }
+    }
+}
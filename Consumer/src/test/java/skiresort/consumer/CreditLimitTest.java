@@ -0,0 +1,96 @@
+package skiresort.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CreditLimitTest {
+
+    private static final double MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int WRITERS = 2;
+
+    @Test
+    void growsByItsSquareRootWhileLatencyHoldsAndTheCreditIsUsed() {
+        CreditLimit limit = new CreditLimit(100, 10, 10_000);
+        assertEquals(110, limit.update(1 * MS, 1, 0, WRITERS, 100));
+
+        // Up to 1.5 times the baseline still counts as holding
+        int last = limit.getLimit();
+        for (int i = 0; i < 10; i++) {
+            int next = limit.update(1.4 * MS, 1, 0, WRITERS, last);
+            assertTrue(next > last, next + " after " + last);
+            last = next;
+        }
+    }
+
+    @Test
+    void doublesWhileBatchesLeaveHalfEmpty() {
+        CreditLimit limit = new CreditLimit(100, 10, 10_000);
+        assertEquals(200, limit.update(1 * MS, 0.3, 0, WRITERS, 100));
+        assertEquals(400, limit.update(0, 0.3, 0, WRITERS, 200));
+    }
+
+    @Test
+    void doesNotGrowWhileTheCreditIsNotUsed() {
+        CreditLimit limit = new CreditLimit(100, 10, 10_000);
+        assertEquals(100, limit.update(1 * MS, 1, 0, WRITERS, 79));
+        assertEquals(100, limit.update(0, 0.1, 0, WRITERS, 0));
+    }
+
+    @Test
+    void shrinksWhenLatencyRisesOverTheBaseline() {
+        CreditLimit limit = new CreditLimit(100, 10, 10_000);
+        limit.update(1 * MS, 1, 0, WRITERS, 0);
+
+        // About 3x the baseline: the gradient is about 1.5 / 3, and half of the cut is applied
+        assertEquals(76, limit.update(3 * MS, 1, 0, WRITERS, 100));
+        // Far over it, the cut is still at most MIN_GRADIENT, smoothed
+        CreditLimit overloaded = new CreditLimit(100, 10, 10_000);
+        overloaded.update(1 * MS, 1, 0, WRITERS, 0);
+        assertEquals(75, overloaded.update(100 * MS, 1, 0, WRITERS, 100));
+    }
+
+    @Test
+    void shrinksWhileWritersHaveABacklogWhateverTheLatency() {
+        CreditLimit limit = new CreditLimit(100, 10, 10_000);
+        assertEquals(95, limit.update(1 * MS, 1, WRITERS + 1, WRITERS, 100));
+        // One batch queued per writer is no backlog yet
+        assertEquals(105, limit.update(1 * MS, 1, WRITERS, WRITERS, 100));
+    }
+
+    @Test
+    void baselineFollowsARedisThatGotSlowerForGood() {
+        CreditLimit limit = new CreditLimit(100, 10, 10_000);
+        limit.update(1 * MS, 1, 0, WRITERS, 0);
+        int shrunk = limit.update(2 * MS, 1, 0, WRITERS, 100);
+        assertTrue(shrunk < 100);
+
+        // The baseline drifts up 2% per update until 2ms is within tolerance, and growth resumes
+        int last = shrunk;
+        for (int i = 0; i < 30; i++) {
+            last = limit.update(2 * MS, 1, 0, WRITERS, limit.getLimit());
+        }
+        assertTrue(last > shrunk, last + " after " + shrunk);
+        assertTrue(limit.getBaselineMillis() > 1.3, "baseline " + limit.getBaselineMillis());
+    }
+
+    @Test
+    void staysWithinItsBounds() {
+        assertEquals(10, new CreditLimit(1, 10, 1000).getLimit());
+        assertEquals(1000, new CreditLimit(5000, 10, 1000).getLimit());
+
+        CreditLimit limit = new CreditLimit(500, 10, 1000);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limit.update(1 * MS, 0.1, 0, WRITERS, limit.getLimit()) <= 1000);
+        }
+        assertEquals(1000, limit.getLimit());
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limit.update(100 * MS, 1, WRITERS + 1, WRITERS, limit.getLimit()) >= 10);
+        }
+        assertEquals(10, limit.getLimit());
+    }
+}
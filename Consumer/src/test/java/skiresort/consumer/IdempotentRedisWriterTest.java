@@ -0,0 +1,102 @@
+package skiresort.consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.embedded.RedisServer;
+import skiresort.common.RedisLayout;
+import skiresort.common.RideIdGenerator;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs {@link IdempotentRedisWriter} against a real redis-server.
+ */
+class IdempotentRedisWriterTest {
+
+    private final RideIdGenerator rideIds = new RideIdGenerator(1);
+    private final IdempotentRedisWriter writer = new IdempotentRedisWriter(TimeUnit.MINUTES.toMillis(5));
+
+    private RedisServer redis;
+    private Jedis jedis;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        jedis = new Jedis("localhost", port);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        jedis.close();
+        redis.stop();
+    }
+
+    @Test
+    void writesEveryAggregateForNewRides() {
+        RideAggregator aggregate = new RideAggregator();
+        aggregate.add(7, 1, 2024, 3, 10, 100, rideIds.nextId());
+        aggregate.add(7, 1, 2024, 3, 12, 110, rideIds.nextId());
+        aggregate.add(7, 1, 2024, 4, 5, 120, rideIds.nextId());
+        aggregate.add(8, 1, 2024, 3, 1, 130, 0);
+
+        writer.write(jedis, aggregate);
+
+        assertEquals("220", jedis.hget(RedisLayout.dayVerticalKey(1, 2024, 3), "7"));
+        assertEquals("50", jedis.hget(RedisLayout.dayVerticalKey(1, 2024, 4), "7"));
+        assertEquals("10", jedis.hget(RedisLayout.dayVerticalKey(1, 2024, 3), "8"));
+        assertEquals("270", jedis.hget(RedisLayout.seasonVerticalKey(7), RedisLayout.seasonVerticalField(1, 2024)));
+        assertEquals(2, jedis.pfcount(RedisLayout.uniqueSkiersKey(1, 2024, 3)));
+        assertEquals(3L * RedisLayout.RIDE_RECORD_LENGTH, jedis.strlen(RedisLayout.ridesKey(7)));
+        assertEquals(4, writer.getAppliedRideCount());
+    }
+
+    @Test
+    void redeliveredRidesAreSkippedAndRidesWithoutAnIdAreNot() {
+        long first = rideIds.nextId();
+        RideAggregator aggregate = new RideAggregator();
+        aggregate.add(7, 1, 2024, 3, 10, 100, first);
+        aggregate.add(8, 1, 2024, 3, 10, 100, 0);
+        writer.write(jedis, aggregate);
+
+        RideAggregator redelivered = new RideAggregator();
+        redelivered.add(7, 1, 2024, 3, 10, 100, first);
+        redelivered.add(7, 1, 2024, 3, 20, 200, rideIds.nextId());
+        redelivered.add(8, 1, 2024, 3, 10, 100, 0);
+        writer.write(jedis, redelivered);
+
+        assertEquals("300", jedis.hget(RedisLayout.dayVerticalKey(1, 2024, 3), "7"));
+        assertEquals("200", jedis.hget(RedisLayout.dayVerticalKey(1, 2024, 3), "8"));
+        assertEquals(2L * RedisLayout.RIDE_RECORD_LENGTH, jedis.strlen(RedisLayout.ridesKey(7)));
+        assertEquals(4, writer.getAppliedRideCount());
+        assertEquals(1, writer.getDuplicateRideCount());
+    }
+
+    @Test
+    void scriptIsLoadedAgainAfterTheCacheIsFlushed() {
+        writer.write(jedis, batch());
+        jedis.scriptFlush();
+        writer.write(jedis, batch());
+
+        assertEquals(2, writer.getAppliedRideCount());
+        assertEquals(2, writer.getScriptCallCount());
+        // SCRIPT LOAD and EVALSHA, then the EVALSHA that found no script, SCRIPT LOAD and EVALSHA
+        assertEquals(5, writer.getCommandCount());
+    }
+
+    private RideAggregator batch() {
+        RideAggregator aggregate = new RideAggregator();
+        aggregate.add(7, 1, 2024, 3, 10, 100, rideIds.nextId());
+        return aggregate;
+    }
+}
@@ -0,0 +1,113 @@
+package skiresort.consumer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartitionAssignmentTest {
+
+    private static final int PARTITIONS = 256;
+
+    @Test
+    void everyPartitionHasExactlyOneMember() {
+        for (int count = 1; count <= 9; count++) {
+            Map<Integer, String> owners = owners(members(count));
+            assertEquals(PARTITIONS, owners.size(), count + " members");
+        }
+    }
+
+    @Test
+    void membersGetRoughlyEvenShares() {
+        List<String> members = members(4);
+        for (String member : members) {
+            int share = PartitionAssignment.partitionsOf(member, members, PARTITIONS).size();
+            // An even share is 64; rendezvous hashing is only even on average
+            assertTrue(share > 32 && share < 96, member + " has " + share);
+        }
+    }
+
+    @Test
+    void everyMemberWorksOutTheSameAssignmentWhateverTheListOrder() {
+        List<String> members = members(5);
+        List<String> reversed = new ArrayList<>(members);
+        Collections.reverse(reversed);
+        for (String member : members) {
+            assertEquals(PartitionAssignment.partitionsOf(member, members, PARTITIONS),
+                    PartitionAssignment.partitionsOf(member, reversed, PARTITIONS));
+        }
+    }
+
+    @Test
+    void aJoiningMemberTakesPartitionsOnlyForItself() {
+        List<String> before = members(4);
+        List<String> after = new ArrayList<>(before);
+        after.add("consumer-new");
+        Map<Integer, String> was = owners(before);
+        Map<Integer, String> is = owners(after);
+
+        int moved = 0;
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            if (!was.get(partition).equals(is.get(partition))) {
+                assertEquals("consumer-new", is.get(partition), "Partition " + partition + " moved between old members");
+                moved++;
+            }
+        }
+        assertTrue(moved > 0 && moved < PARTITIONS / 3, moved + " moved");
+    }
+
+    @Test
+    void aLeavingMemberHandsOnOnlyItsOwnPartitions() {
+        List<String> before = members(5);
+        List<String> after = new ArrayList<>(before);
+        after.remove("consumer-2");
+        Map<Integer, String> was = owners(before);
+        Map<Integer, String> is = owners(after);
+
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            if (!was.get(partition).equals("consumer-2")) {
+                assertEquals(was.get(partition), is.get(partition), "Partition " + partition + " moved");
+            }
+        }
+    }
+
+    @Test
+    void aMemberNotYetInTheListStillGetsItsShare() {
+        // Before its first heartbeat shows up, a member works out what it would hold
+        List<String> members = members(3);
+        List<String> withNew = new ArrayList<>(members);
+        withNew.add("consumer-new");
+        assertEquals(PartitionAssignment.partitionsOf("consumer-new", withNew, PARTITIONS),
+                PartitionAssignment.partitionsOf("consumer-new", members, PARTITIONS));
+    }
+
+    private static List<String> members(int count) {
+        List<String> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            members.add("consumer-" + i);
+        }
+        return members;
+    }
+
+    // Partition -> its member, checking no partition goes to two
+    private static Map<Integer, String> owners(List<String> members) {
+        Map<Integer, String> owners = new HashMap<>();
+        for (String member : members) {
+            for (int partition : PartitionAssignment.partitionsOf(member, members, PARTITIONS)) {
+                String previous = owners.put(partition, member);
+                assertEquals(null, previous, "Partition " + partition + " goes to " + previous + " and " + member);
+            }
+        }
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            assertNotNull(owners.get(partition), "Partition " + partition + " has no member");
+        }
+        return owners;
+    }
+}
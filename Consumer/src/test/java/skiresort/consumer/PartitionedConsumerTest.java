@@ -0,0 +1,186 @@
+package skiresort.consumer;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import skiresort.common.LiftRideQueue;
+import skiresort.common.RedisLayout;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rebalances {@link PartitionedConsumer} against a real redis-server, with channels that only
+ * record what the consumer asks of them, so no rides flow.
+ */
+class PartitionedConsumerTest {
+
+    private static final int PARTITIONS = 16;
+    private static final long LEASE_MS = 2000;
+    private static final long REBALANCE_MS = 50;
+    private static final long WAIT_MS = 5000;
+
+    // basicConsume, basicCancel and close calls, as "consume q", "cancel q" and "close q"
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+
+    private RedisServer redis;
+    private JedisPool jedisPool;
+    private Jedis jedis;
+    private PartitionedConsumer consumer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        jedisPool = new JedisPool("localhost", port);
+        jedis = new Jedis("localhost", port);
+
+        consumer = new PartitionedConsumer(PARTITIONS, "consumer-a", LEASE_MS, REBALANCE_MS, 16, 16, 20,
+                jedisPool, (jedis, aggregate) -> {}, new BatchMetrics());
+        consumer.start(connection());
+        await(() -> consumer.getOwnedPartitions().length == PARTITIONS);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        consumer.close(WAIT_MS);
+        jedis.close();
+        jedisPool.close();
+        redis.stop();
+    }
+
+    @Test
+    void lostLeaseStopsItsPartition() {
+        String queue = LiftRideQueue.partitionQueue(3);
+        // Another consumer holds it now, as if the lease had run out during a pause
+        jedis.set(RedisLayout.partitionLeaseKey(3), "consumer-b");
+
+        await(() -> !owns(3));
+        assertEquals(1, consumer.getLostLeaseCount());
+        assertTrue(calls.contains("cancel " + queue));
+        assertTrue(calls.contains("close " + queue));
+        assertEquals(0, consumer.getHandoffCount());
+        // It is not claimed back while the other consumer holds it
+        sleep(5 * REBALANCE_MS);
+        assertFalse(owns(3));
+        assertEquals("consumer-b", jedis.get(RedisLayout.partitionLeaseKey(3)));
+
+        jedis.del(RedisLayout.partitionLeaseKey(3));
+        // A claimed worker shows among the owned partitions just before it is counted
+        await(() -> consumer.getClaimCount() == PARTITIONS + 1);
+        assertTrue(owns(3));
+    }
+
+    @Test
+    void joiningMemberIsHandedItsShareAndLeavingMemberGivesItBack() {
+        List<String> members = List.of("consumer-a", "consumer-b");
+        List<Integer> kept = PartitionAssignment.partitionsOf("consumer-a", members, PARTITIONS);
+        assertTrue(kept.size() < PARTITIONS);
+
+        jedis.zadd(RedisLayout.CONSUMERS_KEY, System.currentTimeMillis() + 60_000, "consumer-b");
+        // Hand-offs are counted once the leases are released
+        await(() -> consumer.getHandoffCount() == PARTITIONS - kept.size());
+
+        assertEquals(kept, Arrays.stream(consumer.getOwnedPartitions()).boxed().toList());
+        assertEquals(2, consumer.getMemberCount());
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            String holder = jedis.get(RedisLayout.partitionLeaseKey(partition));
+            if (kept.contains(partition)) {
+                assertEquals("consumer-a", holder);
+            } else {
+                // Released on hand-off, so consumer-b need not wait for the lease to run out
+                assertEquals(null, holder, "Lease on partition " + partition);
+                assertTrue(calls.contains("close " + LiftRideQueue.partitionQueue(partition)));
+            }
+        }
+        assertEquals(0, consumer.getLostLeaseCount());
+
+        jedis.zrem(RedisLayout.CONSUMERS_KEY, "consumer-b");
+        await(() -> consumer.getClaimCount() == PARTITIONS + PARTITIONS - kept.size());
+        assertEquals(PARTITIONS, consumer.getOwnedPartitions().length);
+    }
+
+    @Test
+    void closeReleasesEveryLeaseAndLeaves() {
+        assertTrue(consumer.close(WAIT_MS));
+
+        assertEquals(0, consumer.getOwnedPartitions().length);
+        assertEquals(0, jedis.zcard(RedisLayout.CONSUMERS_KEY));
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            assertFalse(jedis.exists(RedisLayout.partitionLeaseKey(partition)));
+        }
+    }
+
+    private boolean owns(int partition) {
+        return Arrays.stream(consumer.getOwnedPartitions()).anyMatch(p -> p == partition);
+    }
+
+    private Connection connection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "createChannel" -> channel();
+                    case "isOpen" -> true;
+                    default -> null;
+                });
+    }
+
+    // A consumer tag names its queue, so the calls on each partition's channel can be told apart
+    private Channel channel() {
+        String[] queue = new String[1];
+        return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "basicConsume" -> {
+                        queue[0] = (String) args[0];
+                        calls.add("consume " + queue[0]);
+                        yield queue[0];
+                    }
+                    case "basicCancel" -> {
+                        calls.add("cancel " + args[0]);
+                        yield null;
+                    }
+                    case "close" -> {
+                        calls.add("close " + queue[0]);
+                        yield null;
+                    }
+                    case "isOpen" -> true;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting");
+            sleep(10);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package skiresort.consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RideLogTest {
+
+    // Header and 3 rides of 20 bytes
+    private static final int FRAME_LENGTH = 8 + 3 * 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysEveryFrameAppended() throws IOException {
+        Path log = write(3);
+
+        RideAggregator replayed = new RideAggregator();
+        assertEquals(new RideLog.Replayed(9, 0), RideLog.replay(log, replayed));
+        assertEquals(9, replayed.rideCount());
+        assertEquals(3 * 30 * 10, totalVertical(replayed));
+    }
+
+    @Test
+    void tornLastFrameIsSkipped() throws IOException {
+        Path log = write(3);
+        byte[] bytes = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(bytes, bytes.length - 5));
+
+        RideAggregator replayed = new RideAggregator();
+        assertEquals(new RideLog.Replayed(6, FRAME_LENGTH - 5), RideLog.replay(log, replayed));
+    }
+
+    @Test
+    void framesAfterACorruptOneAreStillReplayed() throws IOException {
+        Path log = write(3);
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[FRAME_LENGTH + 20] ^= 1;  // A ride of the second frame
+        Files.write(log, bytes);
+
+        RideAggregator replayed = new RideAggregator();
+        assertEquals(new RideLog.Replayed(6, FRAME_LENGTH), RideLog.replay(log, replayed));
+    }
+
+    @Test
+    void framesAfterABadLengthAreStillReplayed() throws IOException {
+        Path log = write(3);
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[0] = 0x7f;  // Ride count of the first frame
+        Files.write(log, bytes);
+
+        RideAggregator replayed = new RideAggregator();
+        assertEquals(new RideLog.Replayed(6, FRAME_LENGTH), RideLog.replay(log, replayed));
+    }
+
+    // Frames of 3 rides, each with lift 10 (vertical 100) on a skier of its own
+    private Path write(int frames) throws IOException {
+        Path path = directory.resolve("rides" + RideLog.SUFFIX);
+        try (RideLog log = RideLog.create(path)) {
+            long rideID = 0;
+            for (int frame = 0; frame < frames; frame++) {
+                RideAggregator aggregate = new RideAggregator();
+                for (int i = 0; i < 3; i++) {
+                    rideID++;
+                    aggregate.add((int) rideID, 1, 2024, 1, 10, 100, rideID);
+                }
+                log.append(aggregate);
+            }
+        }
+        return path;
+    }
+
+    private static long totalVertical(RideAggregator aggregate) {
+        long total = 0;
+        for (int entry = 0; entry < aggregate.size(); entry++) {
+            total += aggregate.vertical(entry);
+        }
+        return total;
+    }
+}
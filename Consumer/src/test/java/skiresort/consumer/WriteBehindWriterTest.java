@@ -0,0 +1,106 @@
+package skiresort.consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link WriteBehindWriter} over a Redis writer the test can take down.
+ */
+class WriteBehindWriterTest {
+
+    private static final int MAX_UNFLUSHED = 100;
+
+    @TempDir
+    Path logDirectory;
+
+    private final AtomicBoolean redisUp = new AtomicBoolean();
+    private final AtomicLong flushedRides = new AtomicLong();
+    private final AtomicLong rideIDs = new AtomicLong();
+    private final JedisPool jedisPool = new JedisPool() {
+        @Override
+        public Jedis getResource() {
+            return new Jedis("localhost", 1);  // Never connected; the test's Redis writer does not use it
+        }
+    };
+
+    @Test
+    void writesWaitAtTheCapUntilRedisTakesAFlush() throws Exception {
+        WriteBehindWriter writer = start();
+
+        for (int i = 0; i < MAX_UNFLUSHED / 10; i++) {
+            writer.write(null, batch(10));
+        }
+        CompletableFuture<Void> held = CompletableFuture.runAsync(() -> write(writer));
+        assertThrows(TimeoutException.class, () -> held.get(200, TimeUnit.MILLISECONDS));
+        assertEquals(MAX_UNFLUSHED, writer.getPendingRideCount());
+        assertEquals(1, writer.getCapacityWaitCount());
+
+        redisUp.set(true);
+        held.get(5, TimeUnit.SECONDS);
+        writer.close();
+        assertEquals(MAX_UNFLUSHED + 10, flushedRides.get());
+        assertEquals(0, writer.getPendingRideCount());
+    }
+
+    @Test
+    void writeHeldAtTheCapFailsOnClose() throws Exception {
+        WriteBehindWriter writer = start();
+        for (int i = 0; i < MAX_UNFLUSHED / 10; i++) {
+            writer.write(null, batch(10));
+        }
+
+        CompletableFuture<Void> held = CompletableFuture.runAsync(() -> write(writer));
+        assertThrows(TimeoutException.class, () -> held.get(200, TimeUnit.MILLISECONDS));
+        writer.close();
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> held.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, failure.getCause().getCause());
+        assertEquals(0, flushedRides.get());
+        assertTrue(writer.getFailedFlushCount() > 0);
+    }
+
+    private WriteBehindWriter start() throws IOException {
+        WriteBehindWriter writer = new WriteBehindWriter(logDirectory, (jedis, aggregate) -> {
+            if (!redisUp.get()) {
+                throw new JedisConnectionException("Redis down");
+            }
+            flushedRides.addAndGet(aggregate.rideCount());
+        }, jedisPool, 20, 1_000_000, MAX_UNFLUSHED);
+        writer.start();
+        return writer;
+    }
+
+    private void write(WriteBehindWriter writer) {
+        try {
+            writer.write(null, batch(10));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private RideAggregator batch(int rides) {
+        RideAggregator aggregate = new RideAggregator();
+        for (int i = 0; i < rides; i++) {
+            long rideID = rideIDs.incrementAndGet();
+            aggregate.add((int) rideID, 1, 2024, 1, 10, 100, rideID);
+        }
+        return aggregate;
+    }
+}
@@ -0,0 +1,360 @@
+import org.HdrHistogram.Histogram;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+import redis.clients.jedis.Jedis;
+import redis.embedded.RedisServer;
+import skiresort.common.LatencyRecorder;
+import skiresort.common.RedisLayout;
+import skiresort.common.metrics.MetricsRegistry;
+import skiresort.harness.InMemoryBroker;
+import skiresort.harness.RedisTotals;
+
+import javax.servlet.http.HttpServlet;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the whole ingest path on one machine with no network beyond loopback: SkierServlet and
+ * ResortServlet in embedded Tomcat on a free local port, an in-memory RabbitMQ broker
+ * ({@link InMemoryBroker}) and LiftRideConsumer, all in this JVM, plus a redis-server bundled in
+ * the jar, started on a free local port without persistence. SkierClient then drives them, and
+ * once the consumer has written every ride the server accepted, the harness prints the
+ * full-pipeline throughput and how far the consumer lagged behind the server, and checks
+ * with {@link RedisTotals} that Redis holds every accepted ride exactly once. The exit status
+ * is 1 if it does not.
+ * <p>
+ * Usage: {@code LoadTestHarness [--redis <host:port>] [--restart-every <ms>] [--partitions <n>]
+ * [--consumers <n>] [SkierClient arguments...]}, where {@code --redis} uses a Redis that is
+ * already running instead of starting one, and {@code --restart-every} rolls the consumer over
+ * that often while the client runs: a new one starts, then the old one drains and shuts down,
+ * as in a rolling redeploy. {@code --partitions} spreads rides over that many partition queues
+ * and {@code --consumers} runs that many consumers side by side (rolling over the oldest on a
+ * restart), so partitions move between them as they come and go; at the end the harness also
+ * checks that every partition is leased to one of the consumers still running.
+ * {@code --compare-server-modes} runs the harness twice, each in a JVM of its own with a fresh
+ * Redis, once with the server publishing on the container thread ({@code server.async=false})
+ * and once on its async workers, then prints the two runs' results side by side. Everything
+ * else is passed to SkierClient, e.g. {@code --profile} and the modes.
+ */
+public class LoadTestHarness {
+    private static final String CONTEXT_PATH = "/Server_war";
+    private static final long DRAIN_TIMEOUT_MS = 30_000;  // Stop waiting for the consumer after this long without progress
+    private static final long POLL_INTERVAL_MS = 100;  // How often the consumer's progress is checked
+    private static final long REBALANCE_TIMEOUT_MS = 30_000;  // How long the partitions get to settle on the consumers left
+    // Lines of a run's output that --compare-server-modes repeats side by side
+    private static final List<String> COMPARED_LINES = List.of("Mode: ", "Failed requests: ", "Throughput (requests/sec): ",
+            "Median response time", "99th percentile response time", "Throughput, client to Redis", "Redis check: ");
+
+    // Oldest first; the restarter adds at the end and drains from the front
+    private static final List<LiftRideConsumer> consumers = new CopyOnWriteArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        if (List.of(args).contains("--compare-server-modes")) {
+            List<String> runArgs = new ArrayList<>(List.of(args));
+            runArgs.remove("--compare-server-modes");
+            System.exit(compareServerModes(runArgs) ? 0 : 1);
+        }
+
+        String redis = null;
+        long restartMillis = 0;
+        int partitions = 0;
+        int consumerCount = 1;
+        List<String> clientArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--redis") && i + 1 < args.length) {
+                redis = args[++i];
+            } else if (args[i].equals("--restart-every") && i + 1 < args.length) {
+                restartMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--partitions") && i + 1 < args.length) {
+                partitions = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--consumers") && i + 1 < args.length) {
+                consumerCount = Integer.parseInt(args[++i]);
+            } else {
+                clientArgs.add(args[i]);
+            }
+        }
+
+        // Each module reads its settings when its classes initialize, so set them all before touching any
+        if (redis == null) {
+            redis = "127.0.0.1:" + startRedis();
+        }
+        int colon = redis.lastIndexOf(':');
+        System.setProperty("skiresort.redis.host", redis.substring(0, colon));
+        System.setProperty("skiresort.redis.port", redis.substring(colon + 1));
+        System.setProperty("skiresort.rabbitmq.connection-factory", InMemoryBroker.class.getName());
+        System.setProperty("skiresort.rabbitmq.partitions", Integer.toString(partitions));
+        if (restartMillis > 0 || consumerCount > 1) {
+            System.setProperty("skiresort.consumer.metrics.port", "0");  // More than one consumer at a time
+        }
+
+        Tomcat tomcat = startServer();
+        int port = tomcat.getConnector().getLocalPort();
+        System.setProperty("skiresort.server.url", "http://localhost:" + port + CONTEXT_PATH + "/skiers");
+        boolean passed;
+        try (Jedis jedis = jedis(redis)) {
+            RedisTotals before = RedisTotals.read(jedis);
+            for (int i = 0; i < consumerCount; i++) {
+                LiftRideConsumer consumer = new LiftRideConsumer();
+                consumer.start();
+                consumers.add(consumer);
+            }
+            System.out.println("Server on port " + port + ", Redis on " + redis + ", RabbitMQ in memory"
+                    + (partitions > 0 ? ", " + partitions + " partitions over " + consumerCount + " consumers" : ""));
+
+            CountDownLatch clientDone = new CountDownLatch(1);
+            Thread restarter = null;
+            if (restartMillis > 0) {
+                restarter = new Thread(restarts(restartMillis, clientDone), "consumer-restarter");
+                restarter.setDaemon(true);
+                restarter.start();
+            }
+            long start = System.nanoTime();
+            SkierClient.main(clientArgs.toArray(new String[0]));
+            long clientEnd = System.nanoTime();
+            clientDone.countDown();
+            if (restarter != null) {
+                restarter.join();  // Lets a restart under way finish rather than cutting its drain short
+            }
+            long lastWrite = awaitConsumer(jedis, before.rides());
+            boolean balanced = partitions == 0 || checkPartitions(jedis, partitions);
+            for (LiftRideConsumer consumer : consumers) {
+                consumer.drain();
+            }
+            passed = printSummary(start, clientEnd, lastWrite, RedisTotals.read(jedis).minus(before)) && balanced;
+        }
+        System.exit(passed ? 0 : 1);  // The in-memory queue goes with the JVM
+    }
+
+    /**
+     * Runs the harness with {@code args} once per server mode, each in a child JVM so neither
+     * run inherits the other's Redis contents, warmed-up code or metrics, echoing their output,
+     * then repeats the lines worth comparing for both.
+     *
+     * @return true if both runs passed
+     */
+    private static boolean compareServerModes(List<String> args) throws IOException, InterruptedException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Map<String, List<String>> compared = new TreeMap<>();
+        boolean passed = true;
+        for (String async : List.of("false", "true")) {
+            String label = "server.async=" + async;
+            List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path")));
+            System.getProperties().stringPropertyNames().stream()
+                    .filter(name -> name.startsWith("skiresort."))
+                    .forEach(name -> command.add("-D" + name + "=" + System.getProperty(name)));
+            command.add("-Dskiresort.server.async=" + async);
+            command.add(LoadTestHarness.class.getName());
+            command.addAll(args);
+
+            System.out.println("=== " + label + " ===");
+            Process run = new ProcessBuilder(command).redirectErrorStream(true).start();
+            List<String> lines = new ArrayList<>();
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(run.getInputStream()))) {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    System.out.println(line);
+                    if (COMPARED_LINES.stream().anyMatch(line::startsWith)) {
+                        lines.add(line);
+                    }
+                }
+            }
+            passed &= run.waitFor() == 0;
+            compared.put(label, lines);
+        }
+
+        System.out.println("=== Server modes compared ===");
+        compared.forEach((label, lines) -> {
+            System.out.println(label);
+            lines.forEach(line -> System.out.println("  " + line));
+        });
+        return passed;
+    }
+
+    private static Jedis jedis(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        return new Jedis(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+
+    // Rolls the oldest consumer over every restartMillis until the client is done, the new one up before the old one drains
+    private static Runnable restarts(long restartMillis, CountDownLatch clientDone) {
+        return () -> {
+            int restarts = 0;
+            try {
+                while (!clientDone.await(restartMillis, TimeUnit.MILLISECONDS)) {
+                    LiftRideConsumer next = new LiftRideConsumer();
+                    next.start();
+                    consumers.add(next);
+                    consumers.remove(0).drain();
+                    restarts++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | TimeoutException e) {
+                throw new IllegalStateException("Unable to start a consumer", e);
+            }
+            System.out.println("Consumer restarted " + restarts + " times under load");
+        };
+    }
+
+    private static int startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        RedisServer redis = RedisServer.newRedisServer()
+                .bind("127.0.0.1")
+                .port(port)
+                .setting("save \"\"")  // Nothing is written to disk
+                .setting("appendonly no")
+                .onShutdownForceStop(true)
+                .build();
+        redis.start();
+        return port;
+    }
+
+    // Registers the servlets and filter the way their annotations do in the war
+    private static Tomcat startServer() throws IOException, LifecycleException {
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("harness-tomcat").toString());
+        tomcat.setPort(0);
+        tomcat.getConnector();  // Creates the HTTP connector
+
+        Context context = tomcat.addContext(CONTEXT_PATH, null);
+        addServlet(context, "skiers", new SkierServlet(), "/skiers/*");
+        addServlet(context, "resorts", new ResortServlet(), "/resorts/*");
+        addServlet(context, "metrics", new MetricsServlet(), "/metrics");
+
+        FilterDef filter = new FilterDef();
+        filter.setFilterName("metrics");
+        filter.setFilter(new MetricsFilter());
+        filter.setAsyncSupported("true");
+        context.addFilterDef(filter);
+        FilterMap mapping = new FilterMap();
+        mapping.setFilterName("metrics");
+        mapping.addURLPatternDecoded("/skiers/*");
+        mapping.addURLPatternDecoded("/resorts/*");
+        context.addFilterMap(mapping);
+
+        tomcat.start();
+        return tomcat;
+    }
+
+    private static void addServlet(Context context, String name, HttpServlet servlet, String pattern) {
+        Wrapper wrapper = Tomcat.addServlet(context, name, servlet);
+        wrapper.setAsyncSupported(true);
+        wrapper.setLoadOnStartup(1);
+        context.addServletMappingDecoded(pattern, name);
+    }
+
+    /**
+     * Waits until Redis holds as many new ride records as the broker confirmed to the server,
+     * or the consumer has made no progress for DRAIN_TIMEOUT_MS.
+     *
+     * @return {@link System#nanoTime} of the last progress seen
+     */
+    private static long awaitConsumer(Jedis jedis, long ridesBefore) throws InterruptedException {
+        long lastWrite = System.nanoTime();
+        long written = -1;
+        while (true) {
+            long now = RedisTotals.countRides(jedis) - ridesBefore;
+            if (now != written) {
+                written = now;
+                lastWrite = System.nanoTime();
+            }
+            if (written >= MetricsRegistry.global().values().getOrDefault("server.publish.confirmed", 0.0)) {
+                return lastWrite;
+            }
+            if (System.nanoTime() - lastWrite > TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MS)) {
+                System.out.println("The consumer stopped making progress; the summary counts what it wrote.");
+                return lastWrite;
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Waits for every partition to be leased to a consumer that is still a member, as they are
+     * once the last join or leave has been rebalanced, and prints how many each one holds.
+     *
+     * @return false if some partition was still free or held by a consumer gone after
+     *         REBALANCE_TIMEOUT_MS
+     */
+    private static boolean checkPartitions(Jedis jedis, int partitions) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REBALANCE_TIMEOUT_MS);
+        while (true) {
+            Set<String> members = jedis.zrangeByScore(RedisLayout.CONSUMERS_KEY, System.currentTimeMillis(), Double.POSITIVE_INFINITY);
+            Map<String, Integer> held = new TreeMap<>();
+            members.forEach(member -> held.put(member, 0));
+            int orphaned = 0;
+            for (int partition = 0; partition < partitions; partition++) {
+                String holder = jedis.get(RedisLayout.partitionLeaseKey(partition));
+                if (holder == null || !held.containsKey(holder)) {
+                    orphaned++;
+                } else {
+                    held.merge(holder, 1, Integer::sum);
+                }
+            }
+            if (orphaned == 0 || System.nanoTime() > deadline) {
+                System.out.println("Partitions held by each of " + members.size() + " consumers: " + held.values());
+                System.out.println("Partition check: " + (orphaned == 0
+                        ? "every partition held by one running consumer"
+                        : "FAILED, " + orphaned + " of " + partitions + " partitions free or held by a consumer gone"));
+                return orphaned == 0;
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * @return true if Redis holds every accepted ride exactly once
+     */
+    private static boolean printSummary(long start, long clientEnd, long lastWrite, RedisTotals written) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        Map<String, Double> values = metrics.values();
+        long accepted = values.getOrDefault("server.publish.confirmed", 0.0).longValue();
+        double seconds = (lastWrite - start) / 1e9;
+
+        System.out.println("Full pipeline");
+        System.out.println("Rides accepted by the server: " + accepted);
+        System.out.println("Rides written to Redis: " + written.rides());
+        System.out.println("Client run (ms): " + TimeUnit.NANOSECONDS.toMillis(clientEnd - start));
+        System.out.println("Consumer caught up (ms after the client finished): "
+                + TimeUnit.NANOSECONDS.toMillis(Math.max(0, lastWrite - clientEnd)));
+        System.out.printf("Throughput, client to Redis (rides/sec): %.1f%n", written.rides() / seconds);
+        printLatency("Lag, server to Redis", metrics.latency("consumer.lag"));
+        printLatency("Publish confirm", metrics.latency("server.publish.confirm"));
+        printLatency("Redis write", metrics.latency("consumer.redis.write"));
+
+        String mismatch = written.mismatch(accepted);
+        System.out.println("Redis check: " + (mismatch == null ? "every accepted ride written once" : "FAILED, " + mismatch));
+        return mismatch == null;
+    }
+
+    private static void printLatency(String label, LatencyRecorder latency) {
+        if (latency == null) {
+            return;
+        }
+        Histogram total = latency.total();
+        System.out.printf("%s (ms): p50 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n", label,
+                LatencyRecorder.millis(total.getValueAtPercentile(50)),
+                LatencyRecorder.millis(total.getValueAtPercentile(99)),
+                LatencyRecorder.millis(total.getValueAtPercentile(99.9)),
+                LatencyRecorder.millis(total.getMaxValue()));
+    }
+}
@@ -0,0 +1,182 @@
+package skiresort.harness;
+
+import com.github.fridujo.rabbitmq.mock.MockChannel;
+import com.github.fridujo.rabbitmq.mock.MockConnectionFactory;
+import com.rabbitmq.client.AddressResolver;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A RabbitMQ connection factory whose connections all go to one in-memory broker in this JVM,
+ * so the servlet publishes to the queue the consumer reads. Selected with the setting
+ * {@code rabbitmq.connection-factory}; host, port and credentials set on it are ignored.
+ * Queues, publisher confirms, prefetch and dead-lettering are emulated; nothing is persisted
+ * or sent over a socket, so broker I/O does not show up in a profile.
+ * <p>
+ * The mock numbers deliveries per channel but settles them by tag across the whole broker,
+ * so with more than one consuming channel an ack or nack can hit another channel's delivery,
+ * and closing a channel leaves its unacked deliveries stranded. Channels are therefore
+ * wrapped the way a real broker behaves: the mock draws every tag from one sequence, each
+ * channel renumbers its deliveries from 1 and maps acks and nacks back, and closing a channel
+ * requeues whatever it still holds unacked.
+ */
+public class InMemoryBroker extends ConnectionFactory {
+
+    private static final MockConnectionFactory BROKER = new MockConnectionFactory();
+    // Delivery tags unique across the broker, replacing each mock channel's own sequence
+    private static final AtomicLong DELIVERY_TAGS = new AtomicLong();
+    private static final Field TAG_SEQUENCE;
+
+    static {
+        try {
+            TAG_SEQUENCE = MockChannel.class.getDeclaredField("deliveryTagSequence");
+            TAG_SEQUENCE.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Every other newConnection overload ends up here
+    @Override
+    public Connection newConnection(ExecutorService executor, AddressResolver addressResolver, String connectionName) {
+        Connection connection = BROKER.newConnection();
+        List<Channel> channels = new CopyOnWriteArrayList<>();
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "createChannel" -> {
+                    Channel channel = (Channel) invoke(connection, method, args);
+                    TAG_SEQUENCE.set(channel, DELIVERY_TAGS);
+                    Channel wrapped = proxy(Channel.class, new RenumberingChannel(channel));
+                    channels.add(wrapped);
+                    return wrapped;
+                }
+                case "close", "abort" -> {
+                    for (Channel channel : channels) {
+                        if (channel.isOpen()) {
+                            channel.abort();
+                        }
+                    }
+                    return invoke(connection, method, args);
+                }
+                default -> {
+                    return invoke(connection, method, args);
+                }
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(InMemoryBroker.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Hands deliveries to the consumer with channel-local tags and settles them under the
+     * broker-wide tags the mock knows them by.
+     */
+    private static final class RenumberingChannel implements InvocationHandler {
+        private final Channel channel;
+        private long lastTag;
+        // Channel-local tag -> broker-wide tag, for every delivery not yet settled
+        private final ConcurrentSkipListMap<Long, Long> unacked = new ConcurrentSkipListMap<>();
+
+        RenumberingChannel(Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "basicConsume" -> {
+                    for (int i = 0; i < args.length; i++) {
+                        if (args[i] instanceof DeliverCallback callback) {
+                            args[i] = renumbering(callback);
+                        }
+                    }
+                }
+                case "basicAck" -> {
+                    for (long tag : settle((long) args[0], (boolean) args[1])) {
+                        channel.basicAck(tag, false);
+                    }
+                    return null;
+                }
+                case "basicNack" -> {
+                    for (long tag : settle((long) args[0], (boolean) args[1])) {
+                        channel.basicNack(tag, false, (boolean) args[2]);
+                    }
+                    return null;
+                }
+                case "basicReject" -> {
+                    for (long tag : settle((long) args[0], false)) {
+                        channel.basicReject(tag, (boolean) args[1]);
+                    }
+                    return null;
+                }
+                case "close", "abort" -> {
+                    // A real broker requeues what a closing channel held unacked
+                    if (channel.isOpen()) {
+                        for (long tag : settle(Long.MAX_VALUE, true)) {
+                            channel.basicNack(tag, false, true);
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+            return InMemoryBroker.invoke(channel, method, args);
+        }
+
+        private DeliverCallback renumbering(DeliverCallback callback) {
+            return (consumerTag, message) -> {
+                Envelope envelope = message.getEnvelope();
+                long tag;
+                synchronized (this) {
+                    tag = ++lastTag;
+                }
+                unacked.put(tag, envelope.getDeliveryTag());
+                callback.handle(consumerTag, new Delivery(
+                        new Envelope(tag, envelope.isRedeliver(), envelope.getExchange(), envelope.getRoutingKey()),
+                        message.getProperties(), message.getBody()));
+            };
+        }
+
+        private List<Long> settle(long tag, boolean multiple) {
+            List<Long> tags = new ArrayList<>();
+            if (multiple) {
+                Map<Long, Long> settled = unacked.headMap(tag, true);
+                tags.addAll(settled.values());
+                settled.clear();
+            } else {
+                Long settled = unacked.remove(tag);
+                if (settled != null) {
+                    tags.add(settled);
+                }
+            }
+            return tags;
+        }
+    }
+}
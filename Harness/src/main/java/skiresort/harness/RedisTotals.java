@@ -0,0 +1,111 @@
+package skiresort.harness;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import skiresort.common.RedisLayout;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Totals over everything the consumer wrote to Redis, to check a run against the rides the
+ * server accepted: ride records, the vertical those records add up to, and the sums of the
+ * day and season vertical hashes. A ride lost or written twice shows as a ride count off from
+ * the accepted count, an increment applied without its record, or the other way round, as
+ * verticals that disagree. Read before and after a run and take the difference when Redis
+ * already held data.
+ */
+public record RedisTotals(long rides, long rideVertical, long dayVertical, long seasonVertical) {
+
+    private static final int SCAN_COUNT = 1000;
+
+    /**
+     * Scans every consumer key; takes a while on a large keyspace.
+     */
+    public static RedisTotals read(Jedis jedis) {
+        long rides = 0;
+        long rideVertical = 0;
+        for (byte[] records : values(jedis, "rides:*", (pipeline, key) -> pipeline.get(key.getBytes()))) {
+            for (int offset = 0; offset + RedisLayout.RIDE_RECORD_LENGTH <= records.length;
+                 offset += RedisLayout.RIDE_RECORD_LENGTH) {
+                rides++;
+                rideVertical += RedisLayout.recordLiftID(records, offset) * 10L;
+            }
+        }
+        return new RedisTotals(rides, rideVertical, hashTotal(jedis, "vertical:*"), hashTotal(jedis, "skier:*:seasons"));
+    }
+
+    /**
+     * @return ride records in Redis, from the lengths of the ride keys alone
+     */
+    public static long countRides(Jedis jedis) {
+        long bytes = 0;
+        for (long length : values(jedis, "rides:*", Pipeline::strlen)) {
+            bytes += length;
+        }
+        return bytes / RedisLayout.RIDE_RECORD_LENGTH;
+    }
+
+    public RedisTotals minus(RedisTotals before) {
+        return new RedisTotals(rides - before.rides, rideVertical - before.rideVertical,
+                dayVertical - before.dayVertical, seasonVertical - before.seasonVertical);
+    }
+
+    /**
+     * @return null if every accepted ride was written once, else what is off
+     */
+    public String mismatch(long accepted) {
+        if (rides != accepted) {
+            return rides < accepted
+                    ? (accepted - rides) + " accepted rides missing from Redis"
+                    : (rides - accepted) + " more rides in Redis than accepted";
+        }
+        if (dayVertical != rideVertical || seasonVertical != rideVertical) {
+            return "Vertical from ride records " + rideVertical + ", day totals " + dayVertical
+                    + ", season totals " + seasonVertical;
+        }
+        return null;
+    }
+
+    private static long hashTotal(Jedis jedis, String pattern) {
+        long total = 0;
+        for (Map<String, String> hash : values(jedis, pattern, Pipeline::hgetAll)) {
+            for (String value : hash.values()) {
+                total += Long.parseLong(value);
+            }
+        }
+        return total;
+    }
+
+    // Runs the command for every key matching the pattern; a scan may return a key twice
+    private static <T> List<T> values(Jedis jedis, String pattern, Command<T> command) {
+        Set<String> keys = new HashSet<>();
+        ScanParams params = new ScanParams().match(pattern).count(SCAN_COUNT);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> page = jedis.scan(cursor, params);
+            keys.addAll(page.getResult());
+            cursor = page.getStringCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<T>> responses = new ArrayList<>();
+        for (String key : keys) {
+            responses.add(command.send(pipeline, key));
+        }
+        pipeline.sync();
+        List<T> values = new ArrayList<>();
+        responses.forEach(response -> values.add(response.get()));
+        return values;
+    }
+
+    private interface Command<T> {
+        Response<T> send(Pipeline pipeline, String key);
+    }
+}
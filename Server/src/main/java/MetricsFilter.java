@@ -0,0 +1,73 @@
+import skiresort.common.LatencyRecorder;
+import skiresort.common.metrics.MetricsRegistry;
+import skiresort.common.metrics.StatusCounts;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every API request from the container handing it over to its response being complete,
+ * per method, and counts responses per status code. Async requests are timed until their
+ * AsyncContext completes, so the worker queue and the publish are included.
+ */
+@WebFilter(urlPatterns = {"/skiers/*", "/resorts/*"}, asyncSupported = true)
+
+public class MetricsFilter extends HttpFilter {
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1); // Longer requests are recorded as this
+
+    private final LatencyRecorder getLatency = new LatencyRecorder(MAX_LATENCY_NANOS);
+    private final LatencyRecorder postLatency = new LatencyRecorder(MAX_LATENCY_NANOS);
+    private final StatusCounts statuses = new StatusCounts();
+
+    @Override
+    public void init() {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.register("server.request.get", getLatency);
+        metrics.register("server.request.post", postLatency);
+        metrics.register("server.response", statuses);
+        metrics.registerMBean("skiresort.server:type=Metrics");
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        long started = System.nanoTime();
+        LatencyRecorder latency = "POST".equals(req.getMethod()) ? postLatency : getLatency;
+        try {
+            chain.doFilter(req, res);
+        } finally {
+            if (req.isAsyncStarted()) {
+                req.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        record(latency, started, ((HttpServletResponse) event.getSuppliedResponse()).getStatus());
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {}
+
+                    @Override
+                    public void onError(AsyncEvent event) {}
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {}
+                });
+            } else {
+                record(latency, started, res.getStatus());
+            }
+        }
+    }
+
+    private void record(LatencyRecorder latency, long started, int status) {
+        latency.recordNanos(System.nanoTime() - started);
+        statuses.record(status);
+    }
+}
@@ -0,0 +1,22 @@
+import skiresort.common.metrics.MetricsRegistry;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * GET /metrics: every metric of this server, one {@code name value} line each, see
+ * {@link MetricsRegistry}. The same values are attributes of {@code skiresort.server:type=Metrics}.
+ */
+@WebServlet("/metrics")
+
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        res.setContentType("text/plain; charset=utf-8");
+        res.getWriter().write(MetricsRegistry.global().render());
+    }
+}
@@ -0,0 +1,89 @@
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisException;
+import skiresort.common.Settings;
+import skiresort.common.metrics.MetricsRegistry;
+import skiresort.server.ApiPath;
+import skiresort.server.CachedSkierStore;
+import skiresort.server.RedisSkierStore;
+import skiresort.server.ResponseStatus;
+import skiresort.server.SkierStore;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+@WebServlet("/resorts/*")
+
+public class ResortServlet extends HttpServlet {
+    private static final String REDIS_HOST = Settings.string("redis.host", "44.227.111.231");
+    private static final int REDIS_PORT = Settings.integer("redis.port", 6379);
+    private static final int REDIS_POOL_SIZE = 16; // Connections shared by GET requests on a cache miss
+
+    private static final int CACHE_MAX_ENTRIES = 10_000;
+    private static final long CACHE_TTL_MS = 1000; // How stale a GET answer may be
+
+    private final Logger logger = Logger.getLogger(ResortServlet.class.getName());
+    private final MetricsRegistry metrics = MetricsRegistry.global();
+    private JedisPool jedisPool;
+    private SkierStore skierStore;
+
+    @Override
+    public void init() throws ServletException {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(REDIS_POOL_SIZE);
+        poolConfig.setMaxIdle(REDIS_POOL_SIZE);
+        jedisPool = new JedisPool(poolConfig, REDIS_HOST, REDIS_PORT);
+        RedisSkierStore redisStore = new RedisSkierStore(jedisPool);
+        metrics.register("server.resorts.redis.pool_wait", redisStore.getPoolWait());
+        CachedSkierStore cachedStore = new CachedSkierStore(redisStore, CACHE_MAX_ENTRIES, CACHE_TTL_MS);
+        cachedStore.registerMBeans("skiresort.server:type=ReadThroughCache,servlet=resorts");
+        skierStore = cachedStore;
+    }
+
+    @Override
+    public void destroy() {
+        if (jedisPool != null) {
+            jedisPool.close();
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
+        res.setContentType("application/json");
+
+        // validate url
+        ApiPath path = new ApiPath();
+        if (!path.parseResortPath(req.getPathInfo())) {
+            res.setStatus(path.getError() == ApiPath.Error.INVALID_NUMBER || path.getError() == ApiPath.Error.OUT_OF_RANGE
+                    ? HttpServletResponse.SC_BAD_REQUEST
+                    : HttpServletResponse.SC_NOT_FOUND);
+            res.getWriter().write("{ \"message\": \"" + path.getErrorMessage() + "\" }");
+            return;
+        }
+
+        // Only the day's unique skiers are backed by data; resorts and their seasons are not stored
+        if (path.getRoute() != ApiPath.Route.RESORT_DAY_SKIERS) {
+            res.setStatus(HttpServletResponse.SC_NOT_IMPLEMENTED);
+            res.getWriter().write("{ \"message\": \"Not implemented.\" }");
+            return;
+        }
+
+        // GET /resorts/{resortID}/seasons/{seasonID}/day/{dayID}/skiers
+        long skiers;
+        try {
+            skiers = skierStore.getUniqueSkiers(path.getResortID(), path.getSeasonID(), path.getDayID());
+        } catch (JedisException e) {
+            logger.warning("Error reading from Redis: " + e.getMessage());
+            ResponseStatus.set(res, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            res.getWriter().write("{ \"message\": \"Server is busy, please retry.\" }");
+            return;
+        }
+        res.setStatus(HttpServletResponse.SC_OK);
+        res.getWriter().write("{ \"resortID\": " + path.getResortID() + ", \"numSkiers\": " + skiers + " }");
+    }
+}
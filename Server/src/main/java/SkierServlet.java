@@ -1,61 +1,569 @@
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ShutdownSignalException;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisException;
+import skiresort.common.LiftRide;
+import skiresort.common.LiftRideJsonCodec;
+import skiresort.common.LiftRideQueue;
+import skiresort.common.RideIdGenerator;
+import skiresort.common.Settings;
+import skiresort.common.WireFormat;
+import skiresort.common.metrics.MetricsRegistry;
+import skiresort.server.ApiPath;
+import skiresort.server.AsyncBodyReader;
+import skiresort.server.BulkRides;
+import skiresort.server.BulkSummary;
+import skiresort.server.CachedSkierStore;
+import skiresort.server.RabbitPublisher;
+import skiresort.server.RedisSkierStore;
+import skiresort.server.ResponseStatus;
+import skiresort.server.RideIdNodeLease;
+import skiresort.server.SkierStore;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
 
-@WebServlet(value = "/skiers/*")
+@WebServlet(value = "/skiers/*", asyncSupported = true)
 
 public class SkierServlet extends HttpServlet {
+    private static final String RABBITMQ_HOST = Settings.string("rabbitmq.host", "54.202.193.198");
+    private static final String RABBITMQ_USERNAME = Settings.string("rabbitmq.username", "ratu");
+    private static final String RABBITMQ_PASSWORD = Settings.string("rabbitmq.password", "548919");
+    private static final int RABBITMQ_PORT = Settings.integer("rabbitmq.port", 5672);
+    private static final String REDIS_HOST = Settings.string("redis.host", "44.227.111.231");
+    private static final int REDIS_PORT = Settings.integer("redis.port", 6379);
+    private static final int PARTITIONS = Settings.integer("rabbitmq.partitions", 0); // Queues rides are spread over by skierID; 0 for lift_ride_queue alone
+    private static final int REDIS_POOL_SIZE = 64; // Connections shared by GET requests on a cache miss
+
+    private static final int CACHE_MAX_ENTRIES = 100_000; // Per query type
+    private static final long CACHE_TTL_MS = 1000; // How stale a GET answer may be
+
+    private static final int CHANNEL_POOL_SIZE = 64; // Channels shared by all request threads
+    private static final int MAX_UNCONFIRMED = 8192; // Published messages still waiting for a broker confirm
+    private static final RabbitPublisher.Backpressure BACKPRESSURE = RabbitPublisher.Backpressure.REJECT;
+    private static final long PUBLISH_TIMEOUT_MS = 50; // Only used by BLOCK mode
+    private static final int RIDE_ID_NODE = Settings.integer("server.node-id", -1); // 0-1023, distinct per server; -1 leases a free one from Redis
+    private static final long RIDE_ID_LEASE_MS = 30_000; // A leased node not renewed for this long is free for another server
+
+    private static final boolean ASYNC_MODE = Settings.flag("server.async", true); // Handle POSTs with AsyncContext instead of on the container thread
+    private static final long ASYNC_TIMEOUT_MS = 5000; // Requests not answered by then get a 503
+    private static final int ASYNC_WORKER_THREADS = 32; // Threads that publish and write async responses
+    private static final int ASYNC_QUEUE_CAPACITY = 4096; // Requests waiting for a worker; beyond this they are shed with 503
+    private static final int MAX_BODY_SIZE = 4096;
+    private static final int MAX_BULK_RIDES = 1000; // Per POST /skiers/bulk; must not exceed MAX_UNCONFIRMED
+    private static final int MAX_BULK_BODY_SIZE = 256 * 1024;
+
+    // Deploy consumers that understand BINARY before switching publishers to it
+    private static final WireFormat WIRE_FORMAT = WireFormat.BINARY;
+
+    private static final AMQP.BasicProperties MESSAGE_PROPERTIES = new AMQP.BasicProperties.Builder()
+            .contentType(WIRE_FORMAT.getContentType())
+            .deliveryMode(2) // persistent
+            .build();
+
+    private final Logger logger = Logger.getLogger(SkierServlet.class.getName());
+    private final MetricsRegistry metrics = MetricsRegistry.global();
+    private Connection connection;
+    private RabbitPublisher publisher;
+    private LongSupplier rideIds;
+    private RideIdNodeLease rideIdLease;
+    private ThreadPoolExecutor asyncExecutor;
+    private JedisPool jedisPool;
+    private SkierStore skierStore;
 
     @Override
-    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
-        res.setContentType("text/plain");
-        String urlPath = req.getPathInfo();
+    public void init() throws ServletException {
+        ConnectionFactory factory = Settings.instance("rabbitmq.connection-factory", ConnectionFactory.class, ConnectionFactory::new);
+        factory.setHost(RABBITMQ_HOST);
+        factory.setPort(RABBITMQ_PORT);
+        factory.setUsername(RABBITMQ_USERNAME);
+        factory.setPassword(RABBITMQ_PASSWORD);
 
-        // check if the url exist
-        if (urlPath == null || urlPath.isEmpty()) {
-            res.setStatus(HttpServletResponse.SC_NOT_FOUND);
-            res.getWriter().write("Missing parameters");
-            return;
+        try {
+            connection = factory.newConnection();
+            try (Channel channel = connection.createChannel()) {
+                channel.exchangeDeclare(LiftRideQueue.DEAD_LETTER_EXCHANGE, BuiltinExchangeType.DIRECT, true);
+                channel.queueDeclare(LiftRideQueue.DEAD_LETTER_QUEUE, true, false, false, null);
+                channel.queueBind(LiftRideQueue.DEAD_LETTER_QUEUE, LiftRideQueue.DEAD_LETTER_EXCHANGE, LiftRideQueue.DEAD_LETTER_QUEUE);
+                channel.queueDeclare(LiftRideQueue.NAME, true, false, false, LiftRideQueue.arguments());
+                // Every partition queue is bound before the first publish; the exchange drops rides it cannot route
+                if (PARTITIONS > 0) {
+                    channel.exchangeDeclare(LiftRideQueue.PARTITION_EXCHANGE, BuiltinExchangeType.DIRECT, true);
+                    for (int partition = 0; partition < PARTITIONS; partition++) {
+                        String queue = LiftRideQueue.partitionQueue(partition);
+                        channel.queueDeclare(queue, true, false, false, LiftRideQueue.arguments());
+                        channel.queueBind(queue, LiftRideQueue.PARTITION_EXCHANGE, LiftRideQueue.partitionKey(partition));
+                    }
+                }
+            }
+            publisher = PARTITIONS > 0
+                    ? new RabbitPublisher(connection, LiftRideQueue.PARTITION_EXCHANGE, LiftRideQueue.partitionKey(0),
+                            MESSAGE_PROPERTIES, CHANNEL_POOL_SIZE, MAX_UNCONFIRMED, BACKPRESSURE, PUBLISH_TIMEOUT_MS)
+                    : new RabbitPublisher(connection, LiftRideQueue.NAME, MESSAGE_PROPERTIES,
+                            CHANNEL_POOL_SIZE, MAX_UNCONFIRMED, BACKPRESSURE, PUBLISH_TIMEOUT_MS);
+            publisher.registerMetrics(metrics, "server.publish");
+        } catch (IOException | TimeoutException e) {
+            throw new ServletException("Unable to connect to RabbitMQ", e);
+        }
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(REDIS_POOL_SIZE);
+        poolConfig.setMaxIdle(REDIS_POOL_SIZE);
+        jedisPool = new JedisPool(poolConfig, REDIS_HOST, REDIS_PORT);
+        RedisSkierStore redisStore = new RedisSkierStore(jedisPool);
+        metrics.register("server.skiers.redis.pool_wait", redisStore.getPoolWait());
+        CachedSkierStore cachedStore = new CachedSkierStore(redisStore, CACHE_MAX_ENTRIES, CACHE_TTL_MS);
+        cachedStore.registerMBeans("skiresort.server:type=ReadThroughCache,servlet=skiers");
+        skierStore = cachedStore;
+
+        if (RIDE_ID_NODE >= 0) {
+            rideIds = new RideIdGenerator(RIDE_ID_NODE)::nextId;
+        } else {
+            try {
+                rideIdLease = new RideIdNodeLease(jedisPool, RIDE_ID_LEASE_MS);
+            } catch (JedisException | IllegalStateException e) {
+                throw new ServletException("Unable to lease a ride ID node from Redis; set server.node-id instead", e);
+            }
+            rideIds = rideIdLease::nextId;
         }
 
-        String[] urlParts = urlPath.split("/");
+        if (ASYNC_MODE) {
+            AtomicInteger threadCount = new AtomicInteger();
+            asyncExecutor = new ThreadPoolExecutor(ASYNC_WORKER_THREADS, ASYNC_WORKER_THREADS,
+                    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(ASYNC_QUEUE_CAPACITY), r -> {
+                        Thread thread = new Thread(r, "skier-async-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            metrics.gauge("server.async.queue_depth", () -> asyncExecutor.getQueue().size());
+            metrics.gauge("server.async.active_workers", asyncExecutor::getActiveCount);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+        try {
+            if (publisher != null) {
+                publisher.close();
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (IOException e) {
+            logger.warning("Error closing RabbitMQ connection: " + e.getMessage());
+        }
+        if (rideIdLease != null) {
+            rideIdLease.close();
+        }
+        if (jedisPool != null) {
+            jedisPool.close();
+        }
+    }
 
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
         // validate url
-        if (!isUrlValid(urlParts)) {
-            res.setStatus(HttpServletResponse.SC_NOT_FOUND);
-            res.getWriter().write("Invalid URL");
+        ApiPath path = new ApiPath();
+        if (!path.parseSkierPath(req.getPathInfo())) {
+            writeResult(res, new ApiResult(
+                    path.getError() == ApiPath.Error.INVALID_NUMBER || path.getError() == ApiPath.Error.OUT_OF_RANGE
+                            ? HttpServletResponse.SC_BAD_REQUEST
+                            : HttpServletResponse.SC_NOT_FOUND,
+                    "{ \"message\": \"" + path.getErrorMessage() + "\" }"));
+            return;
+        }
+
+        ApiResult result;
+        try {
+            result = path.getRoute() == ApiPath.Route.SKIER_DAY_VERTICAL
+                    ? getDayVertical(path)
+                    : getSeasonVertical(path.getSkierID(), req.getParameter("resort"), req.getParameter("season"));
+        } catch (JedisException e) {
+            logger.warning("Error reading from Redis: " + e.getMessage());
+            result = ApiResult.BUSY;
+        }
+        writeResult(res, result);
+    }
+
+    // GET /skiers/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}
+    private ApiResult getDayVertical(ApiPath path) {
+        long vertical = skierStore.getDayVertical(path.getResortID(), path.getSeasonID(), path.getDayID(), path.getSkierID());
+        return vertical == 0 ? ApiResult.NOT_FOUND : new ApiResult(HttpServletResponse.SC_OK, String.valueOf(vertical));
+    }
+
+    // GET /skiers/{skierID}/vertical?resort={resortID}[&season={seasonID}]
+    private ApiResult getSeasonVertical(int skierID, String resort, String season) {
+        if (!isNumberInRange(resort, 1, 10)) {
+            return ApiResult.badRequest("resort must be between 1 and 10.");
+        }
+        Map<Integer, Long> seasons;
+        if (season == null) {
+            seasons = skierStore.getSeasonVerticals(skierID, Integer.parseInt(resort));
+        } else if (isNumberInRange(season, 1, 9999)) {
+            long vertical = skierStore.getSeasonVertical(skierID, Integer.parseInt(resort), Integer.parseInt(season));
+            seasons = vertical == 0 ? Map.of() : Map.of(Integer.parseInt(season), vertical);
         } else {
-            res.setStatus(HttpServletResponse.SC_OK);
-            res.getWriter().write("It works! GET request handled successfully.");
+            return ApiResult.badRequest("season must be a year.");
+        }
+        if (seasons.isEmpty()) {
+            return ApiResult.NOT_FOUND;
+        }
+
+        StringBuilder body = new StringBuilder("{ \"resorts\": [");
+        String separator = " ";
+        for (Map.Entry<Integer, Long> entry : seasons.entrySet()) {
+            body.append(separator)
+                    .append("{ \"seasonID\": \"").append(entry.getKey())
+                    .append("\", \"totalVert\": ").append(entry.getValue()).append(" }");
+            separator = ", ";
         }
+        return new ApiResult(HttpServletResponse.SC_OK, body.append(" ] }").toString());
+    }
+
+    // Turns a complete request body into the response
+    private interface Ingest {
+        ApiResult apply(byte[] body, int length);
     }
 
+    // POST /skiers takes one ride, POST /skiers/bulk a JSON array or NDJSON of up to MAX_BULK_RIDES
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
-        // handle POST
-        res.setContentType("application/json");
-        res.setStatus(HttpServletResponse.SC_CREATED);
-        res.getWriter().write("{ \"status\": \"Lift ride recorded successfully.\" }");
+        boolean bulk = "/bulk".equals(req.getPathInfo());
+        int maxBodySize = bulk ? MAX_BULK_BODY_SIZE : MAX_BODY_SIZE;
+        Ingest ingest = bulk ? this::ingestLiftRides : this::ingestLiftRide;
+        if (ASYNC_MODE) {
+            doPostAsync(req, res, maxBodySize, ingest);
+            return;
+        }
+
+        byte[] body = req.getInputStream().readNBytes(maxBodySize + 1);
+        writeResult(res, body.length > maxBodySize
+                ? ApiResult.badRequest("Request body too large.")
+                : ingest.apply(body, body.length));
     }
 
-    // 验证 URL 的方法
-    private boolean isUrlValid(String[] urlPath) {
-        // example /skiers/{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}
-        if (urlPath.length == 8) {
-            // [ , resortID, seasons, seasonID, days, dayID, skiers, skierID ]
+    /**
+     * Reads the body with a non-blocking ReadListener and publishes on a worker thread, so the
+     * container thread is released as soon as the request is registered. When the worker queue
+     * is full the request is shed with 503 straight away, before its body is read.
+     */
+    private void doPostAsync(HttpServletRequest req, HttpServletResponse res, int maxBodySize, Ingest ingest)
+            throws IOException {
+        if (asyncExecutor.getQueue().remainingCapacity() == 0) {
+            writeResult(res, ApiResult.BUSY);
+            return;
+        }
+
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(ASYNC_TIMEOUT_MS);
+        AsyncResponse response = new AsyncResponse(asyncContext);
+
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (!response.answer(ApiResult.BUSY)) {
+                    // A worker is publishing it; a 503 now would have the client retry a ride that may be in the queue
+                    response.awaitCompletion();
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                if (response.claim()) {
+                    response.complete();
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {}
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {}
+        });
+
+        ServletInputStream input = req.getInputStream();
+        input.setReadListener(new AsyncBodyReader(asyncContext, input, maxBodySize,
+                body -> dispatchAsync(response, body, ingest),
+                error -> {
+                    try {
+                        response.answer(ApiResult.badRequest("Unable to read request body."));
+                    } catch (IOException e) {
+                        logger.warning("Error writing async response: " + e.getMessage());
+                    }
+                }));
+    }
+
+    private void dispatchAsync(AsyncResponse response, AsyncBodyReader.Body body, Ingest ingest) {
+        try {
+            asyncExecutor.execute(() -> {
+                // Claimed before publishing, so a timeout from here on waits for this result instead of answering 503
+                if (!response.claim()) {
+                    return; // Already timed out, don't publish a ride the client was told failed
+                }
+                ApiResult result = ingest.apply(body.bytes(), body.length());
+                try {
+                    response.complete(result);
+                } catch (IOException e) {
+                    logger.warning("Error writing async response: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
             try {
-                Integer.parseInt(urlPath[1]); // resortID
-                Integer.parseInt(urlPath[3]); // seasonID
-                Integer.parseInt(urlPath[5]); // dayID
-                Integer.parseInt(urlPath[7]); // skierID
-                return true;
-            } catch (NumberFormatException e) {
+                response.answer(ApiResult.BUSY);
+            } catch (IOException ex) {
+                logger.warning("Error writing async response: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The response to one async POST. Whoever claims it first (worker, timeout, read error or
+     * container error) writes it; the worker claims it before publishing, so the client is never
+     * told a ride failed once it may have reached the queue.
+     */
+    private final class AsyncResponse {
+        private final AsyncContext asyncContext;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        AsyncResponse(AsyncContext asyncContext) {
+            this.asyncContext = asyncContext;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Claims the response and writes {@code result}.
+         *
+         * @return false if it was already claimed, and nothing was written
+         */
+        boolean answer(ApiResult result) throws IOException {
+            if (!claim()) {
+                return false;
+            }
+            complete(result);
+            return true;
+        }
+
+        // Only by whoever claimed it
+        void complete(ApiResult result) throws IOException {
+            try {
+                writeResult((HttpServletResponse) asyncContext.getResponse(), result);
+            } finally {
+                complete();
+            }
+        }
+
+        void complete() {
+            try {
+                asyncContext.complete();
+            } finally {
+                completed.countDown();
+            }
+        }
+
+        // Bounded by the publisher's own timeouts; this only guards against a worker that never returns
+        void awaitCompletion() {
+            try {
+                if (!completed.await(ASYNC_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    logger.warning("Async request still being published after its timeout.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeResult(HttpServletResponse res, ApiResult result) throws IOException {
+        res.setContentType("application/json");
+        ResponseStatus.set(res, result.status());
+        res.getWriter().write(result.body());
+    }
+
+    /**
+     * @return the routing key that sends the ride to its skier's partition, or to
+     *         lift_ride_queue when rides are not partitioned
+     */
+    private static String routingKey(LiftRide liftRide) {
+        return PARTITIONS > 0
+                ? LiftRideQueue.partitionKey(LiftRideQueue.partitionOf(liftRide.getSkierID(), PARTITIONS))
+                : LiftRideQueue.NAME;
+    }
+
+    /**
+     * Parses, validates and publishes one lift ride.
+     */
+    private ApiResult ingestLiftRide(byte[] body, int length) {
+        LiftRide liftRide;
+        try {
+            liftRide = LiftRideJsonCodec.decode(body, 0, length);
+        } catch (IllegalArgumentException e) {
+            return ApiResult.badRequest("Invalid JSON body.");
+        }
+
+        String error = validateLiftRide(liftRide);
+        if (error != null) {
+            return ApiResult.badRequest(error);
+        }
+
+        long rideID;
+        try {
+            rideID = rideIds.getAsLong();
+        } catch (IllegalStateException e) {
+            // The ride ID node lease could not be renewed, so IDs could clash with another server's
+            return ApiResult.BUSY;
+        }
+
+        boolean published;
+        try {
+            // The ride ID lets consumers drop the ride if it is delivered twice
+            published = publisher.publish(WIRE_FORMAT.encode(liftRide), Long.toString(rideID), routingKey(liftRide));
+        } catch (IOException | ShutdownSignalException e) {
+            logger.warning("Error publishing lift ride: " + e.getMessage());
+            published = false;
+        }
+
+        // Pool saturated or broker unavailable, let the client back off and retry
+        return published ? ApiResult.CREATED : ApiResult.BUSY;
+    }
+
+    /**
+     * Validates the rides of a bulk body one by one as the reader reaches them, and publishes the
+     * valid ones as one batch. Answers 201 if every ride was queued, 200 if some were rejected,
+     * 400 if none could be (the summary says why for each ride), and 503 if the publisher had no
+     * room for the batch, in which case nothing was queued.
+     */
+    private ApiResult ingestLiftRides(byte[] body, int length) {
+        BulkRides rides = new BulkRides(MAX_BULK_RIDES);
+        switch (rides.read(body, length, this::validateLiftRide)) {
+            case MALFORMED:
+                return ApiResult.badRequest("Invalid JSON array or NDJSON body.");
+            case EMPTY:
+                return ApiResult.badRequest("Missing lift rides.");
+            case TOO_MANY:
+                return ApiResult.badRequest("At most " + MAX_BULK_RIDES + " lift rides per request.");
+            default:
+                break;
+        }
+        BulkSummary summary = rides.summary();
+        int count = rides.count();
+        if (count == 0) {
+            return new ApiResult(HttpServletResponse.SC_BAD_REQUEST, summary.toJson());
+        }
+
+        byte[][] messages = new byte[count][];
+        String[] messageIDs = new String[count];
+        String[] routingKeys = new String[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                messages[i] = WIRE_FORMAT.encode(rides.ride(i));
+                messageIDs[i] = Long.toString(rideIds.getAsLong());
+                routingKeys[i] = routingKey(rides.ride(i));
+            }
+        } catch (IllegalStateException e) {
+            // The ride ID node lease could not be renewed; nothing was published yet
+            return ApiResult.BUSY;
+        }
+
+        int published;
+        try {
+            published = publisher.publishBatch(messages, messageIDs, routingKeys, count);
+        } catch (IOException | ShutdownSignalException e) {
+            logger.warning("Error publishing lift rides: " + e.getMessage());
+            published = 0;
+        }
+        if (published == 0) {
+            return ApiResult.BUSY;
+        }
+        summary.accept(published);
+        for (int i = published; i < count; i++) {
+            summary.reject(rides.index(i), HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server is busy, please retry.");
+        }
+        return new ApiResult(summary.getRejected() == 0 ? HttpServletResponse.SC_CREATED : HttpServletResponse.SC_OK,
+                summary.toJson());
+    }
+
+    private record ApiResult(int status, String body) {
+        static final ApiResult CREATED = new ApiResult(HttpServletResponse.SC_CREATED,
+                "{ \"status\": \"Lift ride recorded successfully.\" }");
+        static final ApiResult BUSY = new ApiResult(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "{ \"message\": \"Server is busy, please retry.\" }");
+        static final ApiResult NOT_FOUND = new ApiResult(HttpServletResponse.SC_NOT_FOUND,
+                "{ \"message\": \"Data not found.\" }");
+
+        static ApiResult badRequest(String message) {
+            return new ApiResult(HttpServletResponse.SC_BAD_REQUEST, "{ \"message\": \"" + message + "\" }");
+        }
+    }
+
+    // Returns an error message for an invalid lift ride, or null if it can be queued
+    private String validateLiftRide(LiftRide liftRide) {
+        if (liftRide == null) {
+            return "Missing lift ride.";
+        }
+        if (liftRide.getSkierID() < 1 || liftRide.getSkierID() > 100000) {
+            return "skierID must be between 1 and 100000.";
+        }
+        if (liftRide.getResortID() < 1 || liftRide.getResortID() > 10) {
+            return "resortID must be between 1 and 10.";
+        }
+        if (liftRide.getLiftID() < 1 || liftRide.getLiftID() > 40) {
+            return "liftID must be between 1 and 40.";
+        }
+        if (!isNumberInRange(liftRide.getSeasonID(), 1, 9999)) {
+            return "seasonID must be a year.";
+        }
+        if (!isNumberInRange(liftRide.getDayID(), 1, 366)) {
+            return "dayID must be between 1 and 366.";
+        }
+        if (liftRide.getTime() < 1 || liftRide.getTime() > 360) {
+            return "time must be between 1 and 360.";
+        }
+        return null;
+    }
+
+    // Only canonical decimal numbers, so they survive the binary wire format unchanged
+    private boolean isNumberInRange(String value, int min, int max) {
+        if (value == null || value.isEmpty() || value.length() > 9 || (value.length() > 1 && value.charAt(0) == '0')) {
+            return false;
+        }
+        int number = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
                 return false;
             }
+            number = number * 10 + (c - '0');
         }
-        return false;
+        return number >= min && number <= max;
     }
 }
@@ -0,0 +1,244 @@
+package skiresort.server;
+
+/**
+ * Single-pass matcher for the ski resort API paths.
+ * <p>
+ * The path is walked once, character by character, and the IDs are accumulated straight into
+ * int fields: no {@code split}, no substrings and no exceptions. One instance can be reused for
+ * many parses, which makes matching allocation-free. Paths are the servlet path info, i.e.
+ * relative to {@code /skiers} or {@code /resorts}:
+ * <pre>
+ * /skiers  /{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}   SKIER_DAY_VERTICAL
+ * /skiers  /{skierID}/vertical                                            SKIER_TOTAL_VERTICAL
+ * /resorts (none) or /                                                    RESORTS
+ * /resorts /{resortID}/seasons                                            RESORT_SEASONS
+ * /resorts /{resortID}/seasons/{seasonID}/day/{dayID}/skiers              RESORT_DAY_SKIERS
+ * </pre>
+ */
+public final class ApiPath {
+
+    public enum Route {
+        SKIER_DAY_VERTICAL,
+        SKIER_TOTAL_VERTICAL,
+        RESORTS,
+        RESORT_SEASONS,
+        RESORT_DAY_SKIERS
+    }
+
+    public enum Error {
+        NONE,
+        /** No path info at all where one is required. */
+        MISSING,
+        /** The literal segments do not match any route, or the path ends before an ID. */
+        UNKNOWN_ROUTE,
+        /** An ID segment is empty, not a number or too long. */
+        INVALID_NUMBER,
+        /** An ID is a number but outside the range the API allows. */
+        OUT_OF_RANGE
+    }
+
+    public static final int MIN_DAY = 1;
+    public static final int MAX_DAY = 366;
+
+    // Longest ID accepted, keeps the accumulated value inside an int
+    private static final int MAX_DIGITS = 9;
+
+    private Route route;
+    private Error error = Error.NONE;
+    private int errorIndex;
+
+    private int resortID;
+    private int seasonID;
+    private int dayID;
+    private int skierID;
+
+    // Result of the last parseNumber call
+    private int number;
+
+    /**
+     * Matches a path below {@code /skiers}.
+     *
+     * @return true if the path matched a route; otherwise {@link #getError()} says why
+     */
+    public boolean parseSkierPath(String path) {
+        reset();
+        if (path == null || path.isEmpty() || path.equals("/")) {
+            return fail(Error.MISSING, 0);
+        }
+        if (path.charAt(0) != '/') {
+            return fail(Error.UNKNOWN_ROUTE, 0);
+        }
+
+        int i = parseNumber(path, 1);
+        if (i < 0) {
+            return false;
+        }
+        int first = number;
+
+        // /{skierID}/vertical
+        if (matchesAtEnd(path, i, "/vertical")) {
+            skierID = first;
+            route = Route.SKIER_TOTAL_VERTICAL;
+            return true;
+        }
+
+        // /{resortID}/seasons/{seasonID}/days/{dayID}/skiers/{skierID}
+        resortID = first;
+        if ((i = expect(path, i, "/seasons/")) < 0 || (i = parseNumber(path, i)) < 0) {
+            return false;
+        }
+        seasonID = number;
+        if ((i = expect(path, i, "/days/")) < 0 || (i = parseDay(path, i)) < 0) {
+            return false;
+        }
+        if ((i = expect(path, i, "/skiers/")) < 0 || (i = parseNumber(path, i)) < 0) {
+            return false;
+        }
+        skierID = number;
+        if (i != path.length()) {
+            return fail(Error.UNKNOWN_ROUTE, i);
+        }
+        route = Route.SKIER_DAY_VERTICAL;
+        return true;
+    }
+
+    /**
+     * Matches a path below {@code /resorts}.
+     *
+     * @return true if the path matched a route; otherwise {@link #getError()} says why
+     */
+    public boolean parseResortPath(String path) {
+        reset();
+        if (path == null || path.isEmpty() || path.equals("/")) {
+            route = Route.RESORTS;
+            return true;
+        }
+        if (path.charAt(0) != '/') {
+            return fail(Error.UNKNOWN_ROUTE, 0);
+        }
+
+        int i = parseNumber(path, 1);
+        if (i < 0) {
+            return false;
+        }
+        resortID = number;
+
+        // /{resortID}/seasons
+        if (matchesAtEnd(path, i, "/seasons")) {
+            route = Route.RESORT_SEASONS;
+            return true;
+        }
+
+        // /{resortID}/seasons/{seasonID}/day/{dayID}/skiers
+        if ((i = expect(path, i, "/seasons/")) < 0 || (i = parseNumber(path, i)) < 0) {
+            return false;
+        }
+        seasonID = number;
+        if ((i = expect(path, i, "/day/")) < 0 || (i = parseDay(path, i)) < 0) {
+            return false;
+        }
+        if (!matchesAtEnd(path, i, "/skiers")) {
+            return fail(Error.UNKNOWN_ROUTE, i);
+        }
+        route = Route.RESORT_DAY_SKIERS;
+        return true;
+    }
+
+    public Route getRoute() { return route; }
+    public Error getError() { return error; }
+    /** Index in the path where matching failed. */
+    public int getErrorIndex() { return errorIndex; }
+    public int getResortID() { return resortID; }
+    public int getSeasonID() { return seasonID; }
+    public int getDayID() { return dayID; }
+    public int getSkierID() { return skierID; }
+
+    /**
+     * Human readable description of the last failure, for error responses.
+     */
+    public String getErrorMessage() {
+        switch (error) {
+            case MISSING:
+                return "Missing parameters";
+            case UNKNOWN_ROUTE:
+                return "Invalid URL at position " + errorIndex;
+            case INVALID_NUMBER:
+                return "Invalid ID at position " + errorIndex;
+            case OUT_OF_RANGE:
+                return "dayID must be between " + MIN_DAY + " and " + MAX_DAY;
+            default:
+                return "";
+        }
+    }
+
+    private void reset() {
+        route = null;
+        error = Error.NONE;
+        errorIndex = 0;
+        resortID = seasonID = dayID = skierID = 0;
+    }
+
+    private boolean fail(Error error, int index) {
+        this.error = error;
+        this.errorIndex = index;
+        return false;
+    }
+
+    /**
+     * Reads an unsigned decimal number starting at {@code start} into {@link #number}.
+     *
+     * @return index just past the number, or -1 after recording an error
+     */
+    private int parseNumber(String path, int start) {
+        int value = 0;
+        int i = start;
+        int length = path.length();
+        while (i < length) {
+            char c = path.charAt(i);
+            if (c == '/') {
+                break;
+            }
+            if (c < '0' || c > '9' || i - start >= MAX_DIGITS) {
+                fail(Error.INVALID_NUMBER, start);
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+            i++;
+        }
+        if (i == start) {
+            // Cut short like "/1/seasons/" is a route that does not exist, not a bad ID
+            fail(i == length ? Error.UNKNOWN_ROUTE : Error.INVALID_NUMBER, start);
+            return -1;
+        }
+        number = value;
+        return i;
+    }
+
+    private int parseDay(String path, int start) {
+        int i = parseNumber(path, start);
+        if (i < 0) {
+            return -1;
+        }
+        if (number < MIN_DAY || number > MAX_DAY) {
+            fail(Error.OUT_OF_RANGE, start);
+            return -1;
+        }
+        dayID = number;
+        return i;
+    }
+
+    /**
+     * @return index just past {@code literal} if it occurs at {@code start}, or -1 after recording an error
+     */
+    private int expect(String path, int start, String literal) {
+        if (!path.startsWith(literal, start)) {
+            fail(Error.UNKNOWN_ROUTE, start);
+            return -1;
+        }
+        return start + literal.length();
+    }
+
+    private static boolean matchesAtEnd(String path, int start, String literal) {
+        return path.length() - start == literal.length() && path.startsWith(literal, start);
+    }
+}
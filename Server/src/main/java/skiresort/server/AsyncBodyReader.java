@@ -0,0 +1,68 @@
+package skiresort.server;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Reads a request body with non-blocking I/O, so no container thread waits on a slow client.
+ * Once the whole body has arrived it is handed to {@code onBody}; read errors complete the
+ * request with {@code onError}.
+ */
+public class AsyncBodyReader implements ReadListener {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final ServletInputStream input;
+    private final int maxBodySize;
+    private final Consumer<Body> onBody;
+    private final Consumer<Throwable> onError;
+
+    private byte[] buffer;
+    private int length;
+
+    /**
+     * A request body, valid in {@code bytes[0, length)}.
+     */
+    public record Body(byte[] bytes, int length) {}
+
+    public AsyncBodyReader(AsyncContext asyncContext, ServletInputStream input, int maxBodySize,
+                           Consumer<Body> onBody, Consumer<Throwable> onError) {
+        this.input = input;
+        this.maxBodySize = maxBodySize;
+        this.onBody = onBody;
+        this.onError = onError;
+        int contentLength = asyncContext.getRequest().getContentLength();
+        this.buffer = new byte[contentLength > 0 ? Math.min(contentLength, maxBodySize) : INITIAL_CAPACITY];
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        // Only read while isReady() is true, otherwise read() would block the container thread
+        while (input.isReady() && !input.isFinished()) {
+            if (length == buffer.length) {
+                if (length >= maxBodySize) {
+                    throw new IOException("Request body larger than " + maxBodySize + " bytes");
+                }
+                buffer = Arrays.copyOf(buffer, Math.min(maxBodySize, buffer.length * 2));
+            }
+            int read = input.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+    }
+
+    @Override
+    public void onAllDataRead() {
+        onBody.accept(new Body(buffer, length));
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        onError.accept(t);
+    }
+}
@@ -0,0 +1,80 @@
+package skiresort.server;
+
+import skiresort.common.LiftRide;
+import skiresort.common.LiftRideBatchReader;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.function.Function;
+
+/**
+ * Reads the rides of a bulk body with {@link LiftRideBatchReader} and validates each one as the
+ * reader reaches it. Valid rides are kept with their position in the body, and invalid ones are
+ * rejected with status 400 in the {@link BulkSummary}.
+ */
+public final class BulkRides {
+
+    public enum Result {
+        /** Every item was read; {@link #count()} of them are valid. */
+        READ,
+        /** The body is neither a JSON array nor NDJSON, so items after the fault cannot be found. */
+        MALFORMED,
+        /** The body has no items at all. */
+        EMPTY,
+        /** The body has more than {@code maxRides} items. */
+        TOO_MANY
+    }
+
+    private final int maxRides;
+    private final LiftRide[] rides;
+    private final int[] indexes;
+    private final BulkSummary summary = new BulkSummary();
+    private int count;
+
+    public BulkRides(int maxRides) {
+        this.maxRides = maxRides;
+        this.rides = new LiftRide[maxRides];
+        this.indexes = new int[maxRides];
+    }
+
+    /**
+     * @param validator returns why a ride is invalid, or null if it is valid
+     */
+    public Result read(byte[] body, int length, Function<LiftRide, String> validator) {
+        LiftRideBatchReader reader = new LiftRideBatchReader(body, 0, length);
+        try {
+            while (reader.next()) {
+                if (reader.index() >= maxRides) {
+                    return Result.TOO_MANY;
+                }
+                LiftRide liftRide;
+                try {
+                    liftRide = reader.ride();
+                } catch (IllegalArgumentException e) {
+                    summary.reject(reader.index(), HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON.");
+                    continue;
+                }
+                String error = validator.apply(liftRide);
+                if (error != null) {
+                    summary.reject(reader.index(), HttpServletResponse.SC_BAD_REQUEST, error);
+                    continue;
+                }
+                rides[count] = liftRide;
+                indexes[count++] = reader.index();
+            }
+        } catch (IllegalArgumentException e) {
+            return Result.MALFORMED;
+        }
+        return reader.index() < 0 ? Result.EMPTY : Result.READ;
+    }
+
+    /** Valid rides read. */
+    public int count() { return count; }
+
+    public LiftRide ride(int i) { return rides[i]; }
+
+    /** Position in the body of valid ride {@code i}. */
+    public int index(int i) { return indexes[i]; }
+
+    /** Rides rejected so far; the caller adds what it accepted and any it could not queue. */
+    public BulkSummary summary() { return summary; }
+}
@@ -0,0 +1,33 @@
+package skiresort.server;
+
+/**
+ * The answer to a bulk POST: how many rides were accepted and rejected, and why each rejected
+ * ride was, by its position in the request. Rides not listed under {@code errors} were queued.
+ * <pre>{ "accepted": 998, "rejected": 2, "errors": [ { "index": 3, "status": 400, "message": "liftID must be between 1 and 40." }, ... ] }</pre>
+ * Messages are written as given, so they must not need JSON escaping.
+ */
+public class BulkSummary {
+    private final StringBuilder errors = new StringBuilder();
+    private int accepted;
+    private int rejected;
+
+    public void accept(int count) {
+        accepted += count;
+    }
+
+    public void reject(int index, int status, String message) {
+        errors.append(rejected == 0 ? " " : ", ")
+                .append("{ \"index\": ").append(index)
+                .append(", \"status\": ").append(status)
+                .append(", \"message\": \"").append(message).append("\" }");
+        rejected++;
+    }
+
+    public int getAccepted() { return accepted; }
+    public int getRejected() { return rejected; }
+
+    public String toJson() {
+        return "{ \"accepted\": " + accepted + ", \"rejected\": " + rejected + ", \"errors\": [" + errors
+                + (rejected == 0 ? "] }" : " ] }");
+    }
+}
@@ -0,0 +1,68 @@
+package skiresort.server;
+
+import java.util.Map;
+
+/**
+ * {@link SkierStore} decorator that answers each query from a {@link ReadThroughCache}, so a
+ * burst of identical reads costs one lookup in the underlying store per TTL.
+ */
+public class CachedSkierStore implements SkierStore {
+
+    private record DayVerticalKey(int resortID, int seasonID, int dayID, int skierID) {}
+
+    private record SeasonVerticalKey(int skierID, int resortID, int seasonID) {}
+
+    private record SeasonVerticalsKey(int skierID, int resortID) {}
+
+    private record UniqueSkiersKey(int resortID, int seasonID, int dayID) {}
+
+    private final ReadThroughCache<DayVerticalKey, Long> dayVertical;
+    private final ReadThroughCache<SeasonVerticalKey, Long> seasonVertical;
+    private final ReadThroughCache<SeasonVerticalsKey, Map<Integer, Long>> seasonVerticals;
+    private final ReadThroughCache<UniqueSkiersKey, Long> uniqueSkiers;
+
+    public CachedSkierStore(SkierStore store, int maxEntries, long ttlMillis) {
+        dayVertical = new ReadThroughCache<>(
+                k -> store.getDayVertical(k.resortID(), k.seasonID(), k.dayID(), k.skierID()), maxEntries, ttlMillis);
+        seasonVertical = new ReadThroughCache<>(
+                k -> store.getSeasonVertical(k.skierID(), k.resortID(), k.seasonID()), maxEntries, ttlMillis);
+        seasonVerticals = new ReadThroughCache<>(
+                k -> store.getSeasonVerticals(k.skierID(), k.resortID()), maxEntries, ttlMillis);
+        uniqueSkiers = new ReadThroughCache<>(
+                k -> store.getUniqueSkiers(k.resortID(), k.seasonID(), k.dayID()), maxEntries, ttlMillis);
+    }
+
+    /**
+     * Registers one MBean per query cache, {@code <prefix>,name=<query>}.
+     */
+    public void registerMBeans(String prefix) {
+        dayVertical.registerMBean(prefix + ",name=dayVertical");
+        seasonVertical.registerMBean(prefix + ",name=seasonVertical");
+        seasonVerticals.registerMBean(prefix + ",name=seasonVerticals");
+        uniqueSkiers.registerMBean(prefix + ",name=uniqueSkiers");
+    }
+
+    public ReadThroughCacheMBean getDayVerticalStats() { return dayVertical; }
+    public ReadThroughCacheMBean getSeasonVerticalStats() { return seasonVertical; }
+    public ReadThroughCacheMBean getUniqueSkiersStats() { return uniqueSkiers; }
+
+    @Override
+    public long getDayVertical(int resortID, int seasonID, int dayID, int skierID) {
+        return dayVertical.get(new DayVerticalKey(resortID, seasonID, dayID, skierID));
+    }
+
+    @Override
+    public long getSeasonVertical(int skierID, int resortID, int seasonID) {
+        return seasonVertical.get(new SeasonVerticalKey(skierID, resortID, seasonID));
+    }
+
+    @Override
+    public Map<Integer, Long> getSeasonVerticals(int skierID, int resortID) {
+        return seasonVerticals.get(new SeasonVerticalsKey(skierID, resortID));
+    }
+
+    @Override
+    public long getUniqueSkiers(int resortID, int seasonID, int dayID) {
+        return uniqueSkiers.get(new UniqueSkiersKey(resortID, seasonID, dayID));
+    }
+}
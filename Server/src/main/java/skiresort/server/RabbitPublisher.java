@@ -0,0 +1,445 @@
+package skiresort.server;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+import skiresort.common.LatencyRecorder;
+import skiresort.common.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Publishes messages to one queue, or through one exchange with a routing key per message,
+ * through a bounded pool of channels in confirm mode.
+ * <p>
+ * A publish only writes the frame and records the message as outstanding; the broker's
+ * confirms (usually {@code multiple=true}) are settled asynchronously on the connection thread,
+ * so a request thread never waits for a broker round trip. Nacked messages, and messages
+ * still outstanding on a channel that shuts down, are republished in the background.
+ */
+public class RabbitPublisher implements AutoCloseable {
+
+    /**
+     * What to do when every channel is busy or too many messages are unconfirmed.
+     */
+    public enum Backpressure {
+        /** Fail the publish immediately, so the caller can answer 503. */
+        REJECT,
+        /** Wait up to the configured timeout for capacity, then fail. */
+        BLOCK
+    }
+
+    private static final long REPUBLISH_INTERVAL_MS = 100;
+    private static final long MAX_CONFIRM_NANOS = TimeUnit.MINUTES.toNanos(1);  // Longer confirms are recorded as this
+    private static final long CLOSE_CONFIRM_TIMEOUT_MS = 5000;  // How long close waits for the confirms of all channels
+
+    private final Connection connection;
+    private final String exchange;
+    private final String routingKey;
+    private final AMQP.BasicProperties properties;
+    private final Backpressure backpressure;
+    private final long blockTimeoutMillis;
+
+    private final BlockingQueue<PooledChannel> idleChannels;
+    private final Semaphore unconfirmedPermits;
+    private final Queue<Message> republishQueue = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService republisher;
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong confirmedCount = new AtomicLong();
+    private final AtomicLong nackedCount = new AtomicLong();
+    private final AtomicLong orphanedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final LatencyRecorder confirmLatency = new LatencyRecorder(MAX_CONFIRM_NANOS);
+
+    private final Logger logger = Logger.getLogger(RabbitPublisher.class.getName());
+
+    /**
+     * @param connection          open connection the channels are created on
+     * @param queueName           queue to publish to through the default exchange
+     * @param properties          properties sent with every message
+     * @param poolSize            number of channels in the pool
+     * @param maxUnconfirmed      upper bound on messages published but not yet confirmed
+     * @param backpressure        behaviour when the pool is saturated
+     * @param blockTimeoutMillis  how long {@link Backpressure#BLOCK} waits for capacity
+     */
+    public RabbitPublisher(Connection connection, String queueName, AMQP.BasicProperties properties,
+                           int poolSize, int maxUnconfirmed, Backpressure backpressure,
+                           long blockTimeoutMillis) throws IOException {
+        this(connection, "", queueName, properties, poolSize, maxUnconfirmed, backpressure, blockTimeoutMillis);
+    }
+
+    /**
+     * @param exchange   exchange to publish to
+     * @param routingKey routing key of messages published without one of their own
+     * @see #RabbitPublisher(Connection, String, AMQP.BasicProperties, int, int, Backpressure, long)
+     */
+    public RabbitPublisher(Connection connection, String exchange, String routingKey, AMQP.BasicProperties properties,
+                           int poolSize, int maxUnconfirmed, Backpressure backpressure,
+                           long blockTimeoutMillis) throws IOException {
+        this.connection = connection;
+        this.exchange = exchange;
+        this.routingKey = routingKey;
+        this.properties = properties;
+        this.backpressure = backpressure;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.idleChannels = new ArrayBlockingQueue<>(poolSize);
+        this.unconfirmedPermits = new Semaphore(maxUnconfirmed);
+
+        for (int i = 0; i < poolSize; i++) {
+            idleChannels.add(new PooledChannel(connection.createChannel()));
+        }
+
+        republisher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rabbit-republisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        republisher.scheduleWithFixedDelay(this::republishPending,
+                REPUBLISH_INTERVAL_MS, REPUBLISH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Publishes a message using the configured backpressure mode.
+     *
+     * @return true if the message was handed to the broker, false if the pool is saturated
+     * @throws IOException                if the broker connection fails while publishing
+     * @throws ShutdownSignalException    if the channel or connection is closed, e.g. by an
+     *                                    {@link com.rabbitmq.client.AlreadyClosedException};
+     *                                    the publisher's capacity is given back either way
+     */
+    public boolean publish(byte[] body) throws IOException {
+        return publish(new Message(routingKey, body, properties), backpressure == Backpressure.BLOCK ? blockTimeoutMillis : 0);
+    }
+
+    /**
+     * Publishes a message with the given AMQP {@code message_id}, which is kept if the message
+     * has to be republished.
+     *
+     * @see #publish(byte[])
+     */
+    public boolean publish(byte[] body, String messageId) throws IOException {
+        return publish(body, messageId, routingKey);
+    }
+
+    /**
+     * Publishes a message with the given AMQP {@code message_id} and routing key, both kept if
+     * the message has to be republished.
+     *
+     * @see #publish(byte[])
+     */
+    public boolean publish(byte[] body, String messageId, String routingKey) throws IOException {
+        return publish(new Message(routingKey, body, properties.builder().messageId(messageId).build()),
+                backpressure == Backpressure.BLOCK ? blockTimeoutMillis : 0);
+    }
+
+    private boolean publish(Message message, long timeoutMillis) throws IOException {
+        if (!acquire(timeoutMillis)) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+
+        PooledChannel pooled;
+        try {
+            pooled = borrow(timeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            unconfirmedPermits.release();
+            throw e;
+        }
+        if (pooled == null) {
+            unconfirmedPermits.release();
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+
+        try {
+            pooled.publish(message);
+            publishedCount.incrementAndGet();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            unconfirmedPermits.release();
+            throw e;
+        } finally {
+            giveBack(pooled);
+        }
+    }
+
+    /**
+     * Publishes {@code bodies[0, count)}, each with its AMQP {@code message_id}, back to back on
+     * one channel. Capacity for all of them is reserved up front, so a saturated pool rejects
+     * the whole batch rather than part of it; {@code count} must not exceed the
+     * {@code maxUnconfirmed} the publisher was created with.
+     *
+     * @return how many messages, from the start, were handed to the broker: {@code count}, 0 if the
+     *         pool is saturated, or fewer if the connection failed part way through the batch
+     * @throws IOException             if the broker connection fails before any message is published
+     * @throws ShutdownSignalException if the channel or connection is closed before then
+     */
+    public int publishBatch(byte[][] bodies, String[] messageIds, int count) throws IOException {
+        return publishBatch(bodies, messageIds, null, count);
+    }
+
+    /**
+     * Like {@link #publishBatch(byte[][], String[], int)}, with {@code routingKeys[i]} as the
+     * routing key of message i.
+     *
+     * @param routingKeys null to publish every message with the publisher's routing key
+     */
+    public int publishBatch(byte[][] bodies, String[] messageIds, String[] routingKeys, int count) throws IOException {
+        long timeoutMillis = backpressure == Backpressure.BLOCK ? blockTimeoutMillis : 0;
+        if (!acquire(count, timeoutMillis)) {
+            rejectedCount.addAndGet(count);
+            return 0;
+        }
+
+        PooledChannel pooled;
+        try {
+            pooled = borrow(timeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            unconfirmedPermits.release(count);
+            throw e;
+        }
+        if (pooled == null) {
+            unconfirmedPermits.release(count);
+            rejectedCount.addAndGet(count);
+            return 0;
+        }
+
+        int published = 0;
+        try {
+            for (; published < count; published++) {
+                pooled.publish(new Message(routingKeys == null ? routingKey : routingKeys[published], bodies[published],
+                        properties.builder().messageId(messageIds[published]).build()));
+            }
+        } catch (IOException | RuntimeException e) {
+            if (published == 0) {
+                throw e;
+            }
+            logger.warning("Batch publish failed after " + published + " of " + count + " messages: " + e.getMessage());
+        } finally {
+            unconfirmedPermits.release(count - published);
+            publishedCount.addAndGet(published);
+            giveBack(pooled);
+        }
+        return published;
+    }
+
+    public long getPublishedCount() { return publishedCount.get(); }
+    public long getConfirmedCount() { return confirmedCount.get(); }
+    public long getNackedCount() { return nackedCount.get(); }
+    /** Messages left unconfirmed on a channel that shut down, and queued for republishing. */
+    public long getOrphanedCount() { return orphanedCount.get(); }
+    public long getRejectedCount() { return rejectedCount.get(); }
+
+    /**
+     * @return time from publishing a message to the broker confirming it; nacked and republished
+     *         messages are timed from their last publish
+     */
+    public LatencyRecorder getConfirmLatency() { return confirmLatency; }
+
+    /**
+     * @return number of messages published but not yet confirmed by the broker; a republished
+     *         message is counted once per publish, so nacked and orphaned ones are taken out
+     */
+    public long getUnconfirmedCount() {
+        return publishedCount.get() - confirmedCount.get() - nackedCount.get() - orphanedCount.get();
+    }
+
+    /**
+     * Adds confirm latency and the publish counts to {@code registry}, named from {@code prefix}.
+     */
+    public void registerMetrics(MetricsRegistry registry, String prefix) {
+        registry.register(prefix + ".confirm", confirmLatency);
+        registry.gauge(prefix + ".published", publishedCount::get);
+        registry.gauge(prefix + ".confirmed", confirmedCount::get);
+        registry.gauge(prefix + ".nacked", nackedCount::get);
+        registry.gauge(prefix + ".orphaned", orphanedCount::get);
+        registry.gauge(prefix + ".rejected", rejectedCount::get);
+        registry.gauge(prefix + ".unconfirmed", this::getUnconfirmedCount);
+    }
+
+    @Override
+    public void close() throws IOException {
+        republisher.shutdown();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_CONFIRM_TIMEOUT_MS);
+        PooledChannel pooled;
+        while ((pooled = idleChannels.poll()) != null) {
+            try {
+                // Give in-flight confirms a chance to arrive before the channel goes away; a timeout of 0 would wait forever
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                pooled.channel.waitForConfirms(Math.max(1, remainingMillis));
+                pooled.channel.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (TimeoutException | IOException e) {
+                logger.warning("Error closing publisher channel: " + e.getMessage());
+            }
+        }
+        if (!republishQueue.isEmpty()) {
+            logger.severe("Dropping " + republishQueue.size() + " messages that could not be republished.");
+        }
+    }
+
+    private boolean acquire(long timeoutMillis) {
+        return acquire(1, timeoutMillis);
+    }
+
+    private boolean acquire(int permits, long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            return unconfirmedPermits.tryAcquire(permits);
+        }
+        try {
+            return unconfirmedPermits.tryAcquire(permits, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private PooledChannel borrow(long timeoutMillis) throws IOException {
+        PooledChannel pooled;
+        if (timeoutMillis <= 0) {
+            pooled = idleChannels.poll();
+        } else {
+            try {
+                pooled = idleChannels.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (pooled != null && !pooled.channel.isOpen()) {
+            // The old channel's outstanding messages were queued for republishing when it shut down
+            try {
+                Channel channel = connection.createChannel();
+                if (channel == null) {
+                    throw new IOException("No channel number left on the connection");
+                }
+                pooled = new PooledChannel(channel);
+            } catch (IOException | RuntimeException e) {
+                // Keeps the slot; the next borrow tries to reopen it
+                idleChannels.offer(pooled);
+                throw e;
+            }
+        }
+        return pooled;
+    }
+
+    private void giveBack(PooledChannel pooled) {
+        idleChannels.offer(pooled);
+    }
+
+    /**
+     * Retries nacked and orphaned messages without ever blocking the republisher thread.
+     */
+    private void republishPending() {
+        Message message;
+        while ((message = republishQueue.peek()) != null) {
+            try {
+                if (!publish(message, 0)) {
+                    return; // Saturated, try again on the next tick
+                }
+                republishQueue.poll();
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Republish failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private record Message(String routingKey, byte[] body, AMQP.BasicProperties properties) {}
+
+    // A message on a channel waiting for its confirm
+    private record Pending(Message message, long publishedNanos) {}
+
+    /**
+     * A channel in confirm mode together with the messages it has not had confirmed yet,
+     * keyed by publish sequence number.
+     */
+    private final class PooledChannel implements ConfirmListener {
+        private final Channel channel;
+        private final ConcurrentNavigableMap<Long, Pending> outstanding = new ConcurrentSkipListMap<>();
+
+        PooledChannel(Channel channel) throws IOException {
+            this.channel = channel;
+            channel.confirmSelect();
+            channel.addConfirmListener(this);
+            channel.addShutdownListener(cause -> {
+                int orphaned = drain(outstanding, true);
+                orphanedCount.addAndGet(orphaned);
+                if (orphaned > 0) {
+                    logger.warning("Channel closed with " + orphaned + " unconfirmed messages, republishing them.");
+                }
+            });
+        }
+
+        void publish(Message message) throws IOException {
+            long sequenceNumber = channel.getNextPublishSeqNo();
+            outstanding.put(sequenceNumber, new Pending(message, System.nanoTime()));
+            try {
+                channel.basicPublish(exchange, message.routingKey(), message.properties(), message.body());
+            } catch (IOException | RuntimeException e) {
+                if (outstanding.remove(sequenceNumber) == null) {
+                    return;  // The shutdown listener took it over, freed its permit and republishes it
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void handleAck(long deliveryTag, boolean multiple) {
+            confirmedCount.addAndGet(drain(settled(deliveryTag, multiple), false));
+        }
+
+        @Override
+        public void handleNack(long deliveryTag, boolean multiple) {
+            nackedCount.addAndGet(drain(settled(deliveryTag, multiple), true));
+        }
+
+        private Map<Long, Pending> settled(long deliveryTag, boolean multiple) {
+            return multiple
+                    ? outstanding.headMap(deliveryTag, true)
+                    : outstanding.subMap(deliveryTag, true, deliveryTag, true);
+        }
+
+        /**
+         * Removes the given messages from this channel and frees their permits, then either
+         * queues them for republishing or records their confirm latency. Safe to race with the
+         * other confirm and shutdown paths because only the caller that actually removes an
+         * entry counts it.
+         */
+        private int drain(Map<Long, Pending> messages, boolean republish) {
+            int count = 0;
+            long now = System.nanoTime();
+            for (Map.Entry<Long, Pending> entry : messages.entrySet()) {
+                Pending pending = outstanding.remove(entry.getKey());
+                if (pending != null) {
+                    if (republish) {
+                        republishQueue.add(pending.message());
+                    } else {
+                        confirmLatency.recordNanos(now - pending.publishedNanos());
+                    }
+                    count++;
+                }
+            }
+            unconfirmedPermits.release(count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package skiresort.server;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * In-process cache in front of a slow lookup, bounded by entry count and time to live.
+ * <p>
+ * Concurrent misses on the same key are coalesced: the first request installs a pending entry
+ * and runs the loader, every other request for that key waits on the same future, so a burst
+ * of reads for one key costs one load. Failed loads are not cached. When the cache grows past
+ * {@code maxEntries}, expired entries are dropped first, then arbitrary loaded ones.
+ */
+public final class ReadThroughCache<K, V> implements ReadThroughCacheMBean {
+
+    private static final class Entry<V> {
+        final CompletableFuture<V> value = new CompletableFuture<>();
+        // Written before the future completes, so a completed entry always has it
+        volatile long loadedAtNanos;
+    }
+
+    private final Function<? super K, ? extends V> loader;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    public ReadThroughCache(Function<? super K, ? extends V> loader, int maxEntries, long ttlMillis) {
+        this.loader = loader;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Returns the cached value for {@code key}, loading it if it is missing or expired.
+     * Exceptions thrown by the loader are rethrown to every request waiting on that load.
+     */
+    public V get(K key) {
+        long now = System.nanoTime();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && isFresh(entry, now)) {
+            return await(entry);
+        }
+
+        Entry<V> pending = new Entry<>();
+        Entry<V> winner = entries.compute(key, (k, current) ->
+                current != null && isFresh(current, now) ? current : pending);
+        if (winner != pending) {
+            return await(winner);
+        }
+
+        misses.increment();
+        if (entries.size() > maxEntries) {
+            evict(now);
+        }
+        long start = System.nanoTime();
+        try {
+            V value = loader.apply(key);
+            pending.loadedAtNanos = System.nanoTime();
+            pending.value.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            entries.remove(key, pending);
+            pending.value.completeExceptionally(e);
+            loadFailures.increment();
+            throw e;
+        } finally {
+            loadNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Drops {@code key}, so the next lookup loads it again.
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@code name}.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            Logger.getLogger(ReadThroughCache.class.getName()).warning("Unable to register " + name + ": " + e.getMessage());
+        }
+    }
+
+    // Pending entries are always fresh: joining them is what coalesces the burst
+    private boolean isFresh(Entry<V> entry, long now) {
+        return !entry.value.isDone() || now - entry.loadedAtNanos < ttlNanos;
+    }
+
+    private V await(Entry<V> entry) {
+        if (entry.value.isDone()) {
+            hits.increment();
+        } else {
+            coalesced.increment();
+        }
+        try {
+            return entry.value.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void evict(long now) {
+        // One request does the sweep, the others carry on
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Iterator<Entry<V>> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (!isFresh(it.next(), now)) {
+                    it.remove();
+                    evictions.increment();
+                }
+            }
+            // Still full of live entries: make some room, keeping in-flight loads
+            int target = maxEntries - maxEntries / 10;
+            it = entries.values().iterator();
+            while (entries.size() > target && it.hasNext()) {
+                if (it.next().value.isDone()) {
+                    it.remove();
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    @Override
+    public long getHitCount() { return hits.sum(); }
+
+    @Override
+    public long getMissCount() { return misses.sum(); }
+
+    @Override
+    public long getCoalescedCount() { return coalesced.sum(); }
+
+    @Override
+    public double getHitRate() {
+        long served = hits.sum() + coalesced.sum();
+        long total = served + misses.sum();
+        return total == 0 ? 0 : served / (double) total;
+    }
+
+    @Override
+    public long getLoadFailureCount() { return loadFailures.sum(); }
+
+    @Override
+    public long getEvictionCount() { return evictions.sum(); }
+
+    @Override
+    public double getAverageLoadMillis() {
+        long loads = misses.sum();
+        return loads == 0 ? 0 : loadNanos.sum() / (double) loads / 1_000_000.0;
+    }
+
+    @Override
+    public int getSize() { return entries.size(); }
+}
@@ -0,0 +1,19 @@
+package skiresort.server;
+
+/**
+ * JMX view of a {@link ReadThroughCache}.
+ */
+public interface ReadThroughCacheMBean {
+    /** Lookups answered from a loaded entry. */
+    long getHitCount();
+    /** Lookups that started a load. */
+    long getMissCount();
+    /** Lookups that waited for a load another request had already started. */
+    long getCoalescedCount();
+    /** Share of lookups that did not start a load. */
+    double getHitRate();
+    long getLoadFailureCount();
+    long getEvictionCount();
+    double getAverageLoadMillis();
+    int getSize();
+}
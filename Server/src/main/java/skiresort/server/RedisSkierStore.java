@@ -0,0 +1,82 @@
+package skiresort.server;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import skiresort.common.LatencyRecorder;
+import skiresort.common.RedisLayout;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SkierStore} over the Redis layout described in {@link RedisLayout}. Every query reads
+ * one key the consumer keeps up to date: the day and season verticals are a single HGET, the
+ * unique skier count a PFCOUNT, and all seasons of a skier an HGETALL over that skier's
+ * resort/season fields. The time spent waiting for a pool connection is recorded in
+ * {@link #getPoolWait()}.
+ */
+public class RedisSkierStore implements SkierStore {
+
+    private static final long MAX_POOL_WAIT_NANOS = TimeUnit.MINUTES.toNanos(1);  // Longer waits are recorded as this
+
+    private final JedisPool jedisPool;
+    private final LatencyRecorder poolWait = new LatencyRecorder(MAX_POOL_WAIT_NANOS);
+
+    public RedisSkierStore(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    @Override
+    public long getDayVertical(int resortID, int seasonID, int dayID, int skierID) {
+        try (Jedis jedis = borrow()) {
+            return parseLong(jedis.hget(RedisLayout.dayVerticalKey(resortID, seasonID, dayID), String.valueOf(skierID)));
+        }
+    }
+
+    @Override
+    public long getSeasonVertical(int skierID, int resortID, int seasonID) {
+        try (Jedis jedis = borrow()) {
+            return parseLong(jedis.hget(RedisLayout.seasonVerticalKey(skierID),
+                    RedisLayout.seasonVerticalField(resortID, seasonID)));
+        }
+    }
+
+    @Override
+    public Map<Integer, Long> getSeasonVerticals(int skierID, int resortID) {
+        Map<String, String> fields;
+        try (Jedis jedis = borrow()) {
+            fields = jedis.hgetAll(RedisLayout.seasonVerticalKey(skierID));
+        }
+
+        // Fields are {resortID}:{seasonID}
+        String prefix = resortID + ":";
+        Map<Integer, Long> seasons = new TreeMap<>();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (field.getKey().startsWith(prefix)) {
+                seasons.put(Integer.parseInt(field.getKey().substring(prefix.length())), parseLong(field.getValue()));
+            }
+        }
+        return seasons;
+    }
+
+    @Override
+    public long getUniqueSkiers(int resortID, int seasonID, int dayID) {
+        try (Jedis jedis = borrow()) {
+            return jedis.pfcount(RedisLayout.uniqueSkiersKey(resortID, seasonID, dayID));
+        }
+    }
+
+    public LatencyRecorder getPoolWait() { return poolWait; }
+
+    private Jedis borrow() {
+        long started = System.nanoTime();
+        Jedis jedis = jedisPool.getResource();
+        poolWait.recordNanos(System.nanoTime() - started);
+        return jedis;
+    }
+
+    private static long parseLong(String value) {
+        return value == null ? 0 : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,24 @@
+package skiresort.server;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sets a response's status the same way for every servlet, so a client backs off alike
+ * whichever endpoint told it to.
+ */
+public final class ResponseStatus {
+
+    public static final int RETRY_AFTER_SECONDS = 1; // Sent with every 503 so clients back off instead of retrying at once
+
+    private ResponseStatus() {}
+
+    /**
+     * Sets {@code status}, and {@code Retry-After} if it is 503.
+     */
+    public static void set(HttpServletResponse res, int status) {
+        res.setStatus(status);
+        if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+            res.setIntHeader("Retry-After", RETRY_AFTER_SECONDS);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package skiresort.server;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisException;
+import skiresort.common.RedisLayout;
+import skiresort.common.RideIdGenerator;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Hands out ride IDs under a node leased from Redis, so servers that were not given a node of
+ * their own never share one. Two servers on one node would produce the same ride IDs, and the
+ * consumer would then drop real rides as redeliveries.
+ * <p>
+ * The node is the first free {@code ride-id-node} key, taken with {@code SET NX PX} and
+ * renewed every third of {@code leaseMillis}. If a renewal finds the lease gone, because Redis
+ * could not be reached for a whole lease and another server took the node, a free node is
+ * leased and IDs continue under it. Renewing and releasing check the holder in a Lua script,
+ * so a server cannot extend or delete another's lease.
+ * <p>
+ * While Redis cannot be reached the lease cannot be confirmed, and another server may take the
+ * node once it runs out. So {@link #nextId} stops handing out IDs a third of a lease before
+ * that could happen, and starts again once a renewal gets through.
+ */
+public class RideIdNodeLease implements AutoCloseable {
+
+    private static final String RENEW_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end return 0";
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0";
+
+    private final JedisPool jedisPool;
+    private final long leaseMillis;
+    private final String holder = UUID.randomUUID().toString();
+    private final ScheduledExecutorService renewer;
+    private final Logger logger = Logger.getLogger(RideIdNodeLease.class.getName());
+
+    private volatile int node;
+    private volatile RideIdGenerator rideIds;
+    // System.nanoTime() after which the lease may have run out, unless renewed before then
+    private volatile long validUntilNanos;
+
+    /**
+     * Leases a node and starts renewing it.
+     *
+     * @throws JedisException        if Redis cannot be reached
+     * @throws IllegalStateException if every node is leased
+     */
+    public RideIdNodeLease(JedisPool jedisPool, long leaseMillis) {
+        this.jedisPool = jedisPool;
+        this.leaseMillis = leaseMillis;
+        try (Jedis jedis = jedisPool.getResource()) {
+            lease(jedis);
+        }
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ride-id-node-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renewer.scheduleWithFixedDelay(this::renew, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @throws IllegalStateException if the lease has gone unconfirmed for so long that another
+     *                               server could hold the node by now
+     */
+    public long nextId() {
+        if (System.nanoTime() - validUntilNanos > 0) {
+            throw new IllegalStateException("Lease on ride ID node " + node + " could not be renewed");
+        }
+        return rideIds.nextId();
+    }
+
+    public int node() {
+        return node;
+    }
+
+    // Starts at a random node, so servers starting together rarely race for the same one
+    private void lease(Jedis jedis) {
+        int first = ThreadLocalRandom.current().nextInt(RideIdGenerator.MAX_NODE + 1);
+        for (int i = 0; i <= RideIdGenerator.MAX_NODE; i++) {
+            int candidate = (first + i) & RideIdGenerator.MAX_NODE;
+            long sent = System.nanoTime();
+            if ("OK".equals(jedis.set(RedisLayout.rideIdNodeKey(candidate), holder, "NX", "PX", leaseMillis))) {
+                rideIds = new RideIdGenerator(candidate);
+                node = candidate;
+                confirmed(sent);
+                logger.info("Leased ride ID node " + candidate + ".");
+                return;
+            }
+        }
+        throw new IllegalStateException("Every ride ID node is leased");
+    }
+
+    private void renew() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            long sent = System.nanoTime();
+            Object renewed = jedis.eval(RENEW_SCRIPT, List.of(RedisLayout.rideIdNodeKey(node)),
+                    List.of(holder, Long.toString(leaseMillis)));
+            if (Long.valueOf(1).equals(renewed)) {
+                confirmed(sent);
+            } else {
+                logger.warning("Lease on ride ID node " + node + " ran out; leasing another.");
+                lease(jedis);
+            }
+        } catch (JedisException | IllegalStateException e) {
+            // Retried on the next tick; nextId stops before the lease can run out
+            logger.warning("Unable to renew ride ID node " + node + ": " + e.getMessage());
+        }
+    }
+
+    // The lease runs leaseMillis from when Redis got the command, which is no earlier than sentNanos
+    private void confirmed(long sentNanos) {
+        validUntilNanos = sentNanos + TimeUnit.MILLISECONDS.toNanos(leaseMillis - leaseMillis / 3);
+    }
+
+    /**
+     * Stops renewing and frees the node for another server.
+     */
+    @Override
+    public void close() {
+        renewer.shutdown();
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.eval(RELEASE_SCRIPT, List.of(RedisLayout.rideIdNodeKey(node)), List.of(holder));
+        } catch (JedisException e) {
+            logger.warning("Unable to release ride ID node " + node + ", it frees itself once the lease runs out: "
+                    + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package skiresort.server;
+
+import java.util.Map;
+
+/**
+ * Read side of the data the consumer writes: the queries behind the skier and resort GET
+ * endpoints. Implementations may throw unchecked exceptions when the store is unreachable.
+ */
+public interface SkierStore {
+
+    /**
+     * @return vertical the skier rode at the resort on that day, or 0 if there are no rides
+     */
+    long getDayVertical(int resortID, int seasonID, int dayID, int skierID);
+
+    /**
+     * @return vertical the skier rode at the resort over the season, or 0 if there are no rides
+     */
+    long getSeasonVertical(int skierID, int resortID, int seasonID);
+
+    /**
+     * @return vertical the skier rode at the resort in each season with rides, by seasonID
+     */
+    Map<Integer, Long> getSeasonVerticals(int skierID, int resortID);
+
+    /**
+     * @return number of distinct skiers with a ride at the resort on that day
+     */
+    long getUniqueSkiers(int resortID, int seasonID, int dayID);
+}
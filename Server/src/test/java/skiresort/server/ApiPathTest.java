@@ -0,0 +1,155 @@
+package skiresort.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The servlets answer 400 for {@link ApiPath.Error#INVALID_NUMBER} and
+ * {@link ApiPath.Error#OUT_OF_RANGE}, and 404 for the other errors.
+ */
+class ApiPathTest {
+
+    private final ApiPath path = new ApiPath();
+
+    @Test
+    void skierDayVertical() {
+        assertTrue(path.parseSkierPath("/12/seasons/2024/days/366/skiers/123456789"));
+        assertEquals(ApiPath.Route.SKIER_DAY_VERTICAL, path.getRoute());
+        assertEquals(12, path.getResortID());
+        assertEquals(2024, path.getSeasonID());
+        assertEquals(366, path.getDayID());
+        assertEquals(123456789, path.getSkierID());
+        assertEquals(ApiPath.Error.NONE, path.getError());
+    }
+
+    @Test
+    void skierTotalVertical() {
+        assertTrue(path.parseSkierPath("/42/vertical"));
+        assertEquals(ApiPath.Route.SKIER_TOTAL_VERTICAL, path.getRoute());
+        assertEquals(42, path.getSkierID());
+    }
+
+    @Test
+    void resortRoutes() {
+        assertTrue(path.parseResortPath(null));
+        assertEquals(ApiPath.Route.RESORTS, path.getRoute());
+        assertTrue(path.parseResortPath("/"));
+        assertEquals(ApiPath.Route.RESORTS, path.getRoute());
+
+        assertTrue(path.parseResortPath("/3/seasons"));
+        assertEquals(ApiPath.Route.RESORT_SEASONS, path.getRoute());
+        assertEquals(3, path.getResortID());
+
+        assertTrue(path.parseResortPath("/3/seasons/2024/day/1/skiers"));
+        assertEquals(ApiPath.Route.RESORT_DAY_SKIERS, path.getRoute());
+        assertEquals(3, path.getResortID());
+        assertEquals(2024, path.getSeasonID());
+        assertEquals(1, path.getDayID());
+    }
+
+    @Test
+    void missingSkierPath() {
+        assertError(false, null, ApiPath.Error.MISSING, 0);
+        assertError(false, "", ApiPath.Error.MISSING, 0);
+        assertError(false, "/", ApiPath.Error.MISSING, 0);
+    }
+
+    @Test
+    void idsThatAreNotPlainNumbersAreInvalid() {
+        assertError(false, "/+7/vertical", ApiPath.Error.INVALID_NUMBER, 1);
+        assertError(false, "/-7/vertical", ApiPath.Error.INVALID_NUMBER, 1);
+        assertError(false, "/7x/vertical", ApiPath.Error.INVALID_NUMBER, 1);
+        assertError(false, "/1/seasons/20 24/days/1/skiers/2", ApiPath.Error.INVALID_NUMBER, 11);
+        assertError(true, "/abc/seasons", ApiPath.Error.INVALID_NUMBER, 1);
+        // Only POST has /bulk; to GET it is a skier ID that is not a number
+        assertError(false, "/bulk", ApiPath.Error.INVALID_NUMBER, 1);
+    }
+
+    @Test
+    void idsOfMoreThanNineDigitsAreInvalid() {
+        // Nine digits always fit an int, so none of them can overflow
+        assertTrue(path.parseSkierPath("/999999999/vertical"));
+        assertError(false, "/2147483647/vertical", ApiPath.Error.INVALID_NUMBER, 1);
+        assertError(false, "/2147483648/vertical", ApiPath.Error.INVALID_NUMBER, 1);
+        assertError(false, "/1/seasons/2024/days/1/skiers/99999999999999999999", ApiPath.Error.INVALID_NUMBER, 30);
+    }
+
+    @Test
+    void leadingZerosAreRead() {
+        assertTrue(path.parseSkierPath("/007/vertical"));
+        assertEquals(7, path.getSkierID());
+        assertTrue(path.parseSkierPath("/1/seasons/2024/days/001/skiers/0"));
+        assertEquals(1, path.getDayID());
+        assertEquals(0, path.getSkierID());
+    }
+
+    @Test
+    void emptySegmentsAreInvalidIds() {
+        assertError(false, "//vertical", ApiPath.Error.INVALID_NUMBER, 1);
+        assertError(false, "/1/seasons//days/1/skiers/2", ApiPath.Error.INVALID_NUMBER, 11);
+        assertError(true, "/1/seasons/2024/day//skiers", ApiPath.Error.INVALID_NUMBER, 20);
+    }
+
+    @Test
+    void dayOutsideTheYearIsOutOfRange() {
+        assertError(false, "/1/seasons/2024/days/0/skiers/2", ApiPath.Error.OUT_OF_RANGE, 21);
+        assertError(false, "/1/seasons/2024/days/367/skiers/2", ApiPath.Error.OUT_OF_RANGE, 21);
+        assertError(true, "/1/seasons/2024/day/0/skiers", ApiPath.Error.OUT_OF_RANGE, 20);
+        assertTrue(path.parseResortPath("/1/seasons/2024/day/366/skiers"));
+    }
+
+    @Test
+    void trailingSlashesAndCutShortPathsAreUnknownRoutes() {
+        assertError(false, "/7/vertical/", ApiPath.Error.UNKNOWN_ROUTE, 2);
+        assertError(false, "/1/seasons/2024/days/1/skiers/2/", ApiPath.Error.UNKNOWN_ROUTE, 31);
+        assertError(false, "/1/seasons/2024/days/1/skiers/", ApiPath.Error.UNKNOWN_ROUTE, 30);
+        assertError(false, "/1/seasons/2024/days", ApiPath.Error.UNKNOWN_ROUTE, 15);
+        assertError(true, "/3/seasons/", ApiPath.Error.UNKNOWN_ROUTE, 11);
+        assertError(true, "/3/seasons/2024/day/1/skiers/", ApiPath.Error.UNKNOWN_ROUTE, 21);
+    }
+
+    @Test
+    void unknownLiteralsAreUnknownRoutes() {
+        assertError(false, "7/vertical", ApiPath.Error.UNKNOWN_ROUTE, 0);
+        assertError(false, "/7/horizontal", ApiPath.Error.UNKNOWN_ROUTE, 2);
+        assertError(false, "/7", ApiPath.Error.UNKNOWN_ROUTE, 2);
+        assertError(false, "/1/seasons/2024/day/1/skiers/2", ApiPath.Error.UNKNOWN_ROUTE, 15);
+        assertError(true, "/3/seasons/2024/days/1/skiers", ApiPath.Error.UNKNOWN_ROUTE, 15);
+        assertError(true, "/3/seasons/2024/day/1/lifts", ApiPath.Error.UNKNOWN_ROUTE, 21);
+    }
+
+    @Test
+    void aReusedInstanceForgetsTheLastParse() {
+        assertTrue(path.parseSkierPath("/12/seasons/2024/days/3/skiers/9"));
+        assertFalse(path.parseSkierPath("/x/vertical"));
+        assertEquals(0, path.getResortID());
+        assertEquals(0, path.getSkierID());
+        assertEquals(null, path.getRoute());
+
+        assertTrue(path.parseSkierPath("/5/vertical"));
+        assertEquals(ApiPath.Error.NONE, path.getError());
+        assertEquals(0, path.getDayID());
+    }
+
+    @Test
+    void errorMessages() {
+        path.parseSkierPath("/1/seasons/2024/days/400/skiers/2");
+        assertEquals("dayID must be between 1 and 366", path.getErrorMessage());
+        path.parseSkierPath("/x/vertical");
+        assertEquals("Invalid ID at position 1", path.getErrorMessage());
+        path.parseSkierPath("/7/horizontal");
+        assertEquals("Invalid URL at position 2", path.getErrorMessage());
+        path.parseSkierPath("/");
+        assertEquals("Missing parameters", path.getErrorMessage());
+    }
+
+    private void assertError(boolean resort, String input, ApiPath.Error error, int index) {
+        assertFalse(resort ? path.parseResortPath(input) : path.parseSkierPath(input), input);
+        assertEquals(error, path.getError(), input);
+        assertEquals(index, path.getErrorIndex(), input);
+        assertEquals(null, path.getRoute(), input);
+    }
+}
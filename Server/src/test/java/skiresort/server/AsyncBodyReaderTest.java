@@ -0,0 +1,165 @@
+package skiresort.server;
+
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Feeds {@link AsyncBodyReader} a body in chunks, as a container calls {@code onDataAvailable}
+ * each time more of it arrives.
+ */
+class AsyncBodyReaderTest {
+
+    private static final int MAX_BODY_SIZE = 1024;
+
+    private final ChunkedInput input = new ChunkedInput();
+    private final List<Throwable> errors = new ArrayList<>();
+    private String body;
+
+    @Test
+    void bodySplitAcrossChunksIsHandedOverWhole() throws IOException {
+        String expected = body(600);
+        AsyncBodyReader reader = reader(expected.length());
+        input.arrive(reader, expected.substring(0, 1));
+        input.arrive(reader, expected.substring(1, 300));
+        input.arrive(reader, expected.substring(300));
+        assertNull(body);
+
+        input.end(reader);
+        assertEquals(expected, body);
+    }
+
+    @Test
+    void bufferGrowsWhenTheLengthIsNotKnown() throws IOException {
+        AsyncBodyReader reader = reader(-1);
+        String expected = body(MAX_BODY_SIZE);
+        for (int i = 0; i < expected.length(); i += 100) {
+            input.arrive(reader, expected.substring(i, Math.min(i + 100, expected.length())));
+        }
+        input.end(reader);
+        assertEquals(expected, body);
+    }
+
+    @Test
+    void emptyBodyIsHandedOver() throws IOException {
+        AsyncBodyReader reader = reader(0);
+        input.end(reader);
+        assertEquals("", body);
+    }
+
+    @Test
+    void bodyLargerThanTheMaximumIsRefused() throws IOException {
+        AsyncBodyReader reader = reader(-1);
+        input.arrive(reader, body(MAX_BODY_SIZE));
+        assertThrows(IOException.class, () -> input.arrive(reader, "x"));
+    }
+
+    @Test
+    void contentLengthAboveTheMaximumIsStillRefused() throws IOException {
+        AsyncBodyReader reader = reader(10 * MAX_BODY_SIZE);
+        input.arrive(reader, body(MAX_BODY_SIZE));
+        assertThrows(IOException.class, () -> input.arrive(reader, "x"));
+    }
+
+    @Test
+    void readErrorsAreForwarded() {
+        AsyncBodyReader reader = reader(-1);
+        IOException error = new IOException("Connection reset");
+        reader.onError(error);
+        assertEquals(1, errors.size());
+        assertSame(error, errors.get(0));
+        assertNull(body);
+    }
+
+    private AsyncBodyReader reader(int contentLength) {
+        HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getContentLength")) {
+                        return contentLength;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{AsyncContext.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getRequest")) {
+                        return request;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return new AsyncBodyReader(asyncContext, input, MAX_BODY_SIZE,
+                b -> body = new String(b.bytes(), 0, b.length(), StandardCharsets.UTF_8), errors::add);
+    }
+
+    private static String body(int length) {
+        StringBuilder body = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        return body.toString();
+    }
+
+    /**
+     * Ready only while part of a chunk is left, as a container's stream is between packets.
+     */
+    private static final class ChunkedInput extends ServletInputStream {
+        private byte[] chunk = new byte[0];
+        private int pos;
+        private boolean ended;
+
+        void arrive(ReadListener listener, String data) throws IOException {
+            chunk = data.getBytes(StandardCharsets.UTF_8);
+            pos = 0;
+            listener.onDataAvailable();
+            assertEquals(chunk.length, pos, "Whole chunk read");
+        }
+
+        void end(ReadListener listener) throws IOException {
+            ended = true;
+            listener.onAllDataRead();
+        }
+
+        @Override
+        public boolean isReady() {
+            return pos < chunk.length || ended;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return ended && pos == chunk.length;
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read() {
+            return pos < chunk.length ? chunk[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos == chunk.length) {
+                return ended ? -1 : 0;
+            }
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(chunk, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
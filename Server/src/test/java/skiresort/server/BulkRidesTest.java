@@ -0,0 +1,107 @@
+package skiresort.server;
+
+import org.junit.jupiter.api.Test;
+import skiresort.common.LiftRide;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BulkRidesTest {
+
+    private static final int MAX_RIDES = 4;
+
+    // As the servlet's, but only for liftID
+    private static final Function<LiftRide, String> VALIDATOR =
+            ride -> ride.getLiftID() < 1 || ride.getLiftID() > 40 ? "liftID must be between 1 and 40." : null;
+
+    private final BulkRides rides = new BulkRides(MAX_RIDES);
+
+    @Test
+    void validRidesAreKeptWithTheirPositions() {
+        assertEquals(BulkRides.Result.READ, read("[" + ride(1) + ", " + ride(2) + "]"));
+        assertEquals(2, rides.count());
+        assertEquals(1, rides.ride(0).getLiftID());
+        assertEquals(2, rides.ride(1).getLiftID());
+        assertEquals(1, rides.index(1));
+        assertEquals("{ \"accepted\": 0, \"rejected\": 0, \"errors\": [] }", rides.summary().toJson());
+    }
+
+    @Test
+    void invalidRidesAreRejectedOneByOne() {
+        assertEquals(BulkRides.Result.READ, read("[" + ride(0) + "," + ride(5) + "," + ride(41) + "]"));
+
+        assertEquals(1, rides.count());
+        assertEquals(1, rides.index(0));
+        assertEquals("{ \"accepted\": 0, \"rejected\": 2, \"errors\": ["
+                + " { \"index\": 0, \"status\": 400, \"message\": \"liftID must be between 1 and 40.\" },"
+                + " { \"index\": 2, \"status\": 400, \"message\": \"liftID must be between 1 and 40.\" } ] }",
+                rides.summary().toJson());
+    }
+
+    @Test
+    void malformedItemsAreRejectedAndTheRestStillRead() {
+        assertEquals(BulkRides.Result.READ, read("[" + ride(1) + ", {\"liftID\":}, [1, 2], \"x\"]"));
+
+        assertEquals(1, rides.count());
+        assertEquals(3, rides.summary().getRejected());
+        assertEquals("{ \"accepted\": 0, \"rejected\": 3, \"errors\": ["
+                + " { \"index\": 1, \"status\": 400, \"message\": \"Invalid JSON.\" },"
+                + " { \"index\": 2, \"status\": 400, \"message\": \"Invalid JSON.\" },"
+                + " { \"index\": 3, \"status\": 400, \"message\": \"Invalid JSON.\" } ] }",
+                rides.summary().toJson());
+    }
+
+    @Test
+    void emptyBodiesHaveNoRides() {
+        assertEquals(BulkRides.Result.EMPTY, read(" [ ] "));
+        assertEquals(BulkRides.Result.EMPTY, read(new BulkRides(MAX_RIDES), ""));
+        assertEquals(BulkRides.Result.EMPTY, read(new BulkRides(MAX_RIDES), " \n \n"));
+    }
+
+    @Test
+    void moreRidesThanAllowedAreRefused() {
+        assertEquals(BulkRides.Result.READ, read(array(MAX_RIDES)));
+        assertEquals(MAX_RIDES, rides.count());
+        assertEquals(BulkRides.Result.TOO_MANY, read(new BulkRides(MAX_RIDES), array(MAX_RIDES + 1)));
+    }
+
+    @Test
+    void brokenArraysAreMalformed() {
+        assertEquals(BulkRides.Result.MALFORMED, read("[" + ride(1) + "} " + ride(2) + "]"));
+        assertEquals(BulkRides.Result.MALFORMED, read(new BulkRides(MAX_RIDES), "[" + ride(1) + ", \"x]"));
+        assertEquals(BulkRides.Result.MALFORMED, read(new BulkRides(MAX_RIDES), "[" + ride(1)));
+        assertEquals(BulkRides.Result.MALFORMED, read(new BulkRides(MAX_RIDES), "[" + ride(1) + "] x"));
+    }
+
+    @Test
+    void ndjsonBodiesAreReadLineByLine() {
+        assertEquals(BulkRides.Result.READ, read(ride(1) + "\n\n" + ride(50) + "\r\n" + ride(3) + "\n"));
+
+        assertEquals(2, rides.count());
+        assertEquals(2, rides.index(1));
+        assertEquals(1, rides.summary().getRejected());
+    }
+
+    private BulkRides.Result read(String body) {
+        return read(rides, body);
+    }
+
+    private static BulkRides.Result read(BulkRides target, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return target.read(bytes, bytes.length, VALIDATOR);
+    }
+
+    private static String array(int rides) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < rides; i++) {
+            body.append(i == 0 ? "" : ",").append(ride(1));
+        }
+        return body.append(']').toString();
+    }
+
+    private static String ride(int liftID) {
+        return "{\"skierID\":1,\"resortID\":1,\"liftID\":" + liftID + ",\"seasonID\":\"2024\",\"dayID\":\"1\",\"time\":1}";
+    }
+}
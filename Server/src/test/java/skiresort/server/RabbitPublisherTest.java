@@ -0,0 +1,221 @@
+package skiresort.server;
+
+import com.github.fridujo.rabbitmq.mock.MockConnectionFactory;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link RabbitPublisher} against the in-memory broker of rabbitmq-mock. The mock confirms
+ * every publish at once and ignores channel shutdown, so channels are wrapped to hold confirms
+ * back for the test to send, to fail like a closed channel, and to tell their shutdown
+ * listeners when closed.
+ */
+class RabbitPublisherTest {
+
+    private static final String QUEUE = "publisher_test";
+    private static final AMQP.BasicProperties PROPERTIES = new AMQP.BasicProperties.Builder().build();
+    private static final long WAIT_MS = 5000;
+
+    private Connection broker;
+    private final List<FaultyChannel> channels = new CopyOnWriteArrayList<>();
+    private volatile boolean autoConfirm = true;
+    private volatile boolean connectionDown;
+    private RabbitPublisher publisher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        broker = new MockConnectionFactory().newConnection();
+        broker.createChannel().queueDeclare(QUEUE, true, false, false, null);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connectionDown = false;
+        if (publisher != null) {
+            publisher.close();
+        }
+        broker.close();
+    }
+
+    @Test
+    void publishedMessageReachesTheQueueAndIsConfirmed() throws Exception {
+        publisher = publisher(2, 10);
+
+        assertTrue(publisher.publish("ride".getBytes(), "42"));
+
+        assertEquals(1, publisher.getConfirmedCount());
+        assertEquals(0, publisher.getUnconfirmedCount());
+        assertEquals(1, queued());
+    }
+
+    @Test
+    void nackedMessageIsRepublishedUntilConfirmed() throws Exception {
+        autoConfirm = false;
+        publisher = publisher(1, 10);
+
+        assertTrue(publisher.publish("ride".getBytes(), "42"));
+        assertEquals(1, publisher.getUnconfirmedCount());
+        channels.get(0).confirms.handleNack(1, false);
+
+        assertEquals(1, publisher.getNackedCount());
+        await(() -> publisher.getPublishedCount() == 2);
+        channels.get(0).confirms.handleAck(2, false);
+        assertEquals(1, publisher.getConfirmedCount());
+        assertEquals(0, publisher.getUnconfirmedCount());
+        assertEquals(2, queued());
+    }
+
+    @Test
+    void unconfirmedMessagesOfAClosedChannelAreRepublishedOnANewOne() throws Exception {
+        autoConfirm = false;
+        publisher = publisher(1, 10);
+
+        assertTrue(publisher.publish("ride".getBytes(), "42"));
+        channels.get(0).shutDown();
+
+        assertEquals(1, publisher.getOrphanedCount());
+
+        await(() -> publisher.getPublishedCount() == 2);
+        assertEquals(2, channels.size());
+        assertEquals(1, publisher.getUnconfirmedCount());
+        channels.get(1).confirms.handleAck(1, false);
+        assertEquals(1, publisher.getConfirmedCount());
+        assertEquals(0, publisher.getUnconfirmedCount());
+    }
+
+    @Test
+    void publishesFailingOnAClosedChannelGiveTheirCapacityBack() throws Exception {
+        publisher = publisher(1, 2);
+        channels.get(0).failPublishes = true;
+
+        // More failures than permits: each one must still fail rather than find the publisher saturated
+        for (int i = 0; i < 5; i++) {
+            assertThrows(AlreadyClosedException.class, () -> publisher.publish("ride".getBytes(), "42"));
+            assertThrows(AlreadyClosedException.class,
+                    () -> publisher.publishBatch(new byte[][]{"a".getBytes(), "b".getBytes()}, new String[]{"1", "2"}, 2));
+        }
+        assertEquals(0, publisher.getRejectedCount());
+
+        channels.get(0).failPublishes = false;
+        assertTrue(publisher.publish("ride".getBytes(), "42"));
+        assertEquals(2, publisher.publishBatch(new byte[][]{"a".getBytes(), "b".getBytes()}, new String[]{"1", "2"}, 2));
+    }
+
+    @Test
+    void poolRecoversOnceTheConnectionIsBack() throws Exception {
+        publisher = publisher(1, 2);
+        channels.get(0).shutDown();
+        connectionDown = true;
+
+        // Reopening the channel fails; the slot and the permits must survive every attempt
+        for (int i = 0; i < 5; i++) {
+            assertThrows(AlreadyClosedException.class, () -> publisher.publish("ride".getBytes(), "42"));
+        }
+        assertEquals(0, publisher.getRejectedCount());
+
+        connectionDown = false;
+        assertTrue(publisher.publish("ride".getBytes(), "42"));
+        assertEquals(1, publisher.getConfirmedCount());
+        assertEquals(1, queued());
+    }
+
+    private RabbitPublisher publisher(int poolSize, int maxUnconfirmed) throws IOException {
+        Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("createChannel")) {
+                        if (connectionDown) {
+                            throw new AlreadyClosedException(new ShutdownSignalException(true, false, null, broker));
+                        }
+                        FaultyChannel channel = new FaultyChannel(broker.createChannel());
+                        channels.add(channel);
+                        return channel.proxy;
+                    }
+                    return invoke(broker, method, args);
+                });
+        return new RabbitPublisher(connection, QUEUE, PROPERTIES, poolSize, maxUnconfirmed,
+                RabbitPublisher.Backpressure.REJECT, 0);
+    }
+
+    private int queued() throws IOException {
+        Channel channel = broker.createChannel();
+        int count = 0;
+        while (channel.basicGet(QUEUE, true) != null) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A mock channel that can hold confirms back, fail publishes as a closed channel does, and
+     * be shut down with its listeners told.
+     */
+    private final class FaultyChannel {
+        final Channel proxy;
+        final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+        volatile ConfirmListener confirms;
+        volatile boolean failPublishes;
+        volatile boolean open = true;
+
+        FaultyChannel(Channel channel) {
+            proxy = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Channel.class},
+                    (self, method, args) -> switch (method.getName()) {
+                        case "addConfirmListener" -> {
+                            confirms = (ConfirmListener) args[0];
+                            yield autoConfirm ? invoke(channel, method, args) : null;
+                        }
+                        case "addShutdownListener" -> shutdownListeners.add((ShutdownListener) args[0]);
+                        case "isOpen" -> open;
+                        case "basicPublish" -> {
+                            if (failPublishes || !open) {
+                                throw new AlreadyClosedException(new ShutdownSignalException(false, false, null, self));
+                            }
+                            yield invoke(channel, method, args);
+                        }
+                        default -> invoke(channel, method, args);
+                    });
+        }
+
+        void shutDown() {
+            open = false;
+            ShutdownSignalException cause = new ShutdownSignalException(false, false, null, proxy);
+            shutdownListeners.forEach(listener -> listener.shutdownCompleted(cause));
+        }
+    }
+}
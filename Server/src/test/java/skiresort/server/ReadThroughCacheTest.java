@@ -0,0 +1,137 @@
+package skiresort.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReadThroughCacheTest {
+
+    private static final long WAIT_MS = 5000;
+
+    private final ExecutorService readers = Executors.newCachedThreadPool();
+    private final AtomicInteger loads = new AtomicInteger();
+    // Loads of "slow" wait for this
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        readers.shutdownNow();
+    }
+
+    @Test
+    void concurrentMissesOnOneKeyCostOneLoad() throws Exception {
+        ReadThroughCache<String, String> cache = new ReadThroughCache<>(this::load, 100, 60_000);
+
+        List<Future<String>> reads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            reads.add(readers.submit(() -> cache.get("slow")));
+        }
+        await(() -> cache.getCoalescedCount() == 7);
+        release.countDown();
+
+        for (Future<String> read : reads) {
+            assertEquals("value of slow", read.get(WAIT_MS, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void entriesAreLoadedAgainOnceExpired() throws InterruptedException {
+        ReadThroughCache<String, String> cache = new ReadThroughCache<>(this::load, 100, 50);
+
+        cache.get("a");
+        cache.get("a");
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCount());
+
+        Thread.sleep(100);
+        cache.get("a");
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void failedLoadsAreRethrownToEveryWaiterAndNotCached() throws Exception {
+        IllegalStateException failure = new IllegalStateException("Redis down");
+        AtomicInteger attempts = new AtomicInteger();
+        ReadThroughCache<String, String> cache = new ReadThroughCache<>(key -> {
+            if (attempts.incrementAndGet() == 1) {
+                awaitRelease();
+                throw failure;
+            }
+            return load(key);
+        }, 100, 60_000);
+
+        Future<String> first = readers.submit(() -> cache.get("a"));
+        Future<String> waiter = readers.submit(() -> cache.get("a"));
+        await(() -> cache.getCoalescedCount() == 1);
+        release.countDown();
+
+        assertSame(failure, assertThrows(Exception.class, () -> first.get(WAIT_MS, TimeUnit.MILLISECONDS)).getCause());
+        assertSame(failure, assertThrows(Exception.class, () -> waiter.get(WAIT_MS, TimeUnit.MILLISECONDS)).getCause());
+        assertEquals(1, cache.getLoadFailureCount());
+
+        assertEquals("value of a", cache.get("a"));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void evictionKeepsLoadsInFlight() throws Exception {
+        ReadThroughCache<String, String> cache = new ReadThroughCache<>(this::load, 2, 60_000);
+
+        Future<String> slow = readers.submit(() -> cache.get("slow"));
+        await(() -> loads.get() == 1);
+        for (String key : List.of("a", "b", "c", "d")) {
+            cache.get(key);
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+
+        // Still pending, so a second read of it joins the first load instead of starting another
+        Future<String> again = readers.submit(() -> cache.get("slow"));
+        await(() -> cache.getCoalescedCount() == 1);
+        release.countDown();
+
+        assertEquals("value of slow", slow.get(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("value of slow", again.get(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(5, loads.get());
+    }
+
+    private String load(String key) {
+        loads.incrementAndGet();
+        if (key.equals("slow")) {
+            awaitRelease();
+        }
+        return "value of " + key;
+    }
+
+    private void awaitRelease() {
+        try {
+            assertTrue(release.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+}
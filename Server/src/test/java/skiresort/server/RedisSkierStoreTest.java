@@ -0,0 +1,92 @@
+package skiresort.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import skiresort.common.RedisLayout;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link RedisSkierStore} against a real redis-server holding keys written the way the
+ * consumer writes them.
+ */
+class RedisSkierStoreTest {
+
+    private RedisServer redis;
+    private JedisPool jedisPool;
+    private RedisSkierStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        jedisPool = new JedisPool("localhost", port);
+        store = new RedisSkierStore(jedisPool);
+
+        try (Jedis jedis = jedisPool.getResource()) {
+            ride(jedis, 7, 1, 2024, 3, 120);
+            ride(jedis, 7, 1, 2024, 3, 80);
+            ride(jedis, 7, 1, 2024, 4, 50);
+            ride(jedis, 7, 1, 2025, 1, 30);
+            ride(jedis, 7, 2, 2024, 3, 999);
+            ride(jedis, 8, 1, 2024, 3, 10);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        jedisPool.close();
+        redis.stop();
+    }
+
+    @Test
+    void dayVerticalIsTheSkiersTotalForThatDay() {
+        assertEquals(200, store.getDayVertical(1, 2024, 3, 7));
+        assertEquals(50, store.getDayVertical(1, 2024, 4, 7));
+        assertEquals(0, store.getDayVertical(1, 2024, 5, 7));
+        assertEquals(0, store.getDayVertical(1, 2024, 3, 9));
+    }
+
+    @Test
+    void seasonVerticalsAreKeptPerResort() {
+        assertEquals(250, store.getSeasonVertical(7, 1, 2024));
+        assertEquals(999, store.getSeasonVertical(7, 2, 2024));
+        assertEquals(0, store.getSeasonVertical(7, 3, 2024));
+        assertEquals(Map.of(2024, 250L, 2025, 30L), store.getSeasonVerticals(7, 1));
+        assertEquals(Map.of(), store.getSeasonVerticals(9, 1));
+    }
+
+    @Test
+    void uniqueSkiersCountsEachSkierOnce() {
+        assertEquals(2, store.getUniqueSkiers(1, 2024, 3));
+        assertEquals(1, store.getUniqueSkiers(1, 2024, 4));
+        assertEquals(0, store.getUniqueSkiers(1, 2024, 5));
+    }
+
+    @Test
+    void poolWaitIsRecordedPerQuery() {
+        store.getDayVertical(1, 2024, 3, 7);
+        store.getSeasonVerticals(7, 1);
+        assertTrue(store.getPoolWait().total().getTotalCount() >= 2);
+    }
+
+    // The aggregates the consumer keeps for one ride
+    private static void ride(Jedis jedis, int skierID, int resortID, int seasonID, int dayID, int vertical) {
+        jedis.hincrBy(RedisLayout.dayVerticalKey(resortID, seasonID, dayID), String.valueOf(skierID), vertical);
+        jedis.hincrBy(RedisLayout.seasonVerticalKey(skierID), RedisLayout.seasonVerticalField(resortID, seasonID), vertical);
+        jedis.pfadd(RedisLayout.uniqueSkiersKey(resortID, seasonID, dayID), String.valueOf(skierID));
+    }
+}
@@ -0,0 +1,39 @@
+package skiresort.server;
+
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResponseStatusTest {
+
+    // setStatus and setIntHeader calls, as "status 503" and "Retry-After: 1"
+    private final List<String> calls = new ArrayList<>();
+    private final HttpServletResponse res = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setStatus" -> calls.add("status " + args[0]);
+                    case "setIntHeader" -> calls.add(args[0] + ": " + args[1]);
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+                return null;
+            });
+
+    @Test
+    void serviceUnavailableTellsTheClientWhenToRetry() {
+        ResponseStatus.set(res, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        assertEquals(List.of("status 503", "Retry-After: " + ResponseStatus.RETRY_AFTER_SECONDS), calls);
+    }
+
+    @Test
+    void otherStatusesHaveNoRetryAfter() {
+        ResponseStatus.set(res, HttpServletResponse.SC_OK);
+        ResponseStatus.set(res, HttpServletResponse.SC_BAD_REQUEST);
+        ResponseStatus.set(res, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        assertEquals(List.of("status 200", "status 400", "status 500"), calls);
+    }
+}
@@ -0,0 +1,136 @@
+package skiresort.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import skiresort.common.RedisLayout;
+import skiresort.common.RideIdGenerator;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link RideIdNodeLease} against a real redis-server.
+ */
+class RideIdNodeLeaseTest {
+
+    private static final long LEASE_MS = 300;
+
+    private RedisServer redis;
+    private JedisPool jedisPool;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        jedisPool = new JedisPool("localhost", port);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        jedisPool.close();
+        redis.stop();
+    }
+
+    @Test
+    void leasesHeldTogetherHaveDistinctNodes() {
+        Set<Integer> nodes = new HashSet<>();
+        RideIdNodeLease[] leases = new RideIdNodeLease[50];
+        for (int i = 0; i < leases.length; i++) {
+            leases[i] = new RideIdNodeLease(jedisPool, LEASE_MS);
+            assertTrue(nodes.add(leases[i].node()));
+            assertEquals(leases[i].node(), nodeOf(leases[i].nextId()));
+        }
+        for (RideIdNodeLease lease : leases) {
+            lease.close();
+        }
+    }
+
+    @Test
+    void leaseIsRenewedWhileHeldAndFreedOnClose() throws InterruptedException {
+        RideIdNodeLease lease = new RideIdNodeLease(jedisPool, LEASE_MS);
+        String key = RedisLayout.rideIdNodeKey(lease.node());
+
+        Thread.sleep(3 * LEASE_MS);
+        try (Jedis jedis = jedisPool.getResource()) {
+            assertTrue(jedis.exists(key));
+            lease.close();
+            assertNull(jedis.get(key));
+        }
+    }
+
+    @Test
+    void nodeTakenOverByAnotherServerIsReplaced() throws InterruptedException {
+        RideIdNodeLease lease = new RideIdNodeLease(jedisPool, LEASE_MS);
+        int lost = lease.node();
+        try (Jedis jedis = jedisPool.getResource()) {
+            // As if Redis had been out of reach for a whole lease and another server took the node
+            jedis.set(RedisLayout.rideIdNodeKey(lost), "other");
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (lease.node() == lost) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+            Thread.sleep(10);
+        }
+        assertNotEquals(lost, nodeOf(lease.nextId()));
+        try (Jedis jedis = jedisPool.getResource()) {
+            lease.close();
+            assertEquals("other", jedis.get(RedisLayout.rideIdNodeKey(lost)));
+        }
+    }
+
+    @Test
+    void idsStopBeforeAnUnrenewedLeaseCanRunOut() throws Exception {
+        RideIdNodeLease lease = new RideIdNodeLease(jedisPool, LEASE_MS);
+        long started = System.nanoTime();
+        redis.stop();
+
+        lease.nextId();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (issues(lease)) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+            Thread.sleep(10);
+        }
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(LEASE_MS), "IDs issued after the lease ran out");
+
+        // Redis comes back empty, so the next renewal finds the lease gone and takes a node again
+        redis.start();
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!issues(lease)) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+            Thread.sleep(10);
+        }
+        assertEquals(lease.node(), nodeOf(lease.nextId()));
+        lease.close();
+    }
+
+    private static boolean issues(RideIdNodeLease lease) {
+        try {
+            lease.nextId();
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    // The node bits sit above the 12-bit sequence
+    private static int nodeOf(long rideId) {
+        return (int) (rideId >>> 12) & RideIdGenerator.MAX_NODE;
+    }
+}
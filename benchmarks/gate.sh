@@ -0,0 +1,20 @@
+#!/bin/sh
+# Runs the ingest hot-path benchmarks with -prof gc and fails if any of them got slower or
+# allocates more than in benchmarks/baseline.json. Pass --update to store the run as the new
+# baseline instead; the baseline only means something on the machine that recorded it.
+set -e
+cd "$(dirname "$0")/.."
+
+GATED='ApiPathBenchmark|LiftRideCodecBenchmark|WorkloadBenchmark|ConsumerBatchBenchmark|LatencyStatisticsBenchmark'
+JAR=benchmarks/target/benchmarks.jar
+RESULT=benchmarks/target/gate.json
+
+mvn -B -q package -DskipTests
+java -jar "$JAR" "$GATED" -prof gc -rf json -rff "$RESULT"
+
+if [ "$1" = "--update" ]; then
+    cp "$RESULT" benchmarks/baseline.json
+    echo "Stored $RESULT as benchmarks/baseline.json"
+else
+    java -cp "$JAR" skiresort.benchmarks.RegressionGate benchmarks/baseline.json "$RESULT" "$@"
+fi
@@ -0,0 +1,217 @@
+package skiresort.benchmarks;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import skiresort.common.WireFormat;
+import skiresort.common.workload.LiftRideWorkload;
+import skiresort.common.workload.SkewedWorkload;
+import skiresort.consumer.AdaptiveConsumers;
+import skiresort.consumer.BatchMetrics;
+import skiresort.consumer.ConsumerPipeline;
+import skiresort.consumer.CreditLimit;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed against adaptive credit in front of a Redis stand-in that serves one aggregate at a
+ * time, taking {@code redisMicrosPerBatch} for each, so throughput is capped by the backend
+ * and extra credit only queues up in the consumer. The benchmark thread plays the broker,
+ * delivering to whichever stub channels have a consumer and room under its prefetch count.
+ * <p>
+ * Rides per second should come out about the same either way; what differs is how long a
+ * ride sits unacked, printed per iteration from Little's law as held deliveries over
+ * throughput. {@code fixed} is the old setup of 128 consumers with prefetch 50.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdaptivePrefetchBenchmark {
+
+    private static final int CHANNELS = 128;
+    private static final int FIXED_PREFETCH = 50;
+    private static final int RIDES = 4096;
+
+    @Param({"fixed", "adaptive"})
+    public String credit;
+
+    @Param({"1000", "4000"})
+    public long redisMicrosPerBatch;
+
+    private RedisServer redis;
+    private JedisPool jedisPool;
+    private ConsumerPipeline pipeline;
+    private AdaptiveConsumers consumers;
+    private final StubChannel[] channels = new StubChannel[CHANNELS];
+    private final AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+            .contentType(WireFormat.BINARY.getContentType()).build();
+    private final byte[][] bodies = new byte[RIDES][];
+    private final Object redisServerThread = new Object();
+    private int nextRide;
+    private int nextChannel;
+    // Held deliveries, sampled per delivery, for the latency estimate
+    private long samples;
+    private long heldTotal;
+    private long iterationStarted;
+
+    // Broker-side view of a channel: its consumer, prefetch count and delivery tags
+    static final class StubChannel {
+        volatile DeliverCallback callback;
+        volatile int prefetch;
+        volatile long ackedTag;
+        long nextTag;
+        final LongAdder nacks = new LongAdder();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        jedisPool = new JedisPool("localhost", port);
+
+        BatchMetrics metrics = new BatchMetrics();
+        // Same stages as LiftRideConsumer; the writers hold a connection but write to the stand-in
+        pipeline = new ConsumerPipeline(2, 4, 4, 8192, 50, 200, jedisPool, (jedis, aggregate) -> {
+            synchronized (redisServerThread) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(redisMicrosPerBatch));
+            }
+        }, metrics);
+        pipeline.start();
+
+        if (credit.equals("adaptive")) {
+            consumers = new AdaptiveConsumers("lift_ride_queue", pipeline, metrics, new CreditLimit(1024, 64, 16384), 10, 500);
+        }
+        for (int i = 0; i < CHANNELS; i++) {
+            channels[i] = new StubChannel();
+            Channel channel = stubChannel(channels[i]);
+            if (consumers != null) {
+                consumers.add(channel);
+            } else {
+                channels[i].prefetch = FIXED_PREFETCH;
+                channels[i].callback = pipeline.deliverCallback(channel);
+            }
+        }
+        if (consumers != null) {
+            consumers.start(250);
+        }
+
+        LiftRideWorkload workload = new SkewedWorkload(42);
+        for (int i = 0; i < RIDES; i++) {
+            bodies[i] = WireFormat.BINARY.encode(workload.ride(i));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        samples = 0;
+        heldTotal = 0;
+        iterationStarted = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        double seconds = (System.nanoTime() - iterationStarted) / 1e9;
+        double held = samples == 0 ? 0 : heldTotal / (double) samples;
+        double throughput = samples / seconds;
+        System.out.printf(" held %.0f, ~%.0f ms unacked per ride, average write %.1f ms%s%n",
+                held, throughput == 0 ? 0 : held / throughput * 1000, pipeline.getAverageWriteMillis(),
+                consumers == null ? "" : ", limit " + consumers.getCreditLimit() + " over " + consumers.getActiveConsumers()
+                        + " consumers with prefetch " + consumers.getPrefetchCount());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (consumers != null) {
+            consumers.stop();
+        }
+        pipeline.close(10_000);
+        jedisPool.close();
+        redis.stop();
+    }
+
+    @Benchmark
+    public void deliver() throws IOException {
+        StubChannel channel = nextOpenChannel();
+        int ride = nextRide++ & (RIDES - 1);
+        Envelope envelope = new Envelope(++channel.nextTag, false, "", "lift_ride_queue");
+        channel.callback.handle("consumer", new Delivery(envelope, properties, bodies[ride]));
+        samples++;
+        heldTotal += pipeline.getUnackedCount();
+    }
+
+    // Next channel, round robin, with a consumer and room under its prefetch count
+    private StubChannel nextOpenChannel() {
+        while (true) {
+            for (int i = 0; i < CHANNELS; i++) {
+                StubChannel channel = channels[nextChannel];
+                nextChannel = (nextChannel + 1) % CHANNELS;
+                if (channel.callback != null && channel.nextTag - channel.ackedTag < channel.prefetch) {
+                    return channel;
+                }
+            }
+            LockSupport.parkNanos(10_000);
+        }
+    }
+
+    private static Channel stubChannel(StubChannel state) {
+        int[] qos = new int[1];
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "basicQos" -> {
+                        qos[0] = (Integer) args[0];
+                        yield null;
+                    }
+                    case "basicConsume" -> {
+                        state.prefetch = qos[0];
+                        state.callback = (DeliverCallback) args[2];
+                        yield "consumer";
+                    }
+                    case "basicCancel" -> {
+                        state.callback = null;
+                        yield null;
+                    }
+                    case "basicAck" -> {
+                        state.ackedTag = Math.max(state.ackedTag, (Long) args[0]);
+                        yield null;
+                    }
+                    case "basicNack" -> {
+                        state.nacks.increment();
+                        state.ackedTag = Math.max(state.ackedTag, (Long) args[0]);
+                        yield null;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "StubChannel";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,77 @@
+package skiresort.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import skiresort.server.ApiPath;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SkierServlet GET path validation: the single-pass {@link ApiPath} matcher against the old
+ * {@code split("/")} plus {@code Integer.parseInt} code, on valid and invalid paths.
+ * Run with {@code -prof gc} to see the allocation difference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ApiPathBenchmark {
+
+    @Param({"valid", "badNumber", "badRoute"})
+    public String kind;
+
+    private String path;
+    private final ApiPath apiPath = new ApiPath();
+
+    @Setup
+    public void setup() {
+        switch (kind) {
+            case "valid":
+                path = "/7/seasons/2024/days/123/skiers/45678";
+                break;
+            case "badNumber":
+                path = "/7/seasons/2024/days/1x3/skiers/45678";
+                break;
+            default:
+                path = "/7/season/2024/days/123/skiers/45678";
+                break;
+        }
+    }
+
+    @Benchmark
+    public boolean apiPath() {
+        return apiPath.parseSkierPath(path);
+    }
+
+    @Benchmark
+    public boolean splitAndParse() {
+        return isUrlValid(path.split("/"));
+    }
+
+    // The original SkierServlet.isUrlValid, kept here as the baseline
+    private static boolean isUrlValid(String[] urlPath) {
+        if (urlPath.length == 8) {
+            try {
+                Integer.parseInt(urlPath[1]); // resortID
+                Integer.parseInt(urlPath[3]); // seasonID
+                Integer.parseInt(urlPath[5]); // dayID
+                Integer.parseInt(urlPath[7]); // skierID
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
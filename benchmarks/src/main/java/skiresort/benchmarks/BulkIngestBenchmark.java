@@ -0,0 +1,162 @@
+package skiresort.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import skiresort.client.BatchingSender;
+import skiresort.client.FailureReporter;
+import skiresort.client.RetryPolicy;
+import skiresort.client.RetryingSender;
+import skiresort.common.LiftRide;
+import skiresort.common.LiftRideBatchReader;
+import skiresort.common.WireFormat;
+import skiresort.common.workload.LiftRideWorkload;
+import skiresort.common.workload.SkewedWorkload;
+import skiresort.server.BulkSummary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rides per second through {@link BatchingSender} and a local stub of the bulk endpoint, by
+ * batch size. Every sending thread sends one full batch and waits for the answer; the stub
+ * reads the body with {@link LiftRideBatchReader}, validates and binary-encodes every ride as
+ * the servlet does, and answers with a {@link BulkSummary}. Batch size 1 is one HTTP request
+ * per ride, like POST /skiers. The {@code rides} counter is the score to compare.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class BulkIngestBenchmark {
+
+    private static final int SERVER_WORKERS = 8;
+
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    private HttpServer server;
+    private ExecutorService workers;
+    private RetryingSender sender;
+    private URI bulkUri;
+    private final LiftRideWorkload workload = new SkewedWorkload(42);
+    private final LongAdder encodedBytes = new LongAdder();
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Rides {
+        public long rides;
+        public long failed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rides = 0;
+            failed = 0;
+        }
+    }
+
+    // One batcher per thread, so a thread never waits on a batch another thread is filling
+    @State(Scope.Thread)
+    public static class Batcher {
+        BatchingSender batcher;
+        long nextRide;
+
+        @Setup(Level.Trial)
+        public void setup(BulkIngestBenchmark benchmark) {
+            batcher = new BatchingSender(benchmark.sender, benchmark.bulkUri, benchmark.batchSize, 0);
+            nextRide = Thread.currentThread().getId() << 40;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            batcher.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // The stub writes headers and summary separately; without this Nagle holds the summary back
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        workers = Executors.newFixedThreadPool(SERVER_WORKERS);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setExecutor(workers);
+        server.createContext("/skiers/bulk", this::handle);
+        server.start();
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        sender = new RetryingSender(client, RetryPolicy.immediate(1), new FailureReporter(1000, line -> {}));
+        bulkUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/skiers/bulk");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        workers.shutdownNow();
+        System.out.println("Server: " + encodedBytes.sum() + " bytes of messages encoded; client: "
+                + sender.getAttemptCount() + " requests");
+    }
+
+    @Benchmark
+    public void sendBatch(Batcher batcher, Rides rides) {
+        CompletableFuture<?>[] results = new CompletableFuture<?>[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            results[i] = batcher.batcher.submit(workload.ride(batcher.nextRide++));
+        }
+        for (CompletableFuture<?> result : results) {
+            if ((Boolean) result.join()) {
+                rides.rides++;
+            } else {
+                rides.failed++;
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        LiftRideBatchReader reader = new LiftRideBatchReader(body, 0, body.length);
+        BulkSummary summary = new BulkSummary();
+        int count = 0;
+        while (reader.next()) {
+            LiftRide ride = reader.ride();
+            if (ride.getSkierID() < 1 || ride.getSkierID() > 100000 || ride.getLiftID() < 1 || ride.getLiftID() > 40) {
+                summary.reject(reader.index(), 400, "Invalid lift ride.");
+                continue;
+            }
+            encodedBytes.add(WireFormat.BINARY.encode(ride).length);
+            count++;
+        }
+        summary.accept(count);
+
+        byte[] answer = summary.toJson().getBytes(StandardCharsets.US_ASCII);
+        exchange.sendResponseHeaders(summary.getRejected() == 0 ? 201 : 200, answer.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(answer);
+        }
+    }
+}
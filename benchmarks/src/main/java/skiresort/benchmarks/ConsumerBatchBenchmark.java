@@ -0,0 +1,161 @@
+package skiresort.benchmarks;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.util.RedisOutputStream;
+import redis.clients.util.SafeEncoder;
+import skiresort.common.LiftRide;
+import skiresort.common.WireFormat;
+import skiresort.common.workload.LiftRideWorkload;
+import skiresort.common.workload.SkewedWorkload;
+import skiresort.consumer.RedisAggregateWriter;
+import skiresort.consumer.RideAggregator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a consumer batch of 50 messages into Redis pipeline commands, per ride, with no
+ * network: the pipeline encodes every command into the Redis protocol as Jedis would and
+ * throws the bytes away. {@code processBatch} is the original consumer, which decoded JSON
+ * with Gson and sent two HSETs and an HINCRBY per ride; {@code aggregate} decodes the binary
+ * wire format, folds the rides into a {@link RideAggregator} and writes it with
+ * {@link RedisAggregateWriter}. Commands per ride are printed at the end of each trial.
+ * Run with {@code -prof gc} for bytes allocated per ride.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConsumerBatchBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+    private static final int RIDES = 4096;
+
+    private final Gson gson = new Gson();
+    private final byte[][] jsonBodies = new byte[RIDES][];
+    private final byte[][] binaryBodies = new byte[RIDES][];
+    private final DiscardingPipeline pipeline = new DiscardingPipeline();
+    private final Jedis jedis = new Jedis() {
+        @Override
+        public Pipeline pipelined() {
+            return ConsumerBatchBenchmark.this.pipeline;  // Jedis has a pipeline field of its own
+        }
+    };
+    private final RedisAggregateWriter writer = new RedisAggregateWriter();
+    private final RideAggregator aggregate = new RideAggregator(BATCH_SIZE);
+    private int nextRide;
+    private long rides;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        LiftRideWorkload workload = new SkewedWorkload(42);
+        for (int i = 0; i < RIDES; i++) {
+            LiftRide ride = workload.ride(i);
+            jsonBodies[i] = WireFormat.JSON.encode(ride);
+            binaryBodies[i] = WireFormat.BINARY.encode(ride);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf(" %.2f commands per ride%n", pipeline.commands / (double) rides);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void processBatch() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            byte[] body = jsonBodies[nextRide++ & (RIDES - 1)];
+            LiftRide liftRide = gson.fromJson(new String(body, StandardCharsets.UTF_8), LiftRide.class);
+            String key = "skier:" + liftRide.getSkierID() + ":day:" + liftRide.getDayID();
+            pipeline.hset(key, "resortID", String.valueOf(liftRide.getResortID()));
+            pipeline.hset(key, "liftID", String.valueOf(liftRide.getLiftID()));
+            pipeline.hincrBy(key, "verticalHeight", liftRide.getLiftID() * 10L);
+        }
+        pipeline.sync();
+        rides += BATCH_SIZE;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void aggregate() {
+        aggregate.clear();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            int ride = nextRide++ & (RIDES - 1);
+            aggregate.add(WireFormat.BINARY.decode(binaryBodies[ride]), ride + 1);
+        }
+        writer.write(jedis, aggregate);
+        rides += BATCH_SIZE;
+    }
+
+    /**
+     * Encodes the commands the consumer uses exactly as a connected pipeline would, into a
+     * stream that discards them; sync() only flushes. The responses are never filled in.
+     */
+    static final class DiscardingPipeline extends Pipeline {
+        private final RedisOutputStream out = new RedisOutputStream(OutputStream.nullOutputStream());
+        long commands;
+
+        @Override
+        public Response<Long> hset(String key, String field, String value) {
+            return send(Protocol.Command.HSET, SafeEncoder.encode(key), SafeEncoder.encode(field), SafeEncoder.encode(value));
+        }
+
+        @Override
+        public Response<Long> hincrBy(String key, String field, long value) {
+            return send(Protocol.Command.HINCRBY, SafeEncoder.encode(key), SafeEncoder.encode(field), Protocol.toByteArray(value));
+        }
+
+        @Override
+        public Response<Long> append(byte[] key, byte[] value) {
+            return send(Protocol.Command.APPEND, key, value);
+        }
+
+        @Override
+        public Response<Long> pfadd(String key, String... elements) {
+            byte[][] args = new byte[elements.length + 1][];
+            args[0] = SafeEncoder.encode(key);
+            for (int i = 0; i < elements.length; i++) {
+                args[i + 1] = SafeEncoder.encode(elements[i]);
+            }
+            return send(Protocol.Command.PFADD, args);
+        }
+
+        @Override
+        public void sync() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Response<Long> send(Protocol.Command command, byte[]... args) {
+            Protocol.sendCommand(out, command, args);
+            commands++;
+            return null;
+        }
+    }
+}
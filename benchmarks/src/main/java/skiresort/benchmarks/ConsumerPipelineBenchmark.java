@@ -0,0 +1,150 @@
+package skiresort.benchmarks;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import skiresort.common.RideIdGenerator;
+import skiresort.common.WireFormat;
+import skiresort.common.workload.LiftRideWorkload;
+import skiresort.common.workload.SkewedWorkload;
+import skiresort.consumer.BatchMetrics;
+import skiresort.consumer.ConsumerPipeline;
+import skiresort.consumer.RedisAggregateWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Rides per second through {@link ConsumerPipeline} into a local redis-server, from delivery
+ * callback to ack. The benchmark thread plays the broker: it delivers to {@code CHANNELS} stub
+ * channels in turn, waiting whenever a channel has {@code PREFETCH_COUNT} deliveries unacked,
+ * so throughput is set by how fast acks come back. {@code redisDelayMicros} adds that much to
+ * every write, standing in for the round trip to a remote Redis; the callbacks never wait on it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsumerPipelineBenchmark {
+
+    private static final int CHANNELS = 16;
+    private static final int PREFETCH_COUNT = 50;
+    // Distinct messages delivered in turn
+    private static final int RIDES = 4096;
+    private static final int BATCH_SIZE = 50;
+
+    @Param({"0", "1000"})
+    public long redisDelayMicros;
+
+    @Param({"1", "4"})
+    public int redisWriters;
+
+    private RedisServer redis;
+    private JedisPool jedisPool;
+    private ConsumerPipeline pipeline;
+    private final DeliverCallback[] callbacks = new DeliverCallback[CHANNELS];
+    private final AtomicLong[] ackedTags = new AtomicLong[CHANNELS];
+    private final long[] nextTags = new long[CHANNELS];
+    private final AMQP.BasicProperties[] properties = new AMQP.BasicProperties[RIDES];
+    private final byte[][] bodies = new byte[RIDES][];
+    private int nextRide;
+    private final LongAdder nacks = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        jedisPool = new JedisPool("localhost", port);
+
+        RedisAggregateWriter redisWriter = new RedisAggregateWriter();
+        pipeline = new ConsumerPipeline(2, 4, redisWriters, 8192, BATCH_SIZE, 200, jedisPool, (jedis, aggregate) -> {
+            if (redisDelayMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(redisDelayMicros));
+            }
+            redisWriter.write(jedis, aggregate);
+        }, new BatchMetrics());
+        pipeline.start();
+        for (int i = 0; i < CHANNELS; i++) {
+            ackedTags[i] = new AtomicLong();
+            callbacks[i] = pipeline.deliverCallback(stubChannel(ackedTags[i]));
+        }
+
+        LiftRideWorkload workload = new SkewedWorkload(42);
+        RideIdGenerator rideIds = new RideIdGenerator(1);
+        for (int i = 0; i < RIDES; i++) {
+            bodies[i] = WireFormat.BINARY.encode(workload.ride(i));
+            properties[i] = new AMQP.BasicProperties.Builder()
+                    .contentType(WireFormat.BINARY.getContentType())
+                    .messageId(Long.toString(rideIds.nextId()))
+                    .build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pipeline.close(10_000);
+        System.out.println("Acks: " + pipeline.getAckCount() + ", nacks: " + nacks.sum()
+                + ", rides written: " + pipeline.getRideCount());
+        jedisPool.close();
+        redis.stop();
+    }
+
+    @Benchmark
+    public void deliver() throws IOException {
+        int ride = nextRide++ & (RIDES - 1);
+        int channel = ride % CHANNELS;
+        while (nextTags[channel] - ackedTags[channel].get() >= PREFETCH_COUNT) {
+            LockSupport.parkNanos(10_000);
+        }
+        Envelope envelope = new Envelope(++nextTags[channel], false, "", "lift_ride_queue");
+        callbacks[channel].handle("consumer", new Delivery(envelope, properties[ride], bodies[ride]));
+    }
+
+    // Records the highest tag settled, counting nacks separately
+    private Channel stubChannel(AtomicLong ackedTag) {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "basicAck" -> {
+                        ackedTag.accumulateAndGet((Long) args[0], Math::max);
+                        yield null;
+                    }
+                    case "basicNack" -> {
+                        nacks.increment();
+                        ackedTag.accumulateAndGet((Long) args[0], Math::max);
+                        yield null;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "StubChannel";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
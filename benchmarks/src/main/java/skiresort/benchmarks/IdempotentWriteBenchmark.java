@@ -0,0 +1,92 @@
+package skiresort.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.embedded.RedisServer;
+import skiresort.common.RideIdGenerator;
+import skiresort.consumer.AggregateWriter;
+import skiresort.consumer.IdempotentRedisWriter;
+import skiresort.consumer.RedisAggregateWriter;
+import skiresort.consumer.RideAggregator;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing one consumer batch (50 rides, as LiftRideConsumer's BATCH_SIZE) through the
+ * plain pipeline against the idempotent Lua script, against a local redis-server started by
+ * the benchmark. {@code redelivered} replays the same ride IDs, so every ride is a duplicate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IdempotentWriteBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+
+    @Param({"pipeline", "idempotent", "redelivered"})
+    public String writer;
+
+    private RedisServer redis;
+    private Jedis jedis;
+    private AggregateWriter aggregateWriter;
+    private final RideIdGenerator rideIds = new RideIdGenerator(1);
+    private final RideAggregator aggregate = new RideAggregator(BATCH_SIZE);
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        // One held connection, as each of the consumer's Redis writer threads has
+        jedis = new Jedis("localhost", port);
+        aggregateWriter = writer.equals("pipeline")
+                ? new RedisAggregateWriter()
+                : new IdempotentRedisWriter(TimeUnit.MINUTES.toMillis(5));
+        fillBatch();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        jedis.close();
+        redis.stop();
+    }
+
+    @Benchmark
+    public void writeBatch() throws Exception {
+        if (!writer.equals("redelivered")) {
+            fillBatch();
+        }
+        aggregateWriter.write(jedis, aggregate);
+    }
+
+    // Uniform skiers as in the clients' generator, each ride with a fresh ID
+    private void fillBatch() {
+        aggregate.clear();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            aggregate.add(1 + random.nextInt(100000), 1 + random.nextInt(10), 2024, 1,
+                    1 + random.nextInt(40), 1 + random.nextInt(360), rideIds.nextId());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package skiresort.benchmarks;
+
+import org.HdrHistogram.Histogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import skiresort.common.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client run's latency bookkeeping, from recording every request to the summary the client
+ * prints in {@code calculateLatencyStatistics}: the original boxed {@code synchronizedList}
+ * sorted at the end, against {@link LatencyRecorder}. One op is a whole run of
+ * {@code requests} log-normal latencies around 20 ms. Run with {@code -prof gc}: the list
+ * allocates per request, the recorder only once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LatencyStatisticsBenchmark {
+
+    @Param({"200000"})
+    public int requests;
+
+    private long[] latencies;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        latencies = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            latencies[i] = (long) (TimeUnit.MILLISECONDS.toNanos(20) * Math.exp(random.nextGaussian() * 0.5));
+        }
+    }
+
+    @Benchmark
+    public double sortedList() {
+        List<Long> recorded = Collections.synchronizedList(new ArrayList<>());
+        for (long latency : latencies) {
+            recorded.add(TimeUnit.NANOSECONDS.toMillis(latency));
+        }
+
+        List<Long> sorted = recorded.stream().sorted().toList();
+        long sum = sorted.stream().mapToLong(Long::longValue).sum();
+        double mean = sum / (double) sorted.size();
+        long median = sorted.get(sorted.size() / 2);
+        long p99 = sorted.get((int) (sorted.size() * 0.99));
+        return mean + median + p99 + sorted.get(0) + sorted.get(sorted.size() - 1);
+    }
+
+    @Benchmark
+    public double latencyRecorder() {
+        LatencyRecorder recorder = new LatencyRecorder(TimeUnit.MINUTES.toNanos(10));
+        for (long latency : latencies) {
+            recorder.recordNanos(latency);
+        }
+
+        Histogram total = recorder.total();
+        return total.getMean() + total.getValueAtPercentile(50) + total.getValueAtPercentile(99)
+                + total.getValueAtPercentile(99.9) + total.getMinValue() + total.getMaxValue();
+    }
+}
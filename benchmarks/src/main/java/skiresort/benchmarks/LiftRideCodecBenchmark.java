@@ -0,0 +1,68 @@
+package skiresort.benchmarks;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import skiresort.common.LiftRide;
+import skiresort.common.LiftRideJsonCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LiftRide JSON encoding and decoding: {@link LiftRideJsonCodec} against Gson used the way the
+ * clients and the consumer used it ({@code new Gson().toJson(ride)} per request, and
+ * {@code gson.fromJson} on a String copied out of the message body).
+ * Run with {@code -prof gc} for bytes allocated per op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LiftRideCodecBenchmark {
+
+    private final Gson gson = new Gson();
+    private final LiftRide ride = new LiftRide(45678, 7, 23, "2024", "123", 217);
+    private final byte[] buffer = new byte[LiftRideJsonCodec.MAX_ENCODED_LENGTH];
+    private byte[] message;
+
+    @Setup
+    public void setup() {
+        message = gson.toJson(ride).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int encodeCodec() {
+        return LiftRideJsonCodec.encode(ride, buffer, 0);
+    }
+
+    @Benchmark
+    public byte[] encodeGson() {
+        return gson.toJson(ride).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encodeNewGsonPerRequest() {
+        return new Gson().toJson(ride).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public LiftRide decodeCodec() {
+        return LiftRideJsonCodec.decode(message);
+    }
+
+    @Benchmark
+    public LiftRide decodeGson() {
+        return gson.fromJson(new String(message, StandardCharsets.UTF_8), LiftRide.class);
+    }
+}
@@ -0,0 +1,73 @@
+package skiresort.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import skiresort.common.LatencyRecorder;
+import skiresort.common.metrics.SampledLogger;
+import skiresort.common.metrics.StatusCounts;
+
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
+
+/**
+ * What instrumenting a hot path costs per event, with four threads recording at once: a
+ * latency into a {@link LatencyRecorder}, a response into {@link StatusCounts}, and the
+ * consumer's per-batch log line written every time (to a discarding stream, so only the
+ * formatting and handler locking count) against the same line through a {@link SampledLogger}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    private final LatencyRecorder latencies = new LatencyRecorder(TimeUnit.MINUTES.toNanos(1));
+    private final StatusCounts statuses = new StatusCounts();
+    private final Logger logger = Logger.getLogger(MetricsBenchmark.class.getName());
+    private final SampledLogger sampled = new SampledLogger(logger, Level.INFO, 10_000);
+
+    @Setup
+    public void setup() {
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new StreamHandler(OutputStream.nullOutputStream(), new SimpleFormatter()));
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        latencies.recordNanos(ThreadLocalRandom.current().nextLong(100_000, 5_000_000));
+    }
+
+    @Benchmark
+    public void recordStatus() {
+        statuses.record(201);
+    }
+
+    @Benchmark
+    public void logEveryBatch() {
+        int rides = ThreadLocalRandom.current().nextInt(1, 51);
+        logger.info("Processed batch of " + rides + " messages as " + rides + " keys.");
+    }
+
+    @Benchmark
+    public void logSampled() {
+        int rides = ThreadLocalRandom.current().nextInt(1, 51);
+        sampled.log(() -> "Processed batch of " + rides + " messages as " + rides + " keys.");
+    }
+}
@@ -0,0 +1,108 @@
+package skiresort.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import skiresort.server.CachedSkierStore;
+import skiresort.server.ReadThroughCacheMBean;
+import skiresort.server.SkierStore;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * GET latency with and without the read-through cache, against an in-memory stand-in for Redis
+ * that charges a fixed round trip per lookup. Sixteen threads read the day vertical of a small
+ * set of hot skiers, so concurrent misses on one key are common. The store lookups per request
+ * and the cache hit rate are printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadThroughCacheBenchmark {
+
+    /**
+     * Answers every query after sleeping for one simulated Redis round trip.
+     */
+    static final class StandInStore implements SkierStore {
+        final LongAdder lookups = new LongAdder();
+        final long roundTripNanos;
+
+        StandInStore(long roundTripNanos) {
+            this.roundTripNanos = roundTripNanos;
+        }
+
+        @Override
+        public long getDayVertical(int resortID, int seasonID, int dayID, int skierID) {
+            lookups.increment();
+            LockSupport.parkNanos(roundTripNanos);
+            return skierID * 10L;
+        }
+
+        @Override
+        public long getSeasonVertical(int skierID, int resortID, int seasonID) {
+            return getDayVertical(resortID, seasonID, 1, skierID);
+        }
+
+        @Override
+        public Map<Integer, Long> getSeasonVerticals(int skierID, int resortID) {
+            return Map.of(2024, getDayVertical(resortID, 2024, 1, skierID));
+        }
+
+        @Override
+        public long getUniqueSkiers(int resortID, int seasonID, int dayID) {
+            return getDayVertical(resortID, seasonID, dayID, 0);
+        }
+    }
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    @Param({"100"})
+    public int hotSkiers;
+
+    private StandInStore standIn;
+    private SkierStore store;
+    private final LongAdder requests = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        standIn = new StandInStore(TimeUnit.MICROSECONDS.toNanos(200));
+        store = cached ? new CachedSkierStore(standIn, 10_000, 50) : standIn;
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.printf("%nstore lookups per request: %.4f%n", standIn.lookups.sum() / (double) requests.sum());
+        if (store instanceof CachedSkierStore) {
+            ReadThroughCacheMBean stats = ((CachedSkierStore) store).getDayVerticalStats();
+            System.out.printf("hit rate: %.4f (hits %d, coalesced %d, misses %d)%n", stats.getHitRate(),
+                    stats.getHitCount(), stats.getCoalescedCount(), stats.getMissCount());
+        }
+    }
+
+    @Benchmark
+    public long dayVertical() {
+        requests.increment();
+        int skierID = 1 + ThreadLocalRandom.current().nextInt(hotSkiers);
+        return store.getDayVertical(1, 2024, 1, skierID);
+    }
+}
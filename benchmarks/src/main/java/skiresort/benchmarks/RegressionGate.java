@@ -0,0 +1,130 @@
+package skiresort.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result ({@code -rf json}) with a stored baseline and exits with status 1
+ * if any benchmark got slower, or allocates more per op ({@code -prof gc}), by more than the
+ * allowed share. Throughput scores regress when they drop, time scores when they rise, and
+ * only once the two runs' 99.9% confidence intervals no longer overlap, because timings on a
+ * busy machine move by more than the threshold between identical runs. Allocation per op is
+ * deterministic and is compared directly.
+ * Benchmarks are matched by name and parameters; ones only in the baseline or only in the
+ * result are listed but never fail the gate.
+ * <p>
+ * Usage: {@code RegressionGate <baseline.json> <result.json> [--max-slowdown 0.15]
+ * [--max-alloc-growth 0.05]}. The baseline has to come from the same machine and JMH options,
+ * see {@code benchmarks/gate.sh}.
+ */
+public class RegressionGate {
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+    // Allocation differences below this many bytes per op are noise (e.g. JMH's own blackholes)
+    private static final double ALLOCATION_SLACK_BYTES = 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: RegressionGate <baseline.json> <result.json> [--max-slowdown 0.15] [--max-alloc-growth 0.05]");
+            System.exit(2);
+        }
+        double maxSlowdown = 0.15;
+        double maxAllocGrowth = 0.05;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--max-slowdown" -> maxSlowdown = Double.parseDouble(args[i + 1]);
+                case "--max-alloc-growth" -> maxAllocGrowth = Double.parseDouble(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Map<String, Score> baseline = read(Path.of(args[0]));
+        Map<String, Score> result = read(Path.of(args[1]));
+        int regressions = 0;
+        System.out.printf("%-64s %14s %14s %8s %12s %12s%n", "benchmark", "baseline", "now", "change", "B/op before", "B/op now");
+        for (Map.Entry<String, Score> entry : result.entrySet()) {
+            Score now = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-64s %14s %14.3f %8s  (new, not gated)%n", entry.getKey(), "-", now.score, "");
+                continue;
+            }
+            // Positive when worse, whichever direction is better for this mode
+            double slowdown = now.higherIsBetter()
+                    ? (before.score - now.score) / before.score
+                    : (now.score - before.score) / before.score;
+            boolean slower = slowdown > maxSlowdown && !now.overlaps(before);
+            boolean allocates = !Double.isNaN(before.allocation) && !Double.isNaN(now.allocation)
+                    && now.allocation - before.allocation > Math.max(ALLOCATION_SLACK_BYTES, before.allocation * maxAllocGrowth);
+            System.out.printf("%-64s %14.3f %14.3f %+7.1f%% %12s %12s%s%n", entry.getKey(), before.score, now.score,
+                    -100 * slowdown, bytes(before.allocation), bytes(now.allocation),
+                    slower && allocates ? "  SLOWER, ALLOCATES MORE" : slower ? "  SLOWER" : allocates ? "  ALLOCATES MORE" : "");
+            if (slower || allocates) {
+                regressions++;
+            }
+        }
+        for (String name : baseline.keySet()) {
+            if (!result.containsKey(name)) {
+                System.out.printf("%-64s  (in the baseline only, not run)%n", name);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed beyond " + Math.round(maxSlowdown * 100)
+                    + "% time or " + Math.round(maxAllocGrowth * 100) + "% allocation.");
+            System.exit(1);
+        }
+        System.out.println("No regressions.");
+    }
+
+    private static String bytes(double allocation) {
+        return Double.isNaN(allocation) ? "-" : String.format("%.0f", allocation);
+    }
+
+    // Scores by benchmark name plus its parameters, e.g. WorkloadBenchmark.workload{workload=skewed}
+    private static Map<String, Score> read(Path file) throws IOException {
+        JsonArray runs;
+        try (Reader reader = Files.newBufferedReader(file)) {
+            runs = JsonParser.parseReader(reader).getAsJsonArray();
+        }
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonElement element : runs) {
+            JsonObject run = element.getAsJsonObject();
+            String name = run.get("benchmark").getAsString().replace("skiresort.benchmarks.", "");
+            if (run.has("params")) {
+                Map<String, String> params = new TreeMap<>();
+                run.getAsJsonObject("params").entrySet().forEach(param -> params.put(param.getKey(), param.getValue().getAsString()));
+                name += params;
+            }
+            JsonObject secondary = run.getAsJsonObject("secondaryMetrics");
+            double allocation = secondary != null && secondary.has(ALLOCATION)
+                    ? secondary.getAsJsonObject(ALLOCATION).get("score").getAsDouble()
+                    : Double.NaN;
+            JsonObject primary = run.getAsJsonObject("primaryMetric");
+            JsonElement error = primary.get("scoreError");
+            scores.put(name, new Score(run.get("mode").getAsString(), primary.get("score").getAsDouble(),
+                    error.isJsonPrimitive() && error.getAsJsonPrimitive().isNumber() ? error.getAsDouble() : 0, allocation));
+        }
+        return scores;
+    }
+
+    private record Score(String mode, double score, double error, double allocation) {
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+
+        boolean overlaps(Score other) {
+            return Math.abs(score - other.score) <= error + other.error;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package skiresort.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import skiresort.client.FailureReporter;
+import skiresort.client.RetryPolicy;
+import skiresort.client.RetryingSender;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Goodput of 64 closed-loop senders against an overloaded stub server, retrying immediately
+ * (as the client used to) or with {@link RetryPolicy}'s backoff, budget and breaker. The stub
+ * has {@code SERVER_WORKERS} workers that take {@code SERVICE_MICROS} per ride; once
+ * {@code MAX_QUEUE} requests wait for a worker it answers 503, and even that costs a worker
+ * {@code REJECT_MICROS}. Another {@code FAULT_RATE} of requests fail with 500. The
+ * {@code delivered} counter is the goodput; the primary score also counts rides given up on.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 4, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class RetryPolicyBenchmark {
+
+    private static final int SERVER_WORKERS = 8;
+    private static final int MAX_QUEUE = 16;
+    private static final long SERVICE_MICROS = 2000;
+    private static final long REJECT_MICROS = 500;
+    private static final double FAULT_RATE = 0.01;
+
+    @Param({"immediate", "adaptive"})
+    public String policy;
+
+    private HttpServer server;
+    private ThreadPoolExecutor workers;
+    private RetryingSender sender;
+    private HttpRequest request;
+    private final LongAdder served = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder faults = new LongAdder();
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Rides {
+        public long delivered;
+        public long failed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            delivered = 0;
+            failed = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workers = new ThreadPoolExecutor(SERVER_WORKERS, SERVER_WORKERS, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setExecutor(workers);
+        server.createContext("/skiers", this::handle);
+        server.start();
+
+        RetryPolicy retryPolicy = policy.equals("immediate")
+                ? RetryPolicy.immediate(5)
+                : new RetryPolicy(5, 50, 2000, 0.2, 100, 50, 1000);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        sender = new RetryingSender(client, retryPolicy, new FailureReporter(1000, line -> {}));
+        request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + server.getAddress().getPort() + "/skiers"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"skierID\":1,\"resortID\":1,\"liftID\":1,\"seasonID\":\"2024\",\"dayID\":\"1\",\"time\":1}"))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        workers.shutdownNow();
+        System.out.println("Server: " + served.sum() + " served, " + rejected.sum() + " rejected, " + faults.sum()
+                + " faults; client: " + sender.getAttemptCount() + " attempts, " + sender.getRetryCount() + " retries, "
+                + "circuit opened " + sender.getCircuitOpenCount() + " times");
+    }
+
+    @Benchmark
+    public void sendRide(Rides rides) throws InterruptedException {
+        if (sender.send(request)) {
+            rides.delivered++;
+        } else {
+            rides.failed++;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        int status;
+        if (workers.getQueue().size() >= MAX_QUEUE) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(REJECT_MICROS));
+            rejected.increment();
+            status = 503;
+        } else if (ThreadLocalRandom.current().nextDouble() < FAULT_RATE) {
+            faults.increment();
+            status = 500;
+        } else {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(SERVICE_MICROS));
+            served.increment();
+            status = 201;
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+}
@@ -0,0 +1,58 @@
+package skiresort.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import skiresort.common.LiftRide;
+import skiresort.common.WireFormat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message size and encode/decode throughput of the JSON and binary lift ride wire formats.
+ * The encoded size of each format is printed at the end of its trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WireFormatBenchmark {
+
+    @Param({"JSON", "BINARY"})
+    public WireFormat format;
+
+    private final LiftRide ride = new LiftRide(45678, 7, 23, "2024", "123", 217);
+    private byte[] message;
+
+    @Setup
+    public void setup() {
+        message = format.encode(ride);
+    }
+
+    @TearDown(Level.Trial)
+    public void reportSize() {
+        System.out.println(format + " message size: " + message.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return format.encode(ride);
+    }
+
+    @Benchmark
+    public LiftRide decode() {
+        return format.decode(message);
+    }
+}
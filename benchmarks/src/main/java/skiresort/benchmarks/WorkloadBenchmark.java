@@ -0,0 +1,82 @@
+package skiresort.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import skiresort.common.LiftRide;
+import skiresort.common.workload.LiftRideWorkload;
+import skiresort.common.workload.SkewedWorkload;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one lift ride from each workload, against the clients' old ThreadLocalRandom
+ * generator. The replay workload reads 100,000 rides exported from the skewed one.
+ * Run with {@code -prof gc}: only the LiftRide itself should be allocated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorkloadBenchmark {
+
+    @Param({"uniform", "skewed", "replay"})
+    public String workload;
+
+    private LiftRideWorkload rides;
+    private Path replayFile;
+    private long index;
+
+    @Setup
+    public void setup() throws IOException {
+        String argument = workload;
+        if (workload.equals("replay")) {
+            replayFile = Files.createTempFile("rides", ".csv");
+            SkewedWorkload skewed = new SkewedWorkload(42);
+            try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(replayFile))) {
+                for (int i = 0; i < 100000; i++) {
+                    LiftRide ride = skewed.ride(i);
+                    csv.println(ride.getSkierID() + "," + ride.getResortID() + "," + ride.getLiftID() + ","
+                            + ride.getSeasonID() + "," + ride.getDayID() + "," + ride.getTime());
+                }
+            }
+            argument = "replay:" + replayFile;
+        }
+        rides = LiftRideWorkload.fromArgument(argument, 42);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (replayFile != null) {
+            Files.delete(replayFile);
+        }
+    }
+
+    @Benchmark
+    public LiftRide workload() {
+        return rides.ride(index++);
+    }
+
+    @Benchmark
+    public LiftRide threadLocalRandom() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new LiftRide(random.nextInt(1, 100001), random.nextInt(1, 11), random.nextInt(1, 41),
+                "2024", "1", random.nextInt(1, 361));
+    }
+}
@@ -0,0 +1,129 @@
+package skiresort.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.embedded.RedisServer;
+import skiresort.common.LiftRide;
+import skiresort.common.RideIdGenerator;
+import skiresort.common.workload.LiftRideWorkload;
+import skiresort.common.workload.SkewedWorkload;
+import skiresort.consumer.AggregateWriter;
+import skiresort.consumer.RedisAggregateWriter;
+import skiresort.consumer.RideAggregator;
+import skiresort.consumer.WriteBehindWriter;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumer batches of 50 skewed rides (Zipf-distributed skiers, see {@link SkewedWorkload})
+ * written straight to a local redis-server, against write-behind with a flush every 100 ms or
+ * 1 s. Each iteration prints the Redis commands sent per ride so far and, for write-behind,
+ * the lag from a ride being logged to its flush completing. Write-behind pays a log fsync per batch
+ * instead of a Redis round trip, so the score mostly shows how fast the log's disk is.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteBehindBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+
+    @Param({"direct", "writeBehind100", "writeBehind1000"})
+    public String writer;
+
+    private RedisServer redis;
+    private JedisPool jedisPool;
+    private Jedis jedis;
+    private Path logDirectory;
+    private RedisAggregateWriter redisWriter;
+    private AggregateWriter aggregateWriter;
+    private WriteBehindWriter writeBehind;
+    private final LiftRideWorkload workload = new SkewedWorkload(42);
+    private final RideIdGenerator rideIds = new RideIdGenerator(1);
+    private final RideAggregator aggregate = new RideAggregator(BATCH_SIZE);
+    private long nextRide;
+    private long rides;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        jedisPool = new JedisPool("localhost", port);
+        jedis = jedisPool.getResource();
+
+        redisWriter = new RedisAggregateWriter();
+        aggregateWriter = redisWriter;
+        if (writer.startsWith("writeBehind")) {
+            long flushMillis = Long.parseLong(writer.substring("writeBehind".length()));
+            logDirectory = Files.createTempDirectory("write-behind");
+            writeBehind = new WriteBehindWriter(logDirectory, redisWriter, jedisPool, flushMillis, 1_000_000, Long.MAX_VALUE);
+            writeBehind.start();
+            aggregateWriter = writeBehind;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        if (writeBehind == null) {
+            System.out.printf(" %.2f commands per ride%n", redisWriter.getCommandCount() / (double) rides);
+        } else {
+            System.out.printf(" %.2f commands per ride, %.2f entries per ride in the batches, %.2f per flush;"
+                            + " lag %.0f ms average, %.0f ms max%n",
+                    redisWriter.getCommandCount() / (double) writeBehind.getFlushedRideCount(),
+                    writeBehind.getBatchKeyCount() / (double) rides,
+                    writeBehind.getFlushedKeyCount() / (double) writeBehind.getFlushedRideCount(),
+                    writeBehind.getAverageLagMillis(), writeBehind.getMaxLagMillis());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (writeBehind != null) {
+            writeBehind.close();
+            try (var logs = Files.list(logDirectory)) {
+                System.out.println(" logs left after close: " + logs.count());
+            }
+            Files.deleteIfExists(logDirectory);
+        }
+        jedis.close();
+        jedisPool.close();
+        redis.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void writeBatch() throws Exception {
+        aggregate.clear();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            LiftRide ride = workload.ride(nextRide++);
+            aggregate.add(ride, rideIds.nextId());
+        }
+        aggregateWriter.write(jedis, aggregate);
+        rides += BATCH_SIZE;
+    }
+}